@@ -29,6 +29,7 @@ public class HeatStressRouting {
 		// Tests.runOptimalTimeEvaluation();
 		// Tests.runRoutingEvaluatorSetting1();
 		// Tests.runRoutingEvaluatorSetting2();
+		// Tests.runAlgorithmBenchmark();
 
 	}
 
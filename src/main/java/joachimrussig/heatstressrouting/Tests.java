@@ -19,6 +19,7 @@ import com.graphhopper.util.shapes.GHPoint;
 import joachimrussig.heatstressrouting.evaluation.optimaltime.OptimalTimeEvaluationItem;
 import joachimrussig.heatstressrouting.evaluation.optimaltime.OptimalTimeEvaluationItemsFactory;
 import joachimrussig.heatstressrouting.evaluation.optimaltime.OptimalTimeEvaluator;
+import joachimrussig.heatstressrouting.evaluation.routing.AlgorithmBenchmark;
 import joachimrussig.heatstressrouting.evaluation.routing.RoutingEvaluator;
 import joachimrussig.heatstressrouting.routing.RoutingHelper;
 import joachimrussig.heatstressrouting.routing.RoutingRequest;
@@ -93,6 +94,27 @@ public class Tests {
 		}
 	}
 
+	static void runAlgorithmBenchmark() {
+		// compares the bidirectional Dijkstra with A* and bidirectional A*
+		// using 16 landmarks for 100 random queries
+		AlgorithmBenchmark benchmark = new AlgorithmBenchmark();
+		try {
+			benchmark.setOsmFile(new File(HeatStressRouting.OSM_FILE));
+			benchmark.setWeatherDataFile(
+					new File(HeatStressRouting.WEATHER_DATA));
+			benchmark.setWaySegmentsFile(
+					new File(HeatStressRouting.WAY_SEGMENT_WEIGHTS));
+			benchmark.setWeights(0.25, 0.75);
+			benchmark.setLandmarks(16);
+			benchmark.init();
+			benchmark.setSeed(2375737176707274901L);
+			benchmark.randomQueries(100);
+			benchmark.run();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	static void runOptimalTimeEvaluation() {
 		OptimalTimeEvaluator evaluator = new OptimalTimeEvaluator();
 		evaluator.setOsmFile(new File(HeatStressRouting.OSM_FILE));
@@ -0,0 +1,37 @@
+package joachimrussig.heatstressrouting;
+
+import java.io.File;
+import java.io.IOException;
+
+import joachimrussig.heatstressrouting.waysegments.MappedWaySegmentParser;
+import joachimrussig.heatstressrouting.waysegments.MappedWaySegmentStore;
+import joachimrussig.heatstressrouting.waysegments.WaySegmentParser;
+import joachimrussig.heatstressrouting.waysegments.WaySegmentStore;
+
+/**
+ * Converts a way segment CSV file (e.g. the {@code weighted_lines.csv}) to the
+ * binary format of the {@link MappedWaySegmentStore}, that is loaded without
+ * parsing (see {@link WaySegmentParser#parse(File)}).
+ * <p>
+ * Usage: {@code WaySegmentConverter [csv file] [binary file]}; by default the
+ * {@link HeatStressRouting#WAY_SEGMENT_WEIGHTS} file is converted to a file
+ * with the suffix {@code .bin} next to it.
+ * 
+ * @author Joachim Rußig
+ */
+public class WaySegmentConverter {
+
+	public static final String BINARY_SUFFIX = ".bin";
+
+	public static void main(String[] args) throws IOException {
+		File csvFile = new File(args.length > 0 ? args[0]
+				: HeatStressRouting.WAY_SEGMENT_WEIGHTS);
+		File binaryFile = new File(args.length > 1 ? args[1]
+				: csvFile.getPath() + BINARY_SUFFIX);
+
+		WaySegmentStore store = new MappedWaySegmentParser()
+				.parseStore(csvFile);
+		MappedWaySegmentStore.write(store, binaryFile);
+	}
+
+}
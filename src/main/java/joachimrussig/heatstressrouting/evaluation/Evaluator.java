@@ -17,6 +17,7 @@ import com.graphhopper.util.StopWatch;
 import joachimrussig.heatstressrouting.osmdata.OSMData;
 import joachimrussig.heatstressrouting.osmdata.OSMFileReader;
 import joachimrussig.heatstressrouting.routing.HeatStressGraphHopper;
+import joachimrussig.heatstressrouting.routing.speedup.SpeedUpMode;
 import joachimrussig.heatstressrouting.waysegments.WaySegmentParser;
 import joachimrussig.heatstressrouting.waysegments.WaySegments;
 import joachimrussig.heatstressrouting.weatherdata.WeatherData;
@@ -147,7 +148,7 @@ public abstract class Evaluator {
 				.parse(this.waySegmentsFile);
 		this.waySegments = segments;
 
-		logger.info("done (" + waySegments.getSegments().size() + " segments, "
+		logger.info("done (" + waySegments.size() + " segments, "
 				+ sw2.stop().getTime() + " ms )");
 	}
 
@@ -164,6 +165,10 @@ public abstract class Evaluator {
 		hopper.setWeatherData(this.weatherData);
 		if (waySegments != null)
 			hopper.setSegments(this.waySegments);
+		// the evaluation requires the exact weights for each point in time
+		hopper.setEdgeWeightCache(null, 0);
+		hopper.setHeatIndexTable(null);
+		hopper.setSpeedUpMode(SpeedUpMode.NONE);
 		hopper.importOrLoad();
 
 		logger.info("CHEnabled = " + hopper.isCHEnabled() + ", getNodes = "
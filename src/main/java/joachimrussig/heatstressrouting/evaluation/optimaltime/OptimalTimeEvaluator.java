@@ -13,12 +13,10 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalLong;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.time.StopWatch;
 import org.jooq.lambda.Seq;
-import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.slf4j.Logger;
@@ -39,9 +37,10 @@ import joachimrussig.heatstressrouting.optimaltime.nearbysearch.NearbySearchResu
 import joachimrussig.heatstressrouting.optimaltime.nearbysearch.ScoreFunction;
 import joachimrussig.heatstressrouting.optimaltime.nearbysearch.ThermalComfortScoreFunction;
 import joachimrussig.heatstressrouting.optimaltime.nearbysearch.WeightedSumScoreFunction;
-import joachimrussig.heatstressrouting.osmdata.EntityFilter;
+import joachimrussig.heatstressrouting.osmdata.NodeSet;
 import joachimrussig.heatstressrouting.osmdata.OSMOpeningHours;
 import joachimrussig.heatstressrouting.osmdata.OSMUtils;
+import joachimrussig.heatstressrouting.osmdata.TagIndex;
 import joachimrussig.heatstressrouting.routing.HeatStressGraphHopper;
 import joachimrussig.heatstressrouting.routing.RoutingHelper;
 import joachimrussig.heatstressrouting.routing.weighting.WeightingType;
@@ -291,9 +290,8 @@ public class OptimalTimeEvaluator extends Evaluator {
 		NearbySearch nearbySearch = new NearbySearch(finder, scoreFunction);
 		nearbySearch.setMaxDistance(maxDistance);
 
-		Predicate<Entity> nodeFilter = EntityFilter
-				.containsAnyTag(item.getTargetTags())
-				.and(EntityFilter::hasOpeningHours);
+		NodeSet places = finder.getOsmData().getTagIndex()
+				.getNodes(item.getTargetTags());
 
 		GHPoint start = OSMUtils.getGHPoint(item.start);
 
@@ -312,7 +310,7 @@ public class OptimalTimeEvaluator extends Evaluator {
 
 		int maxResults = item.maxResults != null ? item.maxResults
 				: this.getNearbySearchMaxResults();
-		List<NearbySearchResult> results = nearbySearch.find(start, nodeFilter,
+		List<NearbySearchResult> results = nearbySearch.find(start, places,
 				item.now, maxResults);
 
 		RoutingHelper helper = finder.getRoutingHelper();
@@ -344,9 +342,9 @@ public class OptimalTimeEvaluator extends Evaluator {
 	private List<OptimalTimeResultItem> getReferenceResultItem(
 			OptimalTimeEvaluationItem item) {
 
-		Predicate<Entity> nodeFilter = EntityFilter
-				.containsAnyTag(item.getTargetTags())
-				.and(EntityFilter::hasOpeningHours);
+		TagIndex tagIndex = osmData.getTagIndex();
+		NodeSet targets = tagIndex.getNodes(item.getTargetTags())
+				.and(tagIndex.getOpeningHours());
 
 		GHPoint start = OSMUtils.getGHPoint(item.start);
 
@@ -356,7 +354,7 @@ public class OptimalTimeEvaluator extends Evaluator {
 				: this.maxDistance;
 
 		List<Node> places = osmData.kNearestNeighbor(start, maxResults, maxDist,
-				nodeFilter);
+				targets);
 
 		RoutingHelper helper = new RoutingHelper(hopper);
 
@@ -0,0 +1,275 @@
+package joachimrussig.heatstressrouting.evaluation.routing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.GHRequest;
+import com.graphhopper.GHResponse;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.util.FlagEncoderFactory;
+import com.graphhopper.routing.util.HintsMap;
+import com.graphhopper.util.Parameters;
+import com.graphhopper.util.StopWatch;
+import com.graphhopper.util.shapes.GHPoint;
+
+import joachimrussig.heatstressrouting.evaluation.Evaluator;
+import joachimrussig.heatstressrouting.routing.RoutingHelper;
+import joachimrussig.heatstressrouting.routing.weighting.WeightingType;
+
+/**
+ * Compares the number of visited nodes and the latency of the routing
+ * algorithms for all {@link WeightingType}s, i.e. the bidirectional Dijkstra
+ * with A* and bidirectional A* using the landmarks of the hopper (see
+ * {@link joachimrussig.heatstressrouting.routing.speedup.LowerBoundLandmarks}).
+ * The weights of the routes found by A* are checked against the bidirectional
+ * Dijkstra.
+ *
+ * @author Joachim Rußig
+ */
+public class AlgorithmBenchmark extends Evaluator {
+
+	private static final List<String> ALGORITHMS = Arrays.asList(
+			Parameters.Algorithms.DIJKSTRA_BI, Parameters.Algorithms.ASTAR,
+			Parameters.Algorithms.ASTAR_BI);
+
+	// the relative difference of the weights up to which two routes are
+	// considered equally good
+	private static final double TOLERANCE = 1e-6;
+
+	private final Logger logger = LoggerFactory
+			.getLogger(AlgorithmBenchmark.class);
+
+	private boolean initialized = false;
+
+	private int landmarks = RoutingHelper.DEFAULT_LANDMARKS;
+	private double weightDistance = 0.5;
+	private double weightThermalComfort = 0.5;
+
+	private List<Node> starts = null;
+	private List<Node> destinations = null;
+	private List<LocalDateTime> times = null;
+
+	private final Map<String, Result> results = new LinkedHashMap<>();
+
+	private String encoder = FlagEncoderFactory.FOOT;
+
+	@Override
+	public void init() throws IOException {
+		logger.info("start initialisation");
+		StopWatch sw = new StopWatch().start();
+
+		if (ghLocation == null)
+			this.ghLocation = Files.createTempDirectory("graph_hopper");
+
+		if (osmFile == null)
+			throw new IllegalStateException("no OSM file specified");
+
+		if (weatherDataFile == null)
+			throw new IllegalStateException("no weather data file specified");
+
+		if (waySegmentsFile == null)
+			throw new IllegalStateException("no edge segment file specified");
+
+		loadOSMData();
+		loadWeatherData();
+		loadEdgeSegments();
+		loadHeatStressGraphHopper();
+
+		hopper.setWeights(this.weightDistance, this.weightThermalComfort);
+		hopper.setLandmarks(this.landmarks);
+		prepareLandmarks();
+
+		this.initialized = true;
+
+		logger.info("finished initialisation in " + sw.stop().getTime()
+				+ " ms");
+	}
+
+	/**
+	 * Waits for the landmarks of all weightings, so the preparation isn't
+	 * part of the measured latency.
+	 */
+	private void prepareLandmarks() throws IOException {
+		logger.info("prepare landmarks...");
+		StopWatch sw = new StopWatch().start();
+
+		FlagEncoder flagEncoder = hopper.getEncodingManager()
+				.getEncoder(this.encoder);
+		LocalDateTime time = weatherData.getWeatherRecords().firstKey();
+		for (WeightingType type : WeightingType.values()) {
+			HintsMap hints = new HintsMap(type.toString()).put("time",
+					time.toString());
+			try {
+				if (!hopper.getLandmarks()
+						.await(hopper.createWeighting(hints, flagEncoder))
+						.isPresent())
+					logger.warn("no landmarks for " + type);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while preparing landmarks",
+						e);
+			}
+		}
+
+		logger.info("done (" + sw.stop().getTime() + " ms)");
+	}
+
+	@Override
+	public void run() throws IOException {
+		if (!initialized)
+			init();
+
+		if (starts == null || destinations == null || times == null)
+			throw new IllegalStateException("no queries set");
+
+		results.clear();
+		System.out.println("Starting benchmark with " + starts.size()
+				+ " queries and the algorithms " + ALGORITHMS + "...");
+
+		for (int i = 0; i < starts.size(); i++) {
+			GHPoint from = new GHPoint(starts.get(i).getLatitude(),
+					starts.get(i).getLongitude());
+			GHPoint to = new GHPoint(destinations.get(i).getLatitude(),
+					destinations.get(i).getLongitude());
+			LocalDateTime time = times.get(i);
+
+			for (WeightingType type : WeightingType.values()) {
+				double reference = Double.NaN;
+				for (String algorithm : ALGORITHMS) {
+					GHRequest req = new GHRequest(from, to)
+							.setWeighting(type.toString())
+							.setVehicle(this.encoder).setLocale(Locale.ENGLISH)
+							.setAlgorithm(algorithm);
+
+					long start = System.nanoTime();
+					Pair<GHResponse, List<Path>> rsp = hopper.routePaths(req,
+							time);
+					long nanos = System.nanoTime() - start;
+
+					GHResponse ghRsp = rsp.getLeft();
+					if (ghRsp.hasErrors()) {
+						logger.debug("query " + i + " failed for " + type
+								+ " (" + algorithm + "): "
+								+ ghRsp.getErrors());
+						break;
+					}
+
+					double weight = rsp.getRight().stream()
+							.mapToDouble(Path::getWeight).sum();
+					if (Double.isNaN(reference))
+						reference = weight;
+
+					Result result = results.computeIfAbsent(
+							type + DELIMITER + algorithm, k -> new Result());
+					result.queries++;
+					result.visitedNodes += ghRsp.getHints()
+							.getLong("visited_nodes.sum", 0);
+					result.nanos += nanos;
+					if (Math.abs(weight - reference) > TOLERANCE
+							* Math.max(1, reference))
+						result.deviations++;
+				}
+			}
+		}
+
+		printResults();
+	}
+
+	private void printResults() {
+		System.out.println(String.format(Locale.ENGLISH,
+				"%-22s %-14s %8s %14s %12s %10s", "weighting", "algorithm",
+				"queries", "visited nodes", "latency ms", "deviations"));
+		for (Map.Entry<String, Result> entry : results.entrySet()) {
+			String[] key = entry.getKey().split("\\" + DELIMITER);
+			Result result = entry.getValue();
+			System.out.println(String.format(Locale.ENGLISH,
+					"%-22s %-14s %8d %14.1f %12.3f %10d", key[0], key[1],
+					result.queries,
+					(double) result.visitedNodes / result.queries,
+					result.nanos / 1e6 / result.queries, result.deviations));
+		}
+	}
+
+	/**
+	 * Generates {@code n} random queries, i.e. pairs of OSM nodes and points
+	 * in time covered by the weather data.
+	 *
+	 * @param n
+	 *            the number of queries
+	 */
+	public void randomQueries(int n) {
+		if (!initialized)
+			throw new IllegalStateException(
+					"not initialized! call init() first!");
+
+		if (seed != null)
+			rnd.setSeed(seed);
+
+		List<Node> nodes = osmData.getNodes().stream()
+				.collect(Collectors.toList());
+		List<LocalDateTime> records = new ArrayList<>(
+				weatherData.getWeatherRecords().keySet());
+
+		List<Node> starts = new ArrayList<>(n);
+		List<Node> destinations = new ArrayList<>(n);
+		List<LocalDateTime> times = new ArrayList<>(n);
+		while (starts.size() < n) {
+			Node s = nodes.get(rnd.nextInt(nodes.size()));
+			Node d = nodes.get(rnd.nextInt(nodes.size()));
+			if (s.equals(d))
+				continue;
+			starts.add(s);
+			destinations.add(d);
+			times.add(records.get(rnd.nextInt(records.size())));
+		}
+
+		this.starts = starts;
+		this.destinations = destinations;
+		this.times = times;
+	}
+
+	public int getLandmarks() {
+		return landmarks;
+	}
+
+	/**
+	 * Sets the number of landmarks, takes effect on {@link #init()}.
+	 *
+	 * @param landmarks
+	 *            the number of landmarks
+	 */
+	public void setLandmarks(int landmarks) {
+		this.landmarks = landmarks;
+	}
+
+	public void setWeights(double weightDistance,
+			double weightThermalComfort) {
+		this.weightDistance = weightDistance;
+		this.weightThermalComfort = weightThermalComfort;
+	}
+
+	/**
+	 * The accumulated measurements of a weighting and algorithm.
+	 */
+	private static class Result {
+		int queries;
+		long visitedNodes;
+		long nanos;
+		int deviations;
+	}
+
+}
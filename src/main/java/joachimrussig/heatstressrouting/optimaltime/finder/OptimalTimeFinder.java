@@ -1,6 +1,7 @@
 package joachimrussig.heatstressrouting.optimaltime.finder;
 
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -254,10 +255,23 @@ public class OptimalTimeFinder {
 		return objectiveFunction;
 	}
 
+	/**
+	 * Returns the opening hours of {@code place} at the day of {@code date}
+	 * using the opening hours compiled by {@link OSMData}.
+	 * 
+	 * @param place
+	 *            the place
+	 * @param date
+	 *            the day
+	 * @return the opening hours or an empty list, if the place has no opening
+	 *         hours
+	 */
 	protected List<TimeRange<ZonedDateTime>> getOpeningHours(Node place,
 			Date date) {
-		return osmData.getOpeningHours(place.getId())
-				.map(o -> o.getOpeningHours(date)).orElse(new ArrayList<>());
+		LocalDate day = date.toInstant().atZone(zoneId).toLocalDate();
+		return osmData.getCompiledOpeningHours(place.getId())
+				.map(o -> o.getOpeningHours(day, zoneId))
+				.orElse(new ArrayList<>());
 	}
 
 	/**
@@ -5,12 +5,10 @@ import java.time.ZoneId;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.jooq.lambda.Seq;
-import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.slf4j.Logger;
@@ -20,7 +18,8 @@ import com.graphhopper.util.shapes.GHPoint;
 
 import joachimrussig.heatstressrouting.optimaltime.finder.OptimalTimeFinder;
 import joachimrussig.heatstressrouting.optimaltime.finder.OptimalTimeFinderResult;
-import joachimrussig.heatstressrouting.osmdata.OSMOpeningHours;
+import joachimrussig.heatstressrouting.osmdata.NodeSet;
+import joachimrussig.heatstressrouting.osmdata.OSMData;
 
 /**
  * The Class performs a nearby search, determines an optimal time for each found
@@ -56,76 +55,82 @@ public class NearbySearch {
 
 	/**
 	 * Performs a nearby search starting at {@code start} an time {@code now}
-	 * for places that fulfill the {@code predicate} and returns only the best
+	 * for the places in {@code places} and returns only the best
 	 * result according to {@code scoreFunction}.
 	 * 
 	 * @param start
 	 *            the start point
-	 * @param predicate
-	 *            a predicate to filter desired places; a places is only
-	 *            included, if predicate returns {@code true}
+	 * @param places
+	 *            the desired places, e.g. the places of some place types (see
+	 *            {@link joachimrussig.heatstressrouting.osmdata.TagIndex}); a
+	 *            place is only included, if it is in {@code places} and has
+	 *            opening hours
 	 * @param now
 	 *            the current point in time
 	 * @param maxResults
 	 *            maximale number of results to search for
 	 * @return the {@code maxResults} nearest neighbors (according to the
-	 *         haversine distance) that fulfill predicate and are opened at
+	 *         haversine distance) in {@code places} that are opened at
 	 *         {@code now}
 	 */
 	public Optional<NearbySearchResult> findBest(GHPoint start,
-			Predicate<Entity> predicate, LocalDateTime now, int maxResutls) {
-		return find(start, predicate, now, maxResutls).stream().findFirst();
+			NodeSet places, LocalDateTime now, int maxResutls) {
+		return find(start, places, now, maxResutls).stream().findFirst();
 	}
 
 	/**
 	 * Performs a nearby search starting at {@code start} an time {@code now}
-	 * for places that fulfill the {@code predicate}. The results are ranked
+	 * for the places in {@code places}. The results are ranked
 	 * according to {@code scoreFunction}.
 	 * 
 	 * @param start
 	 *            the start point
-	 * @param predicate
-	 *            a predicate to filter desired places; a places is only
-	 *            included, if predicate returns {@code true}
+	 * @param places
+	 *            the desired places, e.g. the places of some place types (see
+	 *            {@link joachimrussig.heatstressrouting.osmdata.TagIndex}); a
+	 *            place is only included, if it is in {@code places} and has
+	 *            opening hours
 	 * @param now
 	 *            the current point in time
 	 * @return the {@code this.maxResults} nearest neighbors (according to the
-	 *         haversine distance) that fulfill predicate and are opened at
+	 *         haversine distance) in {@code places} that are opened at
 	 *         {@code now}
 	 */
 	public List<NearbySearchResult> find(GHPoint start,
-			Predicate<Entity> predicate, LocalDateTime now) {
-		return find(start, predicate, now, maxResults);
+			NodeSet places, LocalDateTime now) {
+		return find(start, places, now, maxResults);
 	}
 
 	/**
 	 * Performs a nearby search starting at {@code start} an time {@code now}
-	 * for places that fulfill the {@code predicate}. The results are ranked
+	 * for the places in {@code places}. The results are ranked
 	 * according to {@code scoreFunction}.
 	 * 
 	 * @param start
 	 *            the start point
-	 * @param predicate
-	 *            a predicate to filter desired places; a places is only
-	 *            included, if predicate returns {@code true}
+	 * @param places
+	 *            the desired places, e.g. the places of some place types (see
+	 *            {@link joachimrussig.heatstressrouting.osmdata.TagIndex}); a
+	 *            place is only included, if it is in {@code places} and has
+	 *            opening hours
 	 * @param now
 	 *            the current point in time
 	 * @param maxResults
 	 *            maximale number of results to return
 	 * @return the {@code maxResults} nearest neighbors (according to the
-	 *         haversine distance) that fulfill predicate and are opened at
+	 *         haversine distance) in {@code places} that are opened at
 	 *         {@code now}
 	 */
 	public List<NearbySearchResult> find(GHPoint start,
-			Predicate<Entity> predicate, LocalDateTime now, int maxResults) {
-		return find(start, predicate, now, maxResults, this.maxDistance,
+			NodeSet places, LocalDateTime now, int maxResults) {
+		return find(start, places, now, maxResults, this.maxDistance,
 				this.finder, this.scoreFunction);
 
 	}
 
 	// /**
 	// * Performs a nearby search starting at {@code start} at time {@code now}
-	// * for places that fulfill the {@code predicate}. The results are ranked
+	// * for the places in {@code places}. The results are ranked
 	// * according to {@code scoreFunction}.
 	// *
 	// * @param start
@@ -144,7 +149,7 @@ public class NearbySearch {
 	// * @param scoreFunction
 	// * the score function used to rank the results
 	// * @return the {@code maxResults} nearest neighbors (according to the
-	// * haversine distance) that fulfill predicate and are opened at
+	// * haversine distance) in {@code places} that are opened at
 	// * {@code now}
 	// */
 	// protected static List<NearbySearchResult> find(GHPoint start,
@@ -251,16 +256,18 @@ public class NearbySearch {
 
 	/**
 	 * Performs a nearby search starting at {@code start} at time {@code now}
-	 * for places that fulfill the {@code predicate}. The results are ranked
+	 * for the places in {@code places}. The results are ranked
 	 * according to {@code scoreFunction}. Same as
-	 * {@link NearbySearch#find(GHPoint, Predicate, LocalDateTime, int, double, OptimalTimeFinder, ScoreFunction, boolean)}
+	 * {@link NearbySearch#find(GHPoint, NodeSet, LocalDateTime, int, double, OptimalTimeFinder, ScoreFunction, boolean)}
 	 * but with {@code parallel} set to {@code false}.
 	 * 
 	 * @param start
 	 *            the start point
-	 * @param predicate
-	 *            a predicate to filter desired places; a places is only
-	 *            included, if predicate returns {@code true}
+	 * @param places
+	 *            the desired places, e.g. the places of some place types (see
+	 *            {@link joachimrussig.heatstressrouting.osmdata.TagIndex}); a
+	 *            place is only included, if it is in {@code places} and has
+	 *            opening hours
 	 * @param now
 	 *            the current point in time
 	 * @param maxResults
@@ -272,29 +279,31 @@ public class NearbySearch {
 	 * @param scoreFunction
 	 *            the score function used to rank the results
 	 * @return the {@code maxResults} nearest neighbors (according to the
-	 *         haversine distance) that fulfill predicate and are opened at
+	 *         haversine distance) in {@code places} that are opened at
 	 *         {@code now}
 	 */
 	protected static List<NearbySearchResult> find(final GHPoint start,
-			final Predicate<Entity> predicate, final LocalDateTime now,
+			final NodeSet places, final LocalDateTime now,
 			final int maxResults, final double maxDistance,
 			final OptimalTimeFinder finder, final ScoreFunction scoreFunction) {
-		return find(start, predicate, now, maxResults, maxDistance, finder,
+		return find(start, places, now, maxResults, maxDistance, finder,
 				scoreFunction, false);
 	}
 
 	/**
 	 * Performs a nearby search starting at {@code start} at time {@code now}
-	 * for places that fulfill the {@code predicate}. The results are ranked
+	 * for the places in {@code places}. The results are ranked
 	 * according to {@code scoreFunction}. Same as
-	 * {@link NearbySearch#find(GHPoint, Predicate, LocalDateTime, int, double, OptimalTimeFinder, ScoreFunction, boolean)}
+	 * {@link NearbySearch#find(GHPoint, NodeSet, LocalDateTime, int, double, OptimalTimeFinder, ScoreFunction, boolean)}
 	 * but with {@code parallel} set to {@code true}.
 	 * 
 	 * @param start
 	 *            the start point
-	 * @param predicate
-	 *            a predicate to filter desired places; a places is only
-	 *            included, if predicate returns {@code true}
+	 * @param places
+	 *            the desired places, e.g. the places of some place types (see
+	 *            {@link joachimrussig.heatstressrouting.osmdata.TagIndex}); a
+	 *            place is only included, if it is in {@code places} and has
+	 *            opening hours
 	 * @param now
 	 *            the current point in time
 	 * @param maxResults
@@ -306,27 +315,29 @@ public class NearbySearch {
 	 * @param scoreFunction
 	 *            the score function used to rank the results
 	 * @return the {@code maxResults} nearest neighbors (according to the
-	 *         haversine distance) that fulfill predicate and are opened at
+	 *         haversine distance) in {@code places} that are opened at
 	 *         {@code now}
 	 */
 	protected static List<NearbySearchResult> findPar(final GHPoint start,
-			final Predicate<Entity> predicate, final LocalDateTime now,
+			final NodeSet places, final LocalDateTime now,
 			final int maxResults, final double maxDistance,
 			final OptimalTimeFinder finder, final ScoreFunction scoreFunction) {
-		return find(start, predicate, now, maxResults, maxDistance, finder,
+		return find(start, places, now, maxResults, maxDistance, finder,
 				scoreFunction, true);
 	}
 
 	/**
 	 * Performs a nearby search starting at {@code start} at time {@code now}
-	 * for places that fulfill the {@code predicate}. The results are ranked
+	 * for the places in {@code places}. The results are ranked
 	 * according to {@code scoreFunction}.
 	 * 
 	 * @param start
 	 *            the start point
-	 * @param predicate
-	 *            a predicate to filter desired places; a places is only
-	 *            included, if predicate returns {@code true}
+	 * @param places
+	 *            the desired places, e.g. the places of some place types (see
+	 *            {@link joachimrussig.heatstressrouting.osmdata.TagIndex}); a
+	 *            place is only included, if it is in {@code places} and has
+	 *            opening hours
 	 * @param now
 	 *            the current point in time
 	 * @param maxResults
@@ -341,11 +352,11 @@ public class NearbySearch {
 	 *            if {@code true}, the search is executed in parallel using a
 	 *            parallel {@link java.util.stream.Stream}
 	 * @return the {@code maxResults} nearest neighbors (according to the
-	 *         haversine distance) that fulfill predicate and are opened at
+	 *         haversine distance) in {@code places} that are opened at
 	 *         {@code now}
 	 */
 	protected static List<NearbySearchResult> find(final GHPoint start,
-			final Predicate<Entity> predicate, final LocalDateTime now,
+			final NodeSet places, final LocalDateTime now,
 			final int maxResults, final double maxDistance,
 			final OptimalTimeFinder finder, final ScoreFunction scoreFunction,
 			boolean parallel) {
@@ -354,24 +365,24 @@ public class NearbySearch {
 				+ maxResults);
 
 		// Find the candidate places in a radius of maxDistance around the
-		// start point that fulfill the predicate and have opening hours
-		// specified
-		List<Node> places = finder.getOsmData().kNearestNeighbor(start,
-				maxResults, maxDistance,
-				e -> predicate.test(e) && e.getTags().stream()
-						.anyMatch(t -> t.getKey().equalsIgnoreCase(
-								OSMOpeningHours.OPENING_HOURS_KEY)));
+		// start point that are in places and have opening hours specified
+		OSMData osmData = finder.getOsmData();
+		NodeSet candidates = osmData.getTagIndex().getOpeningHours();
+		if (places != null)
+			candidates = candidates.and(places);
+		List<Node> candidatePlaces = osmData.kNearestNeighbor(start,
+				maxResults, maxDistance, candidates);
 
-		logger.debug(places.size() + " place(s) found");
+		logger.debug(candidatePlaces.size() + " place(s) found");
 
 		// the current date
 		Date date = Date.from(now.atZone(ZoneId.systemDefault()).toInstant());
 
 		Stream<Node> placesStream;
 		if (parallel)
-			placesStream = places.parallelStream();
+			placesStream = candidatePlaces.parallelStream();
 		else
-			placesStream = places.stream();
+			placesStream = candidatePlaces.stream();
 
 		List<FinderResult> res = placesStream.map((Node place) -> {
 			Optional<FinderResult> ret = Optional.empty();
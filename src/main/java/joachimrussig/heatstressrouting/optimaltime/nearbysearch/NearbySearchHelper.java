@@ -34,7 +34,7 @@ public class NearbySearchHelper {
 	public NearbySearchResponse find(NearbySearchRequest request,
 			boolean parallel) {
 		List<NearbySearchResult> results = NearbySearch.find(request.getStart(),
-				request.getPredicate(), request.getNow(),
+				request.getPlaces(), request.getNow(),
 				request.getMaxResults(), request.getMaxDistance(),
 				request.getFinder(), request.getScoreFunction(), parallel);
 		return new NearbySearchResponse(request, results);
@@ -50,7 +50,7 @@ public class NearbySearchHelper {
 	 */
 	public NearbySearchResponse find(NearbySearchRequest request) {
 		List<NearbySearchResult> results = NearbySearch.find(request.getStart(),
-				request.getPredicate(), request.getNow(),
+				request.getPlaces(), request.getNow(),
 				request.getMaxResults(), request.getMaxDistance(),
 				request.getFinder(), request.getScoreFunction());
 		return new NearbySearchResponse(request, results);
@@ -66,7 +66,7 @@ public class NearbySearchHelper {
 	 */
 	public NearbySearchResponse findPar(NearbySearchRequest request) {
 		List<NearbySearchResult> results = NearbySearch.findPar(
-				request.getStart(), request.getPredicate(), request.getNow(),
+				request.getStart(), request.getPlaces(), request.getNow(),
 				request.getMaxResults(), request.getMaxDistance(),
 				request.getFinder(), request.getScoreFunction());
 		return new NearbySearchResponse(request, results);
@@ -1,13 +1,11 @@
 package joachimrussig.heatstressrouting.optimaltime.nearbysearch;
 
 import java.time.LocalDateTime;
-import java.util.function.Predicate;
-
-import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 
 import com.graphhopper.util.shapes.GHPoint;
 
 import joachimrussig.heatstressrouting.optimaltime.finder.OptimalTimeFinder;
+import joachimrussig.heatstressrouting.osmdata.NodeSet;
 
 /**
  * A class that represent a nearby search request that can be passed to
@@ -27,7 +25,7 @@ public class NearbySearchRequest {
 
 	private final GHPoint start;
 	private final LocalDateTime now;
-	private final Predicate<Entity> predicate;
+	private final NodeSet places;
 	private final int maxResults;
 	private final double maxDistance;
 	private final OptimalTimeFinder finder;
@@ -44,8 +42,8 @@ public class NearbySearchRequest {
 	 *            the start point
 	 * @param now
 	 *            the current time
-	 * @param predicate
-	 *            a predicate used to filter the places
+	 * @param places
+	 *            the desired places or {@code null} for all places
 	 * @param maxResults
 	 *            the maximum number of results to consider
 	 * @param maxDistance
@@ -57,11 +55,11 @@ public class NearbySearchRequest {
 	 *            the {@link ScoreFunction} used to rank the results
 	 */
 	protected NearbySearchRequest(GHPoint start, LocalDateTime now,
-			Predicate<Entity> predicate, int maxResults, double maxDistance,
+			NodeSet places, int maxResults, double maxDistance,
 			OptimalTimeFinder finder, ScoreFunction scoreFunction) {
 		this.start = start;
 		this.now = now;
-		this.predicate = predicate;
+		this.places = places;
 		this.maxResults = maxResults;
 		this.maxDistance = maxDistance;
 		this.finder = finder;
@@ -76,8 +74,8 @@ public class NearbySearchRequest {
 		return now;
 	}
 
-	public Predicate<Entity> getPredicate() {
-		return predicate;
+	public NodeSet getPlaces() {
+		return places;
 	}
 
 	public int getMaxResults() {
@@ -99,7 +97,7 @@ public class NearbySearchRequest {
 	@Override
 	public String toString() {
 		return "NearbySearchRequest [start=" + start + ", now=" + now
-				+ ", predicate=" + predicate + ", maxResults=" + maxResults
+				+ ", places=" + places + ", maxResults=" + maxResults
 				+ ", maxDistance=" + maxDistance + ", finder=" + finder
 				+ ", scoreFunction=" + scoreFunction + "]";
 	}
@@ -3,15 +3,13 @@ package joachimrussig.heatstressrouting.optimaltime.nearbysearch;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Optional;
-import java.util.function.Predicate;
-
-import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 
 import com.graphhopper.util.shapes.GHPoint;
 
 import joachimrussig.heatstressrouting.optimaltime.finder.OptimalTimeFinder;
 import joachimrussig.heatstressrouting.optimaltime.finder.OptimalTimeFinderHeuristic;
 import joachimrussig.heatstressrouting.optimaltime.finder.SimpleObjectiveFunction;
+import joachimrussig.heatstressrouting.osmdata.NodeSet;
 import joachimrussig.heatstressrouting.routing.RoutingHelper;
 import joachimrussig.heatstressrouting.routing.weighting.WeightingType;
 
@@ -27,7 +25,7 @@ public class NearbySearchRequestBuilder {
 
 	private GHPoint start;
 	private LocalDateTime now;
-	private Predicate<Entity> predicate = null;
+	private NodeSet places = null;
 	private int maxResults = 10;
 	private double maxDistance = 1000.0;
 
@@ -98,7 +96,7 @@ public class NearbySearchRequestBuilder {
 		finder.setEarliestTime(earliestTime);
 		finder.setLatestTime(latestTime);
 
-		return new NearbySearchRequest(this.start, this.now, this.predicate,
+		return new NearbySearchRequest(this.start, this.now, this.places,
 				this.maxResults, this.maxDistance, this.finder,
 				this.scoreFunction);
 
@@ -128,14 +126,14 @@ public class NearbySearchRequestBuilder {
 
 	/**
 	 * 
-	 * @param predicate
-	 *            the predicate to be used to filter the places; a place only
-	 *            used if {@code predicate} returns {@code true}
+	 * @param places
+	 *            the desired places, e.g. the places of some place types (see
+	 *            {@link joachimrussig.heatstressrouting.osmdata.TagIndex}); a
+	 *            place is only used if it is in {@code places}
 	 * @return the updated builder
 	 */
-	public NearbySearchRequestBuilder setPredicate(
-			Predicate<Entity> predicate) {
-		this.predicate = predicate;
+	public NearbySearchRequestBuilder setPlaces(NodeSet places) {
+		this.places = places;
 		return this;
 	}
 
@@ -276,8 +274,8 @@ public class NearbySearchRequestBuilder {
 		return now;
 	}
 
-	public Optional<Predicate<Entity>> getPredicate() {
-		return Optional.ofNullable(predicate);
+	public Optional<NodeSet> getPlaces() {
+		return Optional.ofNullable(places);
 	}
 
 	public int getMaxResults() {
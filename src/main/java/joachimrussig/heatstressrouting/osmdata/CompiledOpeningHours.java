@@ -0,0 +1,253 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import gnu.trove.list.array.TIntArrayList;
+import joachimrussig.heatstressrouting.util.TimeRange;
+import net.osmand.util.OpeningHoursParser;
+
+/**
+ * The opening hours of a place compiled into bitmaps of the minutes of a day,
+ * so the opening hours of a date and whether the place is open at a point in
+ * time can be determined with a few bit operations.
+ * <p>
+ * The opening hours are compiled once for every month and day of the week of
+ * a reference year. The rules that don't depend on the day of the week only
+ * (e.g. public holidays like 'Dec 25 off') are kept in an overlay by month
+ * and day of month. As in the OSM opening hours specification, the last rule
+ * that applies to a day overrides all previous rules. The bitmap of a day has
+ * {@code 2 * 1440} bits, so opening hours past midnight are assigned to the
+ * day they start at.
+ *
+ * @author Joachim Rußig
+ */
+public class CompiledOpeningHours {
+
+	private static final int MINUTES_PER_DAY = 24 * 60;
+	private static final int WORDS = 2 * MINUTES_PER_DAY / 64;
+
+	// a leap year, so all days of the year are covered
+	private static final int REFERENCE_YEAR = 2016;
+
+	private static final long[] CLOSED = new long[WORDS];
+
+	// the bitmap of the minutes of each rule, shared by all days the rule
+	// applies to
+	private final long[][] rules;
+	// the rule that applies to a month and day of the week at
+	// month * 7 + dayOfWeek - 1 or -1, if the place is closed
+	private final int[] regular;
+	// the rules of the days that differ from regular, ordered by
+	// month * 32 + dayOfMonth
+	private final int[] overlayDays;
+	private final int[] overlayRules;
+
+	private CompiledOpeningHours(long[][] rules, int[] regular,
+			int[] overlayDays, int[] overlayRules) {
+		this.rules = rules;
+		this.regular = regular;
+		this.overlayDays = overlayDays;
+		this.overlayRules = overlayRules;
+	}
+
+	/**
+	 * Compiles the opening hours.
+	 *
+	 * @param openingHours
+	 *            the parsed opening hours
+	 * @return the compiled opening hours
+	 */
+	public static CompiledOpeningHours compile(
+			OpeningHoursParser.OpeningHours openingHours) {
+		List<OpeningHoursParser.BasicOpeningHourRule> basicRules = new ArrayList<>();
+		for (OpeningHoursParser.OpeningHoursRule rule : openingHours
+				.getRules()) {
+			if (rule instanceof OpeningHoursParser.BasicOpeningHourRule)
+				basicRules.add((OpeningHoursParser.BasicOpeningHourRule) rule);
+		}
+
+		long[][] rules = new long[basicRules.size()][];
+		for (int r = 0; r < rules.length; r++)
+			rules[r] = compileRule(basicRules.get(r));
+
+		// the rule applying to each day of the reference year
+		LocalDate first = LocalDate.of(REFERENCE_YEAR, 1, 1);
+		int days = first.lengthOfYear();
+		int[] dayRules = new int[days];
+		for (int d = 0; d < days; d++) {
+			LocalDate date = first.plusDays(d);
+			Calendar cal = new GregorianCalendar(date.getYear(),
+					date.getMonthValue() - 1, date.getDayOfMonth());
+			dayRules[d] = -1;
+			for (int r = 0; r < rules.length; r++) {
+				if (basicRules.get(r).containsDay(cal)
+						&& basicRules.get(r).containsMonth(cal))
+					dayRules[d] = r;
+			}
+		}
+
+		// the most frequent rule of each month and day of the week
+		int[] regular = new int[12 * 7];
+		int[][] counts = new int[12 * 7][rules.length + 1];
+		for (int d = 0; d < days; d++)
+			counts[regularIndex(first.plusDays(d))][dayRules[d] + 1]++;
+		for (int i = 0; i < regular.length; i++) {
+			int best = 0;
+			for (int r = 1; r < counts[i].length; r++)
+				if (counts[i][r] > counts[i][best])
+					best = r;
+			regular[i] = best - 1;
+		}
+
+		// the days deviating from the most frequent rule
+		TIntArrayList overlayDays = new TIntArrayList();
+		TIntArrayList overlayRules = new TIntArrayList();
+		for (int d = 0; d < days; d++) {
+			LocalDate date = first.plusDays(d);
+			if (dayRules[d] != regular[regularIndex(date)]) {
+				overlayDays.add(overlayIndex(date));
+				overlayRules.add(dayRules[d]);
+			}
+		}
+
+		return new CompiledOpeningHours(rules, regular,
+				overlayDays.toArray(), overlayRules.toArray());
+	}
+
+	private static long[] compileRule(
+			OpeningHoursParser.BasicOpeningHourRule rule) {
+		TIntArrayList startTimes = rule.getStartTimes();
+		TIntArrayList endTimes = rule.getEndTimes();
+		if (startTimes.size() != endTimes.size())
+			throw new IllegalStateException(
+					"different number of start and end times");
+
+		long[] bits = new long[WORDS];
+		for (int i = 0; i < startTimes.size(); i++) {
+			int start = startTimes.get(i);
+			int end = endTimes.get(i);
+			// an open end is closed at midnight and a time range ending
+			// before it starts ends on the next day
+			if (end < 0)
+				end = MINUTES_PER_DAY;
+			else if (end <= start)
+				end += MINUTES_PER_DAY;
+			for (int m = Math.max(start, 0); m < Math.min(end,
+					2 * MINUTES_PER_DAY); m++)
+				bits[m >>> 6] |= 1L << m;
+		}
+		return bits;
+	}
+
+	private static int regularIndex(LocalDate date) {
+		return (date.getMonthValue() - 1) * 7
+				+ date.getDayOfWeek().getValue() - 1;
+	}
+
+	private static int overlayIndex(LocalDate date) {
+		return (date.getMonthValue() - 1) * 32 + date.getDayOfMonth();
+	}
+
+	private long[] getBits(LocalDate date) {
+		int rule;
+		int overlay = overlayDays.length == 0 ? -1
+				: Arrays.binarySearch(overlayDays, overlayIndex(date));
+		if (overlay >= 0)
+			rule = overlayRules[overlay];
+		else
+			rule = regular[regularIndex(date)];
+		return rule < 0 ? CLOSED : rules[rule];
+	}
+
+	private static boolean get(long[] bits, int minute) {
+		return (bits[minute >>> 6] & (1L << minute)) != 0;
+	}
+
+	/**
+	 * Checks if the place is open at {@code time}.
+	 *
+	 * @param time
+	 *            the time to check
+	 * @return {@code true}, if the place is open
+	 */
+	public boolean isOpen(LocalDateTime time) {
+		int minute = time.getHour() * 60 + time.getMinute();
+		LocalDate date = time.toLocalDate();
+		return get(getBits(date), minute) || get(getBits(date.minusDays(1)),
+				MINUTES_PER_DAY + minute);
+	}
+
+	/**
+	 * Returns the opening hours of the day {@code date} as pairs of the
+	 * minutes since the start of the day, i.e. the place opens at
+	 * {@code result[2 * i]} and closes at {@code result[2 * i + 1]}. Opening
+	 * hours past midnight end after {@code 24 * 60}.
+	 *
+	 * @param date
+	 *            the day
+	 * @return the opening hours ordered by the opening time
+	 */
+	public int[] getOpenIntervals(LocalDate date) {
+		long[] bits = getBits(date);
+		TIntArrayList result = new TIntArrayList();
+		int minute = 0;
+		while (minute < 2 * MINUTES_PER_DAY) {
+			int start = nextBit(bits, minute, true);
+			// only the opening hours starting at date belong to it
+			if (start < 0 || start >= MINUTES_PER_DAY)
+				break;
+			int end = nextBit(bits, start, false);
+			if (end < 0)
+				end = 2 * MINUTES_PER_DAY;
+			result.add(start);
+			result.add(end);
+			minute = end;
+		}
+		return result.toArray();
+	}
+
+	// the next minute at or after from, that is set (or unset)
+	private static int nextBit(long[] bits, int from, boolean set) {
+		int word = from >>> 6;
+		if (word >= bits.length)
+			return -1;
+		long w = (set ? bits[word] : ~bits[word]) & (-1L << from);
+		while (true) {
+			if (w != 0)
+				return word * 64 + Long.numberOfTrailingZeros(w);
+			if (++word == bits.length)
+				return -1;
+			w = set ? bits[word] : ~bits[word];
+		}
+	}
+
+	/**
+	 * Returns the opening hours of the day {@code date}.
+	 *
+	 * @param date
+	 *            the day
+	 * @param zoneId
+	 *            the time zone of the opening hours
+	 * @return the opening hours ordered by the opening time
+	 */
+	public List<TimeRange<ZonedDateTime>> getOpeningHours(LocalDate date,
+			ZoneId zoneId) {
+		int[] intervals = getOpenIntervals(date);
+		ZonedDateTime startOfDay = date.atStartOfDay(zoneId);
+		List<TimeRange<ZonedDateTime>> res = new ArrayList<>(
+				intervals.length / 2);
+		for (int i = 0; i < intervals.length; i += 2)
+			res.add(new TimeRange<>(startOfDay.plusMinutes(intervals[i]),
+					startOfDay.plusMinutes(intervals[i + 1])));
+		return res;
+	}
+
+}
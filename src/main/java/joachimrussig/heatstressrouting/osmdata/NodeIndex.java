@@ -0,0 +1,505 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.CommonEntityData;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.OsmUser;
+
+import com.graphhopper.util.DistanceCalcEarth;
+import com.graphhopper.util.shapes.GHPoint;
+
+/**
+ * A static spatial index of {@link Node}s for nearest neighbor queries.
+ * <p>
+ * The index is a balanced k-d tree, that is stored implicitly in primitive
+ * arrays: the nodes are ordered such that the median of each range
+ * {@code [from, to)} splits it into the two subtrees. The coordinates are
+ * mapped to points on the unit sphere, where the euclidean (chord) distance
+ * increases monotonically with the great circle distance, so the tree can be
+ * pruned exactly.
+ * <p>
+ * The ids, coordinates and tags of the nodes are stored in buffers, that
+ * either wrap arrays or are views of a memory-mapped {@link OSMSnapshot}, so
+ * an index read from a snapshot is served off-heap. The {@link Node}s are
+ * created on demand, without the metadata of the entities (e.g. version,
+ * user, timestamp). The buffers are only accessed by absolute position, so
+ * the index is thread safe.
+ *
+ * @author Joachim Rußig
+ */
+public class NodeIndex {
+
+	// the maximal relative error of the chord distance, so nodes on the
+	// boundary of the search radius are not pruned
+	private static final double EPSILON = 1e-9;
+
+	// node sets up to this size are scanned instead of searching the tree
+	private static final int SCAN_THRESHOLD = 256;
+
+	// the ids of the nodes in the order of the tree
+	private final LongBuffer ids;
+	// latitude and longitude of the i-th node at 2 * i and 2 * i + 1
+	private final DoubleBuffer coordinates;
+	// the point on the unit sphere of the i-th node at 3 * i to 3 * i + 2
+	private final DoubleBuffer points;
+	// the axis of the split at the median of each range
+	private final ByteBuffer axis;
+	private final TagTable tags;
+	// the ids ordered by id and the positions of the nodes in the tree
+	private final LongBuffer sortedIds;
+	private final IntBuffer sortedPositions;
+
+	/**
+	 * Creates a new {@code NodeIndex} of {@code nodes}.
+	 *
+	 * @param nodes
+	 *            the nodes to index
+	 */
+	public NodeIndex(Collection<Node> nodes) {
+		Node[] tree = nodes.toArray(new Node[nodes.size()]);
+		int n = tree.length;
+		double[] points = new double[3 * n];
+		for (int i = 0; i < n; i++) {
+			double lat = Math.toRadians(tree[i].getLatitude());
+			double lon = Math.toRadians(tree[i].getLongitude());
+			points[3 * i] = Math.cos(lat) * Math.cos(lon);
+			points[3 * i + 1] = Math.cos(lat) * Math.sin(lon);
+			points[3 * i + 2] = Math.sin(lat);
+		}
+		byte[] axis = new byte[n];
+		new TreeBuilder(tree, points, axis).build(0, n);
+
+		long[] ids = new long[n];
+		double[] coordinates = new double[2 * n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = tree[i].getId();
+			coordinates[2 * i] = tree[i].getLatitude();
+			coordinates[2 * i + 1] = tree[i].getLongitude();
+		}
+		long[] sortedIds = ids.clone();
+		Arrays.sort(sortedIds);
+		int[] sortedPositions = new int[n];
+		for (int i = 0; i < n; i++)
+			sortedPositions[Arrays.binarySearch(sortedIds, ids[i])] = i;
+
+		this.ids = LongBuffer.wrap(ids);
+		this.coordinates = DoubleBuffer.wrap(coordinates);
+		this.points = DoubleBuffer.wrap(points);
+		this.axis = ByteBuffer.wrap(axis);
+		this.tags = new TagTable(Arrays.asList(tree));
+		this.sortedIds = LongBuffer.wrap(sortedIds);
+		this.sortedPositions = IntBuffer.wrap(sortedPositions);
+	}
+
+	/**
+	 * Reads a {@code NodeIndex} written by {@link #write(DataOutputStream)}
+	 * from {@code buffer}, whose position is advanced past the index. The
+	 * index is served by {@code buffer}, i.e. the tree isn't built again and
+	 * the nodes are only created on demand.
+	 *
+	 * @param buffer
+	 *            the buffer of the snapshot
+	 * @throws IllegalStateException
+	 *             if the index is corrupt
+	 */
+	NodeIndex(ByteBuffer buffer) {
+		this.ids = OSMSnapshot.readLongs(buffer);
+		this.coordinates = OSMSnapshot.readDoubles(buffer);
+		this.points = OSMSnapshot.readDoubles(buffer);
+		this.axis = OSMSnapshot.readBytes(buffer);
+		this.tags = new TagTable(buffer);
+		this.sortedIds = OSMSnapshot.readLongs(buffer);
+		this.sortedPositions = OSMSnapshot.readInts(buffer);
+
+		int n = ids.limit();
+		if (coordinates.limit() != 2 * n || points.limit() != 3 * n
+				|| axis.limit() != n || tags.size() != n
+				|| sortedIds.limit() != n || sortedPositions.limit() != n)
+			throw new IllegalStateException("corrupt node index");
+	}
+
+	/**
+	 * Writes the index, so it can be read by {@link #NodeIndex(ByteBuffer)}.
+	 *
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 *             if the index couldn't be written
+	 */
+	void write(DataOutputStream out) throws IOException {
+		OSMSnapshot.writeLongs(out, ids);
+		OSMSnapshot.writeDoubles(out, coordinates);
+		OSMSnapshot.writeDoubles(out, points);
+		OSMSnapshot.writeBytes(out, axis);
+		tags.write(out);
+		OSMSnapshot.writeLongs(out, sortedIds);
+		OSMSnapshot.writeInts(out, sortedPositions);
+	}
+
+	private double coordinate(int a, int i) {
+		return points.get(3 * i + a);
+	}
+
+	/**
+	 * Returns the {@code k} nearest nodes of {@code point} that fulfill
+	 * {@code predicate}. The predicate is only evaluated for nodes that are
+	 * closer than the {@code k} nearest nodes found so far.
+	 *
+	 * @param point
+	 *            the point to search the nearest nodes for
+	 * @param k
+	 *            maximal number of nodes to return
+	 * @param maxDistance
+	 *            maximal (haversine) distance to consider in meter;
+	 *            {@code null} if no maximal distance is desired
+	 * @param predicate
+	 *            only return nodes that fulfill the predicate
+	 * @return the nearest nodes ordered by their distance to {@code point}
+	 */
+	public List<Node> nearest(GHPoint point, long k, Double maxDistance,
+			Predicate<? super Node> predicate) {
+		return nearest(point, k, maxDistance, i -> predicate.test(getNode(i)),
+				null);
+	}
+
+	/**
+	 * Returns the {@code k} nearest nodes of {@code point} contained in
+	 * {@code candidates}. Small sets are scanned, larger sets are used to
+	 * filter the nodes while searching the tree.
+	 *
+	 * @param point
+	 *            the point to search the nearest nodes for
+	 * @param k
+	 *            maximal number of nodes to return
+	 * @param maxDistance
+	 *            maximal (haversine) distance to consider in meter;
+	 *            {@code null} if no maximal distance is desired
+	 * @param candidates
+	 *            the nodes to consider, which must be a set of this index
+	 * @return the nearest nodes ordered by their distance to {@code point}
+	 */
+	public List<Node> nearest(GHPoint point, long k, Double maxDistance,
+			NodeSet candidates) {
+		return nearest(point, k, maxDistance, candidates::contains,
+				candidates.size() <= SCAN_THRESHOLD ? candidates : null);
+	}
+
+	private List<Node> nearest(GHPoint point, long k, Double maxDistance,
+			IntPredicate predicate, NodeSet scan) {
+		int capacity = (int) Math.min(k, size());
+		if (capacity <= 0)
+			return new ArrayList<>();
+
+		double lat = Math.toRadians(point.getLat());
+		double lon = Math.toRadians(point.getLon());
+		Query query = new Query(Math.cos(lat) * Math.cos(lon),
+				Math.cos(lat) * Math.sin(lon), Math.sin(lat), capacity,
+				predicate);
+		if (maxDistance != null) {
+			double angle = Math.min(maxDistance / DistanceCalcEarth.R,
+					Math.PI);
+			double chord = 2 * Math.sin(angle / 2) * (1 + EPSILON);
+			query.radius = chord * chord;
+		}
+
+		if (scan != null) {
+			for (int i = scan.next(0); i >= 0; i = scan.next(i + 1)) {
+				double d = query.distance(i);
+				if (d <= query.radius)
+					query.offer(i, d);
+			}
+		} else {
+			search(query, 0, size());
+		}
+
+		List<Node> result = new ArrayList<>(query.size);
+		for (int i = 0; i < query.size; i++) {
+			Node node = getNode(query.heap[i]);
+			if (maxDistance == null
+					|| OSMUtils.distance(point, node) <= maxDistance)
+				result.add(node);
+		}
+		Collections.sort(result, Comparator
+				.comparingDouble((Node n) -> OSMUtils.distance(point, n))
+				.thenComparingLong(Node::getId));
+		return result;
+	}
+
+	private void search(Query query, int from, int to) {
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+
+			double d = query.distance(mid);
+			if (d <= query.radius && query.predicate.test(mid))
+				query.offer(mid, d);
+
+			if (to - from == 1)
+				return;
+
+			// search the side of the query point first and the other side
+			// only if the splitting plane is within the search radius
+			int a = axis.get(mid);
+			double diff = (a == 0 ? query.x : (a == 1 ? query.y : query.z))
+					- coordinate(a, mid);
+			if (diff < 0) {
+				search(query, from, mid);
+				if (diff * diff > query.radius)
+					return;
+				from = mid + 1;
+			} else {
+				search(query, mid + 1, to);
+				if (diff * diff > query.radius)
+					return;
+				to = mid;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of indexed nodes
+	 */
+	public int size() {
+		return ids.limit();
+	}
+
+	/**
+	 *
+	 * @param position
+	 *            the position of the node in the index
+	 * @return the node at {@code position}, that is created on demand
+	 */
+	Node getNode(int position) {
+		return new Node(
+				new CommonEntityData(getId(position), 0, OSMSnapshot.TIMESTAMP,
+						OsmUser.NONE, 0, tags.getTags(position)),
+				getLat(position), getLon(position));
+	}
+
+	/**
+	 *
+	 * @param id
+	 *            the OSM id of a node
+	 * @return the position of the node in the index or -1, if the index
+	 *         doesn't contain the node
+	 */
+	int getPosition(long id) {
+		int low = 0;
+		int high = sortedIds.limit() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midId = sortedIds.get(mid);
+			if (midId < id)
+				low = mid + 1;
+			else if (midId > id)
+				high = mid - 1;
+			else
+				return sortedPositions.get(mid);
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @param position
+	 *            the position of the node in the index
+	 * @return the OSM id of the node
+	 */
+	long getId(int position) {
+		return ids.get(position);
+	}
+
+	/**
+	 *
+	 * @param position
+	 *            the position of the node in the index
+	 * @return the latitude of the node
+	 */
+	double getLat(int position) {
+		return coordinates.get(2 * position);
+	}
+
+	/**
+	 *
+	 * @param position
+	 *            the position of the node in the index
+	 * @return the longitude of the node
+	 */
+	double getLon(int position) {
+		return coordinates.get(2 * position + 1);
+	}
+
+	/**
+	 *
+	 * @return the tags of the nodes by their position in the index
+	 */
+	TagTable getTags() {
+		return tags;
+	}
+
+	/**
+	 * Orders the nodes such that the median of each range splits it into the
+	 * two subtrees.
+	 */
+	private static class TreeBuilder {
+		final Node[] nodes;
+		final double[] points;
+		final byte[] axis;
+
+		TreeBuilder(Node[] nodes, double[] points, byte[] axis) {
+			this.nodes = nodes;
+			this.points = points;
+			this.axis = axis;
+		}
+
+		void build(int from, int to) {
+			if (to - from <= 1) {
+				return;
+			}
+
+			// split the axis with the largest extent
+			double[] min = { Double.POSITIVE_INFINITY,
+					Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+			double[] max = { Double.NEGATIVE_INFINITY,
+					Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+			for (int i = from; i < to; i++) {
+				for (int a = 0; a < 3; a++) {
+					double c = points[3 * i + a];
+					min[a] = Math.min(min[a], c);
+					max[a] = Math.max(max[a], c);
+				}
+			}
+			int splitAxis = 0;
+			for (int a = 1; a < 3; a++)
+				if (max[a] - min[a] > max[splitAxis] - min[splitAxis])
+					splitAxis = a;
+
+			int mid = (from + to) >>> 1;
+			select(splitAxis, from, to - 1, mid);
+			axis[mid] = (byte) splitAxis;
+
+			build(from, mid);
+			build(mid + 1, to);
+		}
+
+		/**
+		 * Partially sorts the range {@code [left, right]} by {@code a}, such
+		 * that the element at {@code k} is at its sorted position
+		 * (quickselect).
+		 */
+		void select(int a, int left, int right, int k) {
+			while (right > left) {
+				double pivot = points[3 * ((left + right) >>> 1) + a];
+				int i = left;
+				int j = right;
+				while (i <= j) {
+					while (points[3 * i + a] < pivot)
+						i++;
+					while (points[3 * j + a] > pivot)
+						j--;
+					if (i <= j)
+						swap(i++, j--);
+				}
+				if (k <= j)
+					right = j;
+				else if (k >= i)
+					left = i;
+				else
+					return;
+			}
+		}
+
+		void swap(int i, int j) {
+			Node node = nodes[i];
+			nodes[i] = nodes[j];
+			nodes[j] = node;
+			for (int a = 0; a < 3; a++) {
+				double t = points[3 * i + a];
+				points[3 * i + a] = points[3 * j + a];
+				points[3 * j + a] = t;
+			}
+		}
+	}
+
+	/**
+	 * The state of a query, i.e. the nearest nodes found so far in a bounded
+	 * max heap by their squared chord distance.
+	 */
+	private class Query {
+		final double x;
+		final double y;
+		final double z;
+		final IntPredicate predicate;
+
+		final int[] heap;
+		final double[] keys;
+		int size;
+		// the squared chord distance of the farthest node to consider
+		double radius = Double.POSITIVE_INFINITY;
+
+		Query(double x, double y, double z, int capacity,
+				IntPredicate predicate) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.predicate = predicate;
+			this.heap = new int[capacity];
+			this.keys = new double[capacity];
+		}
+
+		// the squared chord distance of the node at index
+		double distance(int index) {
+			double dx = points.get(3 * index) - x;
+			double dy = points.get(3 * index + 1) - y;
+			double dz = points.get(3 * index + 2) - z;
+			return dx * dx + dy * dy + dz * dz;
+		}
+
+		void offer(int index, double key) {
+			int pos;
+			if (size < heap.length) {
+				pos = size++;
+				// sift up
+				while (pos > 0 && keys[(pos - 1) >>> 1] < key) {
+					int parent = (pos - 1) >>> 1;
+					heap[pos] = heap[parent];
+					keys[pos] = keys[parent];
+					pos = parent;
+				}
+			} else {
+				// replace the farthest node and sift down
+				pos = 0;
+				while (2 * pos + 1 < size) {
+					int child = 2 * pos + 1;
+					if (child + 1 < size && keys[child + 1] > keys[child])
+						child++;
+					if (keys[child] <= key)
+						break;
+					heap[pos] = heap[child];
+					keys[pos] = keys[child];
+					pos = child;
+				}
+			}
+			heap[pos] = index;
+			keys[pos] = key;
+
+			if (size == heap.length)
+				radius = Math.min(radius, keys[0]);
+		}
+	}
+
+}
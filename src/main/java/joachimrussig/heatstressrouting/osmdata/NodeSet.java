@@ -0,0 +1,71 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.util.BitSet;
+
+/**
+ * An immutable set of the nodes of a {@link NodeIndex}, e.g. the posting list
+ * of a tag in the {@link TagIndex}. The nodes are represented by their
+ * position in the index, so sets of the same index can be combined cheaply
+ * and passed to the nearest neighbor search directly.
+ *
+ * @author Joachim Rußig
+ */
+public final class NodeSet {
+
+	private final BitSet bits;
+
+	NodeSet(BitSet bits) {
+		this.bits = bits;
+	}
+
+	/**
+	 *
+	 * @return the nodes contained in this set and {@code other}
+	 */
+	public NodeSet and(NodeSet other) {
+		BitSet result = (BitSet) bits.clone();
+		result.and(other.bits);
+		return new NodeSet(result);
+	}
+
+	/**
+	 *
+	 * @return the nodes contained in this set or {@code other}
+	 */
+	public NodeSet or(NodeSet other) {
+		BitSet result = (BitSet) bits.clone();
+		result.or(other.bits);
+		return new NodeSet(result);
+	}
+
+	boolean contains(int position) {
+		return bits.get(position);
+	}
+
+	/**
+	 *
+	 * @return the position of the first node at or after {@code position} or
+	 *         -1 if there is none
+	 */
+	int next(int position) {
+		return bits.nextSetBit(position);
+	}
+
+	/**
+	 *
+	 * @return the number of nodes in this set
+	 */
+	public int size() {
+		return bits.cardinality();
+	}
+
+	public boolean isEmpty() {
+		return bits.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "NodeSet [size=" + size() + "]";
+	}
+
+}
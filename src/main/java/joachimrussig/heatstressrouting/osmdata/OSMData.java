@@ -2,12 +2,15 @@ package joachimrussig.heatstressrouting.osmdata;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.apache.commons.collections4.MultiValuedMap;
@@ -19,7 +22,6 @@ import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
-import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
 
 import com.graphhopper.util.shapes.GHPoint;
 
@@ -29,16 +31,30 @@ import net.osmand.util.OpeningHoursParser;
  * A Class representing a OSM file and allows accessing entities, searching for
  * the nearest neighbor and defines other convenience functions.
  * <p>
+ * The nodes and ways are stored in the {@link NodeIndex} and the
+ * {@link WayNodeIndex}, which are either built of the entities or served by a
+ * memory-mapped {@link OSMSnapshot}; their {@link Node}s and {@link Way}s are
+ * created on demand without the metadata of the entities (e.g. version, user,
+ * timestamp). All other entities (e.g. relations) are kept as they are.
  * 
  * @author Joachim Rußig
  */
 public class OSMData {
 
-	// A multi valued map is used, because the id is only unique within the
-	// object type (i.e. node, way, or relation)
+	// the entities other than nodes and ways; a multi valued map is used,
+	// because the id is only unique within the object type (e.g. relation)
 	private MultiValuedMap<Long, Entity> entities;
 	private Bound boundingBox;
 
+	// spatial index of the nodes used by the nearest neighbor queries
+	private NodeIndex nodeIndex;
+	// inverted index of the place types and opening hours of the nodes
+	private TagIndex tagIndex;
+	// the nodes of the ways and the ways containing a node
+	private WayNodeIndex wayNodeIndex;
+	// the compiled opening hours of the nodes by their id
+	private Map<Long, CompiledOpeningHours> compiledOpeningHours;
+
 	/**
 	 * Creates an new instance of {@code OSMData} of a {@link Set} of
 	 * {@link Entity}s.
@@ -48,13 +64,11 @@ public class OSMData {
 	 */
 	public OSMData(Set<Entity> entities) {
 		this.boundingBox = null;
-		MultiValuedMap<Long, Entity> map = new ArrayListValuedHashMap<>();
 		for (Entity e : entities) {
 			if (e instanceof Bound)
 				this.boundingBox = (Bound) e;
-			map.put(e.getId(), e);
 		}
-		this.entities = map;
+		buildIndices(entities);
 	}
 
 	/**
@@ -71,8 +85,31 @@ public class OSMData {
 	 */
 	protected OSMData(MultiValuedMap<Long, Entity> entities,
 			Bound boundingBox) {
-		this.entities = entities;
 		this.boundingBox = boundingBox;
+		buildIndices(entities.values());
+	}
+
+	/**
+	 * Creates an new instance of {@code OSMData} of the indices read from a
+	 * {@link OSMSnapshot}.
+	 * 
+	 * @param nodeIndex
+	 *            the nodes
+	 * @param wayNodeIndex
+	 *            the ways, resolved with {@code nodeIndex}
+	 * @param boundingBox
+	 *            the bounding box of the OSM data; can be {@code null}
+	 */
+	OSMData(NodeIndex nodeIndex, WayNodeIndex wayNodeIndex,
+			Bound boundingBox) {
+		this.entities = new ArrayListValuedHashMap<>();
+		if (boundingBox != null)
+			entities.put(boundingBox.getId(), boundingBox);
+		this.boundingBox = boundingBox;
+		this.nodeIndex = nodeIndex;
+		this.wayNodeIndex = wayNodeIndex;
+		this.tagIndex = new TagIndex(nodeIndex);
+		this.compiledOpeningHours = compileOpeningHours();
 	}
 
 	/**
@@ -102,7 +139,8 @@ public class OSMData {
 	 * 
 	 */
 	public boolean contains(long id) {
-		return entities.containsKey(id);
+		return containsNode(id) || containsWay(id)
+				|| entities.containsKey(id);
 	}
 
 	/**
@@ -117,8 +155,15 @@ public class OSMData {
 	 *         {@code id} and type {@code type}
 	 */
 	public boolean contains(long id, EntityType type) {
-		return entities.containsKey(id) && entities.get(id).stream()
-				.anyMatch(e -> e.getType().equals(type));
+		switch (type) {
+		case Node:
+			return containsNode(id);
+		case Way:
+			return containsWay(id);
+		default:
+			return entities.containsKey(id) && entities.get(id).stream()
+					.anyMatch(e -> e.getType().equals(type));
+		}
 	}
 
 	/**
@@ -130,7 +175,7 @@ public class OSMData {
 	 *         {@code id}
 	 */
 	public boolean containsNode(long id) {
-		return contains(id, EntityType.Node);
+		return nodeIndex.getPosition(id) >= 0;
 	}
 
 	/**
@@ -141,7 +186,7 @@ public class OSMData {
 	 * @return true, if the object contains any {@code Way} with id {@code id}
 	 */
 	public boolean containsWay(long id) {
-		return contains(id, EntityType.Way);
+		return wayNodeIndex.getPosition(id) >= 0;
 	}
 
 	/**
@@ -159,10 +204,7 @@ public class OSMData {
 	 *         {@code key}
 	 */
 	public boolean containsTag(long id, String key, EntityType entityType) {
-		return getEntityById(id, entityType)
-				.map(e -> e.getTags().stream()
-						.anyMatch(t -> t.getKey().equalsIgnoreCase(key)))
-				.orElse(false);
+		return getTagById(id, key, entityType).isPresent();
 	}
 
 	/**
@@ -180,6 +222,13 @@ public class OSMData {
 	 *         {@code key}
 	 */
 	public boolean containsTag(long id, Tag tag, EntityType entityType) {
+		if (entityType == EntityType.Node) {
+			int i = nodeIndex.getPosition(id);
+			return i >= 0 && nodeIndex.getTags().contains(i, tag);
+		} else if (entityType == EntityType.Way) {
+			int i = wayNodeIndex.getPosition(id);
+			return i >= 0 && wayNodeIndex.getTags().contains(i, tag);
+		}
 		return getEntityById(id, entityType).map(e -> e.getTags().contains(tag))
 				.orElse(false);
 	}
@@ -193,7 +242,11 @@ public class OSMData {
 	 * @return all {@code Entity}s with the specified {@code id}
 	 */
 	public Collection<Entity> getEntitiesById(long id) {
-		return entities.get(id);
+		List<Entity> result = new ArrayList<>();
+		getNodeById(id).ifPresent(result::add);
+		getWayById(id).ifPresent(result::add);
+		result.addAll(entities.get(id));
+		return result;
 	}
 
 	/**
@@ -207,8 +260,15 @@ public class OSMData {
 	 *         otherwise
 	 */
 	public Optional<Entity> getEntityById(long id, EntityType entityType) {
-		return getEntitiesById(id).stream()
-				.filter(e -> e.getType() == entityType).findAny();
+		switch (entityType) {
+		case Node:
+			return getNodeById(id).map(Entity.class::cast);
+		case Way:
+			return getWayById(id).map(Entity.class::cast);
+		default:
+			return entities.get(id).stream()
+					.filter(e -> e.getType() == entityType).findAny();
+		}
 	}
 
 	/**
@@ -221,7 +281,8 @@ public class OSMData {
 	 *         {@code Optional.empty()} otherwise
 	 */
 	public Optional<Node> getNodeById(long id) {
-		return getEntityById(id, EntityType.Node).map(Node.class::cast);
+		int i = nodeIndex.getPosition(id);
+		return i >= 0 ? Optional.of(nodeIndex.getNode(i)) : Optional.empty();
 	}
 
 	/**
@@ -234,7 +295,7 @@ public class OSMData {
 	 *         {@code Optional.empty()} otherwise
 	 */
 	public Optional<Way> getWayById(long id) {
-		return getEntityById(id, EntityType.Way).map(Way.class::cast);
+		return wayNodeIndex.getWayById(id);
 	}
 
 	/**
@@ -251,6 +312,15 @@ public class OSMData {
 	 */
 	public Optional<Tag> getTagById(long id, String key,
 			EntityType entityType) {
+		if (entityType == EntityType.Node) {
+			int i = nodeIndex.getPosition(id);
+			return i >= 0 ? nodeIndex.getTags().getTag(i, key)
+					: Optional.empty();
+		} else if (entityType == EntityType.Way) {
+			int i = wayNodeIndex.getPosition(id);
+			return i >= 0 ? wayNodeIndex.getTags().getTag(i, key)
+					: Optional.empty();
+		}
 		return getEntityById(id, entityType).flatMap(e -> e.getTags().stream()
 				.filter(t -> t.getKey().equalsIgnoreCase(key)).findFirst());
 	}
@@ -291,12 +361,30 @@ public class OSMData {
 				OpeningHoursParser.parseOpenedHours(ohStr.get()).getRules()));
 	}
 
+	/**
+	 * Returns the opening hours of the node specified by {@code id}, that
+	 * were compiled when the data was loaded.
+	 * 
+	 * @param id
+	 *            the id of the node
+	 * @return the compiled opening hours of the node, if present and parsed
+	 *         correctly, and {@code Optional.empty()} otherwise
+	 */
+	public Optional<CompiledOpeningHours> getCompiledOpeningHours(long id) {
+		return Optional.ofNullable(compiledOpeningHours.get(id));
+	}
+
 	/**
 	 * 
 	 * @return the stored {@link Entity}s as a {@link Stream}
 	 */
 	public Stream<Entity> getEntityStream() {
-		return entities.values().stream();
+		Stream<Entity> nodes = IntStream.range(0, nodeIndex.size())
+				.mapToObj(nodeIndex::getNode);
+		Stream<Entity> ways = IntStream.range(0, wayNodeIndex.size())
+				.mapToObj(wayNodeIndex::getWay);
+		return Stream.concat(Stream.concat(nodes, ways),
+				entities.values().stream());
 	}
 
 	/**
@@ -308,14 +396,24 @@ public class OSMData {
 	 * @return the {@link Node}s which are part of the specified {@link Way}
 	 */
 	public List<Node> getWayNodes(long wayId) {
-		Optional<Way> way = getWayById(wayId);
-		if (way.isPresent()) {
-			return way.get().getWayNodes().stream().map(WayNode::getNodeId)
-					.map(this::getNodeById).filter(Optional::isPresent)
-					.map(Optional::get).collect(Collectors.toList());
-		} else {
-			return new ArrayList<>();
-		}
+		return wayNodeIndex.getWayNodes(wayId);
+	}
+
+	/**
+	 * Points the cursor {@code geometry} to the packed ids and coordinates of
+	 * the nodes of the {@link Way} specified by {@code wayId}. Unlike
+	 * {@link #getWayNodes(long)}, this doesn't allocate, so {@code geometry}
+	 * should be reused when iterating over many ways.
+	 * 
+	 * @param wayId
+	 *            the id of the way
+	 * @param geometry
+	 *            the cursor to set
+	 * @return {@code true}, if the way exists, otherwise {@code geometry} is
+	 *         empty
+	 */
+	public boolean getWayGeometry(long wayId, WayGeometry geometry) {
+		return wayNodeIndex.getWayGeometry(wayId, geometry);
 	}
 
 	/**
@@ -327,14 +425,7 @@ public class OSMData {
 	 * @return {@code true}, if the way is cyclic
 	 */
 	public boolean isCyclicWay(long wayId) {
-		Optional<Way> way = getWayById(wayId);
-		if (way.isPresent()) {
-			List<WayNode> wayNodes = way.get().getWayNodes();
-			return wayNodes.get(0).getNodeId() == wayNodes
-					.get(wayNodes.size() - 1).getNodeId();
-		} else {
-			return false;
-		}
+		return wayNodeIndex.isCyclicWay(wayId);
 	}
 
 	/**
@@ -426,12 +517,8 @@ public class OSMData {
 	 */
 	public Optional<Node> nearestNeighbor(final GHPoint point,
 			Double maxDistance, Predicate<Entity> predicate) {
-		return getEntityStream().filter(predicate.and(Node.class::isInstance))
-				.map(Node.class::cast)
-				.min((n1, n2) -> Double.compare(OSMUtils.distance(point, n1),
-						OSMUtils.distance(point, n2)))
-				.filter(n -> maxDistance == null
-						|| OSMUtils.distance(point, n) <= maxDistance);
+		return kNearestNeighbor(point, 1, maxDistance, predicate).stream()
+				.findFirst();
 	}
 
 	/**
@@ -481,7 +568,9 @@ public class OSMData {
 	}
 
 	/**
-	 * Returns the maximal {@code k} nearest neighboring nodes of {@code point}.
+	 * Returns the maximal {@code k} nearest neighboring nodes of {@code point}
+	 * using the spatial index of the nodes (see {@link NodeIndex}). The
+	 * predicate is only evaluated for nodes that are candidates of the result.
 	 * 
 	 * @param point
 	 *            the point to search the nearest neighboring nodes for
@@ -493,16 +582,33 @@ public class OSMData {
 	 * @param predicate
 	 *            only return nodes that fulfill the predicate
 	 * @return the maximal {@code k} nearest neighboring nodes of {@code point}
+	 *         ordered by their distance
 	 */
 	public List<Node> kNearestNeighbor(final GHPoint point, long k,
 			Double maxDistance, Predicate<Entity> predicate) {
-		return getEntityStream().filter(predicate.and(Node.class::isInstance))
-				.map(Node.class::cast)
-				.map(n -> Pair.of(OSMUtils.distance(point, n), n))
-				.filter(pair -> maxDistance == null
-						|| pair.getKey() <= maxDistance)
-				.sorted().limit(k).map(Pair::getValue)
-				.collect(Collectors.toList());
+		return nodeIndex.nearest(point, k, maxDistance, predicate);
+	}
+
+	/**
+	 * Returns the maximal {@code k} nearest neighboring nodes of {@code point}
+	 * contained in {@code nodes}, e.g. the places of a set of place types (see
+	 * {@link #getTagIndex()}).
+	 * 
+	 * @param point
+	 *            the point to search the nearest neighboring nodes for
+	 * @param k
+	 *            maximal number of neighbors to return
+	 * @param maxDistance
+	 *            maximal distance to consider in meter; {@code null} if no
+	 *            maximal distance is desired
+	 * @param nodes
+	 *            the nodes to consider, a set of {@link #getTagIndex()}
+	 * @return the maximal {@code k} nearest neighboring nodes of {@code point}
+	 *         ordered by their distance
+	 */
+	public List<Node> kNearestNeighbor(final GHPoint point, long k,
+			Double maxDistance, NodeSet nodes) {
+		return nodeIndex.nearest(point, k, maxDistance, nodes);
 	}
 
 	/**
@@ -516,8 +622,10 @@ public class OSMData {
 	 *         node
 	 */
 	public Optional<GHPoint> getGHPoint(long id) {
-		return getNodeById(id)
-				.map(n -> new GHPoint(n.getLatitude(), n.getLongitude()));
+		int i = nodeIndex.getPosition(id);
+		return i >= 0 ? Optional
+				.of(new GHPoint(nodeIndex.getLat(i), nodeIndex.getLon(i)))
+				: Optional.empty();
 	}
 
 	/**
@@ -534,11 +642,60 @@ public class OSMData {
 	 * @param entities
 	 */
 	protected void setEntities(Set<Entity> entities) {
-		MultiValuedMap<Long, Entity> map = new ArrayListValuedHashMap<>();
+		buildIndices(entities);
+	}
+
+	private void buildIndices(Collection<Entity> entities) {
+		List<Node> nodes = new ArrayList<>();
+		List<Way> ways = new ArrayList<>();
+		MultiValuedMap<Long, Entity> others = new ArrayListValuedHashMap<>();
 		for (Entity e : entities) {
-			map.put(e.getId(), e);
+			if (e.getType() == EntityType.Node)
+				nodes.add((Node) e);
+			else if (e.getType() == EntityType.Way)
+				ways.add((Way) e);
+			else
+				others.put(e.getId(), e);
+		}
+		this.entities = others;
+		this.nodeIndex = new NodeIndex(nodes);
+		this.tagIndex = new TagIndex(nodeIndex);
+		this.wayNodeIndex = new WayNodeIndex(ways, nodeIndex);
+		this.compiledOpeningHours = compileOpeningHours();
+	}
+
+	private Map<Long, CompiledOpeningHours> compileOpeningHours() {
+		Map<Long, CompiledOpeningHours> result = new HashMap<>();
+		NodeSet nodes = tagIndex.getOpeningHours();
+		for (int i = nodes.next(0); i >= 0; i = nodes.next(i + 1)) {
+			Optional<String> value = nodeIndex.getTags()
+					.getTag(i, OSMOpeningHours.OPENING_HOURS_KEY)
+					.map(Tag::getValue);
+			OpeningHoursParser.OpeningHours openingHours = value
+					.map(OpeningHoursParser::parseOpenedHours).orElse(null);
+			if (openingHours != null)
+				result.put(nodeIndex.getId(i),
+						CompiledOpeningHours.compile(openingHours));
 		}
-		this.entities = map;
+		return result;
+	}
+
+	/**
+	 * 
+	 * @return the inverted index of the place types and opening hours of the
+	 *         nodes, whose sets can be passed to
+	 *         {@link #kNearestNeighbor(GHPoint, long, Double, NodeSet)}
+	 */
+	public TagIndex getTagIndex() {
+		return tagIndex;
+	}
+
+	NodeIndex getNodeIndex() {
+		return nodeIndex;
+	}
+
+	WayNodeIndex getWayNodeIndex() {
+		return wayNodeIndex;
 	}
 
 	/**
@@ -546,9 +703,8 @@ public class OSMData {
 	 * @return all stored {@link Node}s
 	 */
 	public Set<Node> getNodes() {
-		return getEntityStream()
-				.filter(e -> e.getType().equals(EntityType.Node))
-				.map(Node.class::cast).collect(Collectors.toSet());
+		return IntStream.range(0, nodeIndex.size())
+				.mapToObj(nodeIndex::getNode).collect(Collectors.toSet());
 	}
 
 	/**
@@ -556,8 +712,8 @@ public class OSMData {
 	 * @return @return all stored {@link Way}s
 	 */
 	public Set<Way> getWays() {
-		return getEntityStream().filter(e -> e.getType().equals(EntityType.Way))
-				.map(Way.class::cast).collect(Collectors.toSet());
+		return IntStream.range(0, wayNodeIndex.size())
+				.mapToObj(wayNodeIndex::getWay).collect(Collectors.toSet());
 	}
 
 	/**
@@ -566,13 +722,10 @@ public class OSMData {
 	 * 
 	 * @param nodeId
 	 * @return all {@link Way}s that contains the {@code Node} specified by
+	 *         {@code id} ordered by their id
 	 */
 	public Set<Way> getWaysContainingNode(long nodeId) {
-		return getEntityStream().filter(e -> e.getType().equals(EntityType.Way))
-				.map(Way.class::cast)
-				.filter(w -> w.getWayNodes().stream()
-						.anyMatch(n -> n.getNodeId() == nodeId))
-				.collect(Collectors.toSet());
+		return wayNodeIndex.getWaysContainingNode(nodeId);
 	}
 
 	public Optional<Bound> getBoundingBox() {
@@ -4,11 +4,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.function.Predicate;
 
 import org.apache.commons.collections4.MultiValuedMap;
 import org.apache.commons.lang3.tuple.Pair;
 import org.openstreetmap.osmosis.core.domain.v0_6.Bound;
 import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 import org.openstreetmap.osmosis.core.task.v0_6.RunnableSource;
 import org.openstreetmap.osmosis.xml.common.CompressionMethod;
 import org.openstreetmap.osmosis.xml.v0_6.XmlReader;
@@ -30,6 +34,18 @@ public class OSMFileReader {
 	private static final Logger logger = LoggerFactory
 			.getLogger(OSMFileReader.class);
 
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	private boolean useSnapshot = false;
+	// the directory of the snapshots; if null, the snapshot is stored next to
+	// the OSM file
+	private File snapshotDirectory = null;
+	// if not null, only the ways accepted by the filter and their nodes are
+	// loaded (see SelectiveOSMLoader)
+	private Predicate<Way> wayFilter = null;
+	// the number of threads used to decode OSM-PBF files
+	private int threads = 1;
+
 	/**
 	 * Creates a new {@code OSMFileReader}.
 	 */
@@ -39,6 +55,11 @@ public class OSMFileReader {
 	/**
 	 * Reads the OSM file specified by {@code file} and returns a
 	 * {@link OSMData} object.
+	 * <p>
+	 * If snapshots are enabled (see {@link #setUseSnapshot(boolean)}), the
+	 * data is read from the snapshot of {@code file} (see
+	 * {@link #setSnapshotDirectory(File)}) if it is up to date, otherwise the
+	 * snapshot is (re)created after parsing {@code file}.
 	 * 
 	 * @param file
 	 *            OSM file to read
@@ -47,8 +68,127 @@ public class OSMFileReader {
 	 *             if an error occoured while reading {@code file}
 	 */
 	public OSMData read(File file) throws IOException {
-		Pair<MultiValuedMap<Long, Entity>, Bound> osmData = readOsmFile(file);
-		return new OSMData(osmData.getLeft(), osmData.getRight());
+		if (!useSnapshot) {
+			Pair<MultiValuedMap<Long, Entity>, Bound> osmData = readEntities(
+					file);
+			return new OSMData(osmData.getLeft(), osmData.getRight());
+		}
+
+		File snapshotFile = snapshotDirectory != null
+				? new File(snapshotDirectory, file.getName() + SNAPSHOT_SUFFIX)
+				: getSnapshotFile(file);
+		// a snapshot of a selective load must not be used for a full load
+		// and vice versa
+		boolean selective = wayFilter != null;
+		try {
+			Optional<OSMData> snapshot = OSMSnapshot.read(snapshotFile, file,
+					selective);
+			if (snapshot.isPresent())
+				return snapshot.get();
+		} catch (IOException | RuntimeException e) {
+			logger.warn("failed to read OSM snapshot " + snapshotFile, e);
+		}
+
+		Pair<MultiValuedMap<Long, Entity>, Bound> entities = readEntities(
+				file);
+		OSMData osmData = new OSMData(entities.getLeft(), entities.getRight());
+		try {
+			Files.createDirectories(snapshotFile.getAbsoluteFile().toPath()
+					.getParent());
+			OSMSnapshot.write(osmData, snapshotFile, file, selective);
+		} catch (IOException e) {
+			logger.warn("failed to write OSM snapshot " + snapshotFile, e);
+		}
+		return osmData;
+	}
+
+	private Pair<MultiValuedMap<Long, Entity>, Bound> readEntities(File file)
+			throws IOException {
+		if (wayFilter != null)
+			return SelectiveOSMLoader.load(file, wayFilter, threads);
+		return readOsmFile(file, threads);
+	}
+
+	/**
+	 * 
+	 * @param file
+	 *            the OSM file
+	 * @return the snapshot file of {@code file} (see {@link OSMSnapshot})
+	 */
+	public static File getSnapshotFile(File file) {
+		return new File(file.getPath() + SNAPSHOT_SUFFIX);
+	}
+
+	public boolean isUseSnapshot() {
+		return useSnapshot;
+	}
+
+	/**
+	 * 
+	 * @param useSnapshot
+	 *            if {@code true}, a binary snapshot of the OSM data is used
+	 *            to avoid parsing the OSM file on every start (see
+	 *            {@link OSMSnapshot})
+	 * @return this {@code OSMFileReader}
+	 */
+	public OSMFileReader setUseSnapshot(boolean useSnapshot) {
+		this.useSnapshot = useSnapshot;
+		return this;
+	}
+
+	public Optional<File> getSnapshotDirectory() {
+		return Optional.ofNullable(snapshotDirectory);
+	}
+
+	/**
+	 * 
+	 * @param snapshotDirectory
+	 *            the directory the snapshots are stored in, created if
+	 *            necessary; if {@code null}, the snapshot is stored next to
+	 *            the OSM file (see {@link #getSnapshotFile(File)})
+	 * @return this {@code OSMFileReader}
+	 */
+	public OSMFileReader setSnapshotDirectory(File snapshotDirectory) {
+		this.snapshotDirectory = snapshotDirectory;
+		return this;
+	}
+
+	public Optional<Predicate<Way>> getWayFilter() {
+		return Optional.ofNullable(wayFilter);
+	}
+
+	/**
+	 * 
+	 * @param wayFilter
+	 *            if not {@code null}, the OSM file is read by the
+	 *            {@link SelectiveOSMLoader}, i.e. only the ways accepted by
+	 *            {@code wayFilter}, their nodes and the tagged nodes are
+	 *            loaded
+	 * @return this {@code OSMFileReader}
+	 */
+	public OSMFileReader setWayFilter(Predicate<Way> wayFilter) {
+		this.wayFilter = wayFilter;
+		return this;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * 
+	 * @param threads
+	 *            the number of threads used to decode OSM-PBF files; if
+	 *            greater than 1, the {@link ParallelPbfReader} is used
+	 * @return this {@code OSMFileReader}
+	 * @throws IllegalArgumentException
+	 *             if {@code threads} is not positive
+	 */
+	public OSMFileReader setThreads(int threads) {
+		if (threads <= 0)
+			throw new IllegalArgumentException("threads must be positive");
+		this.threads = threads;
+		return this;
 	}
 
 	/**
@@ -66,10 +206,56 @@ public class OSMFileReader {
 	 */
 	public static Pair<MultiValuedMap<Long, Entity>, Bound> readOsmFile(
 			File file) throws FileNotFoundException {
+		return readOsmFile(file, 1);
+	}
+
+	/**
+	 * Reads the specified {@code file} to a
+	 * {@code MultiValuedMap<Long, Entity>}.
+	 * 
+	 * @param file
+	 *            the OSM file to read
+	 * @param threads
+	 *            the number of threads used to decode {@code file}, if it is
+	 *            a OSM-PBF file
+	 * @return the content of the {@code file} (see {@link #readOsmFile(File)})
+	 * @throws FileNotFoundException
+	 */
+	public static Pair<MultiValuedMap<Long, Entity>, Bound> readOsmFile(
+			File file, int threads) throws FileNotFoundException {
 		// See: http://forum.openstreetmap.org/viewtopic.php?id=15037
 
 		CollectorSink collectorSink = new CollectorSink();
 
+		RunnableSource reader = createReader(file, threads);
+		reader.setSink(collectorSink);
+
+		logger.info("Start reading ...");
+		StopWatch sw = new StopWatch().start();
+
+		reader.run();
+
+		logger.info("done (" + sw.stop().getTime() + " ms )");
+
+		return Pair.of(collectorSink.getEntities(),
+				collectorSink.getBoundingBox());
+	}
+
+	/**
+	 * Creates a reader for the OSM file {@code file} depending on its file
+	 * format (i.e. OSM-XML, optionally compressed, or OSM-PBF).
+	 * 
+	 * @param file
+	 *            the OSM file to read
+	 * @param threads
+	 *            the number of threads used to decode a OSM-PBF file (see
+	 *            {@link ParallelPbfReader})
+	 * @return a reader of {@code file}, that has to be connected to a
+	 *         {@link org.openstreetmap.osmosis.core.task.v0_6.Sink}
+	 * @throws FileNotFoundException
+	 */
+	static RunnableSource createReader(File file, int threads)
+			throws FileNotFoundException {
 		logger.debug("OSM File: " + file.getName() + " (exists = "
 				+ file.exists() + ")");
 
@@ -87,25 +273,15 @@ public class OSMFileReader {
 		logger.debug(
 				"pbf = " + pbf + "; compression = " + compression.toString());
 
-		RunnableSource reader;
-
-		if (pbf) {
-			reader = new OsmosisReader(new FileInputStream(file));
+		if (pbf && threads > 1) {
+			if (!file.isFile())
+				throw new FileNotFoundException(file.getPath());
+			return new ParallelPbfReader(file, threads);
+		} else if (pbf) {
+			return new OsmosisReader(new FileInputStream(file));
 		} else {
-			reader = new XmlReader(file, false, compression);
+			return new XmlReader(file, false, compression);
 		}
-
-		reader.setSink(collectorSink);
-
-		logger.info("Start reading ...");
-		StopWatch sw = new StopWatch().start();
-
-		reader.run();
-
-		logger.info("done (" + sw.stop().getTime() + " ms )");
-
-		return Pair.of(collectorSink.getEntities(),
-				collectorSink.getBoundingBox());
 	}
 
 }
@@ -0,0 +1,243 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.Optional;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Bound;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.util.StopWatch;
+
+/**
+ * A compact binary snapshot of the {@link OSMData} read from a OSM file, so
+ * the OSM file doesn't have to be parsed again on later starts.
+ * <p>
+ * The snapshot contains the bounding box and the buffers of the
+ * {@link NodeIndex} and the {@link WayNodeIndex}, i.e. the built k-d tree,
+ * the coordinates and tags of the nodes and the node lists and tags of the
+ * ways. The snapshot is memory-mapped and the indices are served by views of
+ * the mapped buffer, so only the string tables of the tags are copied to the
+ * heap and nothing has to be rebuilt on later starts.
+ * <p>
+ * The snapshot records the size and the modification time of the OSM file it
+ * was created from and is only used, if both match, so the OSM file doesn't
+ * have to be read to check if the snapshot is up to date. Relations and the
+ * metadata of the entities (e.g. version, user, timestamp) are not part of
+ * the snapshot.
+ *
+ * @author Joachim Rußig
+ */
+public class OSMSnapshot {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(OSMSnapshot.class);
+
+	private static final int MAGIC = 0x4F534D53; // "OSMS"
+	private static final int VERSION = 2;
+
+	// the timestamp of the entities created on demand
+	static final Date TIMESTAMP = new Date(0);
+
+	private OSMSnapshot() {
+	}
+
+	/**
+	 * Writes a snapshot of {@code osmData} to {@code file}. The snapshot is
+	 * written to a temporary file first, that replaces {@code file} when
+	 * complete.
+	 *
+	 * @param osmData
+	 *            the data to write
+	 * @param file
+	 *            the snapshot file
+	 * @param osmFile
+	 *            the OSM file {@code osmData} was read from
+	 * @param selective
+	 *            {@code true}, if only a selection of the entities of
+	 *            {@code osmFile} was read (see {@link SelectiveOSMLoader})
+	 * @throws IOException
+	 *             if the snapshot couldn't be written
+	 */
+	public static void write(OSMData osmData, File file, File osmFile,
+			boolean selective) throws IOException {
+		logger.info("write OSM snapshot " + file + "...");
+		StopWatch sw = new StopWatch().start();
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(osmFile.length());
+			out.writeLong(osmFile.lastModified());
+			out.writeBoolean(selective);
+
+			Optional<Bound> bound = osmData.getBoundingBox();
+			out.writeBoolean(bound.isPresent());
+			if (bound.isPresent()) {
+				out.writeDouble(bound.get().getRight());
+				out.writeDouble(bound.get().getLeft());
+				out.writeDouble(bound.get().getTop());
+				out.writeDouble(bound.get().getBottom());
+				writeString(out, bound.get().getOrigin());
+			}
+
+			osmData.getNodeIndex().write(out);
+			osmData.getWayNodeIndex().write(out);
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		logger.info("done (" + sw.stop().getTime() + " ms, " + file.length()
+				+ " bytes)");
+	}
+
+	/**
+	 * Reads the snapshot {@code file}, if it exists and was created from
+	 * {@code osmFile} in its current version, i.e. with the same size and
+	 * modification time.
+	 *
+	 * @param file
+	 *            the snapshot file
+	 * @param osmFile
+	 *            the OSM file
+	 * @param selective
+	 *            {@code true}, if only a selection of the entities of
+	 *            {@code osmFile} is read (see {@link SelectiveOSMLoader})
+	 * @return the data of the snapshot or {@code Optional.empty()} if the
+	 *         snapshot doesn't exist or is out of date
+	 * @throws IOException
+	 *             if the snapshot couldn't be read
+	 */
+	public static Optional<OSMData> read(File file, File osmFile,
+			boolean selective) throws IOException {
+		if (!file.isFile())
+			return Optional.empty();
+
+		logger.info("read OSM snapshot " + file + "...");
+		StopWatch sw = new StopWatch().start();
+
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		}
+
+		if (buffer.remaining() < 25 || buffer.getInt() != MAGIC
+				|| buffer.getInt() != VERSION
+				|| buffer.getLong() != osmFile.length()
+				|| buffer.getLong() != osmFile.lastModified()
+				|| (buffer.get() != 0) != selective) {
+			logger.info("snapshot is out of date");
+			return Optional.empty();
+		}
+
+		Bound bound = null;
+		if (buffer.get() != 0) {
+			double right = buffer.getDouble();
+			double left = buffer.getDouble();
+			double top = buffer.getDouble();
+			double bottom = buffer.getDouble();
+			bound = new Bound(right, left, top, bottom, readString(buffer));
+		}
+
+		NodeIndex nodeIndex = new NodeIndex(buffer);
+		WayNodeIndex wayNodeIndex = new WayNodeIndex(buffer, nodeIndex);
+
+		logger.info("done (" + sw.stop().getTime() + " ms, "
+				+ nodeIndex.size() + " nodes, " + wayNodeIndex.size()
+				+ " ways)");
+		return Optional.of(new OSMData(nodeIndex, wayNodeIndex, bound));
+	}
+
+	static void writeString(DataOutputStream out, String s)
+			throws IOException {
+		byte[] bytes = s == null ? new byte[0]
+				: s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// the buffers are written with their length, so they can be read as
+	// views of the mapped buffer (see below)
+
+	static void writeLongs(DataOutputStream out, LongBuffer values)
+			throws IOException {
+		out.writeInt(values.limit());
+		for (int i = 0; i < values.limit(); i++)
+			out.writeLong(values.get(i));
+	}
+
+	static void writeInts(DataOutputStream out, IntBuffer values)
+			throws IOException {
+		out.writeInt(values.limit());
+		for (int i = 0; i < values.limit(); i++)
+			out.writeInt(values.get(i));
+	}
+
+	static void writeDoubles(DataOutputStream out, DoubleBuffer values)
+			throws IOException {
+		out.writeInt(values.limit());
+		for (int i = 0; i < values.limit(); i++)
+			out.writeDouble(values.get(i));
+	}
+
+	static void writeBytes(DataOutputStream out, ByteBuffer values)
+			throws IOException {
+		out.writeInt(values.limit());
+		for (int i = 0; i < values.limit(); i++)
+			out.writeByte(values.get(i));
+	}
+
+	static LongBuffer readLongs(ByteBuffer buffer) {
+		return slice(buffer, 8).asLongBuffer();
+	}
+
+	static IntBuffer readInts(ByteBuffer buffer) {
+		return slice(buffer, 4).asIntBuffer();
+	}
+
+	static DoubleBuffer readDoubles(ByteBuffer buffer) {
+		return slice(buffer, 8).asDoubleBuffer();
+	}
+
+	static ByteBuffer readBytes(ByteBuffer buffer) {
+		return slice(buffer, 1);
+	}
+
+	// a view of the next values of buffer, whose position is advanced past
+	// them
+	private static ByteBuffer slice(ByteBuffer buffer, int bytes) {
+		int n = buffer.getInt();
+		if (n < 0 || (long) n * bytes > buffer.remaining())
+			throw new IllegalStateException("corrupt snapshot");
+		ByteBuffer slice = buffer.slice();
+		slice.limit(n * bytes);
+		buffer.position(buffer.position() + n * bytes);
+		return slice;
+	}
+
+}
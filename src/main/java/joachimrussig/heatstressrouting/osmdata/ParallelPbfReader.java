@@ -0,0 +1,261 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.openstreetmap.osmosis.core.OsmosisRuntimeException;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.task.v0_6.RunnableSource;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
+import org.openstreetmap.osmosis.osmbinary.file.FileBlock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ByteString;
+
+import crosby.binary.osmosis.OsmosisBinaryParser;
+
+/**
+ * A {@link RunnableSource} that reads a OSM-PBF file with multiple threads.
+ * <p>
+ * The blobs of a PBF file are compressed independently, so only the framing
+ * of the blobs is read sequentially. The inflation of the blobs and the
+ * decoding of the entities (using osmosis' {@link OsmosisBinaryParser}) run on
+ * a pool of worker threads. The decoded blocks are passed to the sink in the
+ * order of the file, so the sink receives the same entities in the same
+ * order as from the single threaded
+ * {@link crosby.binary.osmosis.OsmosisReader}. The number of blocks in flight
+ * is bounded to limit the memory used.
+ * <p>
+ * The time spent in each stage (reading, inflating, decoding and passing the
+ * entities to the sink) is logged when the file is read completely.
+ *
+ * @author Joachim Rußig
+ */
+public class ParallelPbfReader implements RunnableSource {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(ParallelPbfReader.class);
+
+	// the maximum size of a blob header and a blob as defined by the format
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+	private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+	// the number of blocks in flight per thread
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	private final File file;
+	private final int threads;
+	private Sink sink;
+
+	private final AtomicLong inflateNanos = new AtomicLong();
+	private final AtomicLong decodeNanos = new AtomicLong();
+
+	/**
+	 * Creates a new {@code ParallelPbfReader}.
+	 *
+	 * @param file
+	 *            the PBF file to read
+	 * @param threads
+	 *            the number of worker threads
+	 * @throws IllegalArgumentException
+	 *             if {@code threads} is not positive
+	 */
+	public ParallelPbfReader(File file, int threads) {
+		if (threads <= 0)
+			throw new IllegalArgumentException("threads must be positive");
+		this.file = file;
+		this.threads = threads;
+	}
+
+	@Override
+	public void setSink(Sink sink) {
+		this.sink = sink;
+	}
+
+	@Override
+	public void run() {
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "pbf-decoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			sink.initialize(Collections.<String, Object> emptyMap());
+
+			long readNanos = 0;
+			long sinkNanos = 0;
+			long blocks = 0;
+			ArrayDeque<Future<List<EntityContainer>>> pending = new ArrayDeque<>();
+			while (true) {
+				long start = System.nanoTime();
+				Blob blob = readBlob(in);
+				readNanos += System.nanoTime() - start;
+				if (blob == null)
+					break;
+				blocks++;
+
+				pending.add(executor.submit(() -> decode(blob)));
+				if (pending.size() >= threads * BLOCKS_PER_THREAD)
+					sinkNanos += process(pending.poll().get());
+			}
+			while (!pending.isEmpty())
+				sinkNanos += process(pending.poll().get());
+
+			sink.complete();
+
+			logger.info("read " + blocks + " blocks with " + threads
+					+ " thread(s): read " + readNanos / 1000000
+					+ " ms, inflate " + inflateNanos.get() / 1000000
+					+ " ms, decode " + decodeNanos.get() / 1000000
+					+ " ms (summed over all threads), sink "
+					+ sinkNanos / 1000000 + " ms");
+		} catch (IOException e) {
+			throw new OsmosisRuntimeException("Unable to read PBF file " + file,
+					e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OsmosisRuntimeException(
+					"Interrupted while reading PBF file " + file, e);
+		} catch (ExecutionException e) {
+			throw new OsmosisRuntimeException(
+					"Unable to decode PBF file " + file, e.getCause());
+		} finally {
+			executor.shutdownNow();
+			sink.release();
+		}
+	}
+
+	// passes the decoded entities to the sink and returns the time spent
+	private long process(List<EntityContainer> containers) {
+		long start = System.nanoTime();
+		for (EntityContainer container : containers)
+			sink.process(container);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Reads the next blob, i.e. the length of the blob header, the blob header
+	 * and the (compressed) blob.
+	 *
+	 * @return the next blob or {@code null} at the end of the file
+	 */
+	private static Blob readBlob(DataInputStream in) throws IOException {
+		int headerSize;
+		try {
+			headerSize = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (headerSize < 0 || headerSize > MAX_HEADER_SIZE)
+			throw new IOException("invalid blob header size " + headerSize);
+		byte[] header = new byte[headerSize];
+		in.readFully(header);
+		Fileformat.BlobHeader blobHeader = Fileformat.BlobHeader
+				.parseFrom(header);
+
+		int size = blobHeader.getDatasize();
+		if (size < 0 || size > MAX_BLOB_SIZE)
+			throw new IOException("invalid blob size " + size);
+		byte[] data = new byte[size];
+		in.readFully(data);
+		return new Blob(blobHeader.getType(), data);
+	}
+
+	/**
+	 * Inflates and decodes {@code blob} on a worker thread.
+	 */
+	private List<EntityContainer> decode(Blob blob)
+			throws IOException, DataFormatException {
+		long start = System.nanoTime();
+		Fileformat.Blob message = Fileformat.Blob.parseFrom(blob.data);
+		ByteString data;
+		if (message.hasRaw()) {
+			data = message.getRaw();
+		} else if (message.hasZlibData()) {
+			byte[] raw = new byte[message.getRawSize()];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(message.getZlibData().toByteArray());
+				inflater.inflate(raw);
+				if (!inflater.finished())
+					throw new DataFormatException("incomplete blob");
+			} finally {
+				inflater.end();
+			}
+			data = ByteString.copyFrom(raw);
+		} else {
+			throw new DataFormatException("unsupported blob compression");
+		}
+		long inflated = System.nanoTime();
+		inflateNanos.addAndGet(inflated - start);
+
+		List<EntityContainer> containers = new ArrayList<>();
+		OsmosisBinaryParser parser = new OsmosisBinaryParser();
+		parser.setSink(new CollectingSink(containers));
+		parser.handleBlock(FileBlock.newInstance(blob.type, data, null));
+		decodeNanos.addAndGet(System.nanoTime() - inflated);
+		return containers;
+	}
+
+	/**
+	 * A blob as read from the file, i.e. the type from the blob header and
+	 * the serialized blob.
+	 */
+	private static class Blob {
+		final String type;
+		final byte[] data;
+
+		Blob(String type, byte[] data) {
+			this.type = type;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Collects the entities decoded from a single block.
+	 */
+	private static class CollectingSink implements Sink {
+		final List<EntityContainer> containers;
+
+		CollectingSink(List<EntityContainer> containers) {
+			this.containers = containers;
+		}
+
+		@Override
+		public void process(EntityContainer entityContainer) {
+			containers.add(entityContainer);
+		}
+
+		@Override
+		public void initialize(Map<String, Object> metaData) {
+		}
+
+		@Override
+		public void complete() {
+		}
+
+		@Override
+		public void release() {
+		}
+	}
+
+}
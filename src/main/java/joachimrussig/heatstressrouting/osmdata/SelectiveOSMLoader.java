@@ -0,0 +1,227 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.Bound;
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.osmosis.core.task.v0_6.RunnableSource;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.reader.ReaderWay;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.util.StopWatch;
+
+import gnu.trove.set.hash.TLongHashSet;
+
+/**
+ * Reads an OSM file in two passes and keeps only the entities needed for
+ * routing, i.e. the ways accepted by a filter (e.g. the ways of the foot
+ * graph, see {@link #acceptedBy(EncodingManager)}), the nodes of these ways
+ * and all tagged nodes (i.e. the places). The first pass collects the ids of
+ * the ways and nodes to keep into primitive sets, the second pass only
+ * materialises these entities. Relations are skipped.
+ *
+ * @author Joachim Rußig
+ */
+public class SelectiveOSMLoader {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SelectiveOSMLoader.class);
+
+	// rough estimates of the heap size of the entities (including their map
+	// entries) used to report the memory saved
+	private static final long NODE_BYTES = 160;
+	private static final long WAY_BYTES = 200;
+	private static final long WAY_NODE_BYTES = 40;
+	private static final long RELATION_BYTES = 200;
+
+	private SelectiveOSMLoader() {
+	}
+
+	/**
+	 * Creates a filter, that accepts the ways accepted by any encoder of
+	 * {@code encodingManager}, i.e. the ways that are part of the graph.
+	 *
+	 * @param encodingManager
+	 *            the encoding manager of the graph
+	 * @return a filter accepting the ways of the graph
+	 */
+	public static Predicate<Way> acceptedBy(EncodingManager encodingManager) {
+		return way -> {
+			ReaderWay readerWay = new ReaderWay(way.getId());
+			for (Tag tag : way.getTags())
+				readerWay.setTag(tag.getKey(), tag.getValue());
+			for (WayNode wayNode : way.getWayNodes())
+				readerWay.getNodes().add(wayNode.getNodeId());
+			return encodingManager.acceptWay(readerWay) != 0;
+		};
+	}
+
+	/**
+	 * Reads the ways of {@code file} accepted by {@code wayFilter}, their
+	 * nodes and the tagged nodes.
+	 *
+	 * @param file
+	 *            the OSM file to read
+	 * @param wayFilter
+	 *            the ways to keep
+	 * @param threads
+	 *            the number of threads used to decode {@code file}, if it is
+	 *            a OSM-PBF file
+	 * @return the kept entities by their OSM id and the bounding box, if
+	 *         present, and {@code null} otherwise
+	 * @throws FileNotFoundException
+	 *             if {@code file} doesn't exist
+	 */
+	public static Pair<MultiValuedMap<Long, Entity>, Bound> load(File file,
+			Predicate<Way> wayFilter, int threads)
+			throws FileNotFoundException {
+		logger.info("collect the ids of the ways and nodes to keep...");
+		StopWatch sw = new StopWatch().start();
+		IdCollector collector = new IdCollector(wayFilter);
+		RunnableSource reader = OSMFileReader.createReader(file, threads);
+		reader.setSink(collector);
+		reader.run();
+		logger.info("done (" + sw.stop().getTime() + " ms, "
+				+ collector.ways.size() + " ways, " + collector.nodes.size()
+				+ " way nodes)");
+
+		logger.info("read the ways and nodes...");
+		sw = new StopWatch().start();
+		SelectiveSink sink = new SelectiveSink(collector.ways,
+				collector.nodes);
+		reader = OSMFileReader.createReader(file, threads);
+		reader.setSink(sink);
+		reader.run();
+
+		long saved = (sink.skippedNodes * NODE_BYTES)
+				+ (sink.skippedWays * WAY_BYTES)
+				+ (sink.skippedWayNodes * WAY_NODE_BYTES)
+				+ (sink.skippedRelations * RELATION_BYTES);
+		logger.info("done (" + sw.stop().getTime() + " ms, kept "
+				+ sink.keptNodes + " nodes and " + sink.keptWays
+				+ " ways, skipped " + sink.skippedNodes + " nodes, "
+				+ sink.skippedWays + " ways and " + sink.skippedRelations
+				+ " relations, saved approx. " + (saved >> 20) + " MB)");
+
+		return Pair.of(sink.entities, sink.boundingBox);
+	}
+
+	/**
+	 * The first pass, that collects the ids of the accepted ways and their
+	 * nodes.
+	 */
+	private static class IdCollector implements Sink {
+		final Predicate<Way> wayFilter;
+		final TLongHashSet ways = new TLongHashSet();
+		final TLongHashSet nodes = new TLongHashSet();
+
+		IdCollector(Predicate<Way> wayFilter) {
+			this.wayFilter = wayFilter;
+		}
+
+		@Override
+		public void process(EntityContainer entityContainer) {
+			Entity entity = entityContainer.getEntity();
+			if (entity instanceof Way && wayFilter.test((Way) entity)) {
+				ways.add(entity.getId());
+				for (WayNode wayNode : ((Way) entity).getWayNodes())
+					nodes.add(wayNode.getNodeId());
+			}
+		}
+
+		@Override
+		public void initialize(Map<String, Object> metaData) {
+		}
+
+		@Override
+		public void complete() {
+		}
+
+		@Override
+		public void release() {
+		}
+	}
+
+	/**
+	 * The second pass, that keeps the collected ways and nodes and the tagged
+	 * nodes.
+	 */
+	private static class SelectiveSink implements Sink {
+		final TLongHashSet ways;
+		final TLongHashSet nodes;
+		final MultiValuedMap<Long, Entity> entities = new ArrayListValuedHashMap<>();
+		Bound boundingBox = null;
+
+		long keptNodes;
+		long keptWays;
+		long skippedNodes;
+		long skippedWays;
+		long skippedWayNodes;
+		long skippedRelations;
+
+		SelectiveSink(TLongHashSet ways, TLongHashSet nodes) {
+			this.ways = ways;
+			this.nodes = nodes;
+		}
+
+		@Override
+		public void process(EntityContainer entityContainer) {
+			Entity entity = entityContainer.getEntity();
+			boolean keep;
+			switch (entity.getType()) {
+			case Bound:
+				boundingBox = (Bound) entity;
+				keep = true;
+				break;
+			case Node:
+				keep = nodes.contains(entity.getId())
+						|| !entity.getTags().isEmpty();
+				if (keep)
+					keptNodes++;
+				else
+					skippedNodes++;
+				break;
+			case Way:
+				keep = ways.contains(entity.getId());
+				if (keep) {
+					keptWays++;
+				} else {
+					skippedWays++;
+					skippedWayNodes += ((Way) entity).getWayNodes().size();
+				}
+				break;
+			default:
+				keep = false;
+				skippedRelations++;
+			}
+			if (keep)
+				entities.put(entity.getId(), entity);
+		}
+
+		@Override
+		public void initialize(Map<String, Object> metaData) {
+		}
+
+		@Override
+		public void complete() {
+		}
+
+		@Override
+		public void release() {
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+/**
+ * An inverted index of the place types in {@link EntityFilter#TAG_MAP}, i.e.
+ * the set of nodes carrying the tag of each place type, and of the nodes with
+ * opening hours. The sets refer to the positions of a {@link NodeIndex}, so
+ * they can be passed to the nearest neighbor search without checking the
+ * tags of the nodes again. The tags are compared by their indices in the
+ * string table of the {@link TagTable}, so no {@link Tag}s are created.
+ *
+ * @author Joachim Rußig
+ */
+public class TagIndex {
+
+	private final NodeIndex nodeIndex;
+	// the place types by the key and value of their tags
+	private final Map<Long, String> placeTypes = new HashMap<>();
+	private final Map<String, NodeSet> places = new HashMap<>();
+	private final NodeSet openingHours;
+
+	/**
+	 * Creates a new {@code TagIndex} of the nodes of {@code nodeIndex}.
+	 *
+	 * @param nodeIndex
+	 *            the nodes to index
+	 */
+	public TagIndex(NodeIndex nodeIndex) {
+		this.nodeIndex = nodeIndex;
+		TagTable tags = nodeIndex.getTags();
+		for (Map.Entry<String, Tag> entry : EntityFilter.TAG_MAP.entrySet()) {
+			long key = key(tags, entry.getValue());
+			if (key >= 0)
+				placeTypes.put(key, entry.getKey());
+		}
+
+		Map<String, BitSet> bits = new HashMap<>();
+		BitSet openingHours = new BitSet(nodeIndex.size());
+		for (int i = 0; i < nodeIndex.size(); i++) {
+			for (int j = tags.start(i); j < tags.end(i); j++) {
+				String placeType = placeTypes.get(key(tags, j));
+				if (placeType != null)
+					bits.computeIfAbsent(placeType, k -> new BitSet()).set(i);
+				if (tags.getString(tags.key(j))
+						.equalsIgnoreCase(OSMOpeningHours.OPENING_HOURS_KEY))
+					openingHours.set(i);
+			}
+		}
+		for (String placeType : EntityFilter.TAG_MAP.keySet())
+			places.put(placeType, new NodeSet(
+					bits.getOrDefault(placeType, new BitSet())));
+		this.openingHours = new NodeSet(openingHours);
+	}
+
+	// the indices of the key and value of the j-th tag in the string table
+	private static long key(TagTable tags, int j) {
+		return ((long) tags.key(j) << 32) | tags.value(j);
+	}
+
+	// the indices of the key and value of tag in the string table or -1, if
+	// no node has the tag
+	private static long key(TagTable tags, Tag tag) {
+		int key = tags.indexOf(tag.getKey());
+		int value = tags.indexOf(tag.getValue());
+		if (key < 0 || value < 0)
+			return -1;
+		return ((long) key << 32) | value;
+	}
+
+	/**
+	 * Returns the nodes of the place type {@code placeType}.
+	 *
+	 * @param placeType
+	 *            a key of {@link EntityFilter#TAG_MAP}
+	 * @return the nodes carrying the tag of {@code placeType} or
+	 *         {@code Optional.empty()} if {@code placeType} is unknown
+	 */
+	public Optional<NodeSet> getPlaces(String placeType) {
+		return Optional.ofNullable(places.get(placeType));
+	}
+
+	/**
+	 * Returns the nodes of any of the place types {@code placeTypes}. Unknown
+	 * place types are ignored.
+	 *
+	 * @param placeTypes
+	 *            keys of {@link EntityFilter#TAG_MAP}
+	 * @return the nodes carrying the tag of any of {@code placeTypes}
+	 */
+	public NodeSet getPlaces(Collection<String> placeTypes) {
+		NodeSet result = new NodeSet(new BitSet());
+		for (String placeType : placeTypes) {
+			NodeSet nodes = places.get(placeType);
+			if (nodes != null)
+				result = result.or(nodes);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the nodes carrying any of the tags {@code tags}. Tags of the
+	 * place types in {@link EntityFilter#TAG_MAP} are looked up in the index,
+	 * for all other tags the nodes are scanned.
+	 *
+	 * @param tags
+	 *            the tags
+	 * @return the nodes carrying any of {@code tags}
+	 */
+	public NodeSet getNodes(Collection<Tag> tags) {
+		TagTable table = nodeIndex.getTags();
+		NodeSet result = new NodeSet(new BitSet());
+		Set<Long> unindexed = new HashSet<>();
+		for (Tag tag : tags) {
+			long key = key(table, tag);
+			String placeType = placeTypes.get(key);
+			if (placeType != null)
+				result = result.or(places.get(placeType));
+			else if (key >= 0)
+				unindexed.add(key);
+		}
+
+		if (!unindexed.isEmpty()) {
+			BitSet bits = new BitSet(nodeIndex.size());
+			for (int i = 0; i < nodeIndex.size(); i++) {
+				for (int j = table.start(i); j < table.end(i); j++) {
+					if (unindexed.contains(key(table, j))) {
+						bits.set(i);
+						break;
+					}
+				}
+			}
+			result = result.or(new NodeSet(bits));
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return the nodes with an 'opening_hours' tag
+	 */
+	public NodeSet getOpeningHours() {
+		return openingHours;
+	}
+
+}
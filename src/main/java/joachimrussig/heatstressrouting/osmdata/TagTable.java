@@ -0,0 +1,227 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+/**
+ * The tags of a sequence of entities in compressed sparse row (CSR) layout,
+ * i.e. the tags of the {@code i}-th entity are stored in the range
+ * {@code [offsets[i], offsets[i + 1])} of a flat buffer. The keys and values
+ * are stored as indices into a table of the distinct strings, so equal tags
+ * can be compared by their indices.
+ * <p>
+ * The buffers either wrap arrays or are views of a memory-mapped
+ * {@link OSMSnapshot}; they are only accessed by absolute position, so a
+ * {@code TagTable} is thread safe.
+ *
+ * @author Joachim Rußig
+ */
+final class TagTable {
+
+	private final String[] strings;
+	private final Map<String, Integer> indices;
+	private final IntBuffer offsets;
+	// the indices of the key and the value of the j-th tag at 2 * j and
+	// 2 * j + 1
+	private final IntBuffer tags;
+
+	/**
+	 * Creates a new {@code TagTable} of the tags of {@code entities}.
+	 *
+	 * @param entities
+	 *            the entities in the order of the table
+	 */
+	TagTable(List<? extends Entity> entities) {
+		this.indices = new HashMap<>();
+		List<String> table = new ArrayList<>();
+		int[] offsets = new int[entities.size() + 1];
+		for (int i = 0; i < entities.size(); i++)
+			offsets[i + 1] = offsets[i] + entities.get(i).getTags().size();
+
+		int[] tags = new int[2 * offsets[entities.size()]];
+		int t = 0;
+		for (Entity entity : entities) {
+			for (Tag tag : entity.getTags()) {
+				for (String s : new String[] { tag.getKey(), tag.getValue() })
+					tags[t++] = indices.computeIfAbsent(s, k -> {
+						table.add(k);
+						return table.size() - 1;
+					});
+			}
+		}
+		this.strings = table.toArray(new String[table.size()]);
+		this.offsets = IntBuffer.wrap(offsets);
+		this.tags = IntBuffer.wrap(tags);
+	}
+
+	/**
+	 * Reads a {@code TagTable} written by {@link #write(DataOutputStream)}
+	 * from {@code buffer}, whose position is advanced past the table. Only
+	 * the strings are copied, the tags are served by {@code buffer}.
+	 *
+	 * @param buffer
+	 *            the buffer of the snapshot
+	 * @throws IllegalStateException
+	 *             if the table is corrupt
+	 */
+	TagTable(ByteBuffer buffer) {
+		this.strings = new String[buffer.getInt()];
+		this.indices = new HashMap<>(2 * strings.length);
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = OSMSnapshot.readString(buffer).intern();
+			indices.put(strings[i], i);
+		}
+		this.offsets = OSMSnapshot.readInts(buffer);
+		this.tags = OSMSnapshot.readInts(buffer);
+		if (offsets.limit() < 1
+				|| tags.limit() != 2 * offsets.get(offsets.limit() - 1))
+			throw new IllegalStateException("corrupt tag table");
+	}
+
+	/**
+	 * Writes the table, so it can be read by {@link #TagTable(ByteBuffer)}.
+	 *
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 *             if the table couldn't be written
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(strings.length);
+		for (String s : strings)
+			OSMSnapshot.writeString(out, s);
+		OSMSnapshot.writeInts(out, offsets);
+		OSMSnapshot.writeInts(out, tags);
+	}
+
+	/**
+	 *
+	 * @return the number of entities
+	 */
+	int size() {
+		return offsets.limit() - 1;
+	}
+
+	/**
+	 *
+	 * @param s
+	 *            a string
+	 * @return the index of {@code s} in the string table or -1, if no tag has
+	 *         the key or value {@code s}
+	 */
+	int indexOf(String s) {
+		Integer index = indices.get(s);
+		return index != null ? index : -1;
+	}
+
+	/**
+	 *
+	 * @param index
+	 *            the index in the string table
+	 * @return the string at {@code index}
+	 */
+	String getString(int index) {
+		return strings[index];
+	}
+
+	/**
+	 *
+	 * @param i
+	 *            the position of the entity
+	 * @return the position of the first tag of the entity
+	 */
+	int start(int i) {
+		return offsets.get(i);
+	}
+
+	/**
+	 *
+	 * @param i
+	 *            the position of the entity
+	 * @return the position after the last tag of the entity
+	 */
+	int end(int i) {
+		return offsets.get(i + 1);
+	}
+
+	/**
+	 *
+	 * @param j
+	 *            the position of the tag
+	 * @return the index of the key of the tag in the string table
+	 */
+	int key(int j) {
+		return tags.get(2 * j);
+	}
+
+	/**
+	 *
+	 * @param j
+	 *            the position of the tag
+	 * @return the index of the value of the tag in the string table
+	 */
+	int value(int j) {
+		return tags.get(2 * j + 1);
+	}
+
+	/**
+	 *
+	 * @param i
+	 *            the position of the entity
+	 * @return the tags of the entity
+	 */
+	List<Tag> getTags(int i) {
+		List<Tag> result = new ArrayList<>(end(i) - start(i));
+		for (int j = start(i); j < end(i); j++)
+			result.add(new Tag(strings[key(j)], strings[value(j)]));
+		return result;
+	}
+
+	/**
+	 *
+	 * @param i
+	 *            the position of the entity
+	 * @param key
+	 *            the key of the tag (ignoring case)
+	 * @return the first tag of the entity with the key {@code key}, if
+	 *         present
+	 */
+	Optional<Tag> getTag(int i, String key) {
+		for (int j = start(i); j < end(i); j++) {
+			if (strings[key(j)].equalsIgnoreCase(key))
+				return Optional.of(new Tag(strings[key(j)], strings[value(j)]));
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 *
+	 * @param i
+	 *            the position of the entity
+	 * @param tag
+	 *            the tag
+	 * @return {@code true}, if the entity has the tag {@code tag}
+	 */
+	boolean contains(int i, Tag tag) {
+		int key = indexOf(tag.getKey());
+		int value = indexOf(tag.getValue());
+		if (key < 0 || value < 0)
+			return false;
+		for (int j = start(i); j < end(i); j++) {
+			if (key(j) == key && value(j) == value)
+				return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,131 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+
+/**
+ * A flyweight cursor on the packed geometry of a {@link Way}, i.e. the ids and
+ * coordinates of its existing nodes in the order of the way.
+ * <p>
+ * The cursor doesn't copy the geometry, it only points into the buffers of the
+ * {@link WayNodeIndex}, so a single instance can be reused for any number of
+ * ways (see {@link OSMData#getWayGeometry(long, WayGeometry)}) without
+ * allocating. A {@code WayGeometry} is not thread safe.
+ *
+ * @author Joachim Rußig
+ */
+public final class WayGeometry {
+
+	private static final LongBuffer NO_IDS = LongBuffer.allocate(0);
+	private static final DoubleBuffer NO_COORDINATES = DoubleBuffer
+			.allocate(0);
+
+	private long wayId;
+	private LongBuffer nodeIds = NO_IDS;
+	// latitude and longitude of the i-th node at 2 * i and 2 * i + 1
+	private DoubleBuffer coordinates = NO_COORDINATES;
+	private int offset;
+	private int size;
+	private boolean cyclic;
+
+	/**
+	 * Creates a new, empty {@code WayGeometry}.
+	 */
+	public WayGeometry() {
+	}
+
+	void set(long wayId, LongBuffer nodeIds, DoubleBuffer coordinates,
+			int offset, int size, boolean cyclic) {
+		this.wayId = wayId;
+		this.nodeIds = nodeIds;
+		this.coordinates = coordinates;
+		this.offset = offset;
+		this.size = size;
+		this.cyclic = cyclic;
+	}
+
+	void clear(long wayId) {
+		set(wayId, NO_IDS, NO_COORDINATES, 0, 0, false);
+	}
+
+	/**
+	 *
+	 * @return the id of the way the cursor points to
+	 */
+	public long getWayId() {
+		return wayId;
+	}
+
+	/**
+	 *
+	 * @return the number of nodes of the way
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return {@code true}, if the first and the last node of the way have the
+	 *         same id
+	 */
+	public boolean isCyclic() {
+		return cyclic;
+	}
+
+	/**
+	 *
+	 * @param i
+	 *            the position of the node in the way
+	 * @return the OSM id of the {@code i}-th node
+	 */
+	public long getNodeId(int i) {
+		return nodeIds.get(offset + check(i));
+	}
+
+	/**
+	 *
+	 * @param i
+	 *            the position of the node in the way
+	 * @return the latitude of the {@code i}-th node
+	 */
+	public double getLat(int i) {
+		return coordinates.get(2 * (offset + check(i)));
+	}
+
+	/**
+	 *
+	 * @param i
+	 *            the position of the node in the way
+	 * @return the longitude of the {@code i}-th node
+	 */
+	public double getLon(int i) {
+		return coordinates.get(2 * (offset + check(i)) + 1);
+	}
+
+	/**
+	 *
+	 * @param nodeId
+	 *            the OSM id of a node
+	 * @return the first position of the node in the way or -1, if the way
+	 *         doesn't contain the node
+	 */
+	public int indexOf(long nodeId) {
+		for (int i = 0; i < size; i++) {
+			if (nodeIds.get(offset + i) == nodeId)
+				return i;
+		}
+		return -1;
+	}
+
+	private int check(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException(
+					"index " + i + " of way " + wayId + " with " + size
+							+ " nodes");
+		return i;
+	}
+
+}
@@ -0,0 +1,367 @@
+package joachimrussig.heatstressrouting.osmdata;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.CommonEntityData;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.OsmUser;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * An index of the nodes of the {@link Way}s and of the ways containing a node,
+ * both stored in compressed sparse row (CSR) layout, i.e. the entries of the
+ * {@code i}-th way (or node) are stored in the range
+ * {@code [offsets[i], offsets[i + 1])} of a flat buffer.
+ * <p>
+ * The ways and nodes are ordered by their OSM id and looked up by binary
+ * search. The nodes of the ways are resolved once while building the index;
+ * the ids and coordinates of the existing nodes are additionally packed into
+ * buffers, that are accessed through a {@link WayGeometry}.
+ * <p>
+ * Like the {@link NodeIndex}, the buffers either wrap arrays or are views of
+ * a memory-mapped {@link OSMSnapshot} and the {@code Way}s are created on
+ * demand.
+ *
+ * @author Joachim Rußig
+ */
+class WayNodeIndex {
+
+	private final NodeIndex nodeIndex;
+
+	// the ways ordered by id
+	private final LongBuffer wayIds;
+	// the ids of the nodes referenced by the i-th way, in the order of the way
+	private final IntBuffer wayRefOffsets;
+	private final LongBuffer wayRefs;
+	private final TagTable tags;
+	// the ids and the interleaved coordinates of the existing nodes of the
+	// i-th way (see WayGeometry)
+	private final IntBuffer wayNodeOffsets;
+	private final LongBuffer wayNodeIds;
+	private final DoubleBuffer wayNodeCoordinates;
+
+	// the ids of all nodes referenced by a way, ordered by id
+	private final LongBuffer nodeIds;
+	// the positions of the ways containing the i-th node, in order of their id
+	private final IntBuffer nodeWayOffsets;
+	private final IntBuffer nodeWays;
+
+	/**
+	 * Creates a new {@code WayNodeIndex}.
+	 *
+	 * @param ways
+	 *            the ways to index
+	 * @param nodeIndex
+	 *            the nodes the ways are resolved with; way nodes that are not
+	 *            contained are skipped
+	 */
+	WayNodeIndex(Collection<Way> ways, NodeIndex nodeIndex) {
+		this.nodeIndex = nodeIndex;
+		Way[] sorted = ways.toArray(new Way[ways.size()]);
+		Arrays.sort(sorted, Comparator.comparingLong(Way::getId));
+		long[] wayIds = new long[sorted.length];
+		for (int w = 0; w < sorted.length; w++)
+			wayIds[w] = sorted[w].getId();
+
+		// the nodes of the ways
+		int total = 0;
+		for (Way way : sorted)
+			total += way.getWayNodes().size();
+		int[] wayRefOffsets = new int[sorted.length + 1];
+		long[] wayRefs = new long[total];
+		int[] wayNodeOffsets = new int[sorted.length + 1];
+		int[] resolved = new int[total];
+		int r = 0;
+		int existing = 0;
+		for (int w = 0; w < sorted.length; w++) {
+			for (WayNode wn : sorted[w].getWayNodes()) {
+				wayRefs[r++] = wn.getNodeId();
+				int position = nodeIndex.getPosition(wn.getNodeId());
+				if (position >= 0)
+					resolved[existing++] = position;
+			}
+			wayRefOffsets[w + 1] = r;
+			wayNodeOffsets[w + 1] = existing;
+		}
+		long[] wayNodeIds = new long[existing];
+		double[] wayNodeCoordinates = new double[2 * existing];
+		for (int i = 0; i < existing; i++) {
+			wayNodeIds[i] = nodeIndex.getId(resolved[i]);
+			wayNodeCoordinates[2 * i] = nodeIndex.getLat(resolved[i]);
+			wayNodeCoordinates[2 * i + 1] = nodeIndex.getLon(resolved[i]);
+		}
+
+		// the distinct ids of the referenced nodes
+		long[] referenced = wayRefs.clone();
+		Arrays.sort(referenced);
+		int distinct = 0;
+		for (int i = 0; i < referenced.length; i++) {
+			if (i == 0 || referenced[i] != referenced[i - 1])
+				referenced[distinct++] = referenced[i];
+		}
+		long[] nodeIds = Arrays.copyOf(referenced, distinct);
+
+		// the ways containing the nodes; a way visiting a node more than once
+		// (e.g. a cyclic way) is counted once, which is detected by the last
+		// way seen for each node
+		int[] lastWay = new int[distinct];
+		Arrays.fill(lastWay, -1);
+		int[] nodeWayOffsets = new int[distinct + 1];
+		for (int w = 0; w < sorted.length; w++) {
+			for (int i = wayRefOffsets[w]; i < wayRefOffsets[w + 1]; i++) {
+				int n = Arrays.binarySearch(nodeIds, wayRefs[i]);
+				if (lastWay[n] != w) {
+					lastWay[n] = w;
+					nodeWayOffsets[n + 1]++;
+				}
+			}
+		}
+		for (int n = 0; n < distinct; n++)
+			nodeWayOffsets[n + 1] += nodeWayOffsets[n];
+
+		int[] nodeWays = new int[nodeWayOffsets[distinct]];
+		int[] next = Arrays.copyOf(nodeWayOffsets, distinct);
+		Arrays.fill(lastWay, -1);
+		for (int w = 0; w < sorted.length; w++) {
+			for (int i = wayRefOffsets[w]; i < wayRefOffsets[w + 1]; i++) {
+				int n = Arrays.binarySearch(nodeIds, wayRefs[i]);
+				if (lastWay[n] != w) {
+					lastWay[n] = w;
+					nodeWays[next[n]++] = w;
+				}
+			}
+		}
+
+		this.wayIds = LongBuffer.wrap(wayIds);
+		this.wayRefOffsets = IntBuffer.wrap(wayRefOffsets);
+		this.wayRefs = LongBuffer.wrap(wayRefs);
+		this.tags = new TagTable(Arrays.asList(sorted));
+		this.wayNodeOffsets = IntBuffer.wrap(wayNodeOffsets);
+		this.wayNodeIds = LongBuffer.wrap(wayNodeIds);
+		this.wayNodeCoordinates = DoubleBuffer.wrap(wayNodeCoordinates);
+		this.nodeIds = LongBuffer.wrap(nodeIds);
+		this.nodeWayOffsets = IntBuffer.wrap(nodeWayOffsets);
+		this.nodeWays = IntBuffer.wrap(nodeWays);
+	}
+
+	/**
+	 * Reads a {@code WayNodeIndex} written by
+	 * {@link #write(DataOutputStream)} from {@code buffer}, whose position is
+	 * advanced past the index. The index is served by {@code buffer}.
+	 *
+	 * @param buffer
+	 *            the buffer of the snapshot
+	 * @param nodeIndex
+	 *            the nodes the index was built with
+	 * @throws IllegalStateException
+	 *             if the index is corrupt
+	 */
+	WayNodeIndex(ByteBuffer buffer, NodeIndex nodeIndex) {
+		this.nodeIndex = nodeIndex;
+		this.wayIds = OSMSnapshot.readLongs(buffer);
+		this.wayRefOffsets = OSMSnapshot.readInts(buffer);
+		this.wayRefs = OSMSnapshot.readLongs(buffer);
+		this.tags = new TagTable(buffer);
+		this.wayNodeOffsets = OSMSnapshot.readInts(buffer);
+		this.wayNodeIds = OSMSnapshot.readLongs(buffer);
+		this.wayNodeCoordinates = OSMSnapshot.readDoubles(buffer);
+		this.nodeIds = OSMSnapshot.readLongs(buffer);
+		this.nodeWayOffsets = OSMSnapshot.readInts(buffer);
+		this.nodeWays = OSMSnapshot.readInts(buffer);
+
+		int n = wayIds.limit();
+		if (wayRefOffsets.limit() != n + 1
+				|| wayRefs.limit() != wayRefOffsets.get(n)
+				|| tags.size() != n || wayNodeOffsets.limit() != n + 1
+				|| wayNodeIds.limit() != wayNodeOffsets.get(n)
+				|| wayNodeCoordinates.limit() != 2 * wayNodeIds.limit()
+				|| nodeWayOffsets.limit() != nodeIds.limit() + 1
+				|| nodeWays.limit() != nodeWayOffsets.get(nodeIds.limit()))
+			throw new IllegalStateException("corrupt way node index");
+	}
+
+	/**
+	 * Writes the index, so it can be read by
+	 * {@link #WayNodeIndex(ByteBuffer, NodeIndex)}.
+	 *
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 *             if the index couldn't be written
+	 */
+	void write(DataOutputStream out) throws IOException {
+		OSMSnapshot.writeLongs(out, wayIds);
+		OSMSnapshot.writeInts(out, wayRefOffsets);
+		OSMSnapshot.writeLongs(out, wayRefs);
+		tags.write(out);
+		OSMSnapshot.writeInts(out, wayNodeOffsets);
+		OSMSnapshot.writeLongs(out, wayNodeIds);
+		OSMSnapshot.writeDoubles(out, wayNodeCoordinates);
+		OSMSnapshot.writeLongs(out, nodeIds);
+		OSMSnapshot.writeInts(out, nodeWayOffsets);
+		OSMSnapshot.writeInts(out, nodeWays);
+	}
+
+	/**
+	 *
+	 * @return the number of indexed ways
+	 */
+	int size() {
+		return wayIds.limit();
+	}
+
+	/**
+	 *
+	 * @param wayId
+	 *            the OSM id of a way
+	 * @return the position of the way in the index or -1, if the index
+	 *         doesn't contain the way
+	 */
+	int getPosition(long wayId) {
+		return binarySearch(wayIds, wayId);
+	}
+
+	/**
+	 *
+	 * @param position
+	 *            the position of the way in the index
+	 * @return the way at {@code position}, that is created on demand
+	 */
+	Way getWay(int position) {
+		List<WayNode> wayNodes = new ArrayList<>(
+				wayRefOffsets.get(position + 1) - wayRefOffsets.get(position));
+		for (int i = wayRefOffsets.get(position); i < wayRefOffsets
+				.get(position + 1); i++)
+			wayNodes.add(new WayNode(wayRefs.get(i)));
+		return new Way(new CommonEntityData(wayIds.get(position), 0,
+				OSMSnapshot.TIMESTAMP, OsmUser.NONE, 0,
+				tags.getTags(position)), wayNodes);
+	}
+
+	/**
+	 *
+	 * @param wayId
+	 *            the OSM id of the way
+	 * @return the way or {@code Optional.empty()}, if the way doesn't exist
+	 */
+	Optional<Way> getWayById(long wayId) {
+		int w = getPosition(wayId);
+		return w >= 0 ? Optional.of(getWay(w)) : Optional.empty();
+	}
+
+	/**
+	 *
+	 * @return the tags of the ways by their position in the index
+	 */
+	TagTable getTags() {
+		return tags;
+	}
+
+	/**
+	 *
+	 * @param wayId
+	 *            the id of the way
+	 * @return the existing nodes of the way in the order of the way, or an
+	 *         empty list if the way doesn't exist
+	 */
+	List<Node> getWayNodes(long wayId) {
+		List<Node> result = new ArrayList<>();
+		int w = getPosition(wayId);
+		if (w < 0)
+			return result;
+		for (int i = wayNodeOffsets.get(w); i < wayNodeOffsets
+				.get(w + 1); i++)
+			result.add(nodeIndex
+					.getNode(nodeIndex.getPosition(wayNodeIds.get(i))));
+		return result;
+	}
+
+	/**
+	 * Points {@code geometry} to the packed nodes of the way.
+	 *
+	 * @param wayId
+	 *            the id of the way
+	 * @param geometry
+	 *            the cursor to set
+	 * @return {@code true}, if the way exists, otherwise {@code geometry} is
+	 *         empty
+	 */
+	boolean getWayGeometry(long wayId, WayGeometry geometry) {
+		int w = getPosition(wayId);
+		if (w < 0) {
+			geometry.clear(wayId);
+			return false;
+		}
+		geometry.set(wayId, wayNodeIds, wayNodeCoordinates,
+				wayNodeOffsets.get(w),
+				wayNodeOffsets.get(w + 1) - wayNodeOffsets.get(w),
+				isCyclic(w));
+		return true;
+	}
+
+	/**
+	 *
+	 * @param wayId
+	 *            the id of the way
+	 * @return {@code true}, if the way exists and its first and last node
+	 *         have the same id
+	 */
+	boolean isCyclicWay(long wayId) {
+		int w = getPosition(wayId);
+		return w >= 0 && isCyclic(w);
+	}
+
+	private boolean isCyclic(int w) {
+		int first = wayRefOffsets.get(w);
+		int last = wayRefOffsets.get(w + 1) - 1;
+		return last >= first && wayRefs.get(first) == wayRefs.get(last);
+	}
+
+	/**
+	 *
+	 * @param nodeId
+	 *            the id of the node
+	 * @return the ways containing the node ordered by their id
+	 */
+	Set<Way> getWaysContainingNode(long nodeId) {
+		Set<Way> result = new LinkedHashSet<>();
+		int n = binarySearch(nodeIds, nodeId);
+		if (n >= 0) {
+			for (int i = nodeWayOffsets.get(n); i < nodeWayOffsets
+					.get(n + 1); i++)
+				result.add(getWay(nodeWays.get(i)));
+		}
+		return result;
+	}
+
+	private static int binarySearch(LongBuffer ids, long id) {
+		int low = 0;
+		int high = ids.limit() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midId = ids.get(mid);
+			if (midId < id)
+				low = mid + 1;
+			else if (midId > id)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+}
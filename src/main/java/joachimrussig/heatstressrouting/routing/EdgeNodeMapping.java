@@ -0,0 +1,229 @@
+package joachimrussig.heatstressrouting.routing;
+
+import java.util.Arrays;
+
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.util.PointList;
+
+import joachimrussig.heatstressrouting.osmdata.WayGeometry;
+
+/**
+ * The mapping of the internal edge IDs to the ordered OSM IDs of all nodes of
+ * the edge, i.e. the tower nodes and all pillar nodes in between, stored next
+ * to the {@code edge_mapping} and {@code node_mapping} in the graph directory.
+ * <p>
+ * The node IDs of an edge are recorded while the graph is imported (see
+ * {@link #record(int, WayGeometry, PointList, int)}) in the direction the edge
+ * was created, i.e. from its base to its adjacent node. They are stored as
+ * variable length, zig-zag encoded differences of consecutive IDs, so the
+ * IDs of a way, that are usually close to each other, take only a few bytes.
+ *
+ * @author Joachim Rußig
+ */
+public class EdgeNodeMapping {
+
+	private static final String INDEX_NAME = "edge_node_mapping_index";
+	private static final String DATA_NAME = "edge_node_mapping";
+
+	// an entry of the index is stored as (byte offset, byte length)
+	private static final int ENTRY_BYTES = 8;
+
+	// the maximum difference of the coordinates of a point of the graph and
+	// an OSM node considered as equal (in degree)
+	private static final double EPSILON = 1e-6;
+
+	private static final long[] EMPTY = new long[0];
+
+	private final DataAccess index;
+	private final DataAccess data;
+	private long bytes;
+	private byte[] buffer = new byte[256];
+
+	/**
+	 * Creates a new {@code EdgeNodeMapping} stored in the directory
+	 * {@code dir}.
+	 *
+	 * @param dir
+	 *            the directory of the graph
+	 */
+	public EdgeNodeMapping(Directory dir) {
+		this.index = dir.find(INDEX_NAME);
+		this.data = dir.find(DATA_NAME);
+	}
+
+	/**
+	 * Creates an empty mapping.
+	 */
+	public void create() {
+		index.create(1000);
+		data.create(1000);
+		bytes = 0;
+	}
+
+	/**
+	 * Loads an existing mapping.
+	 *
+	 * @return {@code true}, if the mapping exists
+	 */
+	public boolean loadExisting() {
+		return index.loadExisting() && data.loadExisting();
+	}
+
+	/**
+	 * Identifies the OSM nodes of a newly created edge and stores their IDs.
+	 * <p>
+	 * The points of the edge are matched by their coordinates against the
+	 * nodes of the OSM way the edge was created from. As GraphHopper removes
+	 * pillar nodes when simplifying the geometry of an edge, the points only
+	 * have to be a subsequence of the way nodes; the nodes in between are
+	 * recorded as well. A point repeating the coordinates of the previous one
+	 * (e.g. a barrier node duplicated by GraphHopper) is assigned the same
+	 * node.
+	 *
+	 * @param edgeId
+	 *            the internal edge ID
+	 * @param way
+	 *            the geometry of the OSM way the edge was created from
+	 * @param points
+	 *            the points of the edge including the tower nodes in the
+	 *            direction the edge was created
+	 * @param hint
+	 *            the position in the way to start the search at, usually the
+	 *            end of the previous edge of the way
+	 * @return the position of the last node of the edge in the way or -1, if
+	 *         the edge couldn't be matched
+	 */
+	public int record(int edgeId, WayGeometry way, PointList points,
+			int hint) {
+		if (points.size() > 0 && way.size() > 0) {
+			hint = Math.max(0, Math.min(hint, way.size() - 1));
+			int end = match(edgeId, way, points, hint, way.size());
+			if (end < 0 && hint > 0)
+				end = match(edgeId, way, points, 0, hint);
+			if (end >= 0)
+				return end;
+		}
+		setEntry(edgeId, 0, 0);
+		return -1;
+	}
+
+	// tries all start positions in [from, to) and stores the first match
+	private int match(int edgeId, WayGeometry way, PointList points,
+			int from, int to) {
+		for (int start = from; start < to; start++) {
+			if (!equals(way, start, points, 0))
+				continue;
+
+			int k = start;
+			int length = writeVarLong(0, way.getNodeId(k));
+			for (int i = 1; i < points.size() && k >= 0; i++) {
+				if (points.getLat(i) == points.getLat(i - 1)
+						&& points.getLon(i) == points.getLon(i - 1)) {
+					// a repeated point, e.g. a duplicated barrier node
+					length = writeVarLong(length, 0);
+					continue;
+				}
+				int previous = k;
+				// skip the nodes removed by the simplification
+				do {
+					k++;
+				} while (k < way.size() && !equals(way, k, points, i));
+				if (k == way.size()) {
+					k = -1;
+				} else {
+					for (int j = previous + 1; j <= k; j++)
+						length = writeVarLong(length,
+								way.getNodeId(j) - way.getNodeId(j - 1));
+				}
+			}
+			if (k < 0)
+				continue;
+
+			data.ensureCapacity(bytes + length);
+			data.setBytes(bytes, buffer, length);
+			setEntry(edgeId, (int) bytes, length);
+			bytes += length;
+			return k;
+		}
+		return -1;
+	}
+
+	private static boolean equals(WayGeometry way, int k, PointList points,
+			int i) {
+		return Math.abs(way.getLat(k) - points.getLat(i)) < EPSILON
+				&& Math.abs(way.getLon(k) - points.getLon(i)) < EPSILON;
+	}
+
+	/**
+	 * Returns the OSM IDs of the nodes of the edge {@code edgeId} in the
+	 * direction the edge was created.
+	 *
+	 * @param edgeId
+	 *            the internal edge ID
+	 * @return the OSM IDs of the nodes of the edge, or an empty array, if the
+	 *         nodes are unknown
+	 */
+	public long[] getNodes(int edgeId) {
+		long pointer = (long) ENTRY_BYTES * edgeId;
+		if (pointer + ENTRY_BYTES > index.getCapacity())
+			return EMPTY;
+		int offset = index.getInt(pointer);
+		int length = index.getInt(pointer + 4);
+		if (length == 0)
+			return EMPTY;
+
+		byte[] bytes = new byte[length];
+		data.getBytes(offset, bytes, length);
+
+		// count the terminating bytes first, i.e. the number of IDs
+		int n = 0;
+		for (byte b : bytes)
+			if (b >= 0)
+				n++;
+
+		long[] ids = new long[n];
+		long previous = 0;
+		int pos = 0;
+		for (int i = 0; i < n; i++) {
+			long raw = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[pos++];
+				raw |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			previous += (raw >>> 1) ^ -(raw & 1);
+			ids[i] = previous;
+		}
+		return ids;
+	}
+
+	public void flush() {
+		index.flush();
+		data.flush();
+	}
+
+	private void setEntry(int edgeId, int offset, int length) {
+		long pointer = (long) ENTRY_BYTES * edgeId;
+		index.ensureCapacity(pointer + ENTRY_BYTES);
+		index.setInt(pointer, offset);
+		index.setInt(pointer + 4, length);
+	}
+
+	// appends the zig-zag encoded value to the buffer at position length and
+	// returns the new length
+	private int writeVarLong(int length, long value) {
+		if (length + 10 > buffer.length)
+			buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+		long raw = (value << 1) ^ (value >> 63);
+		while ((raw & ~0x7FL) != 0) {
+			buffer[length++] = (byte) ((raw & 0x7F) | 0x80);
+			raw >>>= 7;
+		}
+		buffer[length++] = (byte) raw;
+		return length;
+	}
+
+}
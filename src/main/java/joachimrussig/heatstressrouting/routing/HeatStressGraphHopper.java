@@ -1,5 +1,6 @@
 package joachimrussig.heatstressrouting.routing;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -18,6 +19,7 @@ import com.graphhopper.reader.ReaderNode;
 import com.graphhopper.reader.osm.GraphHopperOSM;
 import com.graphhopper.reader.osm.OSMReader;
 import com.graphhopper.routing.Path;
+import com.graphhopper.routing.RoutingAlgorithmFactory;
 import com.graphhopper.routing.util.FlagEncoder;
 import com.graphhopper.routing.weighting.Weighting;
 import com.graphhopper.routing.util.HintsMap;
@@ -25,12 +27,27 @@ import com.graphhopper.storage.DataAccess;
 import com.graphhopper.storage.Directory;
 import com.graphhopper.storage.GraphHopperStorage;
 import com.graphhopper.util.BitUtil;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.StopWatch;
 
 import joachimrussig.heatstressrouting.osmdata.OSMData;
+import joachimrussig.heatstressrouting.osmdata.WayGeometry;
+import joachimrussig.heatstressrouting.routing.speedup.BaseGraph;
+import joachimrussig.heatstressrouting.routing.speedup.CustomizedHierarchies;
+import joachimrussig.heatstressrouting.routing.speedup.HierarchyProvider;
+import joachimrussig.heatstressrouting.routing.speedup.LowerBoundLandmarks;
+import joachimrussig.heatstressrouting.routing.speedup.SpeedUpAlgorithmFactory;
+import joachimrussig.heatstressrouting.routing.speedup.SpeedUpMode;
+import joachimrussig.heatstressrouting.routing.speedup.WeatherBucketedHierarchies;
+import joachimrussig.heatstressrouting.routing.weighting.EdgeHeatProfiles;
+import joachimrussig.heatstressrouting.routing.weighting.EdgeTemperatureCosts;
+import joachimrussig.heatstressrouting.routing.weighting.EdgeWeightCache;
+import joachimrussig.heatstressrouting.routing.weighting.HeatStressWeighting;
 import joachimrussig.heatstressrouting.routing.weighting.HeatStressWeightingHeatIndex;
 import joachimrussig.heatstressrouting.routing.weighting.HeatStressWeightingHeatIndexWeighted;
 import joachimrussig.heatstressrouting.routing.weighting.HeatStressWeightingTemperature;
 import joachimrussig.heatstressrouting.routing.weighting.WeightingType;
+import joachimrussig.heatstressrouting.thermalcomfort.HeatIndexTable;
 import joachimrussig.heatstressrouting.waysegments.WaySegments;
 import joachimrussig.heatstressrouting.weatherdata.WeatherData;
 
@@ -45,7 +62,9 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 	private final Logger logger = LoggerFactory
 			.getLogger(HeatStressGraphHopper.class);
 
-	private WeatherData weatherData;
+	// replaced as a whole on updates, so routing requests always see a
+	// consistent version of the weather data
+	private volatile WeatherData weatherData;
 
 	private WaySegments segments;
 	private OSMData osmData;
@@ -63,9 +82,49 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 	private DataAccess edgeMapping;
 	private DataAccess nodeMapping;
 	private BitUtil bitUtil;
+	// mapping of internal edge ID to the OSM IDs of all nodes of the edge
+	private EdgeNodeMapping edgeNodeMapping;
+
+	// precompiled heat profiles of the edges used by the weightings
+	private EdgeHeatProfiles heatProfiles;
+	private boolean interpolateTimeSlices = false;
+	private EdgeHeatProfiles.Precision heatProfilePrecision =
+			EdgeHeatProfiles.Precision.DOUBLE;
+	private int heatProfileBins = 0;
+	// precompiled cost functions used by the temperature weighting, null if
+	// disabled
+	private EdgeTemperatureCosts temperatureCosts;
+	private boolean temperatureCostsEnabled = true;
+
+	// memo of the edge weights shared by all requests, null if disabled; it
+	// is opt-in, since it rounds the time of the weightings down
+	private EdgeWeightCache edgeWeightCache;
+	private Duration edgeWeightCacheBucketWidth = null;
+	private int edgeWeightCacheMaxBuckets = 24;
+
+	// lookup table used by the heat index weightings, null for the exact
+	// formula; tables whose error exceeds heatIndexMaxError are rejected
+	private double heatIndexMaxError = HeatIndexTable.DEFAULT_MAX_ERROR;
+	private HeatIndexTable heatIndexTable;
+
+	// the speed up technique used for the heat stress weightings
+	private SpeedUpMode speedUpMode = SpeedUpMode.NONE;
+	private double chTemperatureStep = 0.5;
+	private double chHumidityStep = 5;
+	private long chMaxBytes = 256L * 1024 * 1024;
+	private long chMaxFileBytes = 4L * 1024 * 1024 * 1024;
+	private int cchMaxMetrics = 48;
+	private BaseGraph baseGraph;
+	private HierarchyProvider hierarchies;
+
+	// the landmarks used by A*, null if disabled
+	private int landmarkCount;
+	private LowerBoundLandmarks landmarks;
 
 	public HeatStressGraphHopper() {
 		super();
+		this.heatIndexTable = verifyHeatIndexTable(new HeatIndexTable(),
+				heatIndexMaxError);
 	}
 
 	@Override
@@ -88,26 +147,54 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 						+ "' weighting map must contain an valid time entry");
 		}
 
+		// all points in time of a bucket share the weights computed for the
+		// start of the bucket; since the weather is resolved when the
+		// weighting is created, the start must be covered by the weather data;
+		// the generation is read first, so the weights of weather data
+		// replaced meanwhile are not cached for the new weather data
+		EdgeWeightCache cache = this.edgeWeightCache;
+		int generation = cache != null ? cache.getGeneration() : 0;
+		if (cache != null && time != null) {
+			LocalDateTime bucketStart = cache.getBucketStart(time);
+			if (weatherData != null && weatherData.inTimeRange(bucketStart))
+				time = bucketStart;
+			else
+				cache = null;
+		}
+
+		HeatStressWeighting hw;
 		if (weighting.equalsIgnoreCase(HeatStressWeightingTemperature.NAME)) {
 
-			return new HeatStressWeightingTemperature(encoder, this, segments,
-					time);
+			hw = new HeatStressWeightingTemperature(encoder, this, time);
 
 		} else if (weighting
 				.equalsIgnoreCase(HeatStressWeightingHeatIndex.NAME)) {
 
-			return new HeatStressWeightingHeatIndex(encoder, this, segments,
-					time);
+			hw = new HeatStressWeightingHeatIndex(encoder, this, time);
 
 		} else if (weighting
 				.equalsIgnoreCase(HeatStressWeightingHeatIndexWeighted.NAME)) {
-			HeatStressWeightingHeatIndexWeighted hw = new HeatStressWeightingHeatIndexWeighted(
-					encoder, this, segments, time);
-			hw.setWeights(this.weightDistance, this.weightThermalComfot);
-			return hw;
+			HeatStressWeightingHeatIndexWeighted hwWeighted = new HeatStressWeightingHeatIndexWeighted(
+					encoder, this, time);
+			hwWeighted.setWeights(this.weightDistance,
+					this.weightThermalComfot);
+			hw = hwWeighted;
 		} else {
 			return super.createWeighting(hintsMap, encoder);
 		}
+
+		return cache != null ? cache.wrap(hw, generation) : hw;
+	}
+
+	@Override
+	public RoutingAlgorithmFactory getAlgorithmFactory(HintsMap map) {
+		RoutingAlgorithmFactory factory = super.getAlgorithmFactory(map);
+		HierarchyProvider hierarchies = this.hierarchies;
+		LowerBoundLandmarks landmarks = this.landmarks;
+		if (hierarchies != null || landmarks != null)
+			return new SpeedUpAlgorithmFactory(factory, hierarchies,
+					landmarks);
+		return factory;
 	}
 
 	/**
@@ -166,17 +253,162 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 		this.bitUtil = BitUtil.get(dir.getByteOrder());
 		this.edgeMapping = dir.find("edge_mapping");
 		this.nodeMapping = dir.find("node_mapping");
+		this.edgeNodeMapping = new EdgeNodeMapping(dir);
 
 		if (loaded) {
 			this.edgeMapping.loadExisting();
 			this.nodeMapping.loadExisting();
+			if (!this.edgeNodeMapping.loadExisting())
+				logger.warn("no edge node mapping found, the graph has to be "
+						+ "imported again to use the heat stress weightings");
 		}
 
 		return loaded;
 	}
 
+	@Override
+	public GraphHopper importOrLoad() {
+		super.importOrLoad();
+		initEdgeHeatProfiles();
+		initEdgeWeightCache();
+		initSpeedUp();
+		initLandmarks();
+		return this;
+	}
+
+	/**
+	 * Creates the preprocessed data of the configured speed up technique, or
+	 * discards it, if no speed up technique is set or no heat profiles are
+	 * available.
+	 */
+	private void initSpeedUp() {
+		if (hierarchies != null) {
+			hierarchies.close();
+			hierarchies = null;
+		}
+		if (heatProfiles == null)
+			return;
+
+		switch (speedUpMode) {
+		case CH:
+			this.hierarchies = new WeatherBucketedHierarchies(getBaseGraph(),
+					getGraphHopperStorage().getDirectory(),
+					this::getPreparationFingerprint,
+					chTemperatureStep, chHumidityStep, chMaxBytes,
+					chMaxFileBytes);
+			break;
+		case CCH:
+			this.hierarchies = new CustomizedHierarchies(getBaseGraph(),
+					cchMaxMetrics);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Returns a fingerprint of the input of the heat stress weightings, i.e.
+	 * of the heat profiles (way segments, precision and bins, see
+	 * {@link EdgeHeatProfiles#getFingerprint()}) and the resolution of the
+	 * heat index table, so persisted preparations of another input are not
+	 * reused.
+	 * 
+	 * @return the fingerprint of the input of the weightings
+	 */
+	private int getPreparationFingerprint() {
+		EdgeHeatProfiles profiles = this.heatProfiles;
+		HeatIndexTable table = this.heatIndexTable;
+		int fingerprint = profiles != null ? profiles.getFingerprint() : 0;
+		if (table != null)
+			fingerprint = 31
+					* (31 * fingerprint
+							+ Double.hashCode(table.getTemperatureStep()))
+					+ Double.hashCode(table.getHumidityStep());
+		return fingerprint;
+	}
+
+	/**
+	 * Creates the landmarks used by A* with the configured number of
+	 * landmarks, or discards them, if the landmarks are disabled.
+	 */
+	private void initLandmarks() {
+		if (landmarks != null) {
+			landmarks.close();
+			landmarks = null;
+		}
+		if (landmarkCount <= 0)
+			return;
+
+		this.landmarks = new LowerBoundLandmarks(getBaseGraph(),
+				getGraphHopperStorage().getDirectory(),
+				this::getPreparationFingerprint, landmarkCount);
+	}
+
+	/**
+	 * 
+	 * @return a primitive snapshot of the graph for the first encoder, used
+	 *         by the speed up techniques
+	 */
+	public BaseGraph getBaseGraph() {
+		if (baseGraph == null) {
+			logger.info("create base graph...");
+			StopWatch sw = new StopWatch().start();
+			baseGraph = new BaseGraph(getGraphHopperStorage(),
+					getEncodingManager().fetchEdgeEncoders().get(0));
+			logger.info("done (" + sw.stop().getTime() + " ms)");
+		}
+		return baseGraph;
+	}
+
+	/**
+	 * Creates a new {@link EdgeWeightCache} with the configured bucket width,
+	 * or disables the cache if no bucket width is set.
+	 */
+	private void initEdgeWeightCache() {
+		if (edgeWeightCacheBucketWidth == null) {
+			this.edgeWeightCache = null;
+			return;
+		}
+		this.edgeWeightCache = new EdgeWeightCache(
+				getGraphHopperStorage().getAllEdges().getMaxId(),
+				edgeWeightCacheBucketWidth, edgeWeightCacheMaxBuckets);
+	}
+
+	/**
+	 * Loads the precompiled heat profiles of the edges from the graph
+	 * directory or compiles them, if they doesn't exist or are out of date.
+	 * The cost functions of the temperature weighting are loaded or compiled
+	 * likewise, if enabled.
+	 */
+	private void initEdgeHeatProfiles() {
+		this.temperatureCosts = null;
+		if (segments == null || osmData == null) {
+			logger.warn("no way segments or OSM data set, so the heat stress "
+					+ "weightings fall back to the distance");
+			this.heatProfiles = null;
+			return;
+		}
+
+		EdgeHeatProfiles profiles = new EdgeHeatProfiles(
+				getGraphHopperStorage().getDirectory(), heatProfilePrecision,
+				heatProfileBins);
+		if (!profiles.loadExisting(
+				getGraphHopperStorage().getAllEdges().getMaxId(), segments))
+			profiles.compile(this, segments);
+		this.heatProfiles = profiles;
+
+		if (temperatureCostsEnabled) {
+			EdgeTemperatureCosts costs = new EdgeTemperatureCosts(
+					getGraphHopperStorage().getDirectory());
+			if (!costs.loadExisting(profiles))
+				costs.compile(profiles);
+			this.temperatureCosts = costs;
+		}
+	}
+
 	// Override the createReader method to store the mapping of internal
-	// edge/node ID to OSM way/node ID
+	// edge/node ID to OSM way/node ID and of the internal edge ID to the OSM
+	// IDs of all nodes of the edge
 	// See: https://github.com/karussell/graphhopper-osm-id-mapping/
 	@Override
 	protected DataReader createReader(GraphHopperStorage ghStorage) {
@@ -186,10 +418,21 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 			private int numberStoredWayIds = 0;
 			private int maxStoredInternalWayId = 0;
 
+			// the way of the previous edge and the position of its last node,
+			// since the edges of a way are created in the order of the way
+			private final WayGeometry wayGeometry = new WayGeometry();
+			private long previousWayId = Long.MIN_VALUE;
+			private int previousPosition = 0;
+			private int unmatchedEdges = 0;
+
 			{
 				osmNodeIds = new HashSet<>();
 				edgeMapping.create(1000);
 				nodeMapping.create(1000);
+				edgeNodeMapping.create();
+				if (osmData == null)
+					logger.warn("no OSM data set, so the OSM nodes of the "
+							+ "edges can't be stored");
 			}
 
 			// hook the store OsmWayID function to persist the mapping of the
@@ -207,6 +450,30 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 				if (edgeId > maxStoredInternalWayId)
 					maxStoredInternalWayId = edgeId;
 				numberStoredWayIds++;
+
+				storeOsmNodeIds(edgeId, osmWayId);
+			}
+
+			// storeOsmWayID is called right after an edge and its geometry
+			// were created, so the points of the edge are matched against the
+			// nodes of the way to persist the OSM IDs of all its nodes
+			private void storeOsmNodeIds(int edgeId, long osmWayId) {
+				if (osmData == null)
+					return;
+				if (osmWayId != previousWayId) {
+					osmData.getWayGeometry(osmWayId, wayGeometry);
+					previousWayId = osmWayId;
+					previousPosition = 0;
+				}
+				PointList points = ghStorage
+						.getEdgeIteratorState(edgeId, Integer.MIN_VALUE)
+						.fetchWayGeometry(3);
+				int end = edgeNodeMapping.record(edgeId, wayGeometry, points,
+						previousPosition);
+				if (end >= 0)
+					previousPosition = end;
+				else
+					unmatchedEdges++;
 			}
 
 			// Required to store the OSM node ID so it can be persisted in the
@@ -260,7 +527,8 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 						+ maxInternalId + ", maxStoredInternalWayId = "
 						+ maxStoredInternalWayId + ", numberStoredWayIds = "
 						+ numberStoredWayIds + ", nodeMap.size() = "
-						+ super.getNodeMap().getSize() + ")");
+						+ super.getNodeMap().getSize() + ", unmatchedEdges = "
+						+ unmatchedEdges + ")");
 
 				super.finishedReading();
 
@@ -268,6 +536,7 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 
 				edgeMapping.flush();
 				nodeMapping.flush();
+				edgeNodeMapping.flush();
 			}
 		};
 
@@ -298,12 +567,51 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 				nodeMapping.getInt(pointer + 4L));
 	}
 
+	/**
+	 * 
+	 * @param internalEdgeId
+	 * @return the OSM ids of all nodes (i.e. the tower and the pillar nodes)
+	 *         of the edge {@code internalEdgeId} in the order from its base to
+	 *         its adjacent node as created by the import, or an empty array if
+	 *         they are unknown
+	 */
+	public long[] getOSMNodes(int internalEdgeId) {
+		return edgeNodeMapping.getNodes(internalEdgeId);
+	}
+
 	public WeatherData getWeatherData() {
 		return weatherData;
 	}
 
+	/**
+	 * Sets the weather data. The cached edge weights are invalidated, unless
+	 * {@code weatherData} only extends the current weather data by newer
+	 * records (see {@link WeatherData#isExtensionOf(WeatherData)}), since
+	 * weights are only cached for points in time covered by the weather data
+	 * and the values at these points are unchanged. The metrics of the speed
+	 * up technique are updated in any case, since they may have been computed
+	 * for points in time not covered by the current weather data. Nothing is
+	 * updated, if {@code weatherData} is the current weather data (e.g.
+	 * returned by {@link WeatherData#append(java.util.Collection)} without
+	 * newer records).
+	 * 
+	 * @param weatherData
+	 *            the weather data to set
+	 */
 	public void setWeatherData(WeatherData weatherData) {
+		WeatherData current = this.weatherData;
+		if (weatherData == current)
+			return;
 		this.weatherData = weatherData;
+		boolean extended = current != null && weatherData != null
+				&& weatherData.isExtensionOf(current);
+		if (extended)
+			logger.debug("weather data extended to "
+					+ weatherData.getTimeRange().getTo());
+		else if (edgeWeightCache != null)
+			edgeWeightCache.clear();
+		if (hierarchies != null)
+			hierarchies.weatherDataChanged();
 	}
 
 	// public LocalDateTime getTimePoint() {
@@ -326,8 +634,344 @@ public class HeatStressGraphHopper extends GraphHopperOSM {
 		return segments;
 	}
 
+	/**
+	 * Sets the way segments. If the graph is already loaded, the heat profiles
+	 * of the edges are recompiled.
+	 * 
+	 * @param segments
+	 *            the way segments to set
+	 */
 	public void setSegments(WaySegments segments) {
 		this.segments = segments;
+		if (heatProfiles != null)
+			initEdgeHeatProfiles();
+		if (edgeWeightCache != null)
+			edgeWeightCache.clear();
+		if (hierarchies != null)
+			hierarchies.clear();
+		if (landmarks != null)
+			landmarks.clear();
+	}
+
+	/**
+	 * 
+	 * @return the heat index table used by the heat index weightings, or
+	 *         {@code null} if the heat index is evaluated exactly
+	 */
+	public HeatIndexTable getHeatIndexTable() {
+		return heatIndexTable;
+	}
+
+	/**
+	 * Sets the heat index table used by the heat index weightings. The
+	 * cached edge weights are invalidated.
+	 * 
+	 * @param heatIndexTable
+	 *            the table to use or {@code null} to evaluate the heat index
+	 *            exactly
+	 * @throws IllegalArgumentException
+	 *             if the maximum error of {@code heatIndexTable} exceeds
+	 *             {@link #getHeatIndexMaxError()}
+	 */
+	public void setHeatIndexTable(HeatIndexTable heatIndexTable) {
+		this.heatIndexTable = verifyHeatIndexTable(heatIndexTable,
+				heatIndexMaxError);
+		if (edgeWeightCache != null)
+			edgeWeightCache.clear();
+		if (hierarchies != null)
+			hierarchies.clear();
+	}
+
+	/**
+	 * 
+	 * @return the maximum absolute error of the heat index table (in °C)
+	 */
+	public double getHeatIndexMaxError() {
+		return heatIndexMaxError;
+	}
+
+	/**
+	 * Sets the maximum absolute error of the heat index table (in °C). The
+	 * current table is verified against the new bound.
+	 * 
+	 * @param heatIndexMaxError
+	 *            the maximum absolute error of the heat index table
+	 * @throws IllegalArgumentException
+	 *             if {@code heatIndexMaxError} is negative or the maximum
+	 *             error of the current table exceeds it
+	 */
+	public void setHeatIndexMaxError(double heatIndexMaxError) {
+		if (!(heatIndexMaxError >= 0))
+			throw new IllegalArgumentException(
+					"the maximum error must not be negative");
+		verifyHeatIndexTable(heatIndexTable, heatIndexMaxError);
+		this.heatIndexMaxError = heatIndexMaxError;
+	}
+
+	// determines the error of table and rejects it, if it exceeds maxError
+	private HeatIndexTable verifyHeatIndexTable(HeatIndexTable table,
+			double maxError) {
+		if (table == null)
+			return null;
+		double error = table.getMaxError();
+		logger.info("heat index table with " + table.getTemperatureStep()
+				+ "°C x " + table.getHumidityStep() + "%: max error = "
+				+ error + "°C");
+		if (error > maxError)
+			throw new IllegalArgumentException("the maximum error of the "
+					+ "heat index table (" + error + "°C) exceeds "
+					+ maxError + "°C");
+		return table;
+	}
+
+	public SpeedUpMode getSpeedUpMode() {
+		return speedUpMode;
+	}
+
+	/**
+	 * Sets the speed up technique used for the heat stress weightings. If the
+	 * graph is already loaded, the preprocessed data is recreated.
+	 * 
+	 * @param speedUpMode
+	 *            the speed up technique to use
+	 */
+	public void setSpeedUpMode(SpeedUpMode speedUpMode) {
+		this.speedUpMode = speedUpMode;
+		if (getGraphHopperStorage() != null)
+			initSpeedUp();
+	}
+
+	/**
+	 * Configures the buckets of the contraction hierarchies (see
+	 * {@link WeatherBucketedHierarchies}). Takes effect when the graph is
+	 * loaded or the speed up technique is set the next time.
+	 * 
+	 * @param temperatureStep
+	 *            the width of a temperature bucket (in °C)
+	 * @param humidityStep
+	 *            the width of a humidity bucket (in %)
+	 * @param maxBytes
+	 *            the maximum size of the hierarchies kept in memory
+	 */
+	public void setCHBuckets(double temperatureStep, double humidityStep,
+			long maxBytes) {
+		this.chTemperatureStep = temperatureStep;
+		this.chHumidityStep = humidityStep;
+		this.chMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Sets the maximum size of the files of the contraction hierarchies (see
+	 * {@link WeatherBucketedHierarchies}) in the graph directory. Takes effect
+	 * when the graph is loaded or the speed up technique is set the next
+	 * time.
+	 * 
+	 * @param maxFileBytes
+	 *            the maximum size of the files of the hierarchies
+	 */
+	public void setCHMaxFileBytes(long maxFileBytes) {
+		this.chMaxFileBytes = maxFileBytes;
+	}
+
+	/**
+	 * Sets the maximum number of metrics of the customizable contraction
+	 * hierarchies (see {@link CustomizedHierarchies}) kept in memory. Takes
+	 * effect when the graph is loaded or the speed up technique is set the
+	 * next time.
+	 * 
+	 * @param maxMetrics
+	 *            the maximum number of metrics
+	 */
+	public void setCCHMaxMetrics(int maxMetrics) {
+		this.cchMaxMetrics = maxMetrics;
+	}
+
+	/**
+	 * 
+	 * @return the hierarchies of the heat stress weightings or {@code null},
+	 *         if no speed up technique is set
+	 */
+	public HierarchyProvider getHierarchies() {
+		return hierarchies;
+	}
+
+	/**
+	 * Sets the number of landmarks used by A* and bidirectional A* (see
+	 * {@link LowerBoundLandmarks}). If the graph is already loaded, the
+	 * landmarks are recreated.
+	 * 
+	 * @param count
+	 *            the number of landmarks per weighting or 0 to disable the
+	 *            landmarks
+	 */
+	public void setLandmarks(int count) {
+		this.landmarkCount = count;
+		if (getGraphHopperStorage() != null)
+			initLandmarks();
+	}
+
+	/**
+	 * 
+	 * @return the landmarks used by A* or {@code null}, if the landmarks are
+	 *         disabled
+	 */
+	public LowerBoundLandmarks getLandmarks() {
+		return landmarks;
+	}
+
+	/**
+	 * 
+	 * @return the memo of the edge weights or {@code null} if disabled
+	 */
+	public EdgeWeightCache getEdgeWeightCache() {
+		return edgeWeightCache;
+	}
+
+	/**
+	 * Configures the memo of the edge weights shared by all requests (see
+	 * {@link EdgeWeightCache}). All points in time within a bucket of width
+	 * {@code bucketWidth} share the same edge weights, i.e. the weights for the
+	 * start of the bucket. If the graph is already loaded, the cache is
+	 * recreated.
+	 * <p>
+	 * The cache is disabled by default, since the time of every heat stress
+	 * weighting is rounded down to the start of its bucket, i.e. both the
+	 * time slice of the way segments and the weather are taken at the start
+	 * of the bucket. The bucket width should therefore divide the boundaries
+	 * of the time slices (e.g. 5 minutes for hourly slices), and the
+	 * resulting weights are piecewise constant in time, which affects e.g.
+	 * the search of the {@code OptimalTimeFinder}.
+	 * 
+	 * @param bucketWidth
+	 *            the width of a time bucket or {@code null} to disable the
+	 *            cache
+	 * @param maxBuckets
+	 *            the maximum number of buckets to keep
+	 */
+	public void setEdgeWeightCache(Duration bucketWidth, int maxBuckets) {
+		this.edgeWeightCacheBucketWidth = bucketWidth;
+		this.edgeWeightCacheMaxBuckets = maxBuckets;
+		if (getGraphHopperStorage() != null)
+			initEdgeWeightCache();
+	}
+
+	/**
+	 * 
+	 * @return the precompiled heat profiles of the edges or {@code null} if no
+	 *         way segments are set
+	 */
+	public EdgeHeatProfiles getEdgeHeatProfiles() {
+		return heatProfiles;
+	}
+
+	/**
+	 * 
+	 * @return the precompiled cost functions of the edges used by the
+	 *         temperature weighting or {@code null} if disabled or no way
+	 *         segments are set
+	 */
+	public EdgeTemperatureCosts getEdgeTemperatureCosts() {
+		return temperatureCosts;
+	}
+
+	public boolean isTemperatureCostsEnabled() {
+		return temperatureCostsEnabled;
+	}
+
+	/**
+	 * Sets whether the temperature weighting uses the precompiled cost
+	 * functions of the edges (see {@link EdgeTemperatureCosts}), which are
+	 * evaluated in logarithmic time of the number of pairs of an edge, but
+	 * take three doubles per pair and time slice. If the graph is already
+	 * loaded, the cost functions are loaded or compiled respectively
+	 * discarded.
+	 * 
+	 * @param temperatureCostsEnabled
+	 *            {@code true} to use the precompiled cost functions
+	 */
+	public void setTemperatureCostsEnabled(boolean temperatureCostsEnabled) {
+		this.temperatureCostsEnabled = temperatureCostsEnabled;
+		if (heatProfiles != null)
+			initEdgeHeatProfiles();
+	}
+
+	public boolean isInterpolateTimeSlices() {
+		return interpolateTimeSlices;
+	}
+
+	/**
+	 * Sets whether the weightings interpolate the temperature differences
+	 * linearly between the centers of neighbouring time slices of the heat
+	 * profiles (see {@link EdgeHeatProfiles}), instead of using the values of
+	 * the slice containing the time of the request. The cached edge weights
+	 * are invalidated.
+	 * 
+	 * @param interpolateTimeSlices
+	 *            {@code true} to interpolate between the time slices
+	 */
+	public void setInterpolateTimeSlices(boolean interpolateTimeSlices) {
+		this.interpolateTimeSlices = interpolateTimeSlices;
+		if (edgeWeightCache != null)
+			edgeWeightCache.clear();
+		if (hierarchies != null)
+			hierarchies.clear();
+	}
+
+	public EdgeHeatProfiles.Precision getHeatProfilePrecision() {
+		return heatProfilePrecision;
+	}
+
+	/**
+	 * Sets the precision the heat profiles of the edges are stored with (see
+	 * {@link EdgeHeatProfiles.Precision}). If the graph is already loaded, the
+	 * heat profiles are recompiled with the new precision.
+	 * 
+	 * @param heatProfilePrecision
+	 *            the precision of the heat profiles
+	 */
+	public void setHeatProfilePrecision(
+			EdgeHeatProfiles.Precision heatProfilePrecision) {
+		this.heatProfilePrecision = heatProfilePrecision;
+		if (heatProfiles != null)
+			initEdgeHeatProfiles();
+		if (edgeWeightCache != null)
+			edgeWeightCache.clear();
+		if (hierarchies != null)
+			hierarchies.clear();
+		if (landmarks != null)
+			landmarks.clear();
+	}
+
+	public int getHeatProfileBins() {
+		return heatProfileBins;
+	}
+
+	/**
+	 * Sets the maximum number of pairs of distance and temperature
+	 * differences the heat profile of an edge is collapsed into (see
+	 * {@link EdgeHeatProfiles}), trading a bounded error of the weights for a
+	 * fixed number of pairs per edge. If the graph is already loaded, the heat
+	 * profiles are recompiled.
+	 * 
+	 * @param heatProfileBins
+	 *            the maximum number of pairs per edge, or 0 to keep all pairs
+	 * @throws IllegalArgumentException
+	 *             if {@code heatProfileBins} is negative
+	 */
+	public void setHeatProfileBins(int heatProfileBins) {
+		if (heatProfileBins < 0)
+			throw new IllegalArgumentException(
+					"the number of bins must not be negative: "
+							+ heatProfileBins);
+		this.heatProfileBins = heatProfileBins;
+		if (heatProfiles != null)
+			initEdgeHeatProfiles();
+		if (edgeWeightCache != null)
+			edgeWeightCache.clear();
+		if (hierarchies != null)
+			hierarchies.clear();
+		if (landmarks != null)
+			landmarks.clear();
 	}
 
 	public double getWeightDistance() {
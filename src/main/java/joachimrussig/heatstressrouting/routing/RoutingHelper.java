@@ -3,6 +3,7 @@ package joachimrussig.heatstressrouting.routing;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -10,6 +11,8 @@ import java.util.Locale;
 import java.util.Optional;
 
 import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.graphhopper.GHRequest;
 import com.graphhopper.GHResponse;
@@ -26,6 +29,8 @@ import com.graphhopper.util.shapes.GHPoint;
 
 import joachimrussig.heatstressrouting.osmdata.OSMData;
 import joachimrussig.heatstressrouting.osmdata.OSMFileReader;
+import joachimrussig.heatstressrouting.osmdata.SelectiveOSMLoader;
+import joachimrussig.heatstressrouting.routing.speedup.SpeedUpMode;
 import joachimrussig.heatstressrouting.routing.weighting.WeightingType;
 import joachimrussig.heatstressrouting.util.Result;
 import joachimrussig.heatstressrouting.util.TimeRange;
@@ -43,6 +48,21 @@ import joachimrussig.heatstressrouting.weatherdata.WeatherDataUpdater;
  */
 public class RoutingHelper {
 
+	private static final Logger logger = LoggerFactory
+			.getLogger(RoutingHelper.class);
+
+	/**
+	 * The number of landmarks used by {@link Parameters.Algorithms#ASTAR} and
+	 * {@link Parameters.Algorithms#ASTAR_BI} in hoppers created by
+	 * {@link #createHopper(File, File, File)}.
+	 */
+	public static final int DEFAULT_LANDMARKS = 16;
+
+	private static final String GRAPH_SUFFIX = "-gh";
+	// the size and modification time of the OSM file the graph was imported
+	// from
+	private static final String OSM_FILE_STAMP = "osm_file";
+
 	private HeatStressGraphHopper hopper;
 
 	// TODO Deprecate or remove routing methods other then route(RoutingRequest)
@@ -62,7 +82,8 @@ public class RoutingHelper {
 
 	/**
 	 * Helper method to create a {@link HeatStressGraphHopper} instance using
-	 * the specified files.
+	 * the specified files, that stores the graph and the snapshot of the OSM
+	 * data next to {@code osmFile}.
 	 * 
 	 * @param osmFile
 	 *            a OSM XML or OSM PBF file (see {@link OSMFileReader})
@@ -78,11 +99,54 @@ public class RoutingHelper {
 	 */
 	public static HeatStressGraphHopper createHopper(File osmFile,
 			File weatherDataFile, File waySegmentsFile) throws IOException {
+		return createHopper(osmFile, weatherDataFile, waySegmentsFile, null);
+	}
 
-		java.nio.file.Path ghLocation = Files
-				.createTempDirectory("graph_hopper");
-
-		OSMData osmData = new OSMFileReader().read(osmFile);
+	/**
+	 * Helper method to create a {@link HeatStressGraphHopper} instance using
+	 * the specified files.
+	 * <p>
+	 * The graph and the snapshot of the OSM data (see
+	 * {@link OSMFileReader#setUseSnapshot(boolean)}) are stored in
+	 * {@code cacheDir} (see {@link #getGraphHopperLocation(File, File)}), so
+	 * the import and the preprocessed data of the speed up techniques are
+	 * reused on later starts. The graph is imported again, if the size or the
+	 * modification time of {@code osmFile} changed.
+	 * 
+	 * @param osmFile
+	 *            a OSM XML or OSM PBF file (see {@link OSMFileReader})
+	 * @param weatherDataFile
+	 *            a CSV file containing the data of the weather station (see
+	 *            {@link WeatherDataParser})
+	 * @param waySegmentsFile
+	 *            a CSV file containing the weighted lines segments (see
+	 *            {@link WaySegmentParser})
+	 * @param cacheDir
+	 *            the directory the graph and the snapshot are stored in (e.g.
+	 *            outside of a deployed web application, so they survive a
+	 *            redeploy), or {@code null} to store them next to
+	 *            {@code osmFile}
+	 * @return a {@code HeatStressGraphHopper} instance
+	 * @throws IOException
+	 *             if an error occurs while reading one of the specified files
+	 */
+	public static HeatStressGraphHopper createHopper(File osmFile,
+			File weatherDataFile, File waySegmentsFile, File cacheDir)
+			throws IOException {
+
+		File ghLocation = getGraphHopperLocation(osmFile, cacheDir);
+
+		EncodingManager encodingManager = new EncodingManager(
+				FlagEncoderFactory.FOOT);
+
+		// only the ways of the foot graph, their nodes and the places are
+		// loaded; a binary snapshot in the cache directory avoids parsing it
+		// on every start; PBF files are decoded with all available processors
+		OSMData osmData = new OSMFileReader().setUseSnapshot(true)
+				.setSnapshotDirectory(cacheDir)
+				.setThreads(Runtime.getRuntime().availableProcessors())
+				.setWayFilter(SelectiveOSMLoader.acceptedBy(encodingManager))
+				.read(osmFile);
 		WeatherData weatherData = new WeatherDataParser()
 				.parse(weatherDataFile);
 		WaySegments waySegments = new WaySegmentParser().parse(waySegmentsFile);
@@ -90,22 +154,84 @@ public class RoutingHelper {
 		HeatStressGraphHopper hopper = new HeatStressGraphHopper();
 		hopper.getCHFactoryDecorator().setEnabled(false);
 		hopper.setOSMFile(osmFile.getAbsolutePath());
-		hopper.setGraphHopperLocation(ghLocation.toString());
-		hopper.setEncodingManager(new EncodingManager(FlagEncoderFactory.FOOT));
+		hopper.setGraphHopperLocation(ghLocation.getPath());
+		hopper.setEncodingManager(encodingManager);
 		hopper.setOsmData(osmData);
 		hopper.setWeatherData(weatherData);
 		hopper.setSegments(waySegments);
+		// the heat stress weightings use contraction hierarchies per weather
+		// bucket, prepared in the background on demand
+		hopper.setSpeedUpMode(SpeedUpMode.CH);
+		// A* and bidirectional A* use landmarks for all weightings, prepared
+		// in the background on demand
+		hopper.setLandmarks(DEFAULT_LANDMARKS);
+
+		File stampFile = new File(ghLocation, OSM_FILE_STAMP);
+		String stamp = osmFile.length() + " " + osmFile.lastModified();
+		if (ghLocation.exists() && !stamp.equals(readStamp(stampFile)))
+			hopper.clean();
 		hopper.importOrLoad();
+		// the graph is imported again on the next start, if the stamp is
+		// missing
+		try {
+			Files.write(stampFile.toPath(),
+					stamp.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			logger.warn("failed to write " + stampFile, e);
+		}
 
 		return hopper;
 
 	}
 
+	// the content of the stamp file or null, if it couldn't be read
+	private static String readStamp(File stampFile) {
+		if (!stampFile.isFile())
+			return null;
+		try {
+			return new String(Files.readAllBytes(stampFile.toPath()),
+					StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			logger.warn("failed to read " + stampFile, e);
+			return null;
+		}
+	}
+
+	/**
+	 * 
+	 * @param osmFile
+	 *            the OSM file
+	 * @return the directory the graph of {@code osmFile} is stored in by
+	 *         {@link #createHopper(File, File, File)}
+	 */
+	public static File getGraphHopperLocation(File osmFile) {
+		return getGraphHopperLocation(osmFile, null);
+	}
+
+	/**
+	 * 
+	 * @param osmFile
+	 *            the OSM file
+	 * @param cacheDir
+	 *            the cache directory or {@code null}
+	 * @return the directory the graph of {@code osmFile} is stored in by
+	 *         {@link #createHopper(File, File, File, File)}
+	 */
+	public static File getGraphHopperLocation(File osmFile, File cacheDir) {
+		if (cacheDir == null)
+			return new File(osmFile.getPath() + GRAPH_SUFFIX);
+		return new File(cacheDir, osmFile.getName() + GRAPH_SUFFIX);
+	}
+
 	public boolean updateWeatherData(File weatherDataFile, URL zipFileUrl,
 			boolean updateFile, boolean backupOldFile) throws IOException {
-		Optional<WeatherData> newWeatherData = WeatherDataUpdater
-				.updateWeatherData(weatherDataFile, zipFileUrl, updateFile,
-						backupOldFile);
+		// only the records newer than the current weather data are parsed
+		WeatherData current = this.hopper.getWeatherData();
+		Optional<WeatherData> newWeatherData = current != null
+				? WeatherDataUpdater.updateWeatherData(current,
+						weatherDataFile, zipFileUrl, updateFile, backupOldFile)
+				: WeatherDataUpdater.updateWeatherData(weatherDataFile,
+						zipFileUrl, updateFile, backupOldFile);
 
 		if (newWeatherData.isPresent()) {
 			this.hopper.setWeatherData(newWeatherData.get());
@@ -404,6 +530,14 @@ public class RoutingHelper {
 		return routingAlgorithm;
 	}
 
+	/**
+	 * Sets the routing algorithm, e.g. {@link Parameters.Algorithms#ASTAR} or
+	 * {@link Parameters.Algorithms#ASTAR_BI} to use the landmarks of the
+	 * hopper (see {@link HeatStressGraphHopper#setLandmarks(int)}).
+	 * 
+	 * @param routingAlgorithm
+	 *            the name of the routing algorithm
+	 */
 	public void setRoutingAlgorithm(String routingAlgorithm) {
 		this.routingAlgorithm = routingAlgorithm;
 	}
@@ -0,0 +1,232 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.storage.NodeAccess;
+import com.graphhopper.util.EdgeIterator;
+
+/**
+ * A primitive, read only snapshot of the topology of the base graph (i.e. the
+ * graph without the virtual nodes and edges of a query) for a single
+ * {@link FlagEncoder}.
+ * <p>
+ * The edges are stored by their internal edge ID and the accessible arcs of
+ * each node in a compressed sparse row layout, so the preprocessing of the
+ * speed up techniques doesn't have to use the edge iterators of GraphHopper.
+ *
+ * @author Joachim Rußig
+ */
+public class BaseGraph {
+
+	private final GraphHopperStorage graph;
+	private final FlagEncoder encoder;
+
+	private final int nodes;
+	private final int edges;
+
+	private final int[] edgeBase;
+	private final int[] edgeAdj;
+	private final boolean[] edgeForward;
+	private final boolean[] edgeBackward;
+	private final double[] edgeDistance;
+
+	private final double[] lat;
+	private final double[] lon;
+
+	// the arcs leaving node v are firstOut[v] to firstOut[v + 1] - 1
+	private final int[] firstOut;
+	private final int[] outEdge;
+	private final int[] outHead;
+
+	/**
+	 * Creates a snapshot of {@code graph} for {@code encoder}.
+	 *
+	 * @param graph
+	 *            the base graph
+	 * @param encoder
+	 *            the encoder defining the accessible directions of the edges
+	 */
+	public BaseGraph(GraphHopperStorage graph, FlagEncoder encoder) {
+		this.graph = graph;
+		this.encoder = encoder;
+		this.nodes = graph.getNodes();
+
+		NodeAccess na = graph.getNodeAccess();
+		this.lat = new double[nodes];
+		this.lon = new double[nodes];
+		for (int v = 0; v < nodes; v++) {
+			lat[v] = na.getLatitude(v);
+			lon[v] = na.getLongitude(v);
+		}
+
+		AllEdgesIterator iter = graph.getAllEdges();
+		this.edges = iter.getMaxId();
+		this.edgeBase = new int[edges];
+		this.edgeAdj = new int[edges];
+		this.edgeForward = new boolean[edges];
+		this.edgeBackward = new boolean[edges];
+		this.edgeDistance = new double[edges];
+
+		int[] degree = new int[nodes + 1];
+		while (iter.next()) {
+			int e = iter.getEdge();
+			edgeBase[e] = iter.getBaseNode();
+			edgeAdj[e] = iter.getAdjNode();
+			edgeForward[e] = iter.isForward(encoder);
+			edgeBackward[e] = iter.isBackward(encoder);
+			edgeDistance[e] = iter.getDistance();
+			if (edgeForward[e])
+				degree[edgeBase[e]]++;
+			if (edgeBackward[e])
+				degree[edgeAdj[e]]++;
+		}
+
+		this.firstOut = new int[nodes + 1];
+		for (int v = 0; v < nodes; v++)
+			firstOut[v + 1] = firstOut[v] + degree[v];
+
+		this.outEdge = new int[firstOut[nodes]];
+		this.outHead = new int[firstOut[nodes]];
+		int[] next = new int[nodes];
+		System.arraycopy(firstOut, 0, next, 0, nodes);
+		for (int e = 0; e < edges; e++) {
+			if (edgeForward[e]) {
+				int i = next[edgeBase[e]]++;
+				outEdge[i] = e;
+				outHead[i] = edgeAdj[e];
+			}
+			if (edgeBackward[e]) {
+				int i = next[edgeAdj[e]]++;
+				outEdge[i] = e;
+				outHead[i] = edgeBase[e];
+			}
+		}
+	}
+
+	/**
+	 * Computes the weights of all edges in both directions using
+	 * {@code weighting}. Weights of inaccessible directions and weights of at
+	 * least {@code Double.MAX_VALUE} (i.e. blocked edges) are set to
+	 * {@code Double.POSITIVE_INFINITY}.
+	 *
+	 * @param weighting
+	 *            the weighting to use
+	 * @return an array containing the weight from the base to the adjacent
+	 *         node of edge {@code e} at index {@code 2 * e} and the weight of
+	 *         the reverse direction at index {@code 2 * e + 1}
+	 */
+	public double[] computeWeights(Weighting weighting) {
+		double[] weights = new double[2 * edges];
+		AllEdgesIterator iter = graph.getAllEdges();
+		while (iter.next()) {
+			int e = iter.getEdge();
+			weights[2 * e] = edgeForward[e] ? toWeight(
+					weighting.calcWeight(iter, false, EdgeIterator.NO_EDGE))
+					: Double.POSITIVE_INFINITY;
+			weights[2 * e + 1] = edgeBackward[e] ? toWeight(
+					weighting.calcWeight(iter, true, EdgeIterator.NO_EDGE))
+					: Double.POSITIVE_INFINITY;
+		}
+		return weights;
+	}
+
+	private static double toWeight(double weight) {
+		return weight >= Double.MAX_VALUE ? Double.POSITIVE_INFINITY : weight;
+	}
+
+	/**
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodes() {
+		return nodes;
+	}
+
+	/**
+	 *
+	 * @return the number of edges
+	 */
+	public int getEdges() {
+		return edges;
+	}
+
+	public double getLat(int node) {
+		return lat[node];
+	}
+
+	public double getLon(int node) {
+		return lon[node];
+	}
+
+	public int getEdgeBase(int edge) {
+		return edgeBase[edge];
+	}
+
+	public int getEdgeAdj(int edge) {
+		return edgeAdj[edge];
+	}
+
+	public double getEdgeDistance(int edge) {
+		return edgeDistance[edge];
+	}
+
+	/**
+	 *
+	 * @param edge
+	 *            the internal edge ID
+	 * @param fromBase
+	 *            true, if the edge is traversed from its base to its adjacent
+	 *            node
+	 * @return true, if the edge is accessible in the given direction
+	 */
+	public boolean isAccessible(int edge, boolean fromBase) {
+		return fromBase ? edgeForward[edge] : edgeBackward[edge];
+	}
+
+	/**
+	 *
+	 * @param node
+	 *            the node
+	 * @return the index of the first arc leaving {@code node}
+	 */
+	public int getFirstOut(int node) {
+		return firstOut[node];
+	}
+
+	/**
+	 *
+	 * @param node
+	 *            the node
+	 * @return the index after the last arc leaving {@code node}
+	 */
+	public int getEndOut(int node) {
+		return firstOut[node + 1];
+	}
+
+	public int getOutEdge(int arc) {
+		return outEdge[arc];
+	}
+
+	public int getOutHead(int arc) {
+		return outHead[arc];
+	}
+
+	/**
+	 *
+	 * @return the graph the snapshot was created of
+	 */
+	public GraphHopperStorage getGraph() {
+		return graph;
+	}
+
+	/**
+	 *
+	 * @return the encoder the snapshot was created for
+	 */
+	public FlagEncoder getEncoder() {
+		return encoder;
+	}
+
+}
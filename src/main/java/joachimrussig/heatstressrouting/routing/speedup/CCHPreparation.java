@@ -0,0 +1,316 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.util.StopWatch;
+
+/**
+ * Computes the metric independent part of a customizable contraction
+ * hierarchy of a {@link BaseGraph}, i.e. a contraction order, the resulting
+ * {@link UpwardGraph} (see {@link CustomizableHierarchy}).
+ * <p>
+ * The contraction order is a geometric nested dissection: the nodes are split
+ * at the median of their longer coordinate axis, the nodes of one half
+ * adjacent to the other half form a separator, that is ranked above both
+ * halves, and the halves are ordered recursively. The nodes are then
+ * contracted in this order without witness searches, so the upward graph
+ * contains all shortcuts that any metric may require.
+ *
+ * @author Joachim Rußig
+ */
+public class CCHPreparation {
+
+	// parts with at most this many nodes are not dissected further
+	private static final int LEAF_SIZE = 4;
+
+	private final Logger logger = LoggerFactory.getLogger(CCHPreparation.class);
+
+	private final BaseGraph graph;
+	private final int nodes;
+
+	// the undirected adjacency of the accessible edges
+	private final int[] firstAdj;
+	private final int[] adj;
+
+	// the state of the nested dissection
+	private final int[] rank;
+	private int nextRank;
+	private final int[] part;
+	private int nextPart;
+
+	/**
+	 * Creates a new {@code CCHPreparation}.
+	 *
+	 * @param graph
+	 *            the graph to prepare
+	 */
+	public CCHPreparation(BaseGraph graph) {
+		this.graph = graph;
+		this.nodes = graph.getNodes();
+
+		int[] degree = new int[nodes + 1];
+		for (int e = 0; e < graph.getEdges(); e++) {
+			if (!isUsable(e))
+				continue;
+			degree[graph.getEdgeBase(e)]++;
+			degree[graph.getEdgeAdj(e)]++;
+		}
+		this.firstAdj = new int[nodes + 1];
+		for (int v = 0; v < nodes; v++)
+			firstAdj[v + 1] = firstAdj[v] + degree[v];
+		this.adj = new int[firstAdj[nodes]];
+		int[] next = Arrays.copyOf(firstAdj, nodes);
+		for (int e = 0; e < graph.getEdges(); e++) {
+			if (!isUsable(e))
+				continue;
+			int base = graph.getEdgeBase(e);
+			int adjNode = graph.getEdgeAdj(e);
+			adj[next[base]++] = adjNode;
+			adj[next[adjNode]++] = base;
+		}
+
+		this.rank = new int[nodes];
+		this.part = new int[nodes];
+	}
+
+	private boolean isUsable(int edge) {
+		return graph.getEdgeBase(edge) != graph.getEdgeAdj(edge)
+				&& (graph.isAccessible(edge, true)
+						|| graph.isAccessible(edge, false));
+	}
+
+	/**
+	 * Computes the contraction order and contracts the graph.
+	 *
+	 * @return the metric independent hierarchy
+	 */
+	public CustomizableHierarchy prepare() {
+		StopWatch sw = new StopWatch().start();
+
+		int[] all = new int[nodes];
+		for (int v = 0; v < nodes; v++)
+			all[v] = v;
+		nextRank = nodes;
+		dissect(all, 0, nodes);
+
+		CustomizableHierarchy hierarchy = contract();
+
+		logger.debug("prepared customizable hierarchy of " + nodes
+				+ " nodes (" + hierarchy.getGraph().getArcs() + " upward arcs, "
+				+ hierarchy.getTriangles() + " triangles, "
+				+ sw.stop().getTime() + " ms)");
+		return hierarchy;
+	}
+
+	/**
+	 * Assigns the ranks {@code nextRank - (to - from)} to {@code nextRank - 1}
+	 * to the nodes {@code nodes[from]} to {@code nodes[to - 1]}, where the
+	 * separators are ranked highest. The order of the nodes in the range is
+	 * changed.
+	 */
+	private void dissect(int[] nodes, int from, int to) {
+		int size = to - from;
+		if (size <= LEAF_SIZE) {
+			for (int i = from; i < to; i++)
+				rank[nodes[i]] = --nextRank;
+			return;
+		}
+
+		// split at the median of the longer axis
+		double minLat = Double.POSITIVE_INFINITY;
+		double maxLat = Double.NEGATIVE_INFINITY;
+		double minLon = Double.POSITIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY;
+		for (int i = from; i < to; i++) {
+			int v = nodes[i];
+			minLat = Math.min(minLat, graph.getLat(v));
+			maxLat = Math.max(maxLat, graph.getLat(v));
+			minLon = Math.min(minLon, graph.getLon(v));
+			maxLon = Math.max(maxLon, graph.getLon(v));
+		}
+		double lonScale = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+		boolean byLat = maxLat - minLat >= (maxLon - minLon) * lonScale;
+		sortByCoordinate(nodes, from, to, byLat);
+		int middle = from + size / 2;
+
+		int first = nextPart++;
+		int second = nextPart++;
+		for (int i = from; i < middle; i++)
+			part[nodes[i]] = first;
+		for (int i = middle; i < to; i++)
+			part[nodes[i]] = second;
+
+		// the separator is the smaller boundary of the two halves
+		int firstBoundary = countBoundary(nodes, from, middle, second);
+		int secondBoundary = countBoundary(nodes, middle, to, first);
+		int sepFrom, sepTo, other;
+		if (firstBoundary <= secondBoundary) {
+			sepFrom = from;
+			sepTo = middle;
+			other = second;
+		} else {
+			sepFrom = middle;
+			sepTo = to;
+			other = first;
+		}
+
+		// move the separator to the end of its half and rank it highest
+		int end = sepTo;
+		for (int i = sepTo - 1; i >= sepFrom; i--) {
+			if (hasNeighborIn(nodes[i], other)) {
+				end--;
+				int tmp = nodes[i];
+				nodes[i] = nodes[end];
+				nodes[end] = tmp;
+			}
+		}
+		for (int i = end; i < sepTo; i++)
+			rank[nodes[i]] = --nextRank;
+
+		if (sepFrom == from) {
+			dissect(nodes, from, end);
+			dissect(nodes, middle, to);
+		} else {
+			dissect(nodes, from, middle);
+			dissect(nodes, middle, end);
+		}
+	}
+
+	private int countBoundary(int[] nodes, int from, int to, int other) {
+		int count = 0;
+		for (int i = from; i < to; i++)
+			if (hasNeighborIn(nodes[i], other))
+				count++;
+		return count;
+	}
+
+	private boolean hasNeighborIn(int v, int other) {
+		for (int i = firstAdj[v]; i < firstAdj[v + 1]; i++)
+			if (part[adj[i]] == other)
+				return true;
+		return false;
+	}
+
+	private void sortByCoordinate(int[] nodes, int from, int to,
+			boolean byLat) {
+		// sort the coordinates in micro degrees (shifted to be positive)
+		// together with the index of the node
+		long[] keys = new long[to - from];
+		for (int i = from; i < to; i++) {
+			double c = byLat ? graph.getLat(nodes[i]) : graph.getLon(nodes[i]);
+			long micros = Math.round((c + 360) * 1e6);
+			keys[i - from] = (micros << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] sorted = new int[to - from];
+		for (int i = 0; i < keys.length; i++)
+			sorted[i] = nodes[(int) keys[i]];
+		System.arraycopy(sorted, 0, nodes, from, sorted.length);
+	}
+
+	/**
+	 * Contracts the nodes in order of their rank, where all neighbors of a
+	 * contracted node are connected.
+	 */
+	private CustomizableHierarchy contract() {
+		int[] nodeOfRank = new int[nodes];
+		for (int v = 0; v < nodes; v++)
+			nodeOfRank[rank[v]] = v;
+
+		// the upward neighbors of each node as ranks, sorted ascending
+		int[][] up = new int[nodes][];
+		int[] upSize = new int[nodes];
+		for (int v = 0; v < nodes; v++) {
+			int[] list = new int[firstAdj[v + 1] - firstAdj[v]];
+			int size = 0;
+			for (int i = firstAdj[v]; i < firstAdj[v + 1]; i++)
+				if (rank[adj[i]] > rank[v])
+					list[size++] = rank[adj[i]];
+			Arrays.sort(list, 0, size);
+			up[v] = list;
+			upSize[v] = dedupe(list, size);
+		}
+
+		// the neighbors of a contracted node form a clique, it suffices to
+		// add them to the lowest ranked neighbor (elimination tree)
+		for (int r = 0; r < nodes; r++) {
+			int v = nodeOfRank[r];
+			if (upSize[v] < 2)
+				continue;
+			int parent = nodeOfRank[up[v][0]];
+			int[] merged = new int[upSize[parent] + upSize[v] - 1];
+			int size = merge(up[parent], upSize[parent], up[v], 1, upSize[v],
+					merged);
+			up[parent] = merged;
+			upSize[parent] = size;
+		}
+
+		int arcs = 0;
+		for (int v = 0; v < nodes; v++)
+			arcs += upSize[v];
+		int[] low = new int[arcs];
+		int[] high = new int[arcs];
+		int count = 0;
+		for (int v = 0; v < nodes; v++) {
+			for (int i = 0; i < upSize[v]; i++) {
+				low[count] = v;
+				high[count] = nodeOfRank[up[v][i]];
+				count++;
+			}
+		}
+		up = null;
+
+		UpwardGraph upward = UpwardGraph.of(rank, low, high, arcs,
+				new int[arcs]);
+
+		int[] arcLow = new int[arcs];
+		for (int v = 0; v < nodes; v++)
+			for (int a = upward.getFirstUp(v); a < upward.getEndUp(v); a++)
+				arcLow[a] = v;
+
+		// the arc of each edge
+		int[] edgeArc = new int[graph.getEdges()];
+		Arrays.fill(edgeArc, -1);
+		for (int e = 0; e < graph.getEdges(); e++) {
+			if (!isUsable(e))
+				continue;
+			int base = graph.getEdgeBase(e);
+			int adjNode = graph.getEdgeAdj(e);
+			edgeArc[e] = rank[base] < rank[adjNode]
+					? upward.findArc(base, adjNode)
+					: upward.findArc(adjNode, base);
+		}
+
+		return new CustomizableHierarchy(graph, upward, nodeOfRank, arcLow,
+				edgeArc);
+	}
+
+	private static int dedupe(int[] list, int size) {
+		if (size == 0)
+			return 0;
+		int count = 1;
+		for (int i = 1; i < size; i++)
+			if (list[i] != list[count - 1])
+				list[count++] = list[i];
+		return count;
+	}
+
+	private static int merge(int[] a, int aSize, int[] b, int bFrom,
+			int bSize, int[] out) {
+		int i = 0, j = bFrom, k = 0;
+		while (i < aSize || j < bSize) {
+			int next;
+			if (j >= bSize || (i < aSize && a[i] <= b[j]))
+				next = a[i++];
+			else
+				next = b[j++];
+			if (k == 0 || out[k - 1] != next)
+				out[k++] = next;
+		}
+		return k;
+	}
+
+}
@@ -0,0 +1,372 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.util.StopWatch;
+
+/**
+ * Computes a contraction hierarchy of a {@link BaseGraph} for a fixed set of
+ * edge weights.
+ * <p>
+ * The nodes are contracted in order of their edge difference plus the number
+ * of already contracted neighbors, where the edge differences are updated
+ * lazily, i.e. when a node is about to be contracted. A
+ * shortcut is added, if a local witness search doesn't find a path at most as
+ * long as the path via the contracted node. The witness searches are limited
+ * in the number of settled nodes, so the hierarchy may contain unnecessary
+ * shortcuts, which doesn't affect the correctness of the queries.
+ *
+ * @author Joachim Rußig
+ */
+public class CHPreparation {
+
+	private static final int SIMULATION_SETTLED_LIMIT = 100;
+	private static final int CONTRACTION_SETTLED_LIMIT = 500;
+
+	private final Logger logger = LoggerFactory.getLogger(CHPreparation.class);
+
+	private final BaseGraph graph;
+	private final double[] weights;
+	private final int nodes;
+
+	// the directed arcs of the remaining graph, including shortcuts
+	private int arcs;
+	private int[] arcTail;
+	private int[] arcHead;
+	private double[] arcWeight;
+	private int[] arcMid;
+	private int[] arcEdge;
+
+	// the arcs leaving respectively entering each node
+	private final int[][] out;
+	private final int[] outSize;
+	private final int[][] in;
+	private final int[] inSize;
+
+	private final boolean[] contracted;
+	private final int[] deletedNeighbors;
+
+	// the state of the witness search
+	private final MinHeap heap;
+	private final double[] dist;
+	private final int[] touched;
+	private int touchedSize;
+
+	/**
+	 * Creates a new {@code CHPreparation}.
+	 *
+	 * @param graph
+	 *            the graph to contract
+	 * @param weights
+	 *            the weights of the edges as computed by
+	 *            {@link BaseGraph#computeWeights(com.graphhopper.routing.weighting.Weighting)}
+	 */
+	public CHPreparation(BaseGraph graph, double[] weights) {
+		this.graph = graph;
+		this.weights = weights;
+		this.nodes = graph.getNodes();
+
+		int capacity = 2 * graph.getEdges() + 16;
+		this.arcTail = new int[capacity];
+		this.arcHead = new int[capacity];
+		this.arcWeight = new double[capacity];
+		this.arcMid = new int[capacity];
+		this.arcEdge = new int[capacity];
+
+		this.out = new int[nodes][];
+		this.outSize = new int[nodes];
+		this.in = new int[nodes][];
+		this.inSize = new int[nodes];
+
+		this.contracted = new boolean[nodes];
+		this.deletedNeighbors = new int[nodes];
+
+		this.heap = new MinHeap(nodes);
+		this.dist = new double[nodes];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		this.touched = new int[nodes];
+	}
+
+	/**
+	 * Contracts all nodes of the graph.
+	 *
+	 * @return the resulting hierarchy
+	 */
+	public Hierarchy prepare() {
+		StopWatch sw = new StopWatch().start();
+
+		for (int e = 0; e < graph.getEdges(); e++) {
+			int base = graph.getEdgeBase(e);
+			int adj = graph.getEdgeAdj(e);
+			if (base == adj)
+				continue;
+			if (weights[2 * e] < Double.POSITIVE_INFINITY)
+				addOrImprove(base, adj, weights[2 * e], UpwardMetric.NO_MID,
+						e);
+			if (weights[2 * e + 1] < Double.POSITIVE_INFINITY)
+				addOrImprove(adj, base, weights[2 * e + 1],
+						UpwardMetric.NO_MID, e);
+		}
+		int originalArcs = arcs;
+
+		MinHeap queue = new MinHeap(nodes);
+		for (int v = 0; v < nodes; v++)
+			queue.update(v, priority(v));
+
+		int[] rank = new int[nodes];
+		int nextRank = 0;
+		while (!queue.isEmpty()) {
+			int v = queue.poll();
+
+			// lazy update: the priority may be out of date
+			double priority = priority(v);
+			if (!queue.isEmpty() && priority > queue.peekKey()) {
+				queue.update(v, priority);
+				continue;
+			}
+
+			contract(v, true);
+			contracted[v] = true;
+			rank[v] = nextRank++;
+
+			// detach v from the remaining graph, so the searches don't have
+			// to skip the arcs of contracted nodes
+			for (int i = 0; i < outSize[v]; i++) {
+				int arc = out[v][i];
+				remove(in, inSize, arcHead[arc], arc);
+			}
+			for (int i = 0; i < inSize[v]; i++) {
+				int arc = in[v][i];
+				remove(out, outSize, arcTail[arc], arc);
+			}
+			for (int i = 0; i < outSize[v]; i++)
+				updateNeighbor(queue, arcHead[out[v][i]]);
+			for (int i = 0; i < inSize[v]; i++)
+				updateNeighbor(queue, arcTail[in[v][i]]);
+		}
+
+		Hierarchy hierarchy = buildHierarchy(rank);
+
+		logger.debug("contracted " + nodes + " nodes (" + originalArcs
+				+ " arcs, " + (arcs - originalArcs) + " shortcuts, "
+				+ hierarchy.getGraph().getArcs() + " upward arcs, "
+				+ sw.stop().getTime() + " ms)");
+
+		return hierarchy;
+	}
+
+	// only the number of contracted neighbors is updated, the edge difference
+	// is recomputed lazily when the node is polled
+	private void updateNeighbor(MinHeap queue, int u) {
+		if (contracted[u])
+			return;
+		deletedNeighbors[u]++;
+		queue.update(u, queue.getKey(u) + 1);
+	}
+
+	private double priority(int v) {
+		int degree = 0;
+		for (int i = 0; i < outSize[v]; i++)
+			if (!contracted[arcHead[out[v][i]]])
+				degree++;
+		for (int i = 0; i < inSize[v]; i++)
+			if (!contracted[arcTail[in[v][i]]])
+				degree++;
+		int shortcuts = contract(v, false);
+		return (shortcuts - degree) + deletedNeighbors[v];
+	}
+
+	/**
+	 * Determines the shortcuts required to contract {@code v} and adds them,
+	 * if {@code apply} is true.
+	 *
+	 * @return the number of required shortcuts
+	 */
+	private int contract(int v, boolean apply) {
+		int shortcuts = 0;
+		for (int i = 0; i < inSize[v]; i++) {
+			int inArc = in[v][i];
+			int x = arcTail[inArc];
+			if (contracted[x])
+				continue;
+
+			double maxCost = 0;
+			boolean hasTarget = false;
+			for (int j = 0; j < outSize[v]; j++) {
+				int outArc = out[v][j];
+				int y = arcHead[outArc];
+				if (contracted[y] || y == x)
+					continue;
+				hasTarget = true;
+				maxCost = Math.max(maxCost,
+						arcWeight[inArc] + arcWeight[outArc]);
+			}
+			if (!hasTarget)
+				continue;
+
+			witnessSearch(x, v, maxCost, apply ? CONTRACTION_SETTLED_LIMIT
+					: SIMULATION_SETTLED_LIMIT);
+
+			// the weight of inArc can't change while v is contracted, since
+			// shortcuts are only added between its neighbors
+			for (int j = 0; j < outSize[v]; j++) {
+				int outArc = out[v][j];
+				int y = arcHead[outArc];
+				if (contracted[y] || y == x)
+					continue;
+				double cost = arcWeight[inArc] + arcWeight[outArc];
+				if (dist[y] > cost) {
+					shortcuts++;
+					if (apply)
+						addOrImprove(x, y, cost, v, UpwardMetric.NO_EDGE);
+				}
+			}
+			resetWitnessSearch();
+		}
+		return shortcuts;
+	}
+
+	private void witnessSearch(int source, int ignore, double maxCost,
+			int settledLimit) {
+		dist[source] = 0;
+		touched[touchedSize++] = source;
+		heap.update(source, 0);
+
+		int settled = 0;
+		while (!heap.isEmpty() && settled < settledLimit) {
+			if (heap.peekKey() > maxCost)
+				break;
+			int u = heap.poll();
+			settled++;
+			for (int i = 0; i < outSize[u]; i++) {
+				int arc = out[u][i];
+				int w = arcHead[arc];
+				if (w == ignore || contracted[w])
+					continue;
+				double d = dist[u] + arcWeight[arc];
+				if (d < dist[w]) {
+					if (dist[w] == Double.POSITIVE_INFINITY)
+						touched[touchedSize++] = w;
+					dist[w] = d;
+					heap.update(w, d);
+				}
+			}
+		}
+	}
+
+	private void resetWitnessSearch() {
+		for (int i = 0; i < touchedSize; i++)
+			dist[touched[i]] = Double.POSITIVE_INFINITY;
+		touchedSize = 0;
+		heap.clear();
+	}
+
+	private void addOrImprove(int tail, int head, double weight, int mid,
+			int edge) {
+		for (int i = 0; i < outSize[tail]; i++) {
+			int arc = out[tail][i];
+			if (arcHead[arc] == head) {
+				if (weight < arcWeight[arc]) {
+					arcWeight[arc] = weight;
+					arcMid[arc] = mid;
+					arcEdge[arc] = edge;
+				}
+				return;
+			}
+		}
+
+		if (arcs == arcTail.length) {
+			int capacity = arcs * 2;
+			arcTail = Arrays.copyOf(arcTail, capacity);
+			arcHead = Arrays.copyOf(arcHead, capacity);
+			arcWeight = Arrays.copyOf(arcWeight, capacity);
+			arcMid = Arrays.copyOf(arcMid, capacity);
+			arcEdge = Arrays.copyOf(arcEdge, capacity);
+		}
+		int arc = arcs++;
+		arcTail[arc] = tail;
+		arcHead[arc] = head;
+		arcWeight[arc] = weight;
+		arcMid[arc] = mid;
+		arcEdge[arc] = edge;
+
+		append(out, outSize, tail, arc);
+		append(in, inSize, head, arc);
+	}
+
+	private static void append(int[][] lists, int[] sizes, int node,
+			int arc) {
+		if (lists[node] == null)
+			lists[node] = new int[4];
+		else if (sizes[node] == lists[node].length)
+			lists[node] = Arrays.copyOf(lists[node], sizes[node] * 2);
+		lists[node][sizes[node]++] = arc;
+	}
+
+	private static void remove(int[][] lists, int[] sizes, int node, int arc) {
+		int[] list = lists[node];
+		for (int i = 0; i < sizes[node]; i++) {
+			if (list[i] == arc) {
+				list[i] = list[--sizes[node]];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Merges the directed arcs into the arcs of the {@link UpwardGraph},
+	 * keeping the lightest arc of each pair of nodes and direction.
+	 */
+	private Hierarchy buildHierarchy(int[] rank) {
+		Map<Long, Integer> pairs = new HashMap<>(arcs);
+		int[] low = new int[arcs];
+		int[] high = new int[arcs];
+		int count = 0;
+		int[] pairOfArc = new int[arcs];
+
+		for (int a = 0; a < arcs; a++) {
+			int tail = arcTail[a];
+			int head = arcHead[a];
+			int l = rank[tail] < rank[head] ? tail : head;
+			int h = l == tail ? head : tail;
+			long key = ((long) l << 32) | (h & 0xFFFFFFFFL);
+			Integer pair = pairs.get(key);
+			if (pair == null) {
+				pair = count++;
+				pairs.put(key, pair);
+				low[pair] = l;
+				high[pair] = h;
+			}
+			pairOfArc[a] = pair;
+		}
+
+		int[] order = new int[count];
+		UpwardGraph upward = UpwardGraph.of(rank, low, high, count, order);
+		int[] position = new int[count];
+		for (int i = 0; i < count; i++)
+			position[order[i]] = i;
+
+		UpwardMetric metric = new UpwardMetric(count);
+		for (int a = 0; a < arcs; a++) {
+			int i = position[pairOfArc[a]];
+			boolean up = rank[arcTail[a]] < rank[arcHead[a]];
+			if (up && arcWeight[a] < metric.upWeight[i]) {
+				metric.upWeight[i] = arcWeight[a];
+				metric.upMid[i] = arcMid[a];
+				metric.upEdge[i] = arcEdge[a];
+			} else if (!up && arcWeight[a] < metric.downWeight[i]) {
+				metric.downWeight[i] = arcWeight[a];
+				metric.downMid[i] = arcMid[a];
+				metric.downEdge[i] = arcEdge[a];
+			}
+		}
+
+		return new Hierarchy(upward, metric);
+	}
+
+}
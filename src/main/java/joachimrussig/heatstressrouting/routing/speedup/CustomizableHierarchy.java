@@ -0,0 +1,138 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+/**
+ * The metric independent part of a customizable contraction hierarchy (see
+ * {@link CCHPreparation}), which computes the {@link UpwardMetric} of any set
+ * of edge weights in a customization phase.
+ * <p>
+ * The customization initializes the arcs with the weights of the original
+ * edges and improves them along the lower triangles of the upward graph, i.e.
+ * for every triangle {@code (x, u, w)}, where {@code x} is ranked below
+ * {@code u} and {@code w}, the paths {@code u -> x -> w} and
+ * {@code w -> x -> u} are considered for the arc between {@code u} and
+ * {@code w}. The triangles are processed in order of the rank of {@code x},
+ * so the arcs of {@code x} are final when they are used. The triangles are
+ * enumerated during the customization instead of being stored, since their
+ * number is a multiple of the number of arcs.
+ *
+ * @author Joachim Rußig
+ */
+public class CustomizableHierarchy {
+
+	private final BaseGraph baseGraph;
+	private final UpwardGraph graph;
+	private final int[] nodeOfRank;
+	private final int[] arcLow;
+	// the arc of each edge or -1, if the edge isn't part of the hierarchy
+	private final int[] edgeArc;
+
+	CustomizableHierarchy(BaseGraph baseGraph, UpwardGraph graph,
+			int[] nodeOfRank, int[] arcLow, int[] edgeArc) {
+		this.baseGraph = baseGraph;
+		this.graph = graph;
+		this.nodeOfRank = nodeOfRank;
+		this.arcLow = arcLow;
+		this.edgeArc = edgeArc;
+	}
+
+	/**
+	 * Computes the metric of the upward graph for {@code weights}.
+	 *
+	 * @param weights
+	 *            the weights of the edges as computed by
+	 *            {@link BaseGraph#computeWeights(com.graphhopper.routing.weighting.Weighting)}
+	 * @return the customized metric
+	 * @throws IllegalStateException
+	 *             if the upward graph isn't chordal, i.e. a triangle is
+	 *             missing
+	 */
+	public UpwardMetric customize(double[] weights) {
+		UpwardMetric metric = new UpwardMetric(graph.getArcs());
+		double[] upWeight = metric.upWeight;
+		double[] downWeight = metric.downWeight;
+
+		for (int e = 0; e < edgeArc.length; e++) {
+			int a = edgeArc[e];
+			if (a < 0)
+				continue;
+			// the forward direction of the edge leads upwards, if its base
+			// is the lower ranked node
+			boolean baseIsLow = arcLow[a] == baseGraph.getEdgeBase(e);
+			double up = weights[baseIsLow ? 2 * e : 2 * e + 1];
+			double down = weights[baseIsLow ? 2 * e + 1 : 2 * e];
+			if (up < upWeight[a]) {
+				upWeight[a] = up;
+				metric.upEdge[a] = e;
+			}
+			if (down < downWeight[a]) {
+				downWeight[a] = down;
+				metric.downEdge[a] = e;
+			}
+		}
+
+		for (int x : nodeOfRank) {
+			int end = graph.getEndUp(x);
+			for (int i = graph.getFirstUp(x); i < end; i++) {
+				for (int j = i + 1; j < end; j++) {
+					// xu leads to the lower ranked of the two upper nodes
+					int xu = i;
+					int xw = j;
+					if (graph.getRank(graph.getHead(i)) > graph
+							.getRank(graph.getHead(j))) {
+						xu = j;
+						xw = i;
+					}
+					int uw = graph.findArc(graph.getHead(xu),
+							graph.getHead(xw));
+					if (uw < 0)
+						throw new IllegalStateException(
+								"the upward graph is not chordal");
+
+					double up = downWeight[xu] + upWeight[xw];
+					if (up < upWeight[uw]) {
+						upWeight[uw] = up;
+						metric.upMid[uw] = x;
+					}
+					double down = downWeight[xw] + upWeight[xu];
+					if (down < downWeight[uw]) {
+						downWeight[uw] = down;
+						metric.downMid[uw] = x;
+					}
+				}
+			}
+		}
+		return metric;
+	}
+
+	public UpwardGraph getGraph() {
+		return graph;
+	}
+
+	public BaseGraph getBaseGraph() {
+		return baseGraph;
+	}
+
+	/**
+	 *
+	 * @return the number of lower triangles
+	 */
+	public long getTriangles() {
+		long triangles = 0;
+		for (int v = 0; v < nodeOfRank.length; v++) {
+			long degree = graph.getEndUp(v) - graph.getFirstUp(v);
+			triangles += degree * (degree - 1) / 2;
+		}
+		return triangles;
+	}
+
+	/**
+	 *
+	 * @return the approximate size of the hierarchy in bytes, without the
+	 *         metrics
+	 */
+	public long getBytes() {
+		return graph.getBytes()
+				+ 4L * (nodeOfRank.length + arcLow.length + edgeArc.length);
+	}
+
+}
@@ -0,0 +1,264 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.util.StopWatch;
+
+import joachimrussig.heatstressrouting.routing.weighting.HeatStressWeighting;
+import joachimrussig.heatstressrouting.routing.weighting.WeatherSnapshot;
+import joachimrussig.heatstressrouting.weatherdata.WeatherData;
+
+/**
+ * Customizable contraction hierarchies for the heat stress weightings.
+ * <p>
+ * The metric independent {@link CustomizableHierarchy} is prepared once in
+ * the background. Afterwards a metric is customized for every weighting (see
+ * {@link HeatStressWeighting#getCacheKey()}), time slice and hour, using the
+ * weather at the start of the hour. Thus a query is answered with a route
+ * that is optimal for the weather at the start of the hour, whose weight is
+ * recomputed with the exact weather by the {@link UpwardSearch}.
+ * <p>
+ * The metrics are customized by the background thread as well, so a query
+ * never waits for a customization: until the hierarchy or the metric of a
+ * query is available, {@link #get(HeatStressWeighting)} returns an empty
+ * {@code Optional}, so the caller can fall back to an algorithm without
+ * preprocessing.
+ * <p>
+ * The most recently used metrics are kept in memory. If new weather data is
+ * installed (see {@link #weatherDataChanged()}), the metrics are customized
+ * again in the background and swapped atomically, so queries keep using the
+ * previous metric until the new one is available.
+ *
+ * @author Joachim Rußig
+ */
+public class CustomizedHierarchies implements HierarchyProvider {
+
+	private final Logger logger = LoggerFactory
+			.getLogger(CustomizedHierarchies.class);
+
+	private final BaseGraph graph;
+	private final int maxMetrics;
+
+	private volatile CustomizableHierarchy hierarchy;
+	private final ExecutorService executor;
+
+	// the customized metrics, ordered by access
+	private final LinkedHashMap<String, Metric> metrics;
+
+	/**
+	 * Creates a new {@code CustomizedHierarchies} and starts the preparation
+	 * of the metric independent hierarchy.
+	 *
+	 * @param graph
+	 *            the graph to prepare
+	 * @param maxMetrics
+	 *            the maximum number of customized metrics kept in memory
+	 * @throws IllegalArgumentException
+	 *             if {@code maxMetrics} is not positive
+	 */
+	public CustomizedHierarchies(BaseGraph graph, int maxMetrics) {
+		if (maxMetrics <= 0)
+			throw new IllegalArgumentException("maxMetrics must be positive");
+		this.graph = graph;
+		this.maxMetrics = maxMetrics;
+		this.metrics = new LinkedHashMap<String, Metric>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, Metric> eldest) {
+				return size() > CustomizedHierarchies.this.maxMetrics;
+			}
+		};
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "heat-cch-customization");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.submit(this::prepare);
+	}
+
+	private void prepare() {
+		try {
+			logger.info("prepare customizable contraction hierarchy...");
+			StopWatch sw = new StopWatch().start();
+			this.hierarchy = new CCHPreparation(graph).prepare();
+			logger.info("done (" + sw.stop().getTime() + " ms)");
+		} catch (RuntimeException e) {
+			logger.error("failed to prepare customizable contraction hierarchy",
+					e);
+		}
+	}
+
+	/**
+	 * Returns the hierarchy for the hour of {@code weighting}. If there is no
+	 * metric for the hour yet, its customization is scheduled.
+	 *
+	 * @param weighting
+	 *            the weighting of the query
+	 * @return the hierarchy or an empty {@code Optional}, if the metric
+	 *         independent hierarchy or the metric isn't prepared yet or
+	 *         {@code weighting} has no weather
+	 */
+	@Override
+	public Optional<Hierarchy> get(HeatStressWeighting weighting) {
+		CustomizableHierarchy hierarchy = this.hierarchy;
+		if (hierarchy == null || weighting.getWeather() == null
+				|| weighting.getSlice() < 0)
+			return Optional.empty();
+
+		LocalDateTime hour = weighting.getTime().truncatedTo(ChronoUnit.HOURS);
+		String key = weighting.getCacheKey() + "|"
+				+ weighting.getSliceKey(SLICE_STEPS) + "|" + hour;
+
+		Metric metric;
+		synchronized (metrics) {
+			metric = metrics.get(key);
+			if (metric == null) {
+				metric = new Metric(weighting, hour);
+				metrics.put(key, metric);
+			}
+		}
+
+		Hierarchy customized = metric.current.get();
+		if (customized == null) {
+			if (metric.scheduled.compareAndSet(false, true)) {
+				Metric scheduled = metric;
+				executor.submit(() -> customizeScheduled(hierarchy, scheduled));
+			}
+			return Optional.empty();
+		}
+		return Optional.of(customized);
+	}
+
+	private void customizeScheduled(CustomizableHierarchy hierarchy,
+			Metric metric) {
+		try {
+			StopWatch sw = new StopWatch().start();
+			metric.current.set(customize(hierarchy, metric));
+			logger.debug("customized metric for "
+					+ metric.weighting.getCacheKey() + " at " + metric.hour
+					+ " (" + sw.stop().getTime() + " ms)");
+		} catch (RuntimeException e) {
+			logger.error("failed to customize metric for "
+					+ metric.weighting.getCacheKey() + " at " + metric.hour, e);
+			// the customization is scheduled again by the next query
+			metric.scheduled.set(false);
+		}
+	}
+
+	private Hierarchy customize(CustomizableHierarchy hierarchy,
+			Metric metric) {
+		HeatStressWeighting weighting = metric.weighting;
+		WeatherData weatherData = weighting.getHopper().getWeatherData();
+		WeatherSnapshot weather = weatherData != null
+				&& weatherData.inTimeRange(metric.hour)
+						? WeatherSnapshot.of(weatherData, metric.hour)
+						: weighting.getWeather();
+
+		double[] weights = graph
+				.computeWeights(weighting.withWeather(weather));
+		return new Hierarchy(hierarchy.getGraph(),
+				hierarchy.customize(weights));
+	}
+
+	/**
+	 * Customizes all metrics in memory again in the background, using the
+	 * weather data currently installed.
+	 */
+	@Override
+	public void weatherDataChanged() {
+		executor.submit(() -> {
+			CustomizableHierarchy hierarchy = this.hierarchy;
+			if (hierarchy == null)
+				return;
+
+			List<Metric> current;
+			synchronized (metrics) {
+				current = new ArrayList<>(metrics.values());
+			}
+			if (current.isEmpty())
+				return;
+
+			logger.info("customize " + current.size() + " metrics...");
+			StopWatch sw = new StopWatch().start();
+			for (Metric metric : current) {
+				// metrics without a customization are customized by their
+				// scheduled task with the current weather data
+				if (metric.current.get() == null)
+					continue;
+				try {
+					metric.current.set(customize(hierarchy, metric));
+				} catch (RuntimeException e) {
+					logger.error("failed to customize metric for "
+							+ metric.weighting.getCacheKey() + " at "
+							+ metric.hour, e);
+				}
+			}
+			logger.info("done (" + sw.stop().getTime() + " ms)");
+		});
+	}
+
+	/**
+	 * Removes all customized metrics, the metric independent hierarchy is
+	 * kept.
+	 */
+	@Override
+	public void clear() {
+		synchronized (metrics) {
+			metrics.clear();
+		}
+	}
+
+	@Override
+	public void close() {
+		clear();
+		executor.shutdownNow();
+	}
+
+	/**
+	 *
+	 * @return the number of customized metrics in memory
+	 */
+	public int size() {
+		synchronized (metrics) {
+			return metrics.size();
+		}
+	}
+
+	@Override
+	public BaseGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * The customized metric of a weighting and hour, which is replaced if the
+	 * weather data changes.
+	 */
+	private static class Metric {
+		final HeatStressWeighting weighting;
+		final LocalDateTime hour;
+		final AtomicReference<Hierarchy> current = new AtomicReference<>();
+		// set while the first customization is scheduled or done
+		final AtomicBoolean scheduled = new AtomicBoolean();
+
+		Metric(HeatStressWeighting weighting, LocalDateTime hour) {
+			this.weighting = weighting;
+			this.hour = hour;
+		}
+	}
+
+}
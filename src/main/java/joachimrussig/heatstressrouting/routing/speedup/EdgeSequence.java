@@ -0,0 +1,43 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Arrays;
+
+/**
+ * A growable sequence of edges in order of travel, each with the node it
+ * leads to.
+ *
+ * @author Joachim Rußig
+ */
+class EdgeSequence {
+
+	private int[] edges = new int[32];
+	private int[] adjNodes = new int[32];
+	private int size;
+
+	void add(int edge, int adjNode) {
+		if (size == edges.length) {
+			edges = Arrays.copyOf(edges, size * 2);
+			adjNodes = Arrays.copyOf(adjNodes, size * 2);
+		}
+		edges[size] = edge;
+		adjNodes[size] = adjNode;
+		size++;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int getEdge(int i) {
+		return edges[i];
+	}
+
+	int getAdjNode(int i) {
+		return adjNodes[i];
+	}
+
+}
@@ -0,0 +1,45 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIterator;
+
+/**
+ * A {@link Path} built from an explicit sequence of edges, as found by the
+ * algorithms of the speed up techniques.
+ *
+ * @author Joachim Rußig
+ */
+class HeatStressPath extends Path {
+
+	HeatStressPath(Graph graph, Weighting weighting) {
+		super(graph, weighting);
+	}
+
+	/**
+	 * Initializes the path with the edges of {@code edges}.
+	 *
+	 * @param from
+	 *            the start node of the path
+	 * @param edges
+	 *            the edges of the path in order of travel
+	 * @param weight
+	 *            the weight of the path
+	 * @return this path
+	 */
+	Path build(int from, EdgeSequence edges, double weight) {
+		setFromNode(from);
+		int prevEdge = EdgeIterator.NO_EDGE;
+		for (int i = 0; i < edges.size(); i++) {
+			processEdge(edges.getEdge(i), edges.getAdjNode(i), prevEdge);
+			prevEdge = edges.getEdge(i);
+		}
+		setEndNode(edges.size() > 0 ? edges.getAdjNode(edges.size() - 1)
+				: from);
+		setWeight(weight);
+		setFound(true);
+		return this;
+	}
+
+}
@@ -0,0 +1,167 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import com.graphhopper.storage.DataAccess;
+
+/**
+ * A contraction hierarchy, i.e. an {@link UpwardGraph} together with an
+ * {@link UpwardMetric}, that can be persisted in a {@link DataAccess}.
+ *
+ * @author Joachim Rußig
+ */
+public class Hierarchy {
+
+	private static final int VERSION = 1;
+
+	// header layout
+	private static final int HEADER_VERSION = 0;
+	private static final int HEADER_NODES = 4;
+	private static final int HEADER_ARCS = 8;
+	private static final int HEADER_FINGERPRINT = 12;
+
+	private final UpwardGraph graph;
+	private final UpwardMetric metric;
+
+	/**
+	 * Creates a new {@code Hierarchy}.
+	 *
+	 * @param graph
+	 *            the search graph
+	 * @param metric
+	 *            the metric of the search graph
+	 * @throws IllegalArgumentException
+	 *             if the number of arcs of {@code graph} and {@code metric}
+	 *             differs
+	 */
+	public Hierarchy(UpwardGraph graph, UpwardMetric metric) {
+		if (graph.getArcs() != metric.getArcs())
+			throw new IllegalArgumentException(
+					"graph and metric must have the same number of arcs");
+		this.graph = graph;
+		this.metric = metric;
+	}
+
+	public UpwardGraph getGraph() {
+		return graph;
+	}
+
+	public UpwardMetric getMetric() {
+		return metric;
+	}
+
+	/**
+	 *
+	 * @return the approximate size of the hierarchy in bytes
+	 */
+	public long getBytes() {
+		return graph.getBytes() + metric.getBytes();
+	}
+
+	/**
+	 * Stores the hierarchy in {@code da}, which must not be created yet.
+	 *
+	 * @param da
+	 *            the data access to store the hierarchy in
+	 * @param fingerprint
+	 *            a value identifying the input of the hierarchy, that must
+	 *            match when the hierarchy is loaded
+	 */
+	public void store(DataAccess da, int fingerprint) {
+		int nodes = graph.getNodes();
+		int arcs = graph.getArcs();
+		da.create(4L * (2 * nodes + 1) + 36L * arcs);
+
+		long pointer = 0;
+		pointer = setInts(da, pointer, graph.getRanks());
+		pointer = setInts(da, pointer, graph.getFirstUps());
+		pointer = setInts(da, pointer, graph.getHeads());
+		pointer = setDoubles(da, pointer, metric.upWeight);
+		pointer = setDoubles(da, pointer, metric.downWeight);
+		pointer = setInts(da, pointer, metric.upMid);
+		pointer = setInts(da, pointer, metric.downMid);
+		pointer = setInts(da, pointer, metric.upEdge);
+		setInts(da, pointer, metric.downEdge);
+
+		da.setHeader(HEADER_VERSION, VERSION);
+		da.setHeader(HEADER_NODES, nodes);
+		da.setHeader(HEADER_ARCS, arcs);
+		da.setHeader(HEADER_FINGERPRINT, fingerprint);
+		da.flush();
+	}
+
+	/**
+	 * Loads a hierarchy stored by {@link #store(DataAccess, int)}.
+	 *
+	 * @param da
+	 *            the data access to load the hierarchy from
+	 * @param nodes
+	 *            the expected number of nodes
+	 * @param fingerprint
+	 *            the expected fingerprint
+	 * @return the hierarchy or {@code null} if it doesn't exist or is out of
+	 *         date
+	 */
+	public static Hierarchy load(DataAccess da, int nodes, int fingerprint) {
+		if (!da.loadExisting())
+			return null;
+		if (da.getHeader(HEADER_VERSION) != VERSION
+				|| da.getHeader(HEADER_NODES) != nodes
+				|| da.getHeader(HEADER_FINGERPRINT) != fingerprint)
+			return null;
+
+		int arcs = da.getHeader(HEADER_ARCS);
+		int[] rank = new int[nodes];
+		int[] firstUp = new int[nodes + 1];
+		int[] upHead = new int[arcs];
+		UpwardMetric metric = new UpwardMetric(arcs);
+
+		long pointer = 0;
+		pointer = getInts(da, pointer, rank);
+		pointer = getInts(da, pointer, firstUp);
+		pointer = getInts(da, pointer, upHead);
+		pointer = getDoubles(da, pointer, metric.upWeight);
+		pointer = getDoubles(da, pointer, metric.downWeight);
+		pointer = getInts(da, pointer, metric.upMid);
+		pointer = getInts(da, pointer, metric.downMid);
+		pointer = getInts(da, pointer, metric.upEdge);
+		getInts(da, pointer, metric.downEdge);
+
+		return new Hierarchy(new UpwardGraph(rank, firstUp, upHead), metric);
+	}
+
+	static long setInts(DataAccess da, long pointer, int[] values) {
+		for (int value : values) {
+			da.setInt(pointer, value);
+			pointer += 4;
+		}
+		return pointer;
+	}
+
+	static long getInts(DataAccess da, long pointer, int[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = da.getInt(pointer);
+			pointer += 4;
+		}
+		return pointer;
+	}
+
+	static long setDoubles(DataAccess da, long pointer, double[] values) {
+		for (double value : values) {
+			long bits = Double.doubleToRawLongBits(value);
+			da.setInt(pointer, (int) bits);
+			da.setInt(pointer + 4, (int) (bits >>> 32));
+			pointer += 8;
+		}
+		return pointer;
+	}
+
+	static long getDoubles(DataAccess da, long pointer, double[] values) {
+		for (int i = 0; i < values.length; i++) {
+			long bits = (da.getInt(pointer) & 0xFFFFFFFFL)
+					| ((long) da.getInt(pointer + 4) << 32);
+			values[i] = Double.longBitsToDouble(bits);
+			pointer += 8;
+		}
+		return pointer;
+	}
+
+}
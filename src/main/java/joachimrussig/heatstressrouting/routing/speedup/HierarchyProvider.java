@@ -0,0 +1,56 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Optional;
+
+import joachimrussig.heatstressrouting.routing.weighting.HeatStressWeighting;
+
+/**
+ * Provides the hierarchies used by the {@link SpeedUpAlgorithmFactory} to
+ * answer the queries of the heat stress weightings.
+ * 
+ * @author Joachim Rußig
+ */
+public interface HierarchyProvider {
+
+	/**
+	 * The number of steps the interpolation between two time slices is
+	 * rounded to in the keys of the hierarchies (see
+	 * {@link HeatStressWeighting#getSliceKey(int)}), so nearby points in time
+	 * share a hierarchy.
+	 */
+	int SLICE_STEPS = 12;
+
+	/**
+	 * Returns the hierarchy for {@code weighting}, if one is available.
+	 * 
+	 * @param weighting
+	 *            the weighting of the query
+	 * @return the hierarchy or an empty {@code Optional}, if there is no
+	 *         hierarchy for {@code weighting} (yet)
+	 */
+	Optional<Hierarchy> get(HeatStressWeighting weighting);
+
+	/**
+	 * 
+	 * @return the graph the hierarchies are computed for
+	 */
+	BaseGraph getGraph();
+
+	/**
+	 * Notifies the provider, that new weather data is installed.
+	 */
+	default void weatherDataChanged() {
+	}
+
+	/**
+	 * Discards all hierarchies depending on the input of the weightings, e.g.
+	 * if the way segments changed.
+	 */
+	void clear();
+
+	/**
+	 * Stops all background work of the provider.
+	 */
+	void close();
+
+}
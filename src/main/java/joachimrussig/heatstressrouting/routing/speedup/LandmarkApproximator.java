@@ -0,0 +1,148 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Arrays;
+
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.weighting.WeightApproximator;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+
+/**
+ * A {@link WeightApproximator} for A* using the triangle inequality with the
+ * distances of {@link Landmarks} (ALT), i.e. the weight from a node
+ * {@code v} to the goal {@code t} is at least
+ * {@code d(v, L) - d(t, L)} and {@code d(L, t) - d(L, v)} for every landmark
+ * {@code L}.
+ * <p>
+ * The landmarks only cover the base graph, so the distances of a virtual
+ * goal are derived from the base graph nodes it is reached from (see
+ * {@link QuerySeeds}), such that the approximation stays consistent on the
+ * last edges of a path; all other virtual nodes are approximated with 0.
+ * <p>
+ * The approximator returned by {@link #duplicate()} approximates the weight
+ * from the goal to a node instead, as required for the reverse search of the
+ * bidirectional A* (see
+ * {@link com.graphhopper.routing.weighting.ConsistentWeightApproximator}).
+ *
+ * @author Joachim Rußig
+ */
+public class LandmarkApproximator implements WeightApproximator {
+
+	private final Graph graph;
+	private final Weighting weighting;
+	private final FlagEncoder encoder;
+	private final Landmarks landmarks;
+	private final boolean reverse;
+
+	// the distances of the goal for every landmark, the bounds of a node v
+	// are from(l, v) - goalFrom[l] and goalTo[l] - to(l, v)
+	private final double[] goalFrom;
+	private final double[] goalTo;
+
+	/**
+	 * Creates a new {@code LandmarkApproximator}.
+	 *
+	 * @param graph
+	 *            the (query) graph
+	 * @param weighting
+	 *            the weighting of the query, whose weights must not be less
+	 *            than the lower bound metric of {@code landmarks}
+	 * @param encoder
+	 *            the encoder of the query
+	 * @param landmarks
+	 *            the landmarks of the base graph
+	 */
+	public LandmarkApproximator(Graph graph, Weighting weighting,
+			FlagEncoder encoder, Landmarks landmarks) {
+		this(graph, weighting, encoder, landmarks, false);
+	}
+
+	private LandmarkApproximator(Graph graph, Weighting weighting,
+			FlagEncoder encoder, Landmarks landmarks, boolean reverse) {
+		this.graph = graph;
+		this.weighting = weighting;
+		this.encoder = encoder;
+		this.landmarks = landmarks;
+		this.reverse = reverse;
+		this.goalFrom = new double[landmarks.getLandmarks()];
+		this.goalTo = new double[landmarks.getLandmarks()];
+	}
+
+	/*
+	 * In forward direction from(l, v) is the distance from v to the landmark
+	 * and to(l, v) the distance from the landmark to v, so the bounds
+	 * approximate d(v, t). In reverse direction the tables are swapped, so the
+	 * same bounds approximate d(s, v).
+	 */
+
+	private float from(int landmark, int node) {
+		return reverse ? landmarks.getFromLandmark(landmark, node)
+				: landmarks.getToLandmark(landmark, node);
+	}
+
+	private float to(int landmark, int node) {
+		return reverse ? landmarks.getToLandmark(landmark, node)
+				: landmarks.getFromLandmark(landmark, node);
+	}
+
+	@Override
+	public void setGoalNode(int goal) {
+		// the base graph nodes adjacent to the goal, i.e. the nodes a path
+		// to (or from) the goal passes last (or first)
+		QuerySeeds seeds = QuerySeeds.explore(graph, weighting, encoder,
+				landmarks.getNodes(), goal, -1, !reverse);
+
+		Arrays.fill(goalFrom, Double.NEGATIVE_INFINITY);
+		Arrays.fill(goalTo, Double.POSITIVE_INFINITY);
+		for (int l = 0; l < goalFrom.length; l++) {
+			for (int i = 0; i < seeds.size(); i++) {
+				int node = seeds.getNode(i);
+				double weight = seeds.getWeight(i);
+				goalFrom[l] = Math.max(goalFrom[l], from(l, node) - weight);
+				goalTo[l] = Math.min(goalTo[l], to(l, node) + weight);
+			}
+		}
+	}
+
+	@Override
+	public double approximate(int node) {
+		if (node >= landmarks.getNodes())
+			return 0;
+
+		double bound = 0;
+		for (int l = 0; l < goalFrom.length; l++) {
+			// terms with infinite distances (i.e. unreachable landmarks) don't
+			// yield a bound
+			double from = from(l, node);
+			if (from < Double.POSITIVE_INFINITY
+					&& goalFrom[l] > Double.NEGATIVE_INFINITY
+					&& goalFrom[l] < Double.POSITIVE_INFINITY)
+				bound = Math.max(bound,
+						from - goalFrom[l] - slack(from, goalFrom[l]));
+			double to = to(l, node);
+			if (to < Double.POSITIVE_INFINITY
+					&& goalTo[l] < Double.POSITIVE_INFINITY)
+				bound = Math.max(bound,
+						goalTo[l] - to - slack(goalTo[l], to));
+		}
+		return bound;
+	}
+
+	// the maximum error of the difference of two rounded distances, which is
+	// subtracted so the bound remains a lower bound
+	private static double slack(double a, double b) {
+		return 2 * Landmarks.ROUNDING_ERROR * (Math.abs(a) + Math.abs(b));
+	}
+
+	@Override
+	public WeightApproximator duplicate() {
+		return new LandmarkApproximator(graph, weighting, encoder, landmarks,
+				!reverse);
+	}
+
+	@Override
+	public String toString() {
+		return "landmarks";
+	}
+
+}
@@ -0,0 +1,308 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.util.StopWatch;
+
+/**
+ * The distances of all nodes of a {@link BaseGraph} from and to a small set
+ * of landmarks, with respect to a lower bound metric of a weighting. By the
+ * triangle inequality, the distances yield lower bounds of the weight between
+ * any two nodes (see {@link LandmarkApproximator}).
+ * <p>
+ * The landmarks are selected greedily, each landmark is the node farthest
+ * from the landmarks selected before. The distances are stored as
+ * {@code float}s ordered by node, so the distances of a node to all landmarks
+ * are close in memory. The relative rounding error of a distance is at most
+ * {@link #ROUNDING_ERROR}.
+ *
+ * @author Joachim Rußig
+ */
+public class Landmarks {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(Landmarks.class);
+
+	private static final int VERSION = 1;
+
+	/**
+	 * The maximum relative error of the distances caused by the rounding to
+	 * {@code float}.
+	 */
+	public static final double ROUNDING_ERROR = 0x1p-24;
+
+	// header layout
+	private static final int HEADER_VERSION = 0;
+	private static final int HEADER_NODES = 4;
+	private static final int HEADER_LANDMARKS = 8;
+	private static final int HEADER_FINGERPRINT = 12;
+
+	private final int nodes;
+	private final int[] landmarks;
+	// the distance from landmark l to node v at v * landmarks + l
+	private final float[] fromLandmark;
+	// the distance from node v to landmark l at v * landmarks + l
+	private final float[] toLandmark;
+
+	private Landmarks(int nodes, int[] landmarks, float[] fromLandmark,
+			float[] toLandmark) {
+		this.nodes = nodes;
+		this.landmarks = landmarks;
+		this.fromLandmark = fromLandmark;
+		this.toLandmark = toLandmark;
+	}
+
+	/**
+	 * Selects {@code count} landmarks and computes their distances.
+	 *
+	 * @param graph
+	 *            the graph
+	 * @param weights
+	 *            the lower bound metric in the layout of
+	 *            {@link BaseGraph#computeWeights(com.graphhopper.routing.weighting.Weighting)}
+	 * @param count
+	 *            the number of landmarks
+	 * @return the landmarks
+	 * @throws IllegalArgumentException
+	 *             if {@code count} is not positive
+	 */
+	public static Landmarks prepare(BaseGraph graph, double[] weights,
+			int count) {
+		if (count <= 0)
+			throw new IllegalArgumentException("count must be positive");
+
+		StopWatch sw = new StopWatch().start();
+		int nodes = graph.getNodes();
+		count = Math.min(count, nodes);
+		if (count == 0)
+			return new Landmarks(0, new int[0], new float[0], new float[0]);
+
+		Adjacency forward = new Adjacency(graph, weights, false);
+		Adjacency backward = new Adjacency(graph, weights, true);
+
+		int[] landmarks = new int[count];
+		float[] fromLandmark = new float[nodes * count];
+		float[] toLandmark = new float[nodes * count];
+
+		// the distance to the nearest landmark selected so far, the first
+		// landmark is the node farthest from an arbitrary node
+		double[] nearest = forward.dijkstra(0);
+		for (int l = 0; l < count; l++) {
+			int farthest = -1;
+			for (int v = 0; v < nodes; v++) {
+				if (nearest[v] < Double.POSITIVE_INFINITY && (farthest < 0
+						|| nearest[v] > nearest[farthest]))
+					farthest = v;
+			}
+			if (farthest < 0)
+				break;
+			landmarks[l] = farthest;
+
+			double[] from = forward.dijkstra(farthest);
+			double[] to = backward.dijkstra(farthest);
+			for (int v = 0; v < nodes; v++) {
+				fromLandmark[v * count + l] = (float) from[v];
+				toLandmark[v * count + l] = (float) to[v];
+				nearest[v] = l == 0 ? from[v] : Math.min(nearest[v], from[v]);
+			}
+		}
+
+		logger.debug("selected " + count + " landmarks ("
+				+ sw.stop().getTime() + " ms)");
+		return new Landmarks(nodes, landmarks, fromLandmark, toLandmark);
+	}
+
+	/**
+	 *
+	 * @return the number of landmarks
+	 */
+	public int getLandmarks() {
+		return landmarks.length;
+	}
+
+	/**
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodes() {
+		return nodes;
+	}
+
+	/**
+	 *
+	 * @param landmark
+	 *            the index of the landmark
+	 * @return the node of the landmark
+	 */
+	public int getLandmarkNode(int landmark) {
+		return landmarks[landmark];
+	}
+
+	/**
+	 *
+	 * @return the distance from {@code landmark} to {@code node}, or
+	 *         {@code Float.POSITIVE_INFINITY} if {@code node} isn't reachable
+	 */
+	public float getFromLandmark(int landmark, int node) {
+		return fromLandmark[node * landmarks.length + landmark];
+	}
+
+	/**
+	 *
+	 * @return the distance from {@code node} to {@code landmark}, or
+	 *         {@code Float.POSITIVE_INFINITY} if {@code landmark} isn't
+	 *         reachable
+	 */
+	public float getToLandmark(int landmark, int node) {
+		return toLandmark[node * landmarks.length + landmark];
+	}
+
+	/**
+	 *
+	 * @return the approximate size of the landmarks in bytes
+	 */
+	public long getBytes() {
+		return 4L * (landmarks.length + fromLandmark.length
+				+ toLandmark.length);
+	}
+
+	/**
+	 * Stores the landmarks in {@code da}, which must not be created yet.
+	 *
+	 * @param da
+	 *            the data access to store the landmarks in
+	 * @param fingerprint
+	 *            a value identifying the metric of the landmarks, that must
+	 *            match when the landmarks are loaded
+	 */
+	public void store(DataAccess da, int fingerprint) {
+		int count = landmarks.length;
+		da.create(4L * count + 8L * nodes * count);
+
+		long pointer = Hierarchy.setInts(da, 0, landmarks);
+		for (float d : fromLandmark) {
+			da.setInt(pointer, Float.floatToRawIntBits(d));
+			pointer += 4;
+		}
+		for (float d : toLandmark) {
+			da.setInt(pointer, Float.floatToRawIntBits(d));
+			pointer += 4;
+		}
+
+		da.setHeader(HEADER_VERSION, VERSION);
+		da.setHeader(HEADER_NODES, nodes);
+		da.setHeader(HEADER_LANDMARKS, count);
+		da.setHeader(HEADER_FINGERPRINT, fingerprint);
+		da.flush();
+	}
+
+	/**
+	 * Loads landmarks stored by {@link #store(DataAccess, int)}.
+	 *
+	 * @param da
+	 *            the data access to load the landmarks from
+	 * @param nodes
+	 *            the expected number of nodes
+	 * @param count
+	 *            the expected number of landmarks
+	 * @param fingerprint
+	 *            the expected fingerprint
+	 * @return the landmarks or {@code null} if they don't exist or are out of
+	 *         date
+	 */
+	public static Landmarks load(DataAccess da, int nodes, int count,
+			int fingerprint) {
+		if (!da.loadExisting())
+			return null;
+		if (da.getHeader(HEADER_VERSION) != VERSION
+				|| da.getHeader(HEADER_NODES) != nodes
+				|| da.getHeader(HEADER_LANDMARKS) != count
+				|| da.getHeader(HEADER_FINGERPRINT) != fingerprint)
+			return null;
+
+		int[] landmarks = new int[count];
+		float[] fromLandmark = new float[nodes * count];
+		float[] toLandmark = new float[nodes * count];
+		long pointer = Hierarchy.getInts(da, 0, landmarks);
+		for (int i = 0; i < fromLandmark.length; i++) {
+			fromLandmark[i] = Float.intBitsToFloat(da.getInt(pointer));
+			pointer += 4;
+		}
+		for (int i = 0; i < toLandmark.length; i++) {
+			toLandmark[i] = Float.intBitsToFloat(da.getInt(pointer));
+			pointer += 4;
+		}
+		return new Landmarks(nodes, landmarks, fromLandmark, toLandmark);
+	}
+
+	/**
+	 * The accessible arcs of a {@link BaseGraph} with their lower bound
+	 * weights, in forward or backward direction.
+	 */
+	private static class Adjacency {
+		final int[] first;
+		final int[] head;
+		final double[] weight;
+
+		Adjacency(BaseGraph graph, double[] weights, boolean backward) {
+			int nodes = graph.getNodes();
+			int edges = graph.getEdges();
+			first = new int[nodes + 1];
+			for (int e = 0; e < edges; e++) {
+				if (weights[2 * e] < Double.POSITIVE_INFINITY)
+					first[tail(graph, e, false, backward) + 1]++;
+				if (weights[2 * e + 1] < Double.POSITIVE_INFINITY)
+					first[tail(graph, e, true, backward) + 1]++;
+			}
+			for (int v = 0; v < nodes; v++)
+				first[v + 1] += first[v];
+
+			head = new int[first[nodes]];
+			weight = new double[first[nodes]];
+			int[] next = Arrays.copyOf(first, nodes);
+			for (int e = 0; e < edges; e++) {
+				for (int dir = 0; dir < 2; dir++) {
+					double w = weights[2 * e + dir];
+					if (w == Double.POSITIVE_INFINITY)
+						continue;
+					boolean reverse = dir == 1;
+					int i = next[tail(graph, e, reverse, backward)]++;
+					head[i] = tail(graph, e, !reverse, backward);
+					weight[i] = w;
+				}
+			}
+		}
+
+		// the node the arc of edge e is explored from
+		private static int tail(BaseGraph graph, int e, boolean reverse,
+				boolean backward) {
+			return reverse != backward ? graph.getEdgeAdj(e)
+					: graph.getEdgeBase(e);
+		}
+
+		double[] dijkstra(int source) {
+			int nodes = first.length - 1;
+			double[] dist = new double[nodes];
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			MinHeap heap = new MinHeap(nodes);
+			dist[source] = 0;
+			heap.update(source, 0);
+			while (!heap.isEmpty()) {
+				int u = heap.poll();
+				for (int i = first[u]; i < first[u + 1]; i++) {
+					double d = dist[u] + weight[i];
+					if (d < dist[head[i]]) {
+						dist[head[i]] = d;
+						heap.update(head[i], d);
+					}
+				}
+			}
+			return dist;
+		}
+	}
+
+}
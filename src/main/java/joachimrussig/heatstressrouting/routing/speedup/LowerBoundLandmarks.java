@@ -0,0 +1,245 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.util.StopWatch;
+
+import joachimrussig.heatstressrouting.routing.weighting.HeatStressWeighting;
+
+/**
+ * The {@link Landmarks} used by A* for the heat stress weightings and the
+ * shortest weighting.
+ * <p>
+ * The landmarks of a heat stress weighting are computed for the lower bound
+ * metric of the weighting (see
+ * {@link HeatStressWeighting#calcLowerBound(int, double)}), that is valid for
+ * every point in time and every weather. Thus there is only one set of
+ * landmarks per weighting (see {@link HeatStressWeighting#getCacheKey()}),
+ * which is independent of the weather data. The landmarks of the shortest
+ * weighting are computed for the distance.
+ * <p>
+ * The landmarks are prepared lazily by a single background thread and stored
+ * in the graph directory (see {@link PreparationFiles}). While the landmarks
+ * of a weighting are prepared, {@link #get(Weighting)} returns an empty
+ * {@code Optional}, so A* falls back to its default approximation.
+ *
+ * @author Joachim Rußig
+ */
+public class LowerBoundLandmarks {
+
+	private static final String NAME_PREFIX = "landmarks_";
+	private static final String SHORTEST = "shortest";
+
+	private final Logger logger = LoggerFactory
+			.getLogger(LowerBoundLandmarks.class);
+
+	private final BaseGraph graph;
+	private final PreparationFiles files;
+	private final IntSupplier fingerprint;
+	private final int count;
+
+	private final Map<String, Landmarks> landmarks = new ConcurrentHashMap<>();
+	private final Map<String, Future<?>> pending = new ConcurrentHashMap<>();
+	private final ExecutorService executor;
+
+	// incremented by clear(), so preparations started before are discarded
+	private volatile int generation;
+
+	/**
+	 * Creates a new {@code LowerBoundLandmarks}.
+	 *
+	 * @param graph
+	 *            the graph
+	 * @param dir
+	 *            the directory to store the landmarks in
+	 * @param fingerprint
+	 *            supplies a value identifying the current input of the
+	 *            weightings (e.g. the heat profiles), the stored landmarks
+	 *            are only reused if the fingerprint matches
+	 * @param count
+	 *            the number of landmarks per weighting
+	 * @throws IllegalArgumentException
+	 *             if {@code count} is not positive
+	 */
+	public LowerBoundLandmarks(BaseGraph graph, Directory dir,
+			IntSupplier fingerprint, int count) {
+		if (count <= 0)
+			throw new IllegalArgumentException("count must be positive");
+		this.graph = graph;
+		this.files = new PreparationFiles(dir, NAME_PREFIX, Long.MAX_VALUE);
+		this.fingerprint = fingerprint;
+		this.count = count;
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "heat-landmark-preparation");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the landmarks for {@code weighting}. If the landmarks aren't
+	 * available yet, their preparation is scheduled.
+	 *
+	 * @param weighting
+	 *            the weighting of the query
+	 * @return the landmarks or an empty {@code Optional}, if they aren't
+	 *         prepared yet or {@code weighting} is not supported
+	 */
+	public Optional<Landmarks> get(Weighting weighting) {
+		String key = getKey(weighting);
+		if (key == null)
+			return Optional.empty();
+
+		Landmarks result = landmarks.get(key);
+		if (result != null)
+			return Optional.of(result);
+
+		int gen = generation;
+		HeatStressWeighting boundWeighting = HeatStressWeighting
+				.unwrap(weighting).orElse(null);
+		pending.computeIfAbsent(key, k -> executor
+				.submit(() -> prepare(k, boundWeighting, gen)));
+		return Optional.empty();
+	}
+
+	/**
+	 * Returns the landmarks for {@code weighting} and waits for their
+	 * preparation, if they aren't available yet.
+	 *
+	 * @param weighting
+	 *            the weighting
+	 * @return the landmarks or an empty {@code Optional}, if
+	 *         {@code weighting} is not supported or the preparation failed
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting
+	 */
+	public Optional<Landmarks> await(Weighting weighting)
+			throws InterruptedException {
+		Optional<Landmarks> result = get(weighting);
+		if (result.isPresent())
+			return result;
+
+		String key = getKey(weighting);
+		if (key == null)
+			return Optional.empty();
+		Future<?> future = pending.get(key);
+		if (future != null) {
+			try {
+				future.get();
+			} catch (ExecutionException | CancellationException e) {
+				return Optional.empty();
+			}
+		}
+		return Optional.ofNullable(landmarks.get(key));
+	}
+
+	private static String getKey(Weighting weighting) {
+		Optional<HeatStressWeighting> heatStressWeighting = HeatStressWeighting
+				.unwrap(weighting);
+		if (heatStressWeighting.isPresent())
+			return heatStressWeighting.get().getCacheKey();
+		if (SHORTEST.equals(weighting.getName()))
+			return SHORTEST;
+		return null;
+	}
+
+	private void prepare(String key, HeatStressWeighting weighting, int gen) {
+		try {
+			if (gen != generation)
+				return;
+
+			StopWatch sw = new StopWatch().start();
+			int fp = fingerprint.getAsInt();
+			Landmarks result = files.load(key, da -> Landmarks.load(da,
+					graph.getNodes(), Math.min(count, graph.getNodes()), fp));
+			if (result == null) {
+				logger.info("prepare " + count + " landmarks for " + key
+						+ "...");
+				Landmarks prepared = Landmarks.prepare(graph,
+						computeLowerBounds(weighting), count);
+				files.store(key, da -> prepared.store(da, fp));
+				result = prepared;
+				logger.info("done (" + sw.stop().getTime() + " ms)");
+			}
+
+			if (gen == generation)
+				landmarks.put(key, result);
+		} catch (RuntimeException e) {
+			logger.error("failed to prepare landmarks for " + key, e);
+		} finally {
+			pending.remove(key);
+		}
+	}
+
+	/**
+	 * Computes the lower bound metric of {@code weighting} in the layout of
+	 * {@link BaseGraph#computeWeights(Weighting)}.
+	 *
+	 * @param weighting
+	 *            the heat stress weighting or {@code null} for the distance
+	 * @return the lower bounds of the weights of all edges
+	 */
+	private double[] computeLowerBounds(HeatStressWeighting weighting) {
+		double[] weights = new double[2 * graph.getEdges()];
+		for (int e = 0; e < graph.getEdges(); e++) {
+			double distance = graph.getEdgeDistance(e);
+			double bound = weighting != null
+					? weighting.calcLowerBound(e, distance) : distance;
+			weights[2 * e] = graph.isAccessible(e, true) ? bound
+					: Double.POSITIVE_INFINITY;
+			weights[2 * e + 1] = graph.isAccessible(e, false) ? bound
+					: Double.POSITIVE_INFINITY;
+		}
+		return weights;
+	}
+
+	/**
+	 * Removes all landmarks from memory and discards the running
+	 * preparations, e.g. if the input of the weightings changed.
+	 */
+	public void clear() {
+		generation++;
+		for (Future<?> future : pending.values())
+			future.cancel(false);
+		pending.clear();
+		landmarks.clear();
+	}
+
+	/**
+	 * Stops the background preparation.
+	 */
+	public void close() {
+		clear();
+		executor.shutdownNow();
+	}
+
+	/**
+	 *
+	 * @return the number of landmarks per weighting
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return the graph the landmarks are computed for
+	 */
+	public BaseGraph getGraph() {
+		return graph;
+	}
+
+}
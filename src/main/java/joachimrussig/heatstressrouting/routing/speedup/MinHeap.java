@@ -0,0 +1,170 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Arrays;
+
+/**
+ * An indexed binary min heap of the integers {@code 0} to {@code capacity - 1}
+ * with {@code double} keys, that supports decreasing the key of an element.
+ * <p>
+ * Clearing the heap only touches the elements currently contained, so a heap
+ * can be reused cheaply by many small searches.
+ *
+ * @author Joachim Rußig
+ */
+class MinHeap {
+
+	private static final int ABSENT = -1;
+
+	private int[] elements;
+	private double[] keys;
+	private final int[] positions;
+	private int size;
+
+	/**
+	 * Creates a new {@code MinHeap}.
+	 *
+	 * @param capacity
+	 *            the number of distinct elements
+	 */
+	MinHeap(int capacity) {
+		this.elements = new int[16];
+		this.keys = new double[16];
+		this.positions = new int[capacity];
+		Arrays.fill(positions, ABSENT);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean contains(int element) {
+		return positions[element] != ABSENT;
+	}
+
+	/**
+	 *
+	 * @param element
+	 *            an element contained in the heap
+	 * @return the key of {@code element}
+	 */
+	double getKey(int element) {
+		return keys[positions[element]];
+	}
+
+	/**
+	 *
+	 * @return the smallest key
+	 * @throws IllegalStateException
+	 *             if the heap is empty
+	 */
+	double peekKey() {
+		if (size == 0)
+			throw new IllegalStateException("heap is empty");
+		return keys[0];
+	}
+
+	/**
+	 * Inserts {@code element} with {@code key} or updates its key, if it is
+	 * already contained.
+	 *
+	 * @param element
+	 *            the element
+	 * @param key
+	 *            the new key
+	 */
+	void update(int element, double key) {
+		int pos = positions[element];
+		if (pos == ABSENT) {
+			if (size == elements.length) {
+				elements = Arrays.copyOf(elements, size * 2);
+				keys = Arrays.copyOf(keys, size * 2);
+			}
+			pos = size++;
+			elements[pos] = element;
+			keys[pos] = key;
+			positions[element] = pos;
+			siftUp(pos);
+		} else if (key < keys[pos]) {
+			keys[pos] = key;
+			siftUp(pos);
+		} else {
+			keys[pos] = key;
+			siftDown(pos);
+		}
+	}
+
+	/**
+	 * Removes the element with the smallest key.
+	 *
+	 * @return the removed element
+	 * @throws IllegalStateException
+	 *             if the heap is empty
+	 */
+	int poll() {
+		if (size == 0)
+			throw new IllegalStateException("heap is empty");
+		int min = elements[0];
+		positions[min] = ABSENT;
+		size--;
+		if (size > 0) {
+			elements[0] = elements[size];
+			keys[0] = keys[size];
+			positions[elements[0]] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	void clear() {
+		for (int i = 0; i < size; i++)
+			positions[elements[i]] = ABSENT;
+		size = 0;
+	}
+
+	private void siftUp(int pos) {
+		int element = elements[pos];
+		double key = keys[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (keys[parent] <= key)
+				break;
+			move(parent, pos);
+			pos = parent;
+		}
+		elements[pos] = element;
+		keys[pos] = key;
+		positions[element] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int element = elements[pos];
+		double key = keys[pos];
+		int half = size >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			if (child + 1 < size && keys[child + 1] < keys[child])
+				child++;
+			if (key <= keys[child])
+				break;
+			move(child, pos);
+			pos = child;
+		}
+		elements[pos] = element;
+		keys[pos] = key;
+		positions[element] = pos;
+	}
+
+	private void move(int from, int to) {
+		elements[to] = elements[from];
+		keys[to] = keys[from];
+		positions[elements[to]] = to;
+	}
+
+}
@@ -0,0 +1,190 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.GHDirectory;
+
+/**
+ * The files of the preparations of a speed up technique (e.g. the
+ * contraction hierarchies of the weather buckets) in the graph directory.
+ * <p>
+ * A {@link Directory} registers each {@link DataAccess} once and returns the
+ * same, possibly closed instance on every lookup, so a preparation evicted
+ * from memory couldn't be loaded again through the graph directory. Thus each
+ * file is accessed by a {@code DataAccess} of a short-lived directory of its
+ * own, which is closed as soon as the file was loaded or stored. The files of
+ * all speed up techniques are accessed while holding the lock of the graph
+ * directory, so the background threads preparing them are serialized.
+ * <p>
+ * The total size of the files with the prefix is bounded: when a file is
+ * stored, the least recently used files are deleted until the files fit into
+ * the budget. The files found on startup are ordered by their modification
+ * time.
+ *
+ * @author Joachim Rußig
+ */
+class PreparationFiles {
+
+	private final Logger logger = LoggerFactory
+			.getLogger(PreparationFiles.class);
+
+	private final Directory dir;
+	private final String prefix;
+	private final long maxBytes;
+	private final boolean storing;
+
+	// the sizes of the files, ordered by access
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16,
+			0.75f, true);
+	private long bytes;
+
+	/**
+	 * Creates a new {@code PreparationFiles}.
+	 *
+	 * @param dir
+	 *            the graph directory; if it doesn't store its data, no files
+	 *            are written
+	 * @param prefix
+	 *            the prefix of the names of the files
+	 * @param maxBytes
+	 *            the maximum total size of the files
+	 */
+	PreparationFiles(Directory dir, String prefix, long maxBytes) {
+		this.dir = dir;
+		this.prefix = prefix;
+		this.maxBytes = maxBytes;
+		this.storing = dir.getDefaultType().isStoring();
+		if (!storing)
+			return;
+
+		synchronized (dir) {
+			File[] existing = new File(dir.getLocation())
+					.listFiles((d, name) -> name.startsWith(prefix));
+			if (existing == null)
+				return;
+			Arrays.sort(existing,
+					Comparator.comparingLong(File::lastModified));
+			for (File file : existing) {
+				files.put(file.getName(), file.length());
+				bytes += file.length();
+			}
+			evict(null);
+		}
+	}
+
+	/**
+	 * Loads the preparation {@code key} using {@code loader}.
+	 *
+	 * @param key
+	 *            the key of the preparation
+	 * @param loader
+	 *            loads the preparation of a data access and returns
+	 *            {@code null}, if it doesn't exist or is out of date
+	 * @return the loaded preparation or {@code null}
+	 */
+	<T> T load(String key, Function<DataAccess, T> loader) {
+		if (!storing)
+			return null;
+
+		String name = getName(key);
+		synchronized (dir) {
+			DataAccess da = open(name);
+			try {
+				T result = loader.apply(da);
+				if (result != null)
+					files.get(name);
+				return result;
+			} finally {
+				da.close();
+			}
+		}
+	}
+
+	/**
+	 * Stores the preparation {@code key} using {@code writer}, replacing an
+	 * existing file, and deletes the least recently used files exceeding the
+	 * budget.
+	 *
+	 * @param key
+	 *            the key of the preparation
+	 * @param writer
+	 *            creates and writes the data access
+	 */
+	void store(String key, Consumer<DataAccess> writer) {
+		if (!storing)
+			return;
+
+		String name = getName(key);
+		synchronized (dir) {
+			delete(name);
+			DataAccess da = open(name);
+			try {
+				writer.accept(da);
+			} finally {
+				da.close();
+			}
+			long size = new File(dir.getLocation(), name).length();
+			files.put(name, size);
+			bytes += size;
+			evict(name);
+		}
+	}
+
+	// deletes the least recently used files except keep exceeding the budget
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> iter = files.entrySet().iterator();
+		while (bytes > maxBytes && iter.hasNext()) {
+			Map.Entry<String, Long> eldest = iter.next();
+			if (eldest.getKey().equals(keep))
+				continue;
+			bytes -= eldest.getValue();
+			iter.remove();
+			if (!new File(dir.getLocation(), eldest.getKey()).delete())
+				logger.warn("failed to delete " + eldest.getKey());
+			else
+				logger.debug("deleted " + eldest.getKey());
+		}
+	}
+
+	private void delete(String name) {
+		Long size = files.remove(name);
+		if (size != null)
+			bytes -= size;
+		File file = new File(dir.getLocation(), name);
+		if (file.exists() && !file.delete())
+			logger.warn("failed to delete " + name);
+	}
+
+	// a data access of a directory of its own, so it is never shared
+	private DataAccess open(String name) {
+		return new GHDirectory(dir.getLocation(), dir.getDefaultType())
+				.find(name);
+	}
+
+	private String getName(String key) {
+		return prefix + key.replaceAll("[^A-Za-z0-9_.-]", "_");
+	}
+
+	/**
+	 *
+	 * @return the total size of the files in bytes
+	 */
+	long getBytes() {
+		synchronized (dir) {
+			return bytes;
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+
+/**
+ * The nodes of the base graph a search of a speed up technique starts (or
+ * ends) at, for a query node that may be a virtual node of a
+ * {@link com.graphhopper.routing.QueryGraph}.
+ * <p>
+ * The preprocessed data only covers the base graph, so the virtual nodes and
+ * edges around a query node are explored by a local Dijkstra search, that
+ * stops at the first base graph nodes ("seeds").
+ *
+ * @author Joachim Rußig
+ */
+class QuerySeeds {
+
+	// the maximum number of nodes reached by the exploration
+	private static final int MAX_NODES = 64;
+
+	private final int start;
+	private final boolean reverse;
+
+	private int count;
+	private int[] nodes = new int[4];
+	private double[] weights = new double[4];
+
+	// the predecessor node and edge of every node reached by the exploration
+	private final Map<Integer, int[]> parents = new HashMap<>();
+	private double otherWeight = Double.POSITIVE_INFINITY;
+
+	private QuerySeeds(int start, boolean reverse) {
+		this.start = start;
+		this.reverse = reverse;
+	}
+
+	/**
+	 * Explores the virtual nodes around {@code start}.
+	 *
+	 * @param graph
+	 *            the query graph
+	 * @param weighting
+	 *            the weighting of the query
+	 * @param encoder
+	 *            the encoder of the query
+	 * @param baseNodes
+	 *            the number of nodes of the base graph
+	 * @param start
+	 *            the query node
+	 * @param other
+	 *            the other query node, which may be reached by the
+	 *            exploration, if both are on the same edge
+	 * @param reverse
+	 *            true, if the paths lead to {@code start} (i.e. for the
+	 *            target of the query)
+	 * @return the seeds
+	 */
+	static QuerySeeds explore(Graph graph, Weighting weighting,
+			FlagEncoder encoder, int baseNodes, int start, int other,
+			boolean reverse) {
+		QuerySeeds seeds = new QuerySeeds(start, reverse);
+		if (start == other)
+			seeds.otherWeight = 0;
+		if (start < baseNodes) {
+			seeds.add(start, 0);
+			return seeds;
+		}
+
+		EdgeExplorer explorer = graph.createEdgeExplorer(
+				new DefaultEdgeFilter(encoder, reverse, !reverse));
+		Map<Integer, Double> dist = new HashMap<>();
+		// the virtual nodes are few, so they are mapped to small indices for
+		// the heap
+		MinHeap heap = new MinHeap(MAX_NODES);
+		int[] index = new int[MAX_NODES];
+		int indices = 0;
+		Map<Integer, Integer> indexOf = new HashMap<>();
+
+		dist.put(start, 0.0);
+		indexOf.put(start, indices);
+		index[indices++] = start;
+		heap.update(0, 0);
+
+		while (!heap.isEmpty()) {
+			double d = heap.peekKey();
+			int u = index[heap.poll()];
+			if (u == other)
+				seeds.otherWeight = Math.min(seeds.otherWeight, d);
+			if (u < baseNodes) {
+				seeds.add(u, d);
+				continue;
+			}
+
+			EdgeIterator iter = explorer.setBaseNode(u);
+			while (iter.next()) {
+				int v = iter.getAdjNode();
+				double weight = weighting.calcWeight(iter, reverse,
+						EdgeIterator.NO_EDGE);
+				if (weight >= Double.MAX_VALUE)
+					continue;
+				double nd = d + weight;
+				Double old = dist.get(v);
+				if (old != null && old <= nd)
+					continue;
+				dist.put(v, nd);
+				seeds.parents.put(v, new int[] { u, iter.getEdge() });
+
+				Integer i = indexOf.get(v);
+				if (i == null) {
+					if (indices == MAX_NODES)
+						throw new IllegalStateException(
+								"too many nodes around " + start);
+					i = indices;
+					indexOf.put(v, i);
+					index[indices++] = v;
+				}
+				heap.update(i, nd);
+			}
+		}
+		return seeds;
+	}
+
+	private void add(int node, double weight) {
+		if (count == nodes.length) {
+			nodes = Arrays.copyOf(nodes, count * 2);
+			weights = Arrays.copyOf(weights, count * 2);
+		}
+		nodes[count] = node;
+		weights[count] = weight;
+		count++;
+	}
+
+	int size() {
+		return count;
+	}
+
+	int getNode(int i) {
+		return nodes[i];
+	}
+
+	double getWeight(int i) {
+		return weights[i];
+	}
+
+	/**
+	 *
+	 * @return the weight of the path between the query nodes within the
+	 *         explored virtual nodes or infinity, if there is no such path
+	 */
+	double getOtherWeight() {
+		return otherWeight;
+	}
+
+	/**
+	 * Appends the edges of the path between the query node and {@code node}
+	 * in order of travel, i.e. from the query node to {@code node} or, if
+	 * {@code reverse} is set, from {@code node} to the query node.
+	 *
+	 * @param node
+	 *            a node reached by the exploration
+	 * @param out
+	 *            the sequence to append the edges to
+	 */
+	void appendPath(int node, EdgeSequence out) {
+		if (reverse) {
+			for (int u = node; u != start;) {
+				int[] parent = parents.get(u);
+				out.add(parent[1], parent[0]);
+				u = parent[0];
+			}
+		} else {
+			EdgeSequence reversed = new EdgeSequence();
+			for (int u = node; u != start;) {
+				int[] parent = parents.get(u);
+				reversed.add(parent[1], u);
+				u = parent[0];
+			}
+			for (int i = reversed.size() - 1; i >= 0; i--)
+				out.add(reversed.getEdge(i), reversed.getAdjNode(i));
+		}
+	}
+
+}
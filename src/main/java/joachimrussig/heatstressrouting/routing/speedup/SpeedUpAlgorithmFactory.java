@@ -0,0 +1,93 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Optional;
+
+import com.graphhopper.routing.AStar;
+import com.graphhopper.routing.AStarBidirection;
+import com.graphhopper.routing.AlgorithmOptions;
+import com.graphhopper.routing.RoutingAlgorithm;
+import com.graphhopper.routing.RoutingAlgorithmFactory;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.Parameters;
+
+import joachimrussig.heatstressrouting.routing.weighting.HeatStressWeighting;
+
+/**
+ * A {@link RoutingAlgorithmFactory} that answers bidirectional Dijkstra
+ * queries of the heat stress weightings with an {@link UpwardSearch}, if a
+ * hierarchy for the weighting is available, and uses the
+ * {@link LandmarkApproximator} for A* queries, if landmarks for the weighting
+ * are available. All other queries are passed to the wrapped factory.
+ * 
+ * @author Joachim Rußig
+ */
+public class SpeedUpAlgorithmFactory implements RoutingAlgorithmFactory {
+
+	private final RoutingAlgorithmFactory fallback;
+	private final HierarchyProvider hierarchies;
+	private final LowerBoundLandmarks landmarks;
+
+	/**
+	 * Creates a new {@code SpeedUpAlgorithmFactory}.
+	 * 
+	 * @param fallback
+	 *            the factory used if no hierarchy is available
+	 * @param hierarchies
+	 *            the hierarchies of the heat stress weightings or
+	 *            {@code null}
+	 * @param landmarks
+	 *            the landmarks used by A* or {@code null}
+	 */
+	public SpeedUpAlgorithmFactory(RoutingAlgorithmFactory fallback,
+			HierarchyProvider hierarchies, LowerBoundLandmarks landmarks) {
+		this.fallback = fallback;
+		this.hierarchies = hierarchies;
+		this.landmarks = landmarks;
+	}
+
+	@Override
+	public RoutingAlgorithm createAlgo(Graph g, AlgorithmOptions opts) {
+		if (hierarchies != null
+				&& Parameters.Algorithms.DIJKSTRA_BI.equals(opts.getAlgorithm())
+				&& opts.getTraversalMode() == TraversalMode.NODE_BASED
+				&& opts.getWeighting().getFlagEncoder() == hierarchies
+						.getGraph().getEncoder()) {
+			Optional<Hierarchy> hierarchy = HeatStressWeighting
+					.unwrap(opts.getWeighting()).flatMap(hierarchies::get);
+			if (hierarchy.isPresent()) {
+				UpwardSearch algo = new UpwardSearch(g, opts.getWeighting(),
+						opts.getWeighting().getFlagEncoder(), hierarchy.get(),
+						Parameters.Algorithms.DIJKSTRA_BI + "|ch");
+				algo.setMaxVisitedNodes(opts.getMaxVisitedNodes());
+				return algo;
+			}
+		}
+
+		if (landmarks != null
+				&& (Parameters.Algorithms.ASTAR.equals(opts.getAlgorithm())
+						|| Parameters.Algorithms.ASTAR_BI
+								.equals(opts.getAlgorithm()))
+				&& opts.getWeighting().getFlagEncoder() == landmarks.getGraph()
+						.getEncoder()) {
+			Optional<Landmarks> lm = landmarks.get(opts.getWeighting());
+			if (lm.isPresent()) {
+				RoutingAlgorithm algo = fallback.createAlgo(g, opts);
+				LandmarkApproximator approximator = new LandmarkApproximator(g,
+						opts.getWeighting(),
+						opts.getWeighting().getFlagEncoder(), lm.get());
+				if (algo instanceof AStar)
+					((AStar) algo).setApproximation(approximator);
+				else if (algo instanceof AStarBidirection)
+					((AStarBidirection) algo).setApproximation(approximator);
+				return algo;
+			}
+		}
+		return fallback.createAlgo(g, opts);
+	}
+
+	public RoutingAlgorithmFactory getFallback() {
+		return fallback;
+	}
+
+}
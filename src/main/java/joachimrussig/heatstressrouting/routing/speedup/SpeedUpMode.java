@@ -0,0 +1,27 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+/**
+ * The speed up techniques supported by the heat stress weightings of
+ * {@link joachimrussig.heatstressrouting.routing.HeatStressGraphHopper}.
+ * 
+ * @author Joachim Rußig
+ */
+public enum SpeedUpMode {
+
+	/**
+	 * No preprocessing, i.e. the queries are answered by the algorithms of
+	 * GraphHopper.
+	 */
+	NONE,
+	/**
+	 * Contraction hierarchies per weather bucket (see
+	 * {@link WeatherBucketedHierarchies}).
+	 */
+	CH,
+	/**
+	 * Customizable contraction hierarchies with a metric per hour (see
+	 * {@link CustomizedHierarchies}).
+	 */
+	CCH;
+
+}
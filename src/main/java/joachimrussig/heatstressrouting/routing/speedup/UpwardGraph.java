@@ -0,0 +1,173 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+/**
+ * The search graph of a contraction hierarchy, i.e. the rank of every node and
+ * for every node the arcs to its neighbors of higher rank ("upward arcs").
+ * <p>
+ * Every arc connects a lower ranked node {@code low} with a higher ranked node
+ * {@code high} and represents both directions of travel; the weights of the
+ * two directions are stored separately in an {@link UpwardMetric}. The upward
+ * arcs of a node are sorted by the ID of their head, so an arc can be found by
+ * binary search (see {@link #findArc(int, int)}).
+ *
+ * @author Joachim Rußig
+ */
+public class UpwardGraph {
+
+	private final int[] rank;
+	private final int[] firstUp;
+	private final int[] upHead;
+
+	/**
+	 * Creates a new {@code UpwardGraph}.
+	 *
+	 * @param rank
+	 *            the rank of each node
+	 * @param firstUp
+	 *            the index of the first upward arc of each node, with an
+	 *            additional entry containing the number of arcs
+	 * @param upHead
+	 *            the head of each arc, sorted ascending per node
+	 */
+	public UpwardGraph(int[] rank, int[] firstUp, int[] upHead) {
+		if (firstUp.length != rank.length + 1)
+			throw new IllegalArgumentException(
+					"firstUp must have one entry more than rank");
+		this.rank = rank;
+		this.firstUp = firstUp;
+		this.upHead = upHead;
+	}
+
+	/**
+	 * Creates the {@code UpwardGraph} of a set of arcs.
+	 *
+	 * @param rank
+	 *            the rank of each node
+	 * @param low
+	 *            the lower ranked end of each arc
+	 * @param high
+	 *            the higher ranked end of each arc
+	 * @param arcs
+	 *            the number of arcs, the pairs {@code (low[i], high[i])} must
+	 *            be distinct
+	 * @param order
+	 *            an array of length {@code arcs} that receives the index of
+	 *            the input arc for each arc of the graph
+	 * @return the {@code UpwardGraph}
+	 */
+	public static UpwardGraph of(int[] rank, int[] low, int[] high, int arcs,
+			int[] order) {
+		int nodes = rank.length;
+		int[] firstUp = new int[nodes + 1];
+		for (int i = 0; i < arcs; i++)
+			firstUp[low[i] + 1]++;
+		for (int v = 0; v < nodes; v++)
+			firstUp[v + 1] += firstUp[v];
+
+		int[] next = new int[nodes];
+		System.arraycopy(firstUp, 0, next, 0, nodes);
+		int[] upHead = new int[arcs];
+		for (int i = 0; i < arcs; i++) {
+			int pos = next[low[i]]++;
+			upHead[pos] = high[i];
+			order[pos] = i;
+		}
+
+		// sort the arcs of each node by their head (insertion sort, the
+		// number of upward arcs per node is small)
+		for (int v = 0; v < nodes; v++) {
+			for (int i = firstUp[v] + 1; i < firstUp[v + 1]; i++) {
+				int head = upHead[i];
+				int index = order[i];
+				int j = i - 1;
+				while (j >= firstUp[v] && upHead[j] > head) {
+					upHead[j + 1] = upHead[j];
+					order[j + 1] = order[j];
+					j--;
+				}
+				upHead[j + 1] = head;
+				order[j + 1] = index;
+			}
+		}
+
+		return new UpwardGraph(rank, firstUp, upHead);
+	}
+
+	/**
+	 * Finds the arc between {@code low} and {@code high}.
+	 *
+	 * @param low
+	 *            the lower ranked node
+	 * @param high
+	 *            the higher ranked node
+	 * @return the index of the arc, or {@code -1} if there is no such arc
+	 */
+	public int findArc(int low, int high) {
+		int from = firstUp[low];
+		int to = firstUp[low + 1] - 1;
+		while (from <= to) {
+			int mid = (from + to) >>> 1;
+			int head = upHead[mid];
+			if (head < high)
+				from = mid + 1;
+			else if (head > high)
+				to = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodes() {
+		return rank.length;
+	}
+
+	/**
+	 *
+	 * @return the number of arcs
+	 */
+	public int getArcs() {
+		return upHead.length;
+	}
+
+	public int getRank(int node) {
+		return rank[node];
+	}
+
+	public int getFirstUp(int node) {
+		return firstUp[node];
+	}
+
+	public int getEndUp(int node) {
+		return firstUp[node + 1];
+	}
+
+	public int getHead(int arc) {
+		return upHead[arc];
+	}
+
+	int[] getRanks() {
+		return rank;
+	}
+
+	int[] getFirstUps() {
+		return firstUp;
+	}
+
+	int[] getHeads() {
+		return upHead;
+	}
+
+	/**
+	 *
+	 * @return the approximate size of the graph in bytes
+	 */
+	public long getBytes() {
+		return 4L * (rank.length + firstUp.length + upHead.length);
+	}
+
+}
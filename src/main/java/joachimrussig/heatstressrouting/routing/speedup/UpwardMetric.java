@@ -0,0 +1,149 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Arrays;
+
+/**
+ * The weights of the arcs of an {@link UpwardGraph} for both directions of
+ * travel, together with the information required to unpack shortcuts.
+ * <p>
+ * For the arc between {@code low} and {@code high} the "up" direction is the
+ * travel from {@code low} to {@code high}, and the "down" direction the
+ * travel from {@code high} to {@code low}. For each direction either the
+ * original edge ({@code mid == -1}) or the middle node {@code mid} of the
+ * shortcut is stored; the middle node has a lower rank than both ends, so a
+ * shortcut is unpacked into the arcs {@code (mid, low)} and
+ * {@code (mid, high)}.
+ * <p>
+ * A metric is immutable once it is published.
+ *
+ * @author Joachim Rußig
+ */
+public class UpwardMetric {
+
+	static final int NO_MID = -1;
+	static final int NO_EDGE = -1;
+
+	final double[] upWeight;
+	final double[] downWeight;
+	final int[] upMid;
+	final int[] downMid;
+	final int[] upEdge;
+	final int[] downEdge;
+
+	/**
+	 * Creates a new {@code UpwardMetric} with all weights set to infinity.
+	 *
+	 * @param arcs
+	 *            the number of arcs
+	 */
+	UpwardMetric(int arcs) {
+		this.upWeight = new double[arcs];
+		this.downWeight = new double[arcs];
+		this.upMid = new int[arcs];
+		this.downMid = new int[arcs];
+		this.upEdge = new int[arcs];
+		this.downEdge = new int[arcs];
+		Arrays.fill(upWeight, Double.POSITIVE_INFINITY);
+		Arrays.fill(downWeight, Double.POSITIVE_INFINITY);
+		Arrays.fill(upMid, NO_MID);
+		Arrays.fill(downMid, NO_MID);
+		Arrays.fill(upEdge, NO_EDGE);
+		Arrays.fill(downEdge, NO_EDGE);
+	}
+
+	/**
+	 *
+	 * @param arc
+	 *            the arc
+	 * @param up
+	 *            true for the travel from the lower to the higher ranked node
+	 * @return the weight of the arc in the given direction
+	 */
+	public double getWeight(int arc, boolean up) {
+		return up ? upWeight[arc] : downWeight[arc];
+	}
+
+	/**
+	 *
+	 * @return the number of arcs
+	 */
+	public int getArcs() {
+		return upWeight.length;
+	}
+
+	/**
+	 *
+	 * @return the approximate size of the metric in bytes
+	 */
+	public long getBytes() {
+		return 8L * (upWeight.length + downWeight.length)
+				+ 4L * (upMid.length + downMid.length + upEdge.length
+						+ downEdge.length);
+	}
+
+	/**
+	 * Unpacks the arc {@code arc} of {@code graph} recursively into the
+	 * original edges and appends them in order of travel to {@code out}.
+	 *
+	 * @param graph
+	 *            the graph the metric belongs to
+	 * @param low
+	 *            the lower ranked end of {@code arc}
+	 * @param arc
+	 *            the arc to unpack
+	 * @param up
+	 *            the direction of travel
+	 * @param out
+	 *            the sequence the edges are appended to
+	 * @throws IllegalStateException
+	 *             if the metric is inconsistent with {@code graph}
+	 */
+	void unpack(UpwardGraph graph, int low, int arc, boolean up,
+			EdgeSequence out) {
+		// the stack contains (low, arc, up) triples, the top element is the
+		// next part of the path in order of travel
+		int[] stack = new int[48];
+		int size = 0;
+		stack[size++] = low;
+		stack[size++] = arc;
+		stack[size++] = up ? 1 : 0;
+
+		while (size > 0) {
+			boolean u = stack[--size] == 1;
+			int a = stack[--size];
+			int l = stack[--size];
+			int h = graph.getHead(a);
+			int mid = u ? upMid[a] : downMid[a];
+
+			if (mid == NO_MID) {
+				int edge = u ? upEdge[a] : downEdge[a];
+				if (edge == NO_EDGE)
+					throw new IllegalStateException(
+							"arc " + a + " has no edge");
+				out.add(edge, u ? h : l);
+				continue;
+			}
+
+			// the path is split at mid: from the start to mid downwards and
+			// from mid to the end upwards
+			int start = u ? l : h;
+			int end = u ? h : l;
+			int first = graph.findArc(mid, start);
+			int second = graph.findArc(mid, end);
+			if (first < 0 || second < 0)
+				throw new IllegalStateException(
+						"missing arcs to the middle node " + mid + " of arc "
+								+ a);
+
+			if (size + 6 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[size++] = mid;
+			stack[size++] = second;
+			stack[size++] = 1;
+			stack[size++] = mid;
+			stack[size++] = first;
+			stack[size++] = 0;
+		}
+	}
+
+}
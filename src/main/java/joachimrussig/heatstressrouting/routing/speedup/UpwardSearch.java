@@ -0,0 +1,253 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.RoutingAlgorithm;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.EdgeIteratorState;
+
+/**
+ * A bidirectional search on the {@link UpwardGraph} of a {@link Hierarchy},
+ * i.e. the query of (customizable) contraction hierarchies.
+ * <p>
+ * The searches start at the seeds of the query nodes (see
+ * {@link QuerySeeds}), so the algorithm works on a
+ * {@link com.graphhopper.routing.QueryGraph}. The weight of the found path is
+ * recomputed with the weighting of the query, since the metric of the
+ * hierarchy may approximate the weighting (e.g. by quantized weather data).
+ *
+ * @author Joachim Rußig
+ */
+public class UpwardSearch implements RoutingAlgorithm {
+
+	private static final ThreadLocal<SearchSpace> SEARCH_SPACE = new ThreadLocal<>();
+
+	private final Graph graph;
+	private final Weighting weighting;
+	private final FlagEncoder encoder;
+	private final Hierarchy hierarchy;
+	private final String name;
+
+	private int maxVisitedNodes = Integer.MAX_VALUE;
+	private int visitedNodes;
+
+	/**
+	 * Creates a new {@code UpwardSearch}.
+	 *
+	 * @param graph
+	 *            the (query) graph
+	 * @param weighting
+	 *            the weighting of the query
+	 * @param encoder
+	 *            the encoder of the query
+	 * @param hierarchy
+	 *            the hierarchy of the base graph
+	 * @param name
+	 *            the name of the algorithm
+	 */
+	public UpwardSearch(Graph graph, Weighting weighting, FlagEncoder encoder,
+			Hierarchy hierarchy, String name) {
+		this.graph = graph;
+		this.weighting = weighting;
+		this.encoder = encoder;
+		this.hierarchy = hierarchy;
+		this.name = name;
+	}
+
+	@Override
+	public Path calcPath(int from, int to) {
+		UpwardGraph upward = hierarchy.getGraph();
+		UpwardMetric metric = hierarchy.getMetric();
+		int nodes = upward.getNodes();
+
+		QuerySeeds sources = QuerySeeds.explore(graph, weighting, encoder,
+				nodes, from, to, false);
+		QuerySeeds targets = QuerySeeds.explore(graph, weighting, encoder,
+				nodes, to, from, true);
+
+		SearchSpace forward = searchSpace(nodes, 0);
+		SearchSpace backward = searchSpace(nodes, 1);
+		try {
+			for (int i = 0; i < sources.size(); i++)
+				forward.seed(sources.getNode(i), sources.getWeight(i));
+			for (int i = 0; i < targets.size(); i++)
+				backward.seed(targets.getNode(i), targets.getWeight(i));
+
+			double best = sources.getOtherWeight();
+			int meet = -1;
+
+			while (true) {
+				boolean f = !forward.heap.isEmpty()
+						&& forward.heap.peekKey() < best;
+				boolean b = !backward.heap.isEmpty()
+						&& backward.heap.peekKey() < best;
+				if (!f && !b)
+					break;
+				if (visitedNodes >= maxVisitedNodes)
+					return new HeatStressPath(graph, weighting);
+
+				SearchSpace current = f && (!b || forward.heap
+						.peekKey() <= backward.heap.peekKey()) ? forward
+								: backward;
+				SearchSpace other = current == forward ? backward : forward;
+
+				int u = current.heap.poll();
+				visitedNodes++;
+				double d = current.dist[u];
+				if (d + other.dist[u] < best) {
+					best = d + other.dist[u];
+					meet = u;
+				}
+
+				boolean up = current == forward;
+				for (int a = upward.getFirstUp(u); a < upward
+						.getEndUp(u); a++) {
+					double w = up ? metric.upWeight[a] : metric.downWeight[a];
+					if (w == Double.POSITIVE_INFINITY)
+						continue;
+					current.relax(upward.getHead(a), u, a, d + w);
+				}
+			}
+
+			if (best == Double.POSITIVE_INFINITY)
+				return new HeatStressPath(graph, weighting);
+
+			EdgeSequence edges = new EdgeSequence();
+			if (meet < 0) {
+				// the query nodes are connected by virtual edges only
+				sources.appendPath(to, edges);
+			} else {
+				// the path from the source to the meeting node, unpacking the
+				// arcs from the meeting node backwards
+				int[] path = new int[16];
+				int length = 0;
+				int u = meet;
+				while (forward.parentArc[u] >= 0) {
+					if (length + 2 > path.length)
+						path = Arrays.copyOf(path, path.length * 2);
+					path[length++] = forward.parentArc[u];
+					path[length++] = forward.parentNode[u];
+					u = forward.parentNode[u];
+				}
+				sources.appendPath(u, edges);
+				for (int i = length - 2; i >= 0; i -= 2)
+					metric.unpack(upward, path[i + 1], path[i], true, edges);
+
+				// the path from the meeting node to the target
+				u = meet;
+				while (backward.parentArc[u] >= 0) {
+					metric.unpack(upward, backward.parentNode[u],
+							backward.parentArc[u], false, edges);
+					u = backward.parentNode[u];
+				}
+				targets.appendPath(u, edges);
+			}
+
+			return new HeatStressPath(graph, weighting).build(from, edges,
+					calcWeight(edges));
+		} finally {
+			forward.reset();
+			backward.reset();
+		}
+	}
+
+	/**
+	 * Computes the weight of a path using the weighting of the query.
+	 */
+	private double calcWeight(EdgeSequence edges) {
+		double weight = 0;
+		int prevEdge = EdgeIterator.NO_EDGE;
+		for (int i = 0; i < edges.size(); i++) {
+			EdgeIteratorState edge = graph
+					.getEdgeIteratorState(edges.getEdge(i), edges.getAdjNode(i));
+			weight += weighting.calcWeight(edge, false, prevEdge);
+			prevEdge = edges.getEdge(i);
+		}
+		return weight;
+	}
+
+	@Override
+	public List<Path> calcPaths(int from, int to) {
+		return Collections.singletonList(calcPath(from, to));
+	}
+
+	@Override
+	public void setMaxVisitedNodes(int numberOfNodes) {
+		this.maxVisitedNodes = numberOfNodes;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getVisitedNodes() {
+		return visitedNodes;
+	}
+
+	private static SearchSpace searchSpace(int nodes, int direction) {
+		SearchSpace space = SEARCH_SPACE.get();
+		if (space == null || space.dist.length != nodes) {
+			space = new SearchSpace(nodes, new SearchSpace(nodes, null));
+			SEARCH_SPACE.set(space);
+		}
+		return direction == 0 ? space : space.next;
+	}
+
+	/**
+	 * The state of one direction of the search, reused by all queries of a
+	 * thread.
+	 */
+	private static class SearchSpace {
+		final double[] dist;
+		final int[] parentArc;
+		final int[] parentNode;
+		final int[] touched;
+		int touchedSize;
+		final MinHeap heap;
+		final SearchSpace next;
+
+		SearchSpace(int nodes, SearchSpace next) {
+			this.dist = new double[nodes];
+			this.parentArc = new int[nodes];
+			this.parentNode = new int[nodes];
+			this.touched = new int[nodes];
+			this.heap = new MinHeap(nodes);
+			this.next = next;
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			Arrays.fill(parentArc, -1);
+		}
+
+		void seed(int node, double weight) {
+			relax(node, -1, -1, weight);
+		}
+
+		void relax(int node, int parent, int arc, double weight) {
+			if (weight >= dist[node])
+				return;
+			if (dist[node] == Double.POSITIVE_INFINITY)
+				touched[touchedSize++] = node;
+			dist[node] = weight;
+			parentArc[node] = arc;
+			parentNode[node] = parent;
+			heap.update(node, weight);
+		}
+
+		void reset() {
+			for (int i = 0; i < touchedSize; i++) {
+				dist[touched[i]] = Double.POSITIVE_INFINITY;
+				parentArc[touched[i]] = -1;
+			}
+			touchedSize = 0;
+			heap.clear();
+		}
+	}
+
+}
@@ -0,0 +1,263 @@
+package joachimrussig.heatstressrouting.routing.speedup;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.storage.Directory;
+import com.graphhopper.util.StopWatch;
+
+import joachimrussig.heatstressrouting.routing.weighting.HeatStressWeighting;
+import joachimrussig.heatstressrouting.routing.weighting.WeatherSnapshot;
+
+/**
+ * Contraction hierarchies for the heat stress weightings, one per weather
+ * bucket.
+ * <p>
+ * All edges of a heat stress weighting share the same temperature and
+ * humidity and the heat profiles only depend on the time slice, so the weights
+ * are determined by the weighting (see
+ * {@link HeatStressWeighting#getCacheKey()}), the time slice and the weather.
+ * The temperature and the humidity are quantized into buckets and a hierarchy
+ * is prepared for the weather in the middle of each bucket; interpolated time
+ * slices are rounded to {@link #SLICE_STEPS} steps, where the hierarchy is
+ * prepared for the point in time of the first query. Thus a query is answered
+ * with a route that is optimal for the quantized weather, whose weight is
+ * recomputed with the exact weather by the {@link UpwardSearch}.
+ * <p>
+ * The hierarchies are prepared lazily by a single background thread, stored in
+ * the graph directory (see {@link PreparationFiles}) and kept in memory as
+ * long as their size doesn't exceed a budget, where the least recently used
+ * hierarchies are evicted first. An evicted hierarchy is loaded again from its
+ * file, if it is requested again. The files are bounded by a budget of their
+ * own, where the least recently used files are deleted first. While a
+ * hierarchy is prepared, {@link #get(HeatStressWeighting)} returns an empty
+ * {@code Optional}, so the caller can fall back to an algorithm without
+ * preprocessing.
+ *
+ * @author Joachim Rußig
+ */
+public class WeatherBucketedHierarchies implements HierarchyProvider {
+
+	private static final String NAME_PREFIX = "heat_ch_";
+
+	private final Logger logger = LoggerFactory
+			.getLogger(WeatherBucketedHierarchies.class);
+
+	private final BaseGraph graph;
+	private final PreparationFiles files;
+	private final IntSupplier fingerprint;
+	private final double temperatureStep;
+	private final double humidityStep;
+	private final long maxBytes;
+
+	// the hierarchies in memory, ordered by access
+	private final LinkedHashMap<String, Hierarchy> hierarchies = new LinkedHashMap<>(
+			16, 0.75f, true);
+	private long bytes;
+
+	private final Map<String, Future<?>> pending = new ConcurrentHashMap<>();
+	private final ExecutorService executor;
+
+	// incremented by clear(), so preparations started before are discarded
+	private volatile int generation;
+
+	/**
+	 * Creates a new {@code WeatherBucketedHierarchies}.
+	 *
+	 * @param graph
+	 *            the graph to contract
+	 * @param dir
+	 *            the directory to store the hierarchies in
+	 * @param fingerprint
+	 *            supplies a value identifying the current input of the
+	 *            weightings (e.g. the heat profiles), the stored hierarchies
+	 *            are only reused if the fingerprint matches
+	 * @param temperatureStep
+	 *            the width of a temperature bucket (in °C)
+	 * @param humidityStep
+	 *            the width of a humidity bucket (in %)
+	 * @param maxBytes
+	 *            the maximum size of the hierarchies kept in memory
+	 * @param maxFileBytes
+	 *            the maximum size of the files of the hierarchies in
+	 *            {@code dir}
+	 * @throws IllegalArgumentException
+	 *             if one of the steps is not positive
+	 */
+	public WeatherBucketedHierarchies(BaseGraph graph, Directory dir,
+			IntSupplier fingerprint, double temperatureStep,
+			double humidityStep, long maxBytes, long maxFileBytes) {
+		if (temperatureStep <= 0 || humidityStep <= 0)
+			throw new IllegalArgumentException(
+					"the steps of the buckets must be positive");
+		this.graph = graph;
+		this.files = new PreparationFiles(dir, NAME_PREFIX, maxFileBytes);
+		this.fingerprint = fingerprint;
+		this.temperatureStep = temperatureStep;
+		this.humidityStep = humidityStep;
+		this.maxBytes = maxBytes;
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "heat-ch-preparation");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the hierarchy for the bucket of {@code weighting}. If the
+	 * hierarchy isn't available yet, its preparation is scheduled.
+	 *
+	 * @param weighting
+	 *            the weighting of the query
+	 * @return the hierarchy or an empty {@code Optional}, if it isn't
+	 *         prepared yet or {@code weighting} has no weather
+	 */
+	@Override
+	public Optional<Hierarchy> get(HeatStressWeighting weighting) {
+		WeatherSnapshot weather = weighting.getWeather();
+		if (weather == null || weighting.getSlice() < 0)
+			return Optional.empty();
+
+		// the key contains the quantized weather instead of the indices of
+		// the buckets, so the stored hierarchies of other steps aren't reused
+		double temperature = Math
+				.round(weather.getTemperature() / temperatureStep)
+				* temperatureStep;
+		double humidity = Math
+				.round(weather.getRelativeHumidity() / humidityStep)
+				* humidityStep;
+		String key = weighting.getCacheKey() + "|"
+				+ weighting.getSliceKey(SLICE_STEPS) + "|" + temperature + "|"
+				+ humidity;
+
+		synchronized (hierarchies) {
+			Hierarchy hierarchy = hierarchies.get(key);
+			if (hierarchy != null)
+				return Optional.of(hierarchy);
+		}
+
+		WeatherSnapshot quantized = new WeatherSnapshot(weather.getTime(),
+				temperature, humidity);
+		int gen = generation;
+		HeatStressWeighting bucketWeighting = weighting.withWeather(quantized);
+		pending.computeIfAbsent(key, k -> executor
+				.submit(() -> prepare(k, bucketWeighting, gen)));
+		return Optional.empty();
+	}
+
+	private void prepare(String key, HeatStressWeighting weighting, int gen) {
+		try {
+			if (gen != generation)
+				return;
+
+			StopWatch sw = new StopWatch().start();
+			int fp = fingerprint.getAsInt();
+			Hierarchy hierarchy = files.load(key,
+					da -> Hierarchy.load(da, graph.getNodes(), fp));
+			if (hierarchy == null) {
+				logger.info("prepare contraction hierarchy for " + key + "...");
+				Hierarchy prepared = new CHPreparation(graph,
+						graph.computeWeights(weighting)).prepare();
+				files.store(key, da -> prepared.store(da, fp));
+				hierarchy = prepared;
+				logger.info("done (" + sw.stop().getTime() + " ms)");
+			}
+
+			if (gen == generation)
+				put(key, hierarchy);
+		} catch (RuntimeException e) {
+			logger.error("failed to prepare contraction hierarchy for " + key,
+					e);
+		} finally {
+			pending.remove(key);
+		}
+	}
+
+	private void put(String key, Hierarchy hierarchy) {
+		synchronized (hierarchies) {
+			Hierarchy old = hierarchies.put(key, hierarchy);
+			if (old != null)
+				bytes -= old.getBytes();
+			bytes += hierarchy.getBytes();
+
+			Iterator<Hierarchy> iter = hierarchies.values().iterator();
+			while (bytes > maxBytes && hierarchies.size() > 1
+					&& iter.hasNext()) {
+				Hierarchy eldest = iter.next();
+				if (eldest == hierarchy)
+					continue;
+				bytes -= eldest.getBytes();
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all hierarchies from memory and discards the running
+	 * preparations, e.g. if the input of the weightings changed.
+	 */
+	@Override
+	public void clear() {
+		generation++;
+		for (Future<?> future : pending.values())
+			future.cancel(false);
+		pending.clear();
+		synchronized (hierarchies) {
+			hierarchies.clear();
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * Stops the background preparation.
+	 */
+	@Override
+	public void close() {
+		clear();
+		executor.shutdownNow();
+	}
+
+	/**
+	 *
+	 * @return the number of hierarchies in memory
+	 */
+	public int size() {
+		synchronized (hierarchies) {
+			return hierarchies.size();
+		}
+	}
+
+	/**
+	 *
+	 * @return the size of the hierarchies in memory in bytes
+	 */
+	public long getBytes() {
+		synchronized (hierarchies) {
+			return bytes;
+		}
+	}
+
+	/**
+	 *
+	 * @return the size of the files of the hierarchies in bytes
+	 */
+	public long getFileBytes() {
+		return files.getBytes();
+	}
+
+	@Override
+	public BaseGraph getGraph() {
+		return graph;
+	}
+
+}
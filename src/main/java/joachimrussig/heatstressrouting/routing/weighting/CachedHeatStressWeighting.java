@@ -0,0 +1,69 @@
+package joachimrussig.heatstressrouting.routing.weighting;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.graphhopper.routing.weighting.AbstractWeighting;
+import com.graphhopper.util.EdgeIteratorState;
+
+/**
+ * A {@link HeatStressWeighting} wrapper that memoizes the edge weights in a
+ * bucket of an {@link EdgeWeightCache}.
+ * <p>
+ * The weights of the heat stress weightings don't depend on the direction of
+ * travel, so a single weight per edge is cached. Virtual edges are never
+ * cached, since their IDs are only valid for a single query.
+ *
+ * @author Joachim Rußig
+ */
+public class CachedHeatStressWeighting extends AbstractWeighting {
+
+	private final HeatStressWeighting weighting;
+	private final AtomicLongArray weights;
+
+	CachedHeatStressWeighting(HeatStressWeighting weighting,
+			AtomicLongArray weights) {
+		super(weighting.getFlagEncoder());
+		this.weighting = weighting;
+		this.weights = weights;
+	}
+
+	@Override
+	public double calcWeight(EdgeIteratorState edgeState, boolean reverse,
+			int prevOrNextEdgeId) {
+		final int edgeId = edgeState.getEdge();
+		if (edgeId >= weights.length())
+			return weighting.calcWeight(edgeState, reverse, prevOrNextEdgeId);
+
+		long bits = weights.get(edgeId);
+		if (bits != EdgeWeightCache.EMPTY)
+			return Double.longBitsToDouble(bits);
+
+		double weight = weighting.calcWeight(edgeState, reverse,
+				prevOrNextEdgeId);
+
+		// 0.0 has the same bit pattern as EMPTY, so -0.0 is stored instead
+		weights.compareAndSet(edgeId, EdgeWeightCache.EMPTY,
+				Double.doubleToRawLongBits(weight == 0 ? -0.0 : weight));
+
+		return weight;
+	}
+
+	@Override
+	public double getMinWeight(double distance) {
+		return weighting.getMinWeight(distance);
+	}
+
+	@Override
+	public String getName() {
+		return weighting.getName();
+	}
+
+	/**
+	 *
+	 * @return the wrapped weighting
+	 */
+	public HeatStressWeighting getWeighting() {
+		return weighting;
+	}
+
+}
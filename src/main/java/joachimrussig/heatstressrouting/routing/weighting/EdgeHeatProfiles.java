@@ -0,0 +1,1068 @@
+package joachimrussig.heatstressrouting.routing.weighting;
+
+import java.time.LocalTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.util.HintsMap;
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.util.BitUtil;
+import com.graphhopper.util.StopWatch;
+
+import joachimrussig.heatstressrouting.osmdata.OSMData;
+import joachimrussig.heatstressrouting.routing.HeatStressGraphHopper;
+import joachimrussig.heatstressrouting.waysegments.TimeSlices;
+import joachimrussig.heatstressrouting.waysegments.WaySegment;
+import joachimrussig.heatstressrouting.waysegments.WaySegmentId;
+import joachimrussig.heatstressrouting.waysegments.WaySegmentIndex;
+import joachimrussig.heatstressrouting.waysegments.WaySegments;
+import joachimrussig.heatstressrouting.weatherdata.WeatherData;
+import joachimrussig.heatstressrouting.weatherdata.WeatherRecord;
+
+/**
+ * A precompiled table of the heat profiles of all edges of the graph, stored
+ * next to the edge mapping in the graph directory.
+ * <p>
+ * For every internal edge ID the pairs of the distance and the temperature
+ * differences of all way segments of the edge are stored as a flat slice, so
+ * that the weightings never have to resolve OSM ways, nodes or
+ * {@link WaySegment}s while routing. Each pair carries a fixed-length vector
+ * of the temperature differences in every slice of the time axis of the way
+ * segments (see {@link TimeSlices}), so the values of a point in time are
+ * found by computing the index of its slice, and can be interpolated between
+ * neighbouring slices.
+ * <p>
+ * A pair of a segment without data in a slice has the temperature
+ * difference 0 in this slice. If the values of a segment in a slice
+ * intersect other raster cells than in the first slice with data, the
+ * temperature differences are resampled along the segment.
+ * <p>
+ * The pairs are stored as doubles by default. As the temperature differences
+ * are resampled from a thermal raster, whose precision is far below the one
+ * of a double, the table can also be stored with a reduced {@link Precision}
+ * to reduce its size. When a reduced precision is compiled, the maximum and
+ * mean relative error of the weights of the heat stress weightings of the
+ * hopper for the weather of the weather data is computed for a sample of the
+ * edges against the same pairs stored as doubles, and logged for each
+ * weighting whenever the table is compiled or loaded. The fixed-point
+ * distances are scaled to the longest stored pair, i.e. after collapsing the
+ * pairs into bins.
+ * <p>
+ * The pairs of long edges, which cross many raster cells, can be collapsed
+ * into at most {@code bins} pairs, so the weightings loop over a small, fixed
+ * number of pairs per edge. The pairs are put into a histogram of the
+ * temperature differences (averaged over the slices), and each non-empty bin
+ * becomes a pair of the summed distance and the distance-weighted mean of the
+ * temperature differences in each slice. As the weightings are not linear in
+ * the temperature, this changes the weights; the worst-case relative error of
+ * the weights of the heat stress weightings of the hopper for the weather of
+ * the weather data is computed for a sample of the edges and logged.
+ * <p>
+ * The table is compiled once after the graph was imported or loaded (see
+ * {@link #compile(HeatStressGraphHopper, WaySegments)}) and is reused, as long
+ * as the way segments and the graph doesn't change.
+ *
+ * @author Joachim Rußig
+ */
+public class EdgeHeatProfiles {
+
+	/**
+	 * Length of an edge for which the way segments could not be identified;
+	 * the weightings fall back to the distance of the edge.
+	 */
+	public static final int UNRESOLVED = -1;
+	/**
+	 * Length of an edge whose base or adjacent node is not part of the OSM
+	 * data; the weightings treat such edges as not passable.
+	 */
+	public static final int BLOCKED = -2;
+
+	private static final String INDEX_NAME = "edge_heat_profile_index";
+	private static final String PROFILES_NAME = "edge_heat_profiles";
+	private static final int VERSION = 6;
+
+	// header layout of the index
+	private static final int HEADER_VERSION = 0;
+	private static final int HEADER_SLICES = 4;
+	private static final int HEADER_EDGES = 8;
+	private static final int HEADER_FINGERPRINT = 12;
+	private static final int HEADER_PRECISION = 16;
+	private static final int HEADER_ERROR_SAMPLES = 20;
+	private static final int HEADER_BINS = 24;
+	private static final int HEADER_BIN_SAMPLES = 28;
+	private static final int HEADER_BIN_ERROR = 32;
+	// the maximum and mean relative weight error of a reduced precision for
+	// each weighting type, i.e. at HEADER_ERRORS + 8 * ordinal
+	private static final int HEADER_ERRORS = 36;
+
+	// the scales of the quantized values are stored as three doubles
+	private static final int SCALES_BYTES = 24;
+	// an entry of the index is stored as (offset, length)
+	private static final int ENTRY_BYTES = 8;
+
+	// the approximate number of edges the error of a reduced precision is
+	// computed for
+	private static final int ERROR_SAMPLE_EDGES = 10000;
+	// the weather data is reduced to one snapshot per class of temperature
+	// (in °C) and relative humidity (in %) to compute the error of the bins
+	private static final double ERROR_TEMPERATURE_STEP = 1;
+	private static final double ERROR_HUMIDITY_STEP = 10;
+
+	/**
+	 * The precision the pairs of distance and temperature differences are
+	 * stored with.
+	 */
+	public enum Precision {
+		/**
+		 * Distances and temperature differences are stored as doubles.
+		 */
+		DOUBLE(8, 8),
+		/**
+		 * Distances are stored as floats and temperature differences as 16
+		 * bit fixed-point numbers.
+		 */
+		FLOAT_SHORT(4, 2),
+		/**
+		 * Distances and temperature differences are stored as 16 bit
+		 * fixed-point numbers.
+		 */
+		SHORT(2, 2);
+
+		private final int distanceBytes;
+		private final int temperatureBytes;
+
+		private Precision(int distanceBytes, int temperatureBytes) {
+			this.distanceBytes = distanceBytes;
+			this.temperatureBytes = temperatureBytes;
+		}
+
+		// the size of a pair, aligned to the size of the distance so that no
+		// value is split between two segments of a DataAccess
+		private int pairBytes(int slices) {
+			int bytes = distanceBytes + temperatureBytes * slices;
+			return (bytes + distanceBytes - 1) / distanceBytes
+					* distanceBytes;
+		}
+	}
+
+	private final Logger logger = LoggerFactory
+			.getLogger(EdgeHeatProfiles.class);
+
+	private final Directory dir;
+	private final BitUtil bitUtil;
+	private final Precision precision;
+	private final int bins;
+	private DataAccess index;
+	private DataAccess profiles;
+
+	// value = temperatureOffset + temperatureScale * (fixed-point value)
+	private double temperatureOffset;
+	private double temperatureScale = 1;
+	// value = distanceScale * (unsigned fixed-point value)
+	private double distanceScale = 1;
+
+	private TimeSlices timeSlices;
+	private int slices;
+	// a pair is stored as the distance followed by the temperature
+	// differences of all slices
+	private int pairBytes;
+	private int edges;
+	private long entriesPointer;
+
+	/**
+	 * Creates a new {@code EdgeHeatProfiles} table stored in the directory
+	 * {@code dir} with double precision.
+	 *
+	 * @param dir
+	 *            the directory of the graph
+	 */
+	public EdgeHeatProfiles(Directory dir) {
+		this(dir, Precision.DOUBLE);
+	}
+
+	/**
+	 * Creates a new {@code EdgeHeatProfiles} table stored in the directory
+	 * {@code dir}.
+	 *
+	 * @param dir
+	 *            the directory of the graph
+	 * @param precision
+	 *            the precision of the stored values
+	 */
+	public EdgeHeatProfiles(Directory dir, Precision precision) {
+		this(dir, precision, 0);
+	}
+
+	/**
+	 * Creates a new {@code EdgeHeatProfiles} table stored in the directory
+	 * {@code dir}, that collapses the pairs of each edge into at most
+	 * {@code bins} pairs.
+	 *
+	 * @param dir
+	 *            the directory of the graph
+	 * @param precision
+	 *            the precision of the stored values
+	 * @param bins
+	 *            the maximum number of pairs per edge, or 0 to store all
+	 *            pairs
+	 * @throws IllegalArgumentException
+	 *             if {@code bins} is negative
+	 */
+	public EdgeHeatProfiles(Directory dir, Precision precision, int bins) {
+		if (bins < 0)
+			throw new IllegalArgumentException(
+					"the number of bins must not be negative: " + bins);
+		this.dir = dir;
+		this.bitUtil = BitUtil.get(dir.getByteOrder());
+		this.precision = precision;
+		this.bins = bins;
+		this.index = dir.find(INDEX_NAME);
+		this.profiles = dir.find(PROFILES_NAME);
+	}
+
+	/**
+	 * Loads an already compiled table, if it exists and was compiled for the
+	 * same graph and way segments with the same precision and bins.
+	 *
+	 * @param edgeCount
+	 *            the number of edges of the graph
+	 * @param segments
+	 *            the way segments the table must be compiled of
+	 * @return true, if an up to date table was loaded
+	 */
+	public boolean loadExisting(int edgeCount, WaySegments segments) {
+		if (!index.loadExisting() || !profiles.loadExisting())
+			return false;
+
+		if (index.getHeader(HEADER_VERSION) != VERSION
+				|| index.getHeader(HEADER_EDGES) != edgeCount
+				|| index.getHeader(HEADER_FINGERPRINT) != segments.getStore()
+						.checksum()
+				|| index.getHeader(HEADER_PRECISION) != precision.ordinal()
+				|| index.getHeader(HEADER_BINS) != bins)
+			return false;
+
+		int count = index.getHeader(HEADER_SLICES);
+		long[] boundaries = new long[count + 1];
+		for (int i = 0; i <= count; i++)
+			boundaries[i] = getLong(index, 8L * i);
+		setTimeSlices(new TimeSlices(boundaries));
+		this.edges = edgeCount;
+
+		long pointer = 8L * (count + 1);
+		this.temperatureOffset = getDouble(index, pointer);
+		this.temperatureScale = getDouble(index, pointer + 8);
+		this.distanceScale = getDouble(index, pointer + 16);
+
+		logPrecision(getPairs());
+		logBins(-1);
+		return true;
+	}
+
+	/**
+	 * Compiles the heat profiles of all edges of the graph of {@code hopper}
+	 * and persists them in the graph directory.
+	 * <p>
+	 * For each edge the way segments between the base node and the adjacent
+	 * node are identified using the OSM nodes of the edge recorded on import
+	 * (see {@link HeatStressGraphHopper#getOSMNodes(int)}) and the
+	 * pairs of the distance and the temperature differences in each slice of
+	 * the segments are appended to the table.
+	 *
+	 * @param hopper
+	 *            the {@link HeatStressGraphHopper} providing the graph, the
+	 *            edge and node mappings and the OSM data
+	 * @param segments
+	 *            the way segments to compile
+	 */
+	public void compile(HeatStressGraphHopper hopper, WaySegments segments) {
+		StopWatch sw = new StopWatch().start();
+		logger.info("compile edge heat profiles...");
+
+		OSMData osmData = hopper.getOsmData();
+		WaySegmentIndex store = segments.getStore();
+
+		this.edges = hopper.getGraphHopperStorage().getAllEdges().getMaxId();
+		setTimeSlices(store.getTimeSlices());
+		computeScales(store);
+
+		// an out of date table has to be removed before it can be recreated
+		if (index.getCapacity() > 0) {
+			dir.remove(index);
+			index = dir.find(INDEX_NAME);
+		}
+		if (profiles.getCapacity() > 0) {
+			dir.remove(profiles);
+			profiles = dir.find(PROFILES_NAME);
+		}
+
+		index.create(entriesPointer + (long) ENTRY_BYTES * edges);
+		profiles.create(1000);
+
+		long[] boundaries = timeSlices.getBoundaries();
+		for (int i = 0; i <= slices; i++)
+			setLong(index, 8L * i, boundaries[i]);
+
+		// the entries of a segment are looked up at the start of the slices
+		LocalTime[] sliceTimes = new LocalTime[slices];
+		for (int i = 0; i < slices; i++)
+			sliceTimes[i] = LocalTime.ofNanoOfDay(timeSlices.getStart(i));
+
+		int pairs = 0;
+		int unresolved = 0;
+		int blocked = 0;
+		int missing = 0;
+		int incomplete = 0;
+
+		// the exact values of the pairs of the current edge
+		int stride = 1 + slices;
+		double[] values = new double[16 * stride];
+
+		// the fixed-point distances are scaled once all pairs are known, so
+		// they are kept as doubles until then
+		double[] distances = precision == Precision.SHORT ? new double[1000]
+				: null;
+
+		// the first pair and the stored values of the sampled edges to compute
+		// the error of a reduced precision for
+		int sampleStride = Math.max(1, edges / ERROR_SAMPLE_EDGES);
+		List<Pair<Integer, double[]>> samples = new ArrayList<>();
+
+		// the collapsed pairs of the current edge and the weightings and
+		// weather to compute the error of the bins and the precision for
+		double[] binValues = new double[bins * stride];
+		List<HeatStressWeighting> weightings = bins > 0
+				|| precision != Precision.DOUBLE ? createWeightings(hopper)
+						: new ArrayList<>();
+		List<WeatherSnapshot> weather = !weightings.isEmpty()
+				? sampleWeather(hopper.getWeatherData()) : new ArrayList<>();
+		int collapsed = 0;
+		int binSamples = 0;
+		double[] binErrors = new double[weightings.size()];
+
+		int[] sliceEntries = new int[slices];
+		AllEdgesIterator iter = hopper.getGraphHopperStorage().getAllEdges();
+		while (iter.next()) {
+			int edgeId = iter.getEdge();
+
+			long wayId = hopper.getOSMWay(edgeId);
+			long baseNodeId = hopper.getOSMNode(iter.getBaseNode());
+			long adjNodeId = hopper.getOSMNode(iter.getAdjNode());
+
+			if (!osmData.contains(baseNodeId) || !osmData.contains(adjNodeId)) {
+				setEntry(edgeId, 0, BLOCKED);
+				blocked++;
+				continue;
+			}
+
+			List<WaySegmentId> edgeSegments = getEdgeSegments(hopper, edgeId,
+					wayId);
+
+			if (edgeSegments.isEmpty()) {
+				setEntry(edgeId, 0, UNRESOLVED);
+				unresolved++;
+				continue;
+			}
+
+			int n = 0;
+			for (WaySegmentId id : edgeSegments) {
+				// the values of the first slice with data determine the
+				// distances of the pairs of the segment
+				int reference = WaySegmentIndex.NOT_FOUND;
+				boolean complete = true;
+				for (int slice = 0; slice < slices; slice++) {
+					int entry = store.findEntry(id.getWayId(),
+							id.getNodeIds().getLeft(),
+							id.getNodeIds().getRight(), sliceTimes[slice]);
+					sliceEntries[slice] = entry;
+					if (entry == WaySegmentIndex.NOT_FOUND)
+						complete = false;
+					else if (reference == WaySegmentIndex.NOT_FOUND)
+						reference = entry;
+				}
+				if (reference == WaySegmentIndex.NOT_FOUND) {
+					if (!id.getNodeIds().getLeft()
+							.equals(id.getNodeIds().getRight()))
+						missing++;
+					continue;
+				}
+				if (!complete)
+					incomplete++;
+
+				int length = store.getLength(reference);
+				if ((n + length) * stride > values.length)
+					values = Arrays.copyOf(values,
+							Math.max((n + length) * stride, 2 * values.length));
+				int from = store.getOffset(reference);
+				for (int k = 0; k < length; k++)
+					values[(n + k) * stride] = store.getDistance(from + k);
+				for (int slice = 0; slice < slices; slice++)
+					setTemperatureDifferences(store, values, n, reference,
+							sliceEntries[slice], slice);
+				n += length;
+			}
+
+			double[] pairValues = values;
+			int m = n;
+			if (bins > 0 && n > bins) {
+				m = collapse(values, n, binValues);
+				pairValues = binValues;
+				if (collapsed % sampleStride == 0 && !weather.isEmpty()) {
+					updateBinErrors(weightings, weather, values, n, binValues,
+							m, binErrors);
+					binSamples++;
+				}
+				collapsed++;
+			}
+
+			profiles.ensureCapacity((long) pairBytes * (pairs + m));
+			for (int k = 0; k < m; k++) {
+				if (distances != null) {
+					if (pairs + k >= distances.length)
+						distances = Arrays.copyOf(distances,
+								2 * distances.length);
+					distances[pairs + k] = pairValues[k * stride];
+				} else {
+					setDistance(pairs + k, pairValues[k * stride]);
+				}
+				setTemperatureDifferences(pairs + k, pairValues, k * stride);
+			}
+			setEntry(edgeId, pairs, m);
+
+			if (precision != Precision.DOUBLE && !weather.isEmpty()
+					&& edgeId % sampleStride == 0)
+				samples.add(Pair.of(pairs,
+						Arrays.copyOf(pairValues, m * stride)));
+			pairs += m;
+		}
+
+		if (distances != null) {
+			double maxDistance = 0;
+			for (int pair = 0; pair < pairs; pair++)
+				maxDistance = Math.max(maxDistance, distances[pair]);
+			this.distanceScale = maxDistance > 0 ? maxDistance / 0xFFFF : 1;
+			for (int pair = 0; pair < pairs; pair++)
+				setDistance(pair, distances[pair]);
+		}
+		long pointer = 8L * (slices + 1);
+		setDouble(index, pointer, temperatureOffset);
+		setDouble(index, pointer + 8, temperatureScale);
+		setDouble(index, pointer + 16, distanceScale);
+
+		double binError = 0;
+		for (double error : binErrors)
+			binError = Math.max(binError, error);
+
+		for (WeightingType type : WeightingType.values()) {
+			index.setHeader(HEADER_ERRORS + 8 * type.ordinal(),
+					Float.floatToRawIntBits(Float.NaN));
+			index.setHeader(HEADER_ERRORS + 8 * type.ordinal() + 4,
+					Float.floatToRawIntBits(Float.NaN));
+		}
+		if (!samples.isEmpty())
+			computePrecisionErrors(weightings, weather, samples);
+
+		index.setHeader(HEADER_VERSION, VERSION);
+		index.setHeader(HEADER_SLICES, slices);
+		index.setHeader(HEADER_EDGES, edges);
+		index.setHeader(HEADER_FINGERPRINT, store.checksum());
+		index.setHeader(HEADER_PRECISION, precision.ordinal());
+		index.setHeader(HEADER_ERROR_SAMPLES, samples.size());
+		index.setHeader(HEADER_BINS, bins);
+		index.setHeader(HEADER_BIN_SAMPLES, binSamples);
+		index.setHeader(HEADER_BIN_ERROR,
+				Float.floatToRawIntBits((float) binError));
+
+		flush();
+
+		logger.info("done (" + edges + " edges, " + slices + " time slices, "
+				+ pairs + " pairs, " + unresolved + " unresolved, " + blocked
+				+ " blocked, " + missing + " missing segments, " + incomplete
+				+ " incomplete segments, " + sw.stop().getTime() + " ms)");
+		logPrecision(pairs);
+		if (bins > 0) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < weightings.size(); i++)
+				sb.append(", ").append(weightings.get(i).getName())
+						.append(" ")
+						.append(String.format("%.4f", 100 * binErrors[i]))
+						.append(" %");
+			logger.info("worst-case relative weight error of the bins for "
+					+ weather.size() + " weather classes" + sb);
+		}
+		logBins(collapsed);
+	}
+
+	/**
+	 * Logs the number of bins and the worst-case relative weight error of the
+	 * sampled edges, if the pairs are collapsed into bins.
+	 *
+	 * @param collapsed
+	 *            the number of collapsed edges, or -1 if unknown
+	 */
+	private void logBins(int collapsed) {
+		if (bins == 0)
+			return;
+		int binSamples = index.getHeader(HEADER_BIN_SAMPLES);
+		logger.info("heat profiles with at most " + bins + " bins per edge"
+				+ (collapsed >= 0 ? " (" + collapsed + " edges collapsed)" : "")
+				+ ", worst-case relative weight error of " + binSamples
+				+ " sampled edges: "
+				+ (binSamples > 0
+						? String.format("%.4f",
+								100 * Float.intBitsToFloat(
+										index.getHeader(HEADER_BIN_ERROR)))
+								+ " %"
+						: "not computed"));
+	}
+
+	/**
+	 * Collapses the {@code n} pairs in {@code values} into at most
+	 * {@code bins} pairs, i.e. a histogram of equal width bins of the mean
+	 * temperature difference of the pairs over all slices, and stores them
+	 * in {@code binned}. A bin consists of the summed distance and the
+	 * distance-weighted mean of the temperature differences in each slice of
+	 * its pairs.
+	 *
+	 * @return the number of non-empty bins
+	 */
+	private int collapse(double[] values, int n, double[] binned) {
+		int stride = 1 + slices;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < n; k++) {
+			double key = meanTemperatureDifference(values, k * stride);
+			min = Math.min(min, key);
+			max = Math.max(max, key);
+		}
+
+		// sum the distances and weighted temperature differences of the bins
+		Arrays.fill(binned, 0, bins * stride, 0);
+		for (int k = 0; k < n; k++) {
+			double key = meanTemperatureDifference(values, k * stride);
+			int bin = max > min ? Math.min(bins - 1,
+					(int) ((key - min) / (max - min) * bins)) : 0;
+			double distance = values[k * stride];
+			binned[bin * stride] += distance;
+			for (int slice = 0; slice < slices; slice++)
+				binned[bin * stride + 1 + slice] += distance
+						* values[k * stride + 1 + slice];
+		}
+
+		// remove the empty bins and compute the means
+		int m = 0;
+		for (int bin = 0; bin < bins; bin++) {
+			double distance = binned[bin * stride];
+			if (distance <= 0)
+				continue;
+			binned[m * stride] = distance;
+			for (int slice = 0; slice < slices; slice++)
+				binned[m * stride + 1 + slice] = binned[bin * stride + 1
+						+ slice] / distance;
+			m++;
+		}
+		return m;
+	}
+
+	private double meanTemperatureDifference(double[] values, int from) {
+		double sum = 0;
+		for (int slice = 0; slice < slices; slice++)
+			sum += values[from + 1 + slice];
+		return slices > 0 ? sum / slices : 0;
+	}
+
+	/**
+	 * Updates the worst-case relative errors of the weights of the collapsed
+	 * pairs {@code binned} of an edge against the weights of its pairs
+	 * {@code values} for each weighting, weather and slice.
+	 */
+	private void updateBinErrors(List<HeatStressWeighting> weightings,
+			List<WeatherSnapshot> weather, double[] values, int n,
+			double[] binned, int m, double[] errors) {
+		int stride = 1 + slices;
+		for (int i = 0; i < weightings.size(); i++) {
+			HeatStressWeighting weighting = weightings.get(i);
+			for (WeatherSnapshot snapshot : weather) {
+				for (int slice = 0; slice < slices; slice++) {
+					double exact = 0;
+					for (int k = 0; k < n; k++)
+						exact += weighting.computeSegmentWeight(
+								values[k * stride],
+								values[k * stride + 1 + slice], snapshot);
+					double approximated = 0;
+					for (int k = 0; k < m; k++)
+						approximated += weighting.computeSegmentWeight(
+								binned[k * stride],
+								binned[k * stride + 1 + slice], snapshot);
+					if (exact > 0)
+						errors[i] = Math.max(errors[i],
+								Math.abs(approximated - exact) / exact);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the maximum and mean relative errors of the weights of the
+	 * sampled edges stored with the precision of the table against their
+	 * values {@code samples} stored as doubles for each weighting, weather and
+	 * slice, and stores them in the header of the index.
+	 */
+	private void computePrecisionErrors(List<HeatStressWeighting> weightings,
+			List<WeatherSnapshot> weather,
+			List<Pair<Integer, double[]>> samples) {
+		int stride = 1 + slices;
+		for (HeatStressWeighting weighting : weightings) {
+			Optional<WeightingType> type = WeightingType
+					.from(weighting.getName());
+			if (!type.isPresent())
+				continue;
+			double maxError = 0;
+			double sumError = 0;
+			int count = 0;
+			for (Pair<Integer, double[]> sample : samples) {
+				int first = sample.getLeft();
+				double[] exactValues = sample.getRight();
+				int m = exactValues.length / stride;
+				for (WeatherSnapshot snapshot : weather) {
+					for (int slice = 0; slice < slices; slice++) {
+						double exact = 0;
+						double stored = 0;
+						for (int k = 0; k < m; k++) {
+							exact += weighting.computeSegmentWeight(
+									exactValues[k * stride],
+									exactValues[k * stride + 1 + slice],
+									snapshot);
+							stored += weighting.computeSegmentWeight(
+									getDistance(first + k),
+									getTemperatureDifference(first + k, slice),
+									snapshot);
+						}
+						if (exact > 0) {
+							double error = Math.abs(stored - exact) / exact;
+							maxError = Math.max(maxError, error);
+							sumError += error;
+							count++;
+						}
+					}
+				}
+			}
+			int header = HEADER_ERRORS + 8 * type.get().ordinal();
+			index.setHeader(header, Float.floatToRawIntBits((float) maxError));
+			index.setHeader(header + 4, Float.floatToRawIntBits(
+					count > 0 ? (float) (sumError / count) : 0));
+		}
+	}
+
+	/**
+	 * Creates the heat stress weightings of {@code hopper}, i.e. with the
+	 * configured weights and heat index table, to compute the error of the
+	 * bins and the precision for.
+	 *
+	 * @return the weightings or an empty list, if no weather data is set
+	 */
+	private static List<HeatStressWeighting> createWeightings(
+			HeatStressGraphHopper hopper) {
+		List<HeatStressWeighting> weightings = new ArrayList<>();
+		WeatherData weatherData = hopper.getWeatherData();
+		if (weatherData == null)
+			return weightings;
+
+		LocalDateTime time = weatherData.getTimeRange().getFrom();
+		FlagEncoder encoder = hopper.getEncodingManager().fetchEdgeEncoders()
+				.get(0);
+		for (WeightingType type : WeightingType.values()) {
+			if (type == WeightingType.SHORTEST)
+				continue;
+			HintsMap hints = new HintsMap(type.toString()).put("time",
+					time.toString());
+			HeatStressWeighting.unwrap(hopper.createWeighting(hints, encoder))
+					.ifPresent(weightings::add);
+		}
+		return weightings;
+	}
+
+	/**
+	 * Returns a snapshot of the first record of each class of similar weather
+	 * in {@code weatherData} (see {@link #ERROR_TEMPERATURE_STEP} and
+	 * {@link #ERROR_HUMIDITY_STEP}).
+	 */
+	private static List<WeatherSnapshot> sampleWeather(
+			WeatherData weatherData) {
+		Map<Pair<Long, Long>, WeatherSnapshot> classes = new LinkedHashMap<>();
+		for (WeatherRecord record : weatherData.getWeatherRecords().values())
+			classes.putIfAbsent(
+					Pair.of(Math.round(
+							record.getTemperature() / ERROR_TEMPERATURE_STEP),
+							Math.round(record.getRelativeHumidity()
+									/ ERROR_HUMIDITY_STEP)),
+					new WeatherSnapshot(record.getTime(),
+							record.getTemperature(),
+							record.getRelativeHumidity()));
+		return new ArrayList<>(classes.values());
+	}
+
+	/**
+	 * Logs the size of the table and, for a reduced precision, the maximum
+	 * and mean relative error of the weights of the sampled edges of each
+	 * weighting against the same pairs stored as doubles.
+	 */
+	private void logPrecision(long pairs) {
+		long bytes = pairs * pairBytes;
+		long doubleBytes = pairs * Precision.DOUBLE.pairBytes(slices);
+		if (precision == Precision.DOUBLE) {
+			logger.info("heat profiles: " + bytes + " bytes");
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (WeightingType type : WeightingType.values()) {
+			int header = HEADER_ERRORS + 8 * type.ordinal();
+			float maxError = Float.intBitsToFloat(index.getHeader(header));
+			float meanError = Float
+					.intBitsToFloat(index.getHeader(header + 4));
+			if (Float.isNaN(maxError))
+				continue;
+			sb.append(", ").append(type).append(" max ")
+					.append(String.format("%.4f", 100 * maxError))
+					.append(" %, mean ")
+					.append(String.format("%.4f", 100 * meanError))
+					.append(" %");
+		}
+		logger.info("heat profiles with " + precision + " precision: " + bytes
+				+ " bytes instead of " + doubleBytes
+				+ ", relative weight error of "
+				+ index.getHeader(HEADER_ERROR_SAMPLES) + " sampled edges"
+				+ (sb.length() > 0 ? sb : ": not computed"));
+	}
+
+	private void setTimeSlices(TimeSlices timeSlices) {
+		this.timeSlices = timeSlices;
+		this.slices = timeSlices.size();
+		this.pairBytes = precision.pairBytes(slices);
+		this.entriesPointer = 8L * (slices + 1) + SCALES_BYTES;
+	}
+
+	/**
+	 * Computes the scale of the fixed-point temperature differences, so that
+	 * all temperature differences of {@code store} (and a temperature
+	 * difference of 0) can be represented. As the temperature differences of
+	 * the bins are means of the ones of their pairs, they are within the same
+	 * range. The scale of the distances is computed of the stored pairs.
+	 */
+	private void computeScales(WaySegmentIndex store) {
+		double min = 0;
+		double max = 0;
+		for (int i = 0; i < store.values(); i++) {
+			double temperatureDifference = store.getTemperatureDifference(i);
+			min = Math.min(min, temperatureDifference);
+			max = Math.max(max, temperatureDifference);
+		}
+		this.temperatureOffset = (min + max) / 2;
+		this.temperatureScale = max > min ? (max - min) / (2 * Short.MAX_VALUE)
+				: 1;
+		this.distanceScale = 1;
+	}
+
+	/**
+	 * Sets the temperature differences in {@code slice} of the pairs of the
+	 * segment starting at the {@code pair}-th pair of {@code values}, whose
+	 * distances are the ones of the entry {@code reference}, to the values
+	 * of the entry {@code entry}.
+	 */
+	private void setTemperatureDifferences(WaySegmentIndex store,
+			double[] values, int pair, int reference, int entry, int slice) {
+		int stride = 1 + slices;
+		int length = store.getLength(reference);
+		if (entry == WaySegmentIndex.NOT_FOUND) {
+			for (int k = 0; k < length; k++)
+				values[(pair + k) * stride + 1 + slice] = 0;
+			return;
+		}
+
+		int from = store.getOffset(entry);
+		int n = store.getLength(entry);
+		if (n == length) {
+			for (int k = 0; k < length; k++)
+				values[(pair + k) * stride + 1 + slice] = store
+						.getTemperatureDifference(from + k);
+			return;
+		}
+
+		// the entry intersects other raster cells, so the value at the
+		// center of each pair is taken, relative to the length of the segment
+		int referenceFrom = store.getOffset(reference);
+		double referenceLength = 0;
+		for (int k = 0; k < length; k++)
+			referenceLength += store.getDistance(referenceFrom + k);
+		double entryLength = 0;
+		for (int j = 0; j < n; j++)
+			entryLength += store.getDistance(from + j);
+		double scale = referenceLength > 0 ? entryLength / referenceLength
+				: 0;
+
+		int j = 0;
+		double end = n > 0 ? store.getDistance(from) : 0;
+		double position = 0;
+		for (int k = 0; k < length; k++) {
+			double distance = store.getDistance(referenceFrom + k);
+			double center = (position + distance / 2) * scale;
+			position += distance;
+			while (j < n - 1 && end <= center)
+				end += store.getDistance(from + ++j);
+			values[(pair + k) * stride + 1 + slice] = n > 0
+					? store.getTemperatureDifference(from + j) : 0;
+		}
+	}
+
+	/**
+	 * Stores the distance of the pair {@code pair} with the precision of the
+	 * table.
+	 *
+	 * @throws IllegalStateException
+	 *             if the distance exceeds the range of the fixed-point
+	 *             distances
+	 */
+	private void setDistance(int pair, double distance) {
+		long pointer = pairPointer(pair);
+		switch (precision) {
+		case DOUBLE:
+			setDouble(profiles, pointer, distance);
+			break;
+		case FLOAT_SHORT:
+			profiles.setInt(pointer, Float.floatToRawIntBits((float) distance));
+			break;
+		default:
+			long q = Math.round(distance / distanceScale);
+			if (q < 0 || q > 0xFFFF)
+				throw new IllegalStateException("the distance " + distance
+						+ " of pair " + pair
+						+ " exceeds the range of the fixed-point distances ("
+						+ 0xFFFF * distanceScale + ")");
+			profiles.setShort(pointer, (short) q);
+		}
+	}
+
+	/**
+	 * Stores the temperature differences of all slices of the pair at
+	 * {@code values[from]}, i.e. the values following its distance, with the
+	 * precision of the table.
+	 */
+	private void setTemperatureDifferences(int pair, double[] values,
+			int from) {
+		for (int slice = 0; slice < slices; slice++) {
+			double temperatureDifference = values[from + 1 + slice];
+			if (precision == Precision.DOUBLE) {
+				setDouble(profiles, temperaturePointer(pair, slice),
+						temperatureDifference);
+			} else {
+				long q = Math.round((temperatureDifference - temperatureOffset)
+						/ temperatureScale);
+				profiles.setShort(temperaturePointer(pair, slice),
+						(short) Math.max(-Short.MAX_VALUE,
+								Math.min(Short.MAX_VALUE, q)));
+			}
+		}
+	}
+
+	/**
+	 * Returns the way segments between all nodes of the edge including the
+	 * pillar nodes, using the OSM node IDs recorded when the graph was
+	 * imported.
+	 *
+	 * @param hopper
+	 *            the {@link HeatStressGraphHopper} providing the OSM nodes of
+	 *            the edge
+	 * @param edgeId
+	 *            the internal edge ID
+	 * @param wayId
+	 *            if of the OSM way
+	 * @return the ids of all way segments of the edge {@code edgeId} from its
+	 *         base node to its adjacent node, or an empty list if the nodes of
+	 *         the edge are unknown
+	 */
+	private List<WaySegmentId> getEdgeSegments(HeatStressGraphHopper hopper,
+			int edgeId, long wayId) {
+		long[] edgeNodeIds = hopper.getOSMNodes(edgeId);
+
+		List<WaySegmentId> res = new ArrayList<>(
+				Math.max(0, edgeNodeIds.length - 1));
+		for (int i = 1; i < edgeNodeIds.length; i++)
+			res.add(new WaySegmentId(wayId,
+					Pair.of(edgeNodeIds[i - 1], edgeNodeIds[i])));
+		return res;
+	}
+
+	/**
+	 *
+	 * @return the time axis of the temperature differences
+	 */
+	public TimeSlices getTimeSlices() {
+		return timeSlices;
+	}
+
+	/**
+	 *
+	 * @return the number of time slices
+	 */
+	public int getSlices() {
+		return slices;
+	}
+
+	/**
+	 *
+	 * @return the precision of the stored values
+	 */
+	public Precision getPrecision() {
+		return precision;
+	}
+
+	/**
+	 *
+	 * @return the maximum number of pairs per edge, or 0 if all pairs are
+	 *         stored
+	 */
+	public int getBins() {
+		return bins;
+	}
+
+	// the number of pairs, i.e. the end of the last resolved edge
+	private long getPairs() {
+		long pairs = 0;
+		for (int edgeId = 0; edgeId < edges; edgeId++) {
+			int length = getLength(edgeId);
+			if (length > 0)
+				pairs = Math.max(pairs, (long) getOffset(edgeId) + length);
+		}
+		return pairs;
+	}
+
+	/**
+	 *
+	 * @param edgeId
+	 *            the internal edge ID
+	 * @return the index of the first pair of the edge
+	 */
+	public int getOffset(int edgeId) {
+		return index.getInt(entryPointer(edgeId));
+	}
+
+	/**
+	 *
+	 * @param edgeId
+	 *            the internal edge ID
+	 * @return the number of pairs of the edge, or {@link #UNRESOLVED}
+	 *         respectively {@link #BLOCKED}
+	 */
+	public int getLength(int edgeId) {
+		return index.getInt(entryPointer(edgeId) + 4);
+	}
+
+	/**
+	 *
+	 * @param pair
+	 *            index of the pair
+	 * @return the length of the intersection with the raster cell
+	 */
+	public double getDistance(int pair) {
+		long pointer = pairPointer(pair);
+		switch (precision) {
+		case DOUBLE:
+			return getDouble(profiles, pointer);
+		case FLOAT_SHORT:
+			return Float.intBitsToFloat(profiles.getInt(pointer));
+		default:
+			return (profiles.getShort(pointer) & 0xFFFF) * distanceScale;
+		}
+	}
+
+	/**
+	 *
+	 * @param pair
+	 *            index of the pair
+	 * @param slice
+	 *            index of the time slice
+	 * @return the value of the intersected raster cell in the time slice
+	 */
+	public double getTemperatureDifference(int pair, int slice) {
+		long pointer = temperaturePointer(pair, slice);
+		if (precision == Precision.DOUBLE)
+			return getDouble(profiles, pointer);
+		return temperatureOffset
+				+ temperatureScale * profiles.getShort(pointer);
+	}
+
+	/**
+	 *
+	 * @return the number of edges
+	 */
+	public int getEdges() {
+		return edges;
+	}
+
+	/**
+	 * Returns a fingerprint of the table, i.e. of the way segments, precision
+	 * and bins it was compiled with, so tables derived from it can detect
+	 * whether they are out of date.
+	 *
+	 * @return the fingerprint of the table
+	 */
+	public int getFingerprint() {
+		return 31 * (31 * index.getHeader(HEADER_FINGERPRINT)
+				+ precision.ordinal()) + bins;
+	}
+
+	public void flush() {
+		index.flush();
+		profiles.flush();
+	}
+
+	private long entryPointer(int edgeId) {
+		return entriesPointer + (long) ENTRY_BYTES * edgeId;
+	}
+
+	private long pairPointer(int pair) {
+		return (long) pairBytes * pair;
+	}
+
+	private long temperaturePointer(int pair, int slice) {
+		return pairPointer(pair) + precision.distanceBytes
+				+ (long) precision.temperatureBytes * slice;
+	}
+
+	private void setEntry(int edgeId, int offset, int length) {
+		long pointer = entryPointer(edgeId);
+		index.setInt(pointer, offset);
+		index.setInt(pointer + 4, length);
+	}
+
+	private double getDouble(DataAccess da, long pointer) {
+		return Double.longBitsToDouble(getLong(da, pointer));
+	}
+
+	private void setDouble(DataAccess da, long pointer, double value) {
+		setLong(da, pointer, Double.doubleToRawLongBits(value));
+	}
+
+	private long getLong(DataAccess da, long pointer) {
+		return bitUtil.combineIntsToLong(da.getInt(pointer),
+				da.getInt(pointer + 4));
+	}
+
+	private void setLong(DataAccess da, long pointer, long value) {
+		da.setInt(pointer, bitUtil.getIntLow(value));
+		da.setInt(pointer + 4, bitUtil.getIntHigh(value));
+	}
+
+}
@@ -0,0 +1,233 @@
+package joachimrussig.heatstressrouting.routing.weighting;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.util.BitUtil;
+import com.graphhopper.util.StopWatch;
+
+import joachimrussig.heatstressrouting.thermalcomfort.ThermalComfortTemperature;
+
+/**
+ * A precompiled table of the cost functions of all edges for the
+ * {@link HeatStressWeightingTemperature}, stored next to the
+ * {@link EdgeHeatProfiles} in the graph directory.
+ * <p>
+ * The weight of an edge with the pairs {@code (d_i, δ_i)} in a time slice is
+ * {@code Σ d_i * max(T + δ_i, C)} as a function of the air temperature
+ * {@code T}, where {@code C} is the
+ * {@link ThermalComfortTemperature#COMFORT_TEMPERATURE}. This is a convex
+ * piecewise linear function of {@code T} with breakpoints at
+ * {@code C - δ_i}. For every edge and slice, the temperature differences of
+ * the pairs are stored in ascending order together with the prefix sums of
+ * {@code d_i} and {@code d_i * δ_i}, so the weight for any temperature is
+ * computed with a binary search over the temperature differences instead of
+ * a loop over all pairs (see {@link #getWeight(int, int, int, double)}).
+ * <p>
+ * The entries of an edge are addressed by the offset and length of its pairs
+ * in the {@code EdgeHeatProfiles}, so the table doesn't need an index of its
+ * own.
+ *
+ * @author Joachim Rußig
+ */
+public class EdgeTemperatureCosts {
+
+	private final Logger logger = LoggerFactory
+			.getLogger(EdgeTemperatureCosts.class);
+
+	private static final String NAME = "edge_temperature_costs";
+	private static final int VERSION = 1;
+
+	// header layout
+	private static final int HEADER_VERSION = 0;
+	private static final int HEADER_SLICES = 4;
+	private static final int HEADER_EDGES = 8;
+	private static final int HEADER_FINGERPRINT = 12;
+
+	// an entry is stored as (temperature difference, prefix sum of the
+	// distances, prefix sum of distance * temperature difference)
+	private static final int ENTRY_BYTES = 24;
+
+	private final Directory dir;
+	private final BitUtil bitUtil;
+	private DataAccess costs;
+	private int slices;
+
+	/**
+	 * Creates a new {@code EdgeTemperatureCosts} table stored in the directory
+	 * {@code dir}.
+	 *
+	 * @param dir
+	 *            the directory of the graph
+	 */
+	public EdgeTemperatureCosts(Directory dir) {
+		this.dir = dir;
+		this.bitUtil = BitUtil.get(dir.getByteOrder());
+		this.costs = dir.find(NAME);
+	}
+
+	/**
+	 * Loads an already compiled table, if it exists and was compiled of the
+	 * same heat profiles.
+	 *
+	 * @param profiles
+	 *            the heat profiles the table must be compiled of
+	 * @return true, if an up to date table was loaded
+	 */
+	public boolean loadExisting(EdgeHeatProfiles profiles) {
+		if (!costs.loadExisting())
+			return false;
+
+		if (costs.getHeader(HEADER_VERSION) != VERSION
+				|| costs.getHeader(HEADER_SLICES) != profiles.getSlices()
+				|| costs.getHeader(HEADER_EDGES) != profiles.getEdges()
+				|| costs.getHeader(HEADER_FINGERPRINT) != profiles
+						.getFingerprint())
+			return false;
+
+		this.slices = profiles.getSlices();
+		return true;
+	}
+
+	/**
+	 * Compiles the cost functions of all edges of {@code profiles} and
+	 * persists them in the graph directory.
+	 *
+	 * @param profiles
+	 *            the heat profiles of the edges
+	 */
+	public void compile(EdgeHeatProfiles profiles) {
+		StopWatch sw = new StopWatch().start();
+		logger.info("compile edge temperature costs...");
+
+		this.slices = profiles.getSlices();
+
+		// an out of date table has to be removed before it can be recreated
+		if (costs.getCapacity() > 0) {
+			dir.remove(costs);
+			costs = dir.find(NAME);
+		}
+		costs.create(1000);
+
+		long entries = 0;
+		Integer[] order = new Integer[0];
+		for (int edgeId = 0; edgeId < profiles.getEdges(); edgeId++) {
+			int length = profiles.getLength(edgeId);
+			if (length <= 0)
+				continue;
+			int offset = profiles.getOffset(edgeId);
+			costs.ensureCapacity(
+					ENTRY_BYTES * ((long) (offset + length) * slices));
+
+			if (order.length < length)
+				order = new Integer[length];
+			for (int slice = 0; slice < slices; slice++) {
+				final int s = slice;
+				for (int k = 0; k < length; k++)
+					order[k] = offset + k;
+				Arrays.sort(order, 0, length, Comparator
+						.comparingDouble(i -> profiles
+								.getTemperatureDifference(i, s)));
+
+				long entry = firstEntry(offset, length, slice);
+				double distance = 0;
+				double weighted = 0;
+				for (int k = 0; k < length; k++) {
+					double temperatureDifference = profiles
+							.getTemperatureDifference(order[k], slice);
+					distance += profiles.getDistance(order[k]);
+					weighted += profiles.getDistance(order[k])
+							* temperatureDifference;
+					setDouble(entry + k, 0, temperatureDifference);
+					setDouble(entry + k, 1, distance);
+					setDouble(entry + k, 2, weighted);
+				}
+			}
+			entries += (long) length * slices;
+		}
+
+		costs.setHeader(HEADER_VERSION, VERSION);
+		costs.setHeader(HEADER_SLICES, slices);
+		costs.setHeader(HEADER_EDGES, profiles.getEdges());
+		costs.setHeader(HEADER_FINGERPRINT, profiles.getFingerprint());
+
+		flush();
+
+		logger.info("done (" + entries + " entries, " + sw.stop().getTime()
+				+ " ms)");
+	}
+
+	/**
+	 * Computes the weight of the edge, whose pairs in the heat profiles start
+	 * at {@code offset}, in {@code slice} at the air temperature
+	 * {@code temperature}. The result equals the sum of the weights of the
+	 * pairs computed by the {@link HeatStressWeightingTemperature} (up to
+	 * rounding errors).
+	 *
+	 * @param offset
+	 *            index of the first pair of the edge
+	 * @param length
+	 *            number of pairs of the edge
+	 * @param slice
+	 *            the time slice
+	 * @param temperature
+	 *            the air temperature (in °C)
+	 * @return the weight of the edge
+	 */
+	public double getWeight(int offset, int length, int slice,
+			double temperature) {
+		if (length <= 0)
+			return 0;
+
+		long entry = firstEntry(offset, length, slice);
+		// the pairs with a temperature difference up to the threshold are
+		// weighted with the comfort temperature
+		double threshold = ThermalComfortTemperature.COMFORT_TEMPERATURE
+				- temperature;
+		int low = 0;
+		int high = length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getDouble(entry + mid, 0) <= threshold)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		double distance = getDouble(entry + length - 1, 1);
+		double weighted = getDouble(entry + length - 1, 2);
+		double comfortDistance = low > 0 ? getDouble(entry + low - 1, 1) : 0;
+		double comfortWeighted = low > 0 ? getDouble(entry + low - 1, 2) : 0;
+		return ThermalComfortTemperature.COMFORT_TEMPERATURE * comfortDistance
+				+ temperature * (distance - comfortDistance)
+				+ (weighted - comfortWeighted);
+	}
+
+	public void flush() {
+		costs.flush();
+	}
+
+	// the first entry of the edge in slice
+	private long firstEntry(int offset, int length, int slice) {
+		return (long) offset * slices + (long) slice * length;
+	}
+
+	private double getDouble(long entry, int field) {
+		long pointer = ENTRY_BYTES * entry + 8 * field;
+		return Double.longBitsToDouble(bitUtil.combineIntsToLong(
+				costs.getInt(pointer), costs.getInt(pointer + 4)));
+	}
+
+	private void setDouble(long entry, int field, double value) {
+		long pointer = ENTRY_BYTES * entry + 8 * field;
+		long bits = Double.doubleToRawLongBits(value);
+		costs.setInt(pointer, bitUtil.getIntLow(bits));
+		costs.setInt(pointer + 4, bitUtil.getIntHigh(bits));
+	}
+
+}
@@ -0,0 +1,221 @@
+package joachimrussig.heatstressrouting.routing.weighting;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A memo of edge weights shared by all requests.
+ * <p>
+ * The weights are cached per weighting (see
+ * {@link HeatStressWeighting#getCacheKey()}) and time bucket, where all
+ * points in time within a bucket share the same weights, i.e. the weights
+ * computed for the start of the bucket. Each bucket is a primitive array
+ * indexed by the internal edge ID that is filled lazily; the entries are set
+ * using compare and set, so concurrent requests (e.g. the parallel nearby
+ * search) can share the weights without locking.
+ * <p>
+ * At most {@code maxBuckets} buckets are kept, if more buckets are required
+ * the least recently used bucket is evicted.
+ * <p>
+ * The buckets are also keyed by a generation, that is incremented by
+ * {@link #clear()}. A weighting created before the weather data was replaced
+ * may still compute weights with the old weather after the buckets were
+ * cleared; since it is wrapped with the generation read before its weather
+ * was resolved (see {@link #wrap(HeatStressWeighting, int)}), it writes into
+ * a bucket of an old generation that is never read again.
+ *
+ * @author Joachim Rußig
+ */
+public class EdgeWeightCache {
+
+	// marks an edge whose weight is not computed yet
+	static final long EMPTY = 0L;
+
+	private final int edges;
+	private final long bucketWidth;
+	private final int maxBuckets;
+
+	private final Map<BucketKey, AtomicLongArray> buckets;
+	// incremented by clear(), so weights of old weather data are discarded
+	private volatile int generation;
+
+	/**
+	 * Creates a new {@code EdgeWeightCache}.
+	 *
+	 * @param edges
+	 *            the number of edges of the graph
+	 * @param bucketWidth
+	 *            the width of a time bucket
+	 * @param maxBuckets
+	 *            the maximum number of buckets to keep
+	 * @throws IllegalArgumentException
+	 *             if {@code bucketWidth} is shorter than a second or
+	 *             {@code maxBuckets} is less than one
+	 */
+	public EdgeWeightCache(int edges, Duration bucketWidth, int maxBuckets) {
+		if (bucketWidth.getSeconds() < 1)
+			throw new IllegalArgumentException(
+					"bucketWidth must be at least one second");
+		if (maxBuckets < 1)
+			throw new IllegalArgumentException(
+					"maxBuckets must be greater than zero");
+
+		this.edges = edges;
+		this.bucketWidth = bucketWidth.getSeconds();
+		this.maxBuckets = maxBuckets;
+		this.buckets = new LinkedHashMap<BucketKey, AtomicLongArray>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<BucketKey, AtomicLongArray> eldest) {
+				return size() > EdgeWeightCache.this.maxBuckets;
+			}
+		};
+	}
+
+	/**
+	 * Returns the start of the time bucket containing {@code time}.
+	 *
+	 * @param time
+	 *            a point in time
+	 * @return the start of the bucket
+	 */
+	public LocalDateTime getBucketStart(LocalDateTime time) {
+		return LocalDateTime.ofEpochSecond(getBucket(time) * bucketWidth, 0,
+				ZoneOffset.UTC);
+	}
+
+	/**
+	 * Wraps {@code weighting} so that its edge weights are cached in the
+	 * bucket of the current generation containing the time of
+	 * {@code weighting}.
+	 *
+	 * @param weighting
+	 *            the weighting to wrap
+	 * @return the wrapped weighting
+	 * @see #wrap(HeatStressWeighting, int)
+	 */
+	public CachedHeatStressWeighting wrap(HeatStressWeighting weighting) {
+		return wrap(weighting, generation);
+	}
+
+	/**
+	 * Wraps {@code weighting} so that its edge weights are cached in the
+	 * bucket of {@code generation} containing the time of {@code weighting}.
+	 * <p>
+	 * <b>Note:</b> the time of {@code weighting} should be the start of its
+	 * bucket (see {@link #getBucketStart(LocalDateTime)}), otherwise the
+	 * cached weights depend on the weighting that fills them first.
+	 * {@code generation} should be read (see {@link #getGeneration()}) before
+	 * {@code weighting} resolves its weather, otherwise weights of replaced
+	 * weather data may be cached in the current generation.
+	 *
+	 * @param weighting
+	 *            the weighting to wrap
+	 * @param generation
+	 *            the generation of the weather data of {@code weighting}
+	 * @return the wrapped weighting
+	 */
+	public CachedHeatStressWeighting wrap(HeatStressWeighting weighting,
+			int generation) {
+		BucketKey key = new BucketKey(weighting.getCacheKey(),
+				getBucket(weighting.getTime()), generation);
+
+		AtomicLongArray weights;
+		synchronized (buckets) {
+			weights = buckets.get(key);
+			if (weights == null) {
+				weights = new AtomicLongArray(edges);
+				buckets.put(key, weights);
+			}
+		}
+
+		return new CachedHeatStressWeighting(weighting, weights);
+	}
+
+	/**
+	 * Removes all buckets and increments the generation, e.g. because the
+	 * weather data has changed.
+	 */
+	public void clear() {
+		synchronized (buckets) {
+			generation++;
+			buckets.clear();
+		}
+	}
+
+	/**
+	 *
+	 * @return the current generation, that is incremented by {@link #clear()}
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 *
+	 * @return the number of buckets currently kept
+	 */
+	public int size() {
+		synchronized (buckets) {
+			return buckets.size();
+		}
+	}
+
+	/**
+	 *
+	 * @return the width of a time bucket
+	 */
+	public Duration getBucketWidth() {
+		return Duration.ofSeconds(bucketWidth);
+	}
+
+	/**
+	 *
+	 * @return the maximum number of buckets to keep
+	 */
+	public int getMaxBuckets() {
+		return maxBuckets;
+	}
+
+	private long getBucket(LocalDateTime time) {
+		return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), bucketWidth);
+	}
+
+	/**
+	 * The key of a bucket consisting of the cache key of the weighting, the
+	 * index of the time bucket and the generation.
+	 */
+	private static class BucketKey {
+		private final String weighting;
+		private final long bucket;
+		private final int generation;
+
+		BucketKey(String weighting, long bucket, int generation) {
+			this.weighting = weighting;
+			this.bucket = bucket;
+			this.generation = generation;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof BucketKey
+					&& this.bucket == ((BucketKey) other).bucket
+					&& this.generation == ((BucketKey) other).generation
+					&& this.weighting.equals(((BucketKey) other).weighting);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(weighting, bucket, generation);
+		}
+	}
+
+}
@@ -1,14 +1,8 @@
 package joachimrussig.heatstressrouting.routing.weighting;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
-import org.apache.commons.lang3.tuple.Pair;
-import org.jooq.lambda.Seq;
-import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,18 +12,15 @@ import com.graphhopper.routing.weighting.Weighting;
 import com.graphhopper.util.DistanceCalc;
 import com.graphhopper.util.DistanceCalcEarth;
 import com.graphhopper.util.EdgeIteratorState;
-import com.graphhopper.util.PointList;
 
-import joachimrussig.heatstressrouting.osmdata.OSMData;
 import joachimrussig.heatstressrouting.routing.HeatStressGraphHopper;
-import joachimrussig.heatstressrouting.waysegments.WaySegment;
-import joachimrussig.heatstressrouting.waysegments.WaySegmentId;
-import joachimrussig.heatstressrouting.waysegments.WaySegments;
+import joachimrussig.heatstressrouting.waysegments.TimeSlices;
 import joachimrussig.heatstressrouting.weatherdata.WeatherData;
 
 /**
  * An abstract {@link Weighting} that provides common functionalities used for
- * the heat stress routing, like the identification of the way segments.
+ * the heat stress routing, like the lookup of the precompiled heat profiles of
+ * the edges (see {@link EdgeHeatProfiles}).
  * 
  * @author Joachim Rußig
  */
@@ -39,9 +30,13 @@ public abstract class HeatStressWeighting extends AbstractWeighting {
 			.getLogger(HeatStressWeighting.class);
 
 	private final HeatStressGraphHopper hopper;
-	private final WaySegments segments;
-	private final WayNodeSearcher wayNodeSearcher;
+	private final EdgeHeatProfiles profiles;
 	private final LocalDateTime time;
+	private final WeatherSnapshot weather;
+	// the time slice of the heat profiles and the weight of the following
+	// slice, if the slices are interpolated
+	private final int slice;
+	private final double fraction;
 
 	protected DistanceCalc dc = new DistanceCalcEarth();
 
@@ -50,16 +45,50 @@ public abstract class HeatStressWeighting extends AbstractWeighting {
 	private int mainNodes;
 
 	public HeatStressWeighting(FlagEncoder flagEncoder,
-			HeatStressGraphHopper hopper, WaySegments segments,
-			LocalDateTime time) {
+			HeatStressGraphHopper hopper, LocalDateTime time) {
+		this(flagEncoder, hopper, time,
+				time != null && hopper.getWeatherData() != null
+						? WeatherSnapshot.of(hopper.getWeatherData(), time)
+						: null);
+	}
+
+	/**
+	 * Creates a weighting for the time slice of {@code time}, that uses the
+	 * given {@code weather} instead of the weather data of the hopper.
+	 * 
+	 * @param flagEncoder
+	 *            the flag encoder
+	 * @param hopper
+	 *            the hopper providing the heat profiles of the edges
+	 * @param time
+	 *            the point in time of the weighting
+	 * @param weather
+	 *            the weather to use
+	 */
+	protected HeatStressWeighting(FlagEncoder flagEncoder,
+			HeatStressGraphHopper hopper, LocalDateTime time,
+			WeatherSnapshot weather) {
 		super(flagEncoder);
 		this.hopper = hopper;
-		this.segments = segments;
+		this.profiles = hopper.getEdgeHeatProfiles();
 		this.time = time;
+		this.weather = weather;
+		if (profiles == null || time == null) {
+			this.slice = -1;
+			this.fraction = 0;
+		} else if (hopper.isInterpolateTimeSlices()) {
+			TimeSlices slices = profiles.getTimeSlices();
+			long nanos = time.toLocalTime().toNanoOfDay();
+			this.slice = slices.getLowerSlice(nanos);
+			this.fraction = slices.getFraction(slice, nanos);
+		} else {
+			this.slice = profiles.getTimeSlices()
+					.getSlice(time.toLocalTime());
+			this.fraction = 0;
+		}
 		this.mainEdges = hopper.getGraphHopperStorage().getAllEdges()
 				.getMaxId();
 		this.mainNodes = hopper.getGraphHopperStorage().getNodes();
-		this.wayNodeSearcher = new WayNodeSearcher(hopper.getOsmData());
 	}
 
 	@Override
@@ -67,153 +96,157 @@ public abstract class HeatStressWeighting extends AbstractWeighting {
 			int prevOrNextEdgeId) {
 
 		// if the edge is virtual, there are no data available so we just return
-		// the distance
+		// the distance; likewise, if there are no heat profiles or no time
 		//
 		// https://github.com/graphhopper/graphhopper/blob/master/docs/core/low-level-api.md
-		if (isVirtualEdge(edgeState.getEdge()))
+		if (isVirtualEdge(edgeState.getEdge()) || slice < 0)
 			return edgeState.getDistance();
 
-		final OSMData osmData = hopper.getOsmData();
-		final WeatherData weatherData = hopper.getWeatherData();
-		final LocalDateTime timePoint = this.time;
-
-		long wayId = hopper.getOSMWay(edgeState.getEdge());
-
-		long baseNodeId = hopper.getOSMNode(edgeState.getBaseNode());
-		long adjNodeId = hopper.getOSMNode(edgeState.getAdjNode());
-
-		if (!osmData.contains(baseNodeId) || !osmData.contains(adjNodeId)) {
-			return Double.MAX_VALUE;
-		}
-
-		// compute the segments of the current edge
-		List<WaySegmentId> edgeSegments = getEdgeSegments(wayId, baseNodeId,
-				adjNodeId, edgeState);
+		final int edgeId = edgeState.getEdge();
+		final int length = profiles.getLength(edgeId);
 
 		// if there is no data available we return just the distance
-		if (edgeSegments.isEmpty())
+		if (length == EdgeHeatProfiles.UNRESOLVED)
 			return edgeState.getDistance();
 
-		if (logger.isDebugEnabled())
-			edgeSegments.forEach(s -> {
-				if (!segments.getSegment(s, timePoint.toLocalTime()).isPresent()
-						&& !s.getNodeIds().getLeft()
-								.equals(s.getNodeIds().getRight()))
-					logger.debug("Missing " + s + ", distance = "
-							+ edgeState.getDistance() + ", segments.size() = "
-							+ segments.getSegments().size());
-			});
+		// the base or adjacent node is not part of the OSM data
+		if (length == EdgeHeatProfiles.BLOCKED)
+			return Double.MAX_VALUE;
 
 		// compute the weight of the current edge
-		double weight = computeWeight(edgeSegments, timePoint);
+		double weight = computeWeight(profiles, profiles.getOffset(edgeId),
+				length);
 
 		if (weight < 0) {
 			logger.error("weight is negative! weight = " + weight
 					+ ", distance = " + edgeState.getDistance()
-					+ ", timePoint = " + timePoint + ", wayId = " + wayId
-					+ ", baseId = " + baseNodeId + ", adjId = " + adjNodeId
-					+ ", weatherData = "
-					+ weatherData.getWeatherRecord(timePoint)
-					+ ", distanceEdgeSegments = "
-					+ edgeSegments.stream()
-							.map(id -> segments.getSegment(id,
-									timePoint.toLocalTime()))
-							.filter(Optional::isPresent).map(Optional::get)
-							.mapToDouble(WaySegment::getDistance).sum()
-					+ ", edgeSegments = " + edgeSegments);
-			edgeSegments.stream()
-					.map(id -> segments.getSegment(id, timePoint.toLocalTime()))
-					.forEach(s -> System.out.println("segment = " + s));
-
-			throw new IllegalStateException(
-					"negative edge weight: edge from " + baseNodeId + " to "
-							+ adjNodeId + " (wayId = " + wayId + ")");
+					+ ", timePoint = " + time + ", edgeId = " + edgeId
+					+ ", wayId = " + hopper.getOSMWay(edgeId)
+					+ ", weather = " + weather);
+
+			throw new IllegalStateException("negative edge weight: edge "
+					+ edgeId + " (wayId = " + hopper.getOSMWay(edgeId) + ")");
 		}
 		return weight;
 	}
 
 	/**
-	 * Computes the weight for the given way segment.
+	 * Computes the weight of an edge from its heat profile, i.e. the sum of
+	 * the weights of the {@code length} pairs of distance and temperature
+	 * difference starting at {@code offset}. The temperature differences are
+	 * the ones of the time slice of the weighting, or interpolated between
+	 * the slice and the following one.
 	 * 
-	 * @param segment
-	 *            the way segment to compute the weight for
-	 * @param time
-	 *            to compute the weight for
+	 * @param profiles
+	 *            the table containing the heat profiles
+	 * @param offset
+	 *            index of the first pair of the edge
+	 * @param length
+	 *            number of pairs of the edge
 	 * @return the computed weight
 	 */
-	protected abstract double computeSegmentWeight(WaySegment segment,
-			LocalDateTime time);
+	protected double computeWeight(EdgeHeatProfiles profiles, int offset,
+			int length) {
+		double weight = 0;
+		for (int i = offset; i < offset + length; i++) {
+			double temperatureDifference = profiles
+					.getTemperatureDifference(i, slice);
+			if (fraction > 0)
+				temperatureDifference += fraction
+						* (profiles.getTemperatureDifference(i, slice + 1)
+								- temperatureDifference);
+			weight += computeSegmentWeight(profiles.getDistance(i),
+					temperatureDifference, weather);
+		}
+		return weight;
+	}
 
 	/**
-	 * Computes the weight of the segments identified by {@code segmentsId}.
+	 * Computes the weight of a single segment of an edge.
 	 * 
-	 * @param segmentsIds
-	 *            the segments to compute the weight for
-	 * @param time
-	 *            to compute the weight for
-	 * @return the weights of the given list of way segments
+	 * @param distance
+	 *            the length of the segment (in meter)
+	 * @param temperatureDifference
+	 *            the difference of the temperature along the segment to the
+	 *            temperature of the weather data (in °C)
+	 * @param weather
+	 *            the weather at the time of the weighting
+	 * @return the weight of the segment
 	 */
-	protected double computeWeight(List<WaySegmentId> segmentsIds,
-			LocalDateTime time) {
-		return segmentsIds.stream()
-				.map(s -> getSegments().getSegment(s, time.toLocalTime()))
-				.filter(Optional::isPresent).map(Optional::get)
-				.mapToDouble(s -> computeSegmentWeight(s, time)).sum();
-	}
+	protected abstract double computeSegmentWeight(double distance,
+			double temperatureDifference, WeatherSnapshot weather);
 
 	/**
-	 * Identifies all subways including those between pillar nodes and returns
-	 * the way segments of all of them.
+	 * Creates a copy of this weighting with the same parameters and time slice,
+	 * but using {@code weather} instead, e.g. to compute the weights for a
+	 * quantized weather.
 	 * 
-	 * @param wayId
-	 *            if of the OSM way
-	 * @param baseNodeId
-	 *            id of the base node
-	 * @param adjNodeId
-	 *            id of the adjacent node
-	 * @param edgeState
-	 * @return the ids of all way segments of the way {@code wayId} between the
-	 *         base node {@code baseNodeId} and the adjacent node
-	 *         {@code adjNodeId}
+	 * @param weather
+	 *            the weather to use
+	 * @return the new weighting
 	 */
-	List<WaySegmentId> getEdgeSegments(long wayId, long baseNodeId,
-			long adjNodeId, EdgeIteratorState edgeState) {
-
-		OSMData osmData = hopper.getOsmData();
-
-		// if the edge is virtual there are no data available because there is
-		// now corresponding OSM way so we just return an empty list
-		if (isVirtualEdge(edgeState.getEdge())) {
-			logger.debug("virtual edge " + edgeState.getEdge() + ", distance = "
-					+ edgeState.getDistance());
-
-			return new ArrayList<>();
-		}
-
-		PointList wayPoints = edgeState.fetchWayGeometry(3);
-		List<Node> wayNodes = osmData.getWayNodes(wayId);
-		List<Long> wayNodeIds = wayNodes.stream().map(Node::getId)
-				.collect(Collectors.toList());
-
-		Long optAdjId = wayNodeIds.contains(adjNodeId) ? adjNodeId : null;
+	public abstract HeatStressWeighting withWeather(WeatherSnapshot weather);
 
-		// find the way nodes between the base node and the adjacent node
-		List<Node> edgeNodes = wayNodeSearcher.getWayNodes(wayId, wayPoints,
-				baseNodeId, optAdjId, edgeState);
-
-		if (edgeNodes.size() != wayPoints.size()) {
-			logger.debug("different number of wayNodes found: edgeNodes"
-					+ edgeNodes + "\nwayPoints = " + wayPoints);
-			return new ArrayList<>();
-		}
+	/**
+	 * Returns the {@code HeatStressWeighting} underlying {@code weighting},
+	 * i.e. {@code weighting} itself or the weighting wrapped by a
+	 * {@link CachedHeatStressWeighting}.
+	 * 
+	 * @param weighting
+	 *            the weighting to unwrap
+	 * @return the underlying heat stress weighting or an empty
+	 *         {@code Optional}, if {@code weighting} isn't a heat stress
+	 *         weighting
+	 */
+	public static Optional<HeatStressWeighting> unwrap(Weighting weighting) {
+		if (weighting instanceof CachedHeatStressWeighting)
+			return Optional
+					.of(((CachedHeatStressWeighting) weighting).getWeighting());
+		if (weighting instanceof HeatStressWeighting)
+			return Optional.of((HeatStressWeighting) weighting);
+		return Optional.empty();
+	}
 
-		return Seq.seq(edgeNodes).sliding(2).map(s -> {
-			List<Node> l = s.collect(Collectors.toList());
-			return new WaySegmentId(wayId,
-					Pair.of(l.get(0).getId(), l.get(1).getId()));
-		}).collect(Collectors.toList());
+	/**
+	 * Computes a lower bound of the weight of the edge {@code edgeId}, that
+	 * is valid for every point in time and every weather, e.g. for the
+	 * preprocessing of the landmarks used by A*.
+	 * 
+	 * @param edgeId
+	 *            the internal edge ID
+	 * @param distance
+	 *            the distance of the edge
+	 * @return the lower bound or {@code Double.POSITIVE_INFINITY}, if the edge
+	 *         is not passable
+	 */
+	public double calcLowerBound(int edgeId, double distance) {
+		if (profiles == null)
+			return distance;
+
+		int length = profiles.getLength(edgeId);
+		if (length == EdgeHeatProfiles.UNRESOLVED)
+			return distance;
+		if (length == EdgeHeatProfiles.BLOCKED)
+			return Double.POSITIVE_INFINITY;
+
+		// the distances of the pairs are the same in all slices
+		int offset = profiles.getOffset(edgeId);
+		double bound = 0;
+		for (int i = offset; i < offset + length; i++)
+			bound += computeSegmentLowerBound(profiles.getDistance(i));
+		return bound;
 	}
 
+	/**
+	 * Computes a lower bound of the weight of a segment, that is valid for
+	 * every temperature difference and weather.
+	 * 
+	 * @param distance
+	 *            the length of the segment (in meter)
+	 * @return the lower bound of the weight of the segment
+	 */
+	protected abstract double computeSegmentLowerBound(double distance);
+
 	public WeatherData getHeatStress() {
 		return hopper.getWeatherData();
 	}
@@ -230,14 +263,83 @@ public abstract class HeatStressWeighting extends AbstractWeighting {
 	@Override
 	public abstract String getName();
 
-	public WaySegments getSegments() {
-		return segments;
+	/**
+	 * Returns a key identifying the weights computed by this weighting, i.e.
+	 * two weightings with the same key and time must compute the same weights.
+	 * Used by the {@link EdgeWeightCache}.
+	 * 
+	 * @return the cache key of the weighting
+	 */
+	public String getCacheKey() {
+		return getName();
 	}
 
 	public LocalDateTime getTime() {
 		return time;
 	}
 
+	/**
+	 * 
+	 * @return the weather at the time of the weighting, or {@code null} if no
+	 *         time or weather data is set
+	 */
+	public WeatherSnapshot getWeather() {
+		return weather;
+	}
+
+	/**
+	 * 
+	 * @return the time slice of the heat profiles used by the weighting (see
+	 *         {@link EdgeHeatProfiles#getTimeSlices()}), i.e. the lower slice
+	 *         if the slices are interpolated, or -1 if no heat profiles are
+	 *         available or the weighting has no time
+	 */
+	public int getSlice() {
+		return slice;
+	}
+
+	/**
+	 * 
+	 * @return the weight of the slice following {@link #getSlice()}, if the
+	 *         slices are interpolated, and 0 otherwise
+	 */
+	public double getSliceFraction() {
+		return fraction;
+	}
+
+	/**
+	 * Returns a key identifying the position of the weighting on the time
+	 * axis of the heat profiles, i.e. two weightings with the same cache key
+	 * (see {@link #getCacheKey()}), slice key and weather compute the same
+	 * weights.
+	 * 
+	 * @return the slice and, if interpolated, the weight of the following
+	 *         slice
+	 */
+	public String getSliceKey() {
+		return fraction > 0 ? slice + "+" + fraction : String.valueOf(slice);
+	}
+
+	/**
+	 * Returns a key identifying the position of the weighting on the time
+	 * axis, where the weight of the following slice is rounded to
+	 * {@code steps} steps, e.g. to share preprocessed data between nearby
+	 * points in time, whose weights are recomputed with the exact weighting.
+	 * 
+	 * @param steps
+	 *            the number of steps between two slices
+	 * @return the slice and, if interpolated, the rounded weight of the
+	 *         following slice in steps
+	 */
+	public String getSliceKey(int steps) {
+		long step = Math.round(fraction * steps);
+		if (step == 0)
+			return String.valueOf(slice);
+		if (step == steps)
+			return String.valueOf(slice + 1);
+		return slice + "+" + step + "/" + steps;
+	}
+
 	/**
 	 * Checks, if the edge {@code edgeId} is a virtual edge.
 	 * 
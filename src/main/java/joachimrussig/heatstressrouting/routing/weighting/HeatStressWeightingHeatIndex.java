@@ -6,9 +6,8 @@ import com.graphhopper.routing.util.FlagEncoder;
 
 import joachimrussig.heatstressrouting.routing.HeatStressGraphHopper;
 import joachimrussig.heatstressrouting.thermalcomfort.HeatIndex;
+import joachimrussig.heatstressrouting.thermalcomfort.HeatIndexTable;
 import joachimrussig.heatstressrouting.thermalcomfort.ThermalComfortHeatIndex;
-import joachimrussig.heatstressrouting.waysegments.WaySegment;
-import joachimrussig.heatstressrouting.waysegments.WaySegments;
 
 /**
  * A edge weighting that uses Steadman's heat index (see {@link HeatIndex}) as
@@ -21,10 +20,30 @@ public class HeatStressWeightingHeatIndex extends HeatStressWeighting {
 	public static final WeightingType WEIGHTING_TYPE = WeightingType.HEAT_INDEX;
 	public static final String NAME = WEIGHTING_TYPE.toString();
 
+	// null, if the heat index is evaluated exactly
+	private final HeatIndexTable heatIndexTable;
+
+	public HeatStressWeightingHeatIndex(FlagEncoder encoder,
+			HeatStressGraphHopper hopper, LocalDateTime time) {
+		super(encoder, hopper, time);
+		this.heatIndexTable = hopper.getHeatIndexTable();
+	}
+
+	/**
+	 * Creates a weighting for the time slice of {@code time}, that uses the
+	 * given {@code weather} instead of the weather data of the hopper.
+	 */
 	public HeatStressWeightingHeatIndex(FlagEncoder encoder,
-			HeatStressGraphHopper hopper, WaySegments segments,
-			LocalDateTime time) {
-		super(encoder, hopper, segments, time);
+			HeatStressGraphHopper hopper, LocalDateTime time,
+			WeatherSnapshot weather) {
+		super(encoder, hopper, time, weather);
+		this.heatIndexTable = hopper.getHeatIndexTable();
+	}
+
+	@Override
+	public HeatStressWeightingHeatIndex withWeather(WeatherSnapshot weather) {
+		return new HeatStressWeightingHeatIndex(getFlagEncoder(), getHopper(), getTime(),
+				weather);
 	}
 
 	@Override
@@ -33,56 +52,45 @@ public class HeatStressWeightingHeatIndex extends HeatStressWeighting {
 	}
 
 	/**
-	 * Computes the weight for the given way segment. The segment is weighted
-	 * with {@link ThermalComfortHeatIndex.COMFORT_HEAT_INDEX} if the heat index
+	 * Computes the weight of a segment. The segment is weighted with
+	 * {@link ThermalComfortHeatIndex.COMFORT_HEAT_INDEX} if the heat index
 	 * value is below {@code ThermalComfortHeatIndex.COMFORT_HEAT_INDEX}.
-	 * 
-	 * @param segment
-	 *            the way segment to compute the weight for
-	 * @param time
-	 *            to compute the weight for
-	 * @return the computed weight
 	 */
 	@Override
-	protected double computeSegmentWeight(WaySegment segment,
-			LocalDateTime time) {
-		double[] dists = segment.getDistances();
-		double[] temps = segment.getTemperatureDifferences();
-
-		double meanTemp = getHopper().getWeatherData().getTemperature(time);
-		double relHumidity = getHopper().getWeatherData()
-				.getRelativeHumidity(time);
-
-		assert dists.length == temps.length;
-
-		double weight = 0;
-		for (int i = 0; i < dists.length; i++) {
-			double temp = meanTemp + temps[i];
-			weight += dists[i] * thermalComfort(temp, relHumidity);
-		}
-
-		return weight;
+	protected double computeSegmentWeight(double distance,
+			double temperatureDifference, WeatherSnapshot weather) {
+		return distance * thermalComfort(
+				weather.getTemperature() + temperatureDifference, weather);
 	}
 
 	/**
 	 * Computes the thermal comfort value (heat index) for the given
-	 * {@code temperature} and {@code humidity}.
+	 * {@code temperature} and the humidity of {@code weather}. The heat index
+	 * is looked up in the {@link HeatIndexTable} of the hopper, if one is set.
 	 * 
 	 * @param temperature
 	 *            air temperature in °C
-	 * @param humidity
-	 *            relative humidity in %
+	 * @param weather
+	 *            the weather providing the relative humidity
 	 * @return the computed heat index value or
 	 *         {@link ThermalComfortHeatIndex.COMFORT_HEAT_INDEX} if the value
 	 *         is below {@code ThermalComfortHeatIndex.COMFORT_HEAT_INDEX}
 	 * 
 	 */
-	protected double thermalComfort(double temperature, double humidity) {
+	protected double thermalComfort(double temperature,
+			WeatherSnapshot weather) {
 		// Fall back to air temperature if temperature is below 20°C or above
 		// 50°C
-		double hs = temperature < HeatIndex.MIN_TEMPERATURE
-				|| temperature > HeatIndex.MAX_TEMPERATURE ? temperature
-						: HeatIndex.heatIndex(temperature, humidity);
+		double hs;
+		if (temperature < HeatIndex.MIN_TEMPERATURE
+				|| temperature > HeatIndex.MAX_TEMPERATURE)
+			hs = temperature;
+		else if (heatIndexTable != null)
+			hs = heatIndexTable.heatIndex(temperature,
+					weather.getRelativeHumidity());
+		else
+			hs = HeatIndex.heatIndexOfHumidityFactor(temperature,
+					weather.getHumidityFactor());
 		// a heat index below COMFORT_HEAT_INDEX is considered as
 		// comfortable
 		if (hs <= ThermalComfortHeatIndex.COMFORT_HEAT_INDEX)
@@ -90,6 +98,15 @@ public class HeatStressWeightingHeatIndex extends HeatStressWeighting {
 		return hs;
 	}
 
+	/**
+	 * The heat index is weighted with at least
+	 * {@link ThermalComfortHeatIndex.COMFORT_HEAT_INDEX}.
+	 */
+	@Override
+	protected double computeSegmentLowerBound(double distance) {
+		return distance * ThermalComfortHeatIndex.COMFORT_HEAT_INDEX;
+	}
+
 	@Override
 	public String getName() {
 		return WEIGHTING_TYPE.toString();
@@ -6,8 +6,7 @@ import com.graphhopper.routing.util.FlagEncoder;
 
 import joachimrussig.heatstressrouting.routing.HeatStressGraphHopper;
 import joachimrussig.heatstressrouting.thermalcomfort.HeatIndex;
-import joachimrussig.heatstressrouting.waysegments.WaySegment;
-import joachimrussig.heatstressrouting.waysegments.WaySegments;
+import joachimrussig.heatstressrouting.thermalcomfort.ThermalComfortHeatIndex;
 
 /**
  * A edge weighting that uses Steadman's heat index (see {@link HeatIndex}) as
@@ -26,9 +25,27 @@ public class HeatStressWeightingHeatIndexWeighted
 	private double weightThermalComfort = 0.5;
 
 	public HeatStressWeightingHeatIndexWeighted(FlagEncoder encoder,
-			HeatStressGraphHopper hopper, WaySegments segments,
-			LocalDateTime time) {
-		super(encoder, hopper, segments, time);
+			HeatStressGraphHopper hopper, LocalDateTime time) {
+		super(encoder, hopper, time);
+	}
+
+	/**
+	 * Creates a weighting for the time slice of {@code time}, that uses the
+	 * given {@code weather} instead of the weather data of the hopper.
+	 */
+	public HeatStressWeightingHeatIndexWeighted(FlagEncoder encoder,
+			HeatStressGraphHopper hopper, LocalDateTime time,
+			WeatherSnapshot weather) {
+		super(encoder, hopper, time, weather);
+	}
+
+	@Override
+	public HeatStressWeightingHeatIndexWeighted withWeather(
+			WeatherSnapshot weather) {
+		HeatStressWeightingHeatIndexWeighted weighting = new HeatStressWeightingHeatIndexWeighted(
+				getFlagEncoder(), getHopper(), getTime(), weather);
+		weighting.setWeights(weightDistance, weightThermalComfort);
+		return weighting;
 	}
 
 	@Override
@@ -37,26 +54,19 @@ public class HeatStressWeightingHeatIndexWeighted
 	}
 
 	@Override
-	protected double computeSegmentWeight(WaySegment segment,
-			LocalDateTime time) {
-		double[] dists = segment.getDistances();
-		double[] temps = segment.getTemperatureDifferences();
-
-		double meanTemp = getHopper().getWeatherData().getTemperature(time);
-		double relHumidity = getHopper().getWeatherData()
-				.getRelativeHumidity(time);
-
-		assert dists.length == temps.length;
-
-		double weight = 0;
-		for (int i = 0; i < dists.length; i++) {
-			double temp = meanTemp + temps[i];
-			double hs = thermalComfort(temp, relHumidity);
-			weight += Math.pow(dists[i], weightDistance)
-					* Math.pow(hs, weightThermalComfort);
-		}
-
-		return weight;
+	protected double computeSegmentWeight(double distance,
+			double temperatureDifference, WeatherSnapshot weather) {
+		double hs = thermalComfort(
+				weather.getTemperature() + temperatureDifference, weather);
+		return Math.pow(distance, weightDistance)
+				* Math.pow(hs, weightThermalComfort);
+	}
+
+	@Override
+	protected double computeSegmentLowerBound(double distance) {
+		return Math.pow(distance, weightDistance) * Math.pow(
+				ThermalComfortHeatIndex.COMFORT_HEAT_INDEX,
+				weightThermalComfort);
 	}
 
 	@Override
@@ -64,6 +74,11 @@ public class HeatStressWeightingHeatIndexWeighted
 		return WEIGHTING_TYPE.toString();
 	}
 
+	@Override
+	public String getCacheKey() {
+		return getName() + "|" + weightDistance + "|" + weightThermalComfort;
+	}
+
 	public double getWeightDistance() {
 		return weightDistance;
 	}
@@ -6,8 +6,6 @@ import com.graphhopper.routing.util.FlagEncoder;
 
 import joachimrussig.heatstressrouting.routing.HeatStressGraphHopper;
 import joachimrussig.heatstressrouting.thermalcomfort.ThermalComfortTemperature;
-import joachimrussig.heatstressrouting.waysegments.WaySegment;
-import joachimrussig.heatstressrouting.waysegments.WaySegments;
 
 /**
  * An edge weighting that uses the air temperature as thermal comfort measure.
@@ -19,10 +17,30 @@ public class HeatStressWeightingTemperature extends HeatStressWeighting {
 	public static final WeightingType WEIGHTING_TYPE = WeightingType.TEMPERATURE;
 	public static final String NAME = WEIGHTING_TYPE.toString();
 
+	// null, if the weights are computed from the pairs of the edges
+	private final EdgeTemperatureCosts costs;
+
+	public HeatStressWeightingTemperature(FlagEncoder encoder,
+			HeatStressGraphHopper hopper, LocalDateTime time) {
+		super(encoder, hopper, time);
+		this.costs = hopper.getEdgeTemperatureCosts();
+	}
+
+	/**
+	 * Creates a weighting for the time slice of {@code time}, that uses the
+	 * given {@code weather} instead of the weather data of the hopper.
+	 */
 	public HeatStressWeightingTemperature(FlagEncoder encoder,
-			HeatStressGraphHopper hopper, WaySegments segments,
-			LocalDateTime time) {
-		super(encoder, hopper, segments, time);
+			HeatStressGraphHopper hopper, LocalDateTime time,
+			WeatherSnapshot weather) {
+		super(encoder, hopper, time, weather);
+		this.costs = hopper.getEdgeTemperatureCosts();
+	}
+
+	@Override
+	public HeatStressWeightingTemperature withWeather(WeatherSnapshot weather) {
+		return new HeatStressWeightingTemperature(getFlagEncoder(), getHopper(), getTime(),
+				weather);
 	}
 
 	@Override
@@ -31,36 +49,41 @@ public class HeatStressWeightingTemperature extends HeatStressWeighting {
 	}
 
 	/**
-	 * Computes the weight for the given way segment. The segment is weighted
-	 * with {@link ThermalComfortTemperature.COMFORT_TEMPERATURE} if the air
+	 * Computes the weight of an edge with the precompiled cost function of
+	 * the edge (see {@link EdgeTemperatureCosts}), if available and the time
+	 * slices are not interpolated, or from its pairs otherwise.
+	 */
+	@Override
+	protected double computeWeight(EdgeHeatProfiles profiles, int offset,
+			int length) {
+		if (costs != null && getSliceFraction() == 0)
+			return costs.getWeight(offset, length, getSlice(),
+					getWeather().getTemperature());
+		return super.computeWeight(profiles, offset, length);
+	}
+
+	/**
+	 * Computes the weight of a segment. The segment is weighted with
+	 * {@link ThermalComfortTemperature.COMFORT_TEMPERATURE} if the air
 	 * temperature value is below
 	 * {@code ThermalComfortTemperature.COMFORT_TEMPERATURE}.
-	 * 
-	 * @param segment
-	 *            the way segment to compute the weight for
-	 * @param time
-	 *            to compute the weight for
-	 * @return the computed weight
 	 */
 	@Override
-	protected double computeSegmentWeight(WaySegment segment,
-			LocalDateTime time) {
-		double[] dists = segment.getDistances();
-		double[] temps = segment.getTemperatureDifferences();
-
-		double meanTemp = getHopper().getWeatherData().getTemperature(time);
-
-		assert dists.length == temps.length;
-
-		double weight = 0;
-		for (int i = 0; i < dists.length; i++) {
-			double temp = meanTemp + temps[i];
-			double hs = temp > ThermalComfortTemperature.COMFORT_TEMPERATURE
-					? temp : ThermalComfortTemperature.COMFORT_TEMPERATURE;
-			weight += dists[i] * hs;
-		}
+	protected double computeSegmentWeight(double distance,
+			double temperatureDifference, WeatherSnapshot weather) {
+		double temp = weather.getTemperature() + temperatureDifference;
+		double hs = temp > ThermalComfortTemperature.COMFORT_TEMPERATURE ? temp
+				: ThermalComfortTemperature.COMFORT_TEMPERATURE;
+		return distance * hs;
+	}
 
-		return weight;
+	/**
+	 * The air temperature is weighted with at least
+	 * {@link ThermalComfortTemperature.COMFORT_TEMPERATURE}.
+	 */
+	@Override
+	protected double computeSegmentLowerBound(double distance) {
+		return distance * ThermalComfortTemperature.COMFORT_TEMPERATURE;
 	}
 
 	@Override
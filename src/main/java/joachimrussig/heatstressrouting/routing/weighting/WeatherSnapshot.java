@@ -0,0 +1,103 @@
+package joachimrussig.heatstressrouting.routing.weighting;
+
+import java.time.LocalDateTime;
+
+import joachimrussig.heatstressrouting.thermalcomfort.HeatIndex;
+import joachimrussig.heatstressrouting.weatherdata.WeatherData;
+
+/**
+ * An immutable snapshot of the weather at a certain point in time, as used by
+ * the {@link HeatStressWeighting}s.
+ * <p>
+ * The values are interpolated once when the snapshot is created, so the
+ * weightings don't have to query the {@link WeatherData} for every edge.
+ *
+ * @author Joachim Rußig
+ */
+public final class WeatherSnapshot {
+
+	private final LocalDateTime time;
+	private final double temperature;
+	private final double relativeHumidity;
+	private final double humidityFactor;
+
+	/**
+	 * Creates a new {@code WeatherSnapshot}.
+	 *
+	 * @param time
+	 *            the point in time of the snapshot
+	 * @param temperature
+	 *            the air temperature (in °C)
+	 * @param relativeHumidity
+	 *            the relative humidity (in %)
+	 */
+	public WeatherSnapshot(LocalDateTime time, double temperature,
+			double relativeHumidity) {
+		this.time = time;
+		this.temperature = temperature;
+		this.relativeHumidity = relativeHumidity;
+		this.humidityFactor = HeatIndex.humidityFactor(relativeHumidity);
+	}
+
+	/**
+	 * Creates a snapshot of {@code weatherData} at {@code time}.
+	 *
+	 * @param weatherData
+	 *            the weather data
+	 * @param time
+	 *            the point in time of the snapshot
+	 * @return the snapshot of the weather at {@code time}
+	 * @throws IllegalArgumentException
+	 *             if {@code time} is not within time range of
+	 *             {@code weatherData}
+	 */
+	public static WeatherSnapshot of(WeatherData weatherData,
+			LocalDateTime time) {
+		if (!weatherData.inTimeRange(time))
+			throw new IllegalArgumentException("time " + time
+					+ " is not within time range of the weather data");
+		long offset = weatherData.getSecondOffset(time);
+		return new WeatherSnapshot(time, weatherData.getTemperature(offset),
+				weatherData.getRelativeHumidity(offset));
+	}
+
+	/**
+	 *
+	 * @return the point in time of the snapshot
+	 */
+	public LocalDateTime getTime() {
+		return time;
+	}
+
+	/**
+	 *
+	 * @return the air temperature (in °C)
+	 */
+	public double getTemperature() {
+		return temperature;
+	}
+
+	/**
+	 *
+	 * @return the relative humidity (in %)
+	 */
+	public double getRelativeHumidity() {
+		return relativeHumidity;
+	}
+
+	/**
+	 *
+	 * @return the humidity dependent factor of the heat index (see
+	 *         {@link HeatIndex#humidityFactor(double)})
+	 */
+	public double getHumidityFactor() {
+		return humidityFactor;
+	}
+
+	@Override
+	public String toString() {
+		return "WeatherSnapshot [time=" + time + ", temperature=" + temperature
+				+ ", relativeHumidity=" + relativeHumidity + "]";
+	}
+
+}
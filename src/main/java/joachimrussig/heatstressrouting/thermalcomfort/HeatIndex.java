@@ -38,6 +38,9 @@ public class HeatIndex {
 	 */
 	public static final double MAX_HUMIDITY = 100;
 
+	// reference vapor pressure (in kPa)
+	private static final double REFERENCE_VAPOR_PRESSURE = 1.6;
+
 	private HeatIndex() {
 	}
 
@@ -63,13 +66,44 @@ public class HeatIndex {
 					"humidity must be a value between 0 and 100");
 		}
 
-		double er = 1.6; // reference vapor pressure (in kPa)
+		return heatIndexOfHumidityFactor(temperature, humidityFactor(humidity));
+	}
+
+	/**
+	 * Computes the part of the heat index that only depends on the relative
+	 * humidity, i.e. {@code humidity / (100 * er)} with the reference vapor
+	 * pressure {@code er}. Useful if the heat index is computed for many
+	 * temperatures at the same humidity (see
+	 * {@link #heatIndexOfHumidityFactor(double, double)}).
+	 * 
+	 * @param humidity
+	 *            the relative humidity in % (a value between 0 and 100)
+	 * @return the humidity factor
+	 */
+	public static double humidityFactor(double humidity) {
+		return humidity / (100 * REFERENCE_VAPOR_PRESSURE);
+	}
+
+	/**
+	 * Computes an approximation of Steadman's heat index like
+	 * {@link #heatIndex(double, double)}, but takes the precomputed humidity
+	 * factor (see {@link #humidityFactor(double)}) and doesn't validate the
+	 * arguments.
+	 * 
+	 * @param temperature
+	 *            in °C; the heat index is only defined for values between 20°C
+	 *            and 50°C
+	 * @param humidityFactor
+	 *            the humidity factor
+	 * @return approximation of the heat index
+	 */
+	public static double heatIndexOfHumidityFactor(double temperature,
+			double humidityFactor) {
 		double tr = 0.8841 * temperature + 0.19;
 		double p = 0.0196 * temperature + 0.9031;
 		double es = 0.611 * Math
 				.exp(5423 * ((1 / 273.15) - (1 / (temperature + 273.15))));
-		return tr + (temperature - tr)
-				* Math.pow((humidity * es) / (100 * er), p);
+		return tr + (temperature - tr) * Math.pow(humidityFactor * es, p);
 	}
 
 	/**
@@ -0,0 +1,212 @@
+package joachimrussig.heatstressrouting.thermalcomfort;
+
+/**
+ * A precomputed table of the heat index (see {@link HeatIndex}) over the valid
+ * domain of {@link HeatIndex#MIN_TEMPERATURE} to
+ * {@link HeatIndex#MAX_TEMPERATURE} and {@link HeatIndex#MIN_HUMIDITY} to
+ * {@link HeatIndex#MAX_HUMIDITY}, that approximates the heat index by bilinear
+ * interpolation between the grid points.
+ * <p>
+ * The error of the approximation depends on the resolution of the table and
+ * can be determined using {@link #maxError(int)}; {@link #getMaxError()}
+ * determines it once with {@link #VERIFICATION_SAMPLES} samples per cell, so
+ * users of the table can reject resolutions that are too coarse.
+ *
+ * @author Joachim Rußig
+ */
+public class HeatIndexTable {
+
+	/**
+	 * The default resolution of the temperature axis (in °C).
+	 */
+	public static final double DEFAULT_TEMPERATURE_STEP = 0.1;
+	/**
+	 * The default resolution of the humidity axis (in %).
+	 */
+	public static final double DEFAULT_HUMIDITY_STEP = 1;
+	/**
+	 * The default bound of the maximum absolute error of a table (in °C). The
+	 * error of a table with the default resolution is about 0.015°C.
+	 */
+	public static final double DEFAULT_MAX_ERROR = 0.1;
+	/**
+	 * The number of sample points per cell and axis used by
+	 * {@link #getMaxError()}.
+	 */
+	public static final int VERIFICATION_SAMPLES = 4;
+
+	private final double temperatureStep;
+	private final double humidityStep;
+	private final double invTemperatureStep;
+	private final double invHumidityStep;
+	private final int temperatures;
+	private final int humidities;
+
+	// values[t * humidities + h] is the heat index at the grid point (t, h)
+	private final double[] values;
+
+	// the result of maxError(VERIFICATION_SAMPLES), NaN until determined
+	private volatile double maxError = Double.NaN;
+
+	/**
+	 * Creates a new {@code HeatIndexTable} with the default resolution.
+	 */
+	public HeatIndexTable() {
+		this(DEFAULT_TEMPERATURE_STEP, DEFAULT_HUMIDITY_STEP);
+	}
+
+	/**
+	 * Creates a new {@code HeatIndexTable}.
+	 *
+	 * @param temperatureStep
+	 *            the resolution of the temperature axis (in °C)
+	 * @param humidityStep
+	 *            the resolution of the humidity axis (in %)
+	 * @throws IllegalArgumentException
+	 *             if one of the steps is not positive
+	 */
+	public HeatIndexTable(double temperatureStep, double humidityStep) {
+		if (!(temperatureStep > 0) || !(humidityStep > 0))
+			throw new IllegalArgumentException("steps must be positive");
+
+		// the last grid point is placed at or beyond the upper bound of the
+		// domain, so that every valid value is covered by a cell
+		this.temperatures = (int) Math.ceil(
+				(HeatIndex.MAX_TEMPERATURE - HeatIndex.MIN_TEMPERATURE)
+						/ temperatureStep - 1e-9) + 1;
+		this.humidities = (int) Math.ceil(
+				(HeatIndex.MAX_HUMIDITY - HeatIndex.MIN_HUMIDITY) / humidityStep
+						- 1e-9) + 1;
+		this.temperatureStep = temperatureStep;
+		this.humidityStep = humidityStep;
+		this.invTemperatureStep = 1 / temperatureStep;
+		this.invHumidityStep = 1 / humidityStep;
+
+		this.values = new double[temperatures * humidities];
+		for (int t = 0; t < temperatures; t++) {
+			double temperature = HeatIndex.MIN_TEMPERATURE
+					+ t * temperatureStep;
+			for (int h = 0; h < humidities; h++) {
+				double humidityFactor = HeatIndex.humidityFactor(
+						HeatIndex.MIN_HUMIDITY + h * humidityStep);
+				values[t * humidities + h] = HeatIndex
+						.heatIndexOfHumidityFactor(temperature, humidityFactor);
+			}
+		}
+	}
+
+	/**
+	 * Returns an approximation of the heat index by bilinear interpolation.
+	 * The arguments are not validated; values outside the valid domain are
+	 * clamped to the border cells.
+	 *
+	 * @param temperature
+	 *            in °C; a value between 20°C and 50°C
+	 * @param humidity
+	 *            the relative humidity in % (a value between 0 and 100)
+	 * @return approximation of the heat index
+	 */
+	public double heatIndex(double temperature, double humidity) {
+		double x = (temperature - HeatIndex.MIN_TEMPERATURE)
+				* invTemperatureStep;
+		double y = (humidity - HeatIndex.MIN_HUMIDITY) * invHumidityStep;
+
+		int t = Math.max(0, Math.min(temperatures - 2, (int) x));
+		int h = Math.max(0, Math.min(humidities - 2, (int) y));
+		double dx = x - t;
+		double dy = y - h;
+
+		int i = t * humidities + h;
+		double lower = values[i] + (values[i + 1] - values[i]) * dy;
+		double upper = values[i + humidities]
+				+ (values[i + humidities + 1] - values[i + humidities]) * dy;
+		return lower + (upper - lower) * dx;
+	}
+
+	/**
+	 * Determines the maximum absolute error of the table against the exact
+	 * formula {@link HeatIndex#heatIndex(double, double)}. Within each cell
+	 * the error is evaluated at a regular grid of
+	 * {@code samplesPerCell x samplesPerCell} points including the cell
+	 * center.
+	 *
+	 * @param samplesPerCell
+	 *            the number of sample points per cell and axis
+	 * @return the maximum absolute error found
+	 * @throws IllegalArgumentException
+	 *             if {@code samplesPerCell} is less than one
+	 */
+	public double maxError(int samplesPerCell) {
+		if (samplesPerCell < 1)
+			throw new IllegalArgumentException(
+					"samplesPerCell must be greater than zero");
+
+		double maxError = 0;
+		for (int t = 0; t < temperatures - 1; t++) {
+			for (int h = 0; h < humidities - 1; h++) {
+				for (int i = 0; i < samplesPerCell; i++) {
+					double temperature = HeatIndex.MIN_TEMPERATURE
+							+ (t + (i + 0.5) / samplesPerCell)
+									* temperatureStep;
+					if (!HeatIndex.isValidTemperature(temperature))
+						continue;
+					for (int j = 0; j < samplesPerCell; j++) {
+						double humidity = HeatIndex.MIN_HUMIDITY
+								+ (h + (j + 0.5) / samplesPerCell)
+										* humidityStep;
+						if (!HeatIndex.isValidHumidity(humidity))
+							continue;
+						double error = Math
+								.abs(heatIndex(temperature, humidity)
+										- HeatIndex.heatIndex(temperature,
+												humidity));
+						if (error > maxError)
+							maxError = error;
+					}
+				}
+			}
+		}
+		return maxError;
+	}
+
+	/**
+	 * Returns the maximum absolute error of the table determined by
+	 * {@link #maxError(int)} with {@link #VERIFICATION_SAMPLES} samples per
+	 * cell. The error is determined on the first call.
+	 *
+	 * @return the maximum absolute error of the table (in °C)
+	 */
+	public double getMaxError() {
+		double result = maxError;
+		if (Double.isNaN(result)) {
+			result = maxError(VERIFICATION_SAMPLES);
+			maxError = result;
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return the resolution of the temperature axis (in °C)
+	 */
+	public double getTemperatureStep() {
+		return temperatureStep;
+	}
+
+	/**
+	 *
+	 * @return the resolution of the humidity axis (in %)
+	 */
+	public double getHumidityStep() {
+		return humidityStep;
+	}
+
+	/**
+	 *
+	 * @return the number of grid points of the table
+	 */
+	public int size() {
+		return values.length;
+	}
+
+}
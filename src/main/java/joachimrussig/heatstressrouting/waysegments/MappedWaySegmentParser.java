@@ -0,0 +1,655 @@
+package joachimrussig.heatstressrouting.waysegments;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.util.StopWatch;
+
+import joachimrussig.heatstressrouting.util.TimeRange;
+
+/**
+ * A parser for the pipe delimited way segment file (see
+ * {@link WaySegmentParser} for the columns), that is optimised for files with
+ * millions of rows.
+ * <p>
+ * The file is memory-mapped and split into chunks, that are parsed in
+ * parallel. The chunks are split at the boundaries of the groups of rows
+ * with the same {@code way_id}, {@code from.osm.id} and {@code to.osm.id}, so
+ * each segment is parsed by exactly one thread. The numeric fields are parsed
+ * directly from the mapped bytes without creating {@code String}s and the
+ * values are collected in primitive arrays, that are added to a
+ * {@link WaySegmentStore} in the order of the file. The result is the same
+ * as of {@link WaySegmentParser#parseCSVRecords}.
+ * <p>
+ * Only a restricted csv dialect is supported: a field may be enclosed in
+ * quotes, but quotes, delimiters and line breaks within a field are not
+ * supported (neither quoted nor escaped). The parser fails fast with a
+ * {@link WaySegmentParserException} if a field contains any other quote than
+ * the enclosing ones; such files can be parsed with
+ * {@link WaySegmentParser#parseCSV(File)}.
+ *
+ * @author Joachim Rußig
+ */
+public class MappedWaySegmentParser {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(MappedWaySegmentParser.class);
+
+	private static final String WAY_ID_COL = "way_id";
+	private static final String FROM_COL = "from.osm.id";
+	private static final String TO_COL = "to.osm.id";
+	private static final String DIST_COL = "dist";
+	private static final String TEMPERATURE_DIFFERENCE_COL = "delta_temp";
+	private static final String TIME_COL = "time_range";
+	private static final byte[] TIME_MORNING = "morgen"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TIME_EVENING = "abend"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte DELIMITER = '|';
+	private static final byte QUOTE = '"';
+
+	private static final TimeRange<LocalTime> MORNING = new TimeRange<>(
+			LocalTime.MIN, LocalTime.NOON);
+	private static final TimeRange<LocalTime> EVENING = new TimeRange<>(
+			LocalTime.NOON, LocalTime.MAX);
+
+	// chunks smaller than this are not split further
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+	// the powers of ten that are exactly representable as double
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Creates a new {@code MappedWaySegmentParser}.
+	 */
+	public MappedWaySegmentParser() {
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 *
+	 * @param threads
+	 *            the number of threads used to parse the chunks of the file
+	 * @return this {@code MappedWaySegmentParser}
+	 * @throws IllegalArgumentException
+	 *             if {@code threads} is not positive
+	 */
+	public MappedWaySegmentParser setThreads(int threads) {
+		if (threads <= 0)
+			throw new IllegalArgumentException("threads must be positive");
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Parses the way segment file {@code file}.
+	 *
+	 * @param file
+	 *            the file to parse
+	 * @return the parsed way segments
+	 * @throws IOException
+	 *             if an error occurs while reading {@code file}
+	 * @throws WaySegmentParserException
+	 *             if an error occurred while parsing a row (e.g. a required
+	 *             column is not set) or if a field contains an unsupported
+	 *             quote
+	 * @throws NumberFormatException
+	 *             if a number cannot be parsed
+	 * @throws UnsupportedTimeRangeException
+	 *             if the {@code time_range} column cannot be parsed
+	 */
+	public WaySegments parse(File file) throws IOException {
+		return new WaySegments(parseStore(file));
+	}
+
+	/**
+	 * Parses the way segment file {@code file} into a {@link WaySegmentStore}
+	 * on the heap, e.g. to write it in the binary format of the
+	 * {@link MappedWaySegmentStore}.
+	 *
+	 * @param file
+	 *            the file to parse
+	 * @return the store of the parsed way segments
+	 * @throws IOException
+	 *             if an error occurs while reading {@code file}
+	 * @see #parse(File)
+	 */
+	public WaySegmentStore parseStore(File file) throws IOException {
+		logger.info("parse way segments " + file + "...");
+		StopWatch sw = new StopWatch().start();
+
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("way segment file " + file
+						+ " is too large to be mapped (" + channel.size()
+						+ " bytes)");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		}
+
+		int end = buffer.limit();
+		int start = 0;
+		// skip the byte order mark
+		if (end >= 3 && (buffer.get(0) & 0xFF) == 0xEF
+				&& (buffer.get(1) & 0xFF) == 0xBB
+				&& (buffer.get(2) & 0xFF) == 0xBF)
+			start = 3;
+
+		int headerEnd = lineEnd(buffer, start, end);
+		Columns columns = new Columns(buffer, start, headerEnd);
+		start = nextLine(buffer, headerEnd, end);
+
+		int[] bounds = split(buffer, columns, start, end);
+		int chunks = bounds.length - 1;
+
+		List<Chunk> results = new ArrayList<>(chunks);
+		if (chunks == 1) {
+			results.add(parseChunk(buffer, columns, bounds[0], bounds[1]));
+		} else {
+			ExecutorService executor = Executors
+					.newFixedThreadPool(Math.min(threads, chunks));
+			try {
+				List<Future<Chunk>> futures = new ArrayList<>(chunks);
+				for (int c = 0; c < chunks; c++) {
+					final int from = bounds[c];
+					final int to = bounds[c + 1];
+					futures.add(executor.submit(
+							() -> parseChunk(buffer, columns, from, to)));
+				}
+				for (Future<Chunk> future : futures)
+					results.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while parsing " + file, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IOException("failed to parse " + file, e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		// every row is a (distance, temperature difference) pair
+		int segments = 0;
+		int values = 0;
+		for (Chunk chunk : results) {
+			segments += chunk.segments;
+			values += chunk.values;
+		}
+
+		WaySegmentStore store = new WaySegmentStore(segments, values);
+		for (Chunk chunk : results) {
+			for (int s = 0; s < chunk.segments; s++) {
+				store.add(chunk.wayIds[s], chunk.fromIds[s], chunk.toIds[s],
+						chunk.timeRanges.get(s),
+						chunk.distances, chunk.temperatureDifferences,
+						chunk.offsets[s], chunk.offsets[s + 1]
+								- chunk.offsets[s]);
+			}
+		}
+		store.trimToSize();
+
+		long time = Math.max(1, sw.stop().getTime());
+		logger.info("done (" + time + " ms, " + values + " rows, " + segments
+				+ " segments, " + chunks + " chunks, "
+				+ (values * 1000L / time) + " rows/s)");
+
+		return store;
+	}
+
+	/**
+	 * Splits the rows in {@code [start, end)} into chunks of about equal
+	 * size, so that all rows of a segment are in the same chunk.
+	 *
+	 * @return the boundaries of the chunks, i.e. the {@code i}-th chunk
+	 *         contains the range {@code [bounds[i], bounds[i + 1])}
+	 */
+	private int[] split(MappedByteBuffer buffer, Columns columns, int start,
+			int end) {
+		int chunks = Math.max(1,
+				Math.min(4 * threads, (end - start) / MIN_CHUNK_SIZE));
+		int[] bounds = new int[chunks + 1];
+		int n = 0;
+		bounds[n++] = start;
+		long[] previous = new long[3];
+		long[] current = new long[3];
+		for (int c = 1; c < chunks; c++) {
+			int pos = (int) (start + (long) (end - start) * c / chunks);
+			if (pos <= bounds[n - 1])
+				continue;
+			// move to the start of the next line
+			pos = nextLine(buffer, lineEnd(buffer, pos, end), end);
+			if (pos >= end)
+				break;
+			int lineStart = previousLine(buffer, start, pos);
+			parseIds(buffer, columns, lineStart, lineEnd(buffer, lineStart,
+					end), previous);
+			// move past the rows of the segment of the previous line
+			while (pos < end) {
+				int lineEnd = lineEnd(buffer, pos, end);
+				if (lineEnd > pos) {
+					parseIds(buffer, columns, pos, lineEnd, current);
+					if (!Arrays.equals(previous, current))
+						break;
+				}
+				pos = nextLine(buffer, lineEnd, end);
+			}
+			if (pos >= end)
+				break;
+			bounds[n++] = pos;
+		}
+		bounds[n++] = end;
+		return Arrays.copyOf(bounds, n);
+	}
+
+	/**
+	 * Parses all rows in {@code [start, end)}.
+	 */
+	private static Chunk parseChunk(MappedByteBuffer buffer, Columns columns,
+			int start, int end) {
+		Chunk chunk = new Chunk((end - start) / 64);
+		int[] fieldStart = new int[columns.count];
+		int[] fieldEnd = new int[columns.count];
+		TimeRange<LocalTime> time = null;
+		int previousTimeStart = 0;
+		int previousTimeEnd = 0;
+
+		int pos = start;
+		while (pos < end) {
+			int lineEnd = lineEnd(buffer, pos, end);
+			if (lineEnd > pos) {
+				splitFields(buffer, columns, pos, lineEnd, fieldStart,
+						fieldEnd);
+
+				long wayId = parseLong(buffer, fieldStart[columns.wayId],
+						fieldEnd[columns.wayId]);
+				long from = parseLong(buffer, fieldStart[columns.from],
+						fieldEnd[columns.from]);
+				long to = parseLong(buffer, fieldStart[columns.to],
+						fieldEnd[columns.to]);
+				double dist = parseDouble(buffer, fieldStart[columns.dist],
+						fieldEnd[columns.dist]);
+				double tempDiff = parseDouble(buffer,
+						fieldStart[columns.tempDiff],
+						fieldEnd[columns.tempDiff]);
+
+				// the time range is usually the same as of the previous row
+				int timeStart = fieldStart[columns.time];
+				int timeEnd = fieldEnd[columns.time];
+				if (time == null || !equals(buffer, timeStart, timeEnd,
+						previousTimeStart, previousTimeEnd))
+					time = parseTime(buffer, timeStart, timeEnd);
+				previousTimeStart = timeStart;
+				previousTimeEnd = timeEnd;
+
+				// a new segment starts if the ids or the time range differ
+				// from the previous row
+				int s = chunk.segments - 1;
+				if (s < 0 || chunk.wayIds[s] != wayId
+						|| chunk.fromIds[s] != from || chunk.toIds[s] != to
+						|| !WaySegmentParser.isSameTimeRange(
+								chunk.timeRanges.get(s), time))
+					chunk.addSegment(wayId, from, to, time);
+				chunk.addValue(dist, tempDiff);
+			}
+			pos = nextLine(buffer, lineEnd, end);
+		}
+		chunk.offsets[chunk.segments] = chunk.values;
+		return chunk;
+	}
+
+	// parses the way id and the node ids of the line into ids
+	private static void parseIds(MappedByteBuffer buffer, Columns columns,
+			int start, int end, long[] ids) {
+		int[] fieldStart = new int[columns.count];
+		int[] fieldEnd = new int[columns.count];
+		splitFields(buffer, columns, start, end, fieldStart, fieldEnd);
+		ids[0] = parseLong(buffer, fieldStart[columns.wayId],
+				fieldEnd[columns.wayId]);
+		ids[1] = parseLong(buffer, fieldStart[columns.from],
+				fieldEnd[columns.from]);
+		ids[2] = parseLong(buffer, fieldStart[columns.to],
+				fieldEnd[columns.to]);
+	}
+
+	/**
+	 * Finds the fields of the line {@code [start, end)}, without the
+	 * surrounding whitespace and quotes.
+	 *
+	 * @throws WaySegmentParserException
+	 *             if the line has too few fields, a required field is empty
+	 *             or a field contains a quote that does not enclose it
+	 */
+	private static void splitFields(MappedByteBuffer buffer, Columns columns,
+			int start, int end, int[] fieldStart, int[] fieldEnd) {
+		int field = 0;
+		int from = start;
+		// the fields after the last required column are only checked for
+		// quotes, since a quoted line break would corrupt the next line
+		for (int pos = start; pos <= end; pos++) {
+			if (pos == end || buffer.get(pos) == DELIMITER) {
+				int s = from;
+				int e = pos;
+				while (s < e && isWhitespace(buffer.get(s)))
+					s++;
+				while (e > s && isWhitespace(buffer.get(e - 1)))
+					e--;
+				if (e - s >= 2 && buffer.get(s) == QUOTE
+						&& buffer.get(e - 1) == QUOTE) {
+					s++;
+					e--;
+				}
+				// a quote within a field is either escaped or the start or
+				// end of a field containing a delimiter or line break
+				for (int i = s; i < e; i++) {
+					if (buffer.get(i) == QUOTE)
+						throw unsupportedQuote(string(buffer, start, end));
+				}
+				if (field < columns.count) {
+					fieldStart[field] = s;
+					fieldEnd[field] = e;
+				}
+				field++;
+				from = pos + 1;
+			}
+		}
+		if (field < columns.count)
+			throw new WaySegmentParserException(
+					"could not parse csv record: " + string(buffer, start, end));
+		for (int i : columns.required) {
+			if (fieldStart[i] == fieldEnd[i])
+				throw new WaySegmentParserException(
+						"could not parse csv record: "
+								+ string(buffer, start, end));
+		}
+	}
+
+	private static WaySegmentParserException unsupportedQuote(String line) {
+		return new WaySegmentParserException(
+				"unsupported quote in csv record (quotes, delimiters and line "
+						+ "breaks within fields are not supported, use "
+						+ "WaySegmentParser.parseCSV instead): " + line);
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	/**
+	 * Parses a non-negative decimal integer without creating a
+	 * {@code String}.
+	 */
+	private static long parseLong(MappedByteBuffer buffer, int start,
+			int end) {
+		if (start == end || end - start > 19)
+			return Long.parseUnsignedLong(string(buffer, start, end));
+		long value = 0;
+		for (int pos = start; pos < end; pos++) {
+			int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException(
+						"For input string: \"" + string(buffer, start, end)
+								+ "\"");
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Parses a decimal number without creating a {@code String}. Numbers
+	 * with at most 15 significant digits and a small exponent are converted
+	 * exactly by a single multiplication or division; all other numbers are
+	 * parsed by {@link Double#parseDouble(String)}, so the result is always
+	 * the same.
+	 */
+	private static double parseDouble(MappedByteBuffer buffer, int start,
+			int end) {
+		int pos = start;
+		boolean negative = false;
+		if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+			negative = buffer.get(pos++) == '-';
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		boolean point = false;
+		for (; pos < end; pos++) {
+			byte b = buffer.get(pos);
+			if (b >= '0' && b <= '9') {
+				any = true;
+				if (digits > 0 || b != '0')
+					digits++;
+				if (digits > 15)
+					return Double.parseDouble(string(buffer, start, end));
+				mantissa = mantissa * 10 + (b - '0');
+				if (point)
+					exponent--;
+			} else if (b == '.' && !point) {
+				point = true;
+			} else if ((b == 'e' || b == 'E') && any) {
+				return Double.parseDouble(string(buffer, start, end));
+			} else {
+				throw new NumberFormatException(
+						"For input string: \"" + string(buffer, start, end)
+								+ "\"");
+			}
+		}
+		if (!any)
+			throw new NumberFormatException(
+					"For input string: \"" + string(buffer, start, end)
+							+ "\"");
+		if (-exponent >= POWERS_OF_TEN.length)
+			return Double.parseDouble(string(buffer, start, end));
+
+		double value = (double) mantissa / POWERS_OF_TEN[-exponent];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses the time range, see {@link WaySegmentParser} for the supported
+	 * formats.
+	 */
+	private static TimeRange<LocalTime> parseTime(MappedByteBuffer buffer,
+			int start, int end) {
+		if (equalsIgnoreCase(buffer, start, end, TIME_MORNING))
+			return MORNING;
+		if (equalsIgnoreCase(buffer, start, end, TIME_EVENING))
+			return EVENING;
+		return WaySegmentParser.parseTimeString(string(buffer, start, end));
+	}
+
+	// compares the bytes of [start, end) and [otherStart, otherEnd)
+	private static boolean equals(MappedByteBuffer buffer, int start,
+			int end, int otherStart, int otherEnd) {
+		if (end - start != otherEnd - otherStart)
+			return false;
+		for (int i = 0; i < end - start; i++) {
+			if (buffer.get(start + i) != buffer.get(otherStart + i))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean equalsIgnoreCase(MappedByteBuffer buffer,
+			int start, int end, byte[] value) {
+		if (end - start != value.length)
+			return false;
+		for (int i = 0; i < value.length; i++) {
+			if (Character.toLowerCase(buffer.get(start + i)) != value[i])
+				return false;
+		}
+		return true;
+	}
+
+	// the end of the line starting at pos, excluding the line break
+	private static int lineEnd(MappedByteBuffer buffer, int pos, int end) {
+		while (pos < end && buffer.get(pos) != '\n'
+				&& buffer.get(pos) != '\r')
+			pos++;
+		return pos;
+	}
+
+	// the start of the line following the line ending at lineEnd
+	private static int nextLine(MappedByteBuffer buffer, int lineEnd,
+			int end) {
+		int pos = lineEnd;
+		if (pos < end && buffer.get(pos) == '\r')
+			pos++;
+		if (pos < end && buffer.get(pos) == '\n')
+			pos++;
+		return pos;
+	}
+
+	// the start of the last non empty line before pos, that is the start of
+	// a line
+	private static int previousLine(MappedByteBuffer buffer, int start,
+			int pos) {
+		int e = pos;
+		while (e > start && (buffer.get(e - 1) == '\n'
+				|| buffer.get(e - 1) == '\r'))
+			e--;
+		while (e > start && buffer.get(e - 1) != '\n'
+				&& buffer.get(e - 1) != '\r')
+			e--;
+		return e;
+	}
+
+	private static String string(MappedByteBuffer buffer, int start,
+			int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buffer.get(start + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The positions of the columns, determined from the header.
+	 */
+	private static class Columns {
+		final int count;
+		final int wayId;
+		final int from;
+		final int to;
+		final int dist;
+		final int tempDiff;
+		final int time;
+		final int[] required;
+
+		Columns(MappedByteBuffer buffer, int start, int end) {
+			String[] names = string(buffer, start, end).split("\\|", -1);
+			List<String> header = new ArrayList<>(names.length);
+			for (String name : names) {
+				name = name.trim();
+				if (name.length() >= 2 && name.startsWith("\"")
+						&& name.endsWith("\""))
+					name = name.substring(1, name.length() - 1);
+				if (name.indexOf('"') >= 0)
+					throw unsupportedQuote(string(buffer, start, end));
+				header.add(name);
+			}
+			this.wayId = index(header, WAY_ID_COL);
+			this.from = index(header, FROM_COL);
+			this.to = index(header, TO_COL);
+			this.dist = index(header, DIST_COL);
+			this.tempDiff = index(header, TEMPERATURE_DIFFERENCE_COL);
+			this.time = index(header, TIME_COL);
+			this.required = new int[] { wayId, from, to, dist, tempDiff,
+					time };
+			// the fields after the last required column are not needed
+			this.count = Arrays.stream(required).max().getAsInt() + 1;
+		}
+
+		private static int index(List<String> header, String name) {
+			int i = header.indexOf(name);
+			if (i < 0)
+				throw new WaySegmentParserException(
+						"missing column '" + name + "' in header " + header);
+			return i;
+		}
+	}
+
+	/**
+	 * The segments and values parsed from a chunk, in the order of the file.
+	 */
+	private static class Chunk {
+		long[] wayIds;
+		long[] fromIds;
+		long[] toIds;
+		final List<TimeRange<LocalTime>> timeRanges = new ArrayList<>();
+		// the values of the i-th segment are in [offsets[i], offsets[i + 1])
+		int[] offsets;
+		int segments;
+
+		double[] distances;
+		double[] temperatureDifferences;
+		int values;
+
+		Chunk(int expectedRows) {
+			int n = Math.max(16, expectedRows);
+			this.wayIds = new long[n];
+			this.fromIds = new long[n];
+			this.toIds = new long[n];
+			this.offsets = new int[n + 1];
+			this.distances = new double[n];
+			this.temperatureDifferences = new double[n];
+		}
+
+		void addSegment(long wayId, long from, long to,
+				TimeRange<LocalTime> timeRange) {
+			if (segments == wayIds.length) {
+				int n = segments << 1;
+				wayIds = Arrays.copyOf(wayIds, n);
+				fromIds = Arrays.copyOf(fromIds, n);
+				toIds = Arrays.copyOf(toIds, n);
+				offsets = Arrays.copyOf(offsets, n + 1);
+			}
+			wayIds[segments] = wayId;
+			fromIds[segments] = from;
+			toIds[segments] = to;
+			timeRanges.add(timeRange);
+			offsets[segments] = values;
+			segments++;
+		}
+
+		void addValue(double dist, double tempDiff) {
+			if (values == distances.length) {
+				distances = Arrays.copyOf(distances, values << 1);
+				temperatureDifferences = Arrays
+						.copyOf(temperatureDifferences, values << 1);
+			}
+			distances[values] = dist;
+			temperatureDifferences[values] = tempDiff;
+			values++;
+		}
+	}
+
+}
@@ -0,0 +1,330 @@
+package joachimrussig.heatstressrouting.waysegments;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.util.StopWatch;
+
+import joachimrussig.heatstressrouting.util.TimeRange;
+
+/**
+ * A read-only {@link WaySegmentIndex} that serves all lookups directly from a
+ * memory-mapped binary file, so the segments neither have to be parsed on
+ * startup nor occupy the Java heap.
+ * <p>
+ * The file (written by {@link #write(WaySegmentStore, File)}) contains the
+ * columns and the hash table of a {@code WaySegmentStore} as is, all values
+ * in big endian byte order:
+ * <ul>
+ * <li>header: magic number ({@code "WSEG"}), version and checksum of the
+ * store (see {@link WaySegmentStore#checksum()})</li>
+ * <li>counts: time ranges, capacity of the hash table, keys, entries and
+ * values</li>
+ * <li>time ranges: start and end as nano of day</li>
+ * <li>key index: hash table, way ids, first and second node ids and first
+ * entry of the keys</li>
+ * <li>entries: key, next entry, offset, length, time range and direction</li>
+ * <li>columns: distances and temperature differences</li>
+ * </ul>
+ *
+ * @author Joachim Rußig
+ */
+public class MappedWaySegmentStore implements WaySegmentIndex {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(MappedWaySegmentStore.class);
+
+	private static final int MAGIC = 0x57534547; // "WSEG"
+	private static final int VERSION = 1;
+
+	private final int checksum;
+	private final int keys;
+	private final int entries;
+	private final int values;
+
+	private final long[] timeRangeFrom;
+	private final long[] timeRangeTo;
+	private final List<TimeRange<LocalTime>> timeRanges;
+
+	private final IntBuffer table;
+	private final LongBuffer keyWayIds;
+	private final LongBuffer keyFirstNodes;
+	private final LongBuffer keySecondNodes;
+	private final IntBuffer keyFirstEntry;
+
+	private final IntBuffer entryKey;
+	private final IntBuffer entryNext;
+	private final IntBuffer entryOffset;
+	private final IntBuffer entryLength;
+	private final ShortBuffer entryTimeRange;
+	private final ByteBuffer entryReversed;
+
+	private final DoubleBuffer distances;
+	private final DoubleBuffer temperatureDifferences;
+
+	// the position of the next section while reading the file
+	private int position;
+
+	private MappedWaySegmentStore(MappedByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < 32 || buffer.getInt(0) != MAGIC)
+			throw new IOException("not a way segment file");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException(
+					"unsupported way segment file version " + buffer.getInt(4));
+		this.checksum = buffer.getInt(8);
+		int ranges = buffer.getInt(12);
+		int capacity = buffer.getInt(16);
+		this.keys = buffer.getInt(20);
+		this.entries = buffer.getInt(24);
+		this.values = buffer.getInt(28);
+		this.position = 32;
+
+		LongBuffer from = section(buffer, 8 * ranges).asLongBuffer();
+		LongBuffer to = section(buffer, 8 * ranges).asLongBuffer();
+		this.timeRangeFrom = new long[ranges];
+		this.timeRangeTo = new long[ranges];
+		from.get(timeRangeFrom);
+		to.get(timeRangeTo);
+		List<TimeRange<LocalTime>> list = new ArrayList<>(ranges);
+		for (int i = 0; i < ranges; i++)
+			list.add(new TimeRange<>(LocalTime.ofNanoOfDay(timeRangeFrom[i]),
+					LocalTime.ofNanoOfDay(timeRangeTo[i])));
+		this.timeRanges = Collections.unmodifiableList(list);
+
+		this.table = section(buffer, 4 * capacity).asIntBuffer();
+		this.keyWayIds = section(buffer, 8 * keys).asLongBuffer();
+		this.keyFirstNodes = section(buffer, 8 * keys).asLongBuffer();
+		this.keySecondNodes = section(buffer, 8 * keys).asLongBuffer();
+		this.keyFirstEntry = section(buffer, 4 * keys).asIntBuffer();
+
+		this.entryKey = section(buffer, 4 * entries).asIntBuffer();
+		this.entryNext = section(buffer, 4 * entries).asIntBuffer();
+		this.entryOffset = section(buffer, 4 * entries).asIntBuffer();
+		this.entryLength = section(buffer, 4 * entries).asIntBuffer();
+		this.entryTimeRange = section(buffer, 2 * entries).asShortBuffer();
+		this.entryReversed = section(buffer, entries);
+
+		this.distances = section(buffer, 8 * values).asDoubleBuffer();
+		this.temperatureDifferences = section(buffer, 8 * values)
+				.asDoubleBuffer();
+	}
+
+	// a view of the next section of the file with the size bytes
+	private ByteBuffer section(MappedByteBuffer buffer, int size)
+			throws IOException {
+		if (size < 0 || position + size > buffer.limit())
+			throw new IOException("way segment file is truncated");
+		ByteBuffer section = buffer.duplicate();
+		section.position(position);
+		section.limit(position + size);
+		position += size;
+		return section.slice();
+	}
+
+	/**
+	 * Writes {@code store} to {@code file} in the binary format. The file is
+	 * written to a temporary file first, that replaces {@code file} when
+	 * complete.
+	 *
+	 * @param store
+	 *            the store to write, only a store on the heap can be written
+	 * @param file
+	 *            the file to write to
+	 * @throws IOException
+	 *             if the file couldn't be written
+	 */
+	public static void write(WaySegmentStore store, File file)
+			throws IOException {
+		logger.info("write way segments to " + file + "...");
+		StopWatch sw = new StopWatch().start();
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(store.checksum());
+			store.writeTo(out);
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		logger.info("done (" + sw.stop().getTime() + " ms, " + file.length()
+				+ " bytes)");
+	}
+
+	/**
+	 * Checks if {@code file} is a way segment file in the binary format.
+	 *
+	 * @param file
+	 *            the file to check
+	 * @return {@code true}, if {@code file} starts with the magic number of
+	 *         the binary format
+	 * @throws IOException
+	 *             if the file couldn't be read
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		if (file.length() < 4)
+			return false;
+		try (DataInputStream in = new DataInputStream(
+				new FileInputStream(file))) {
+			return in.readInt() == MAGIC;
+		}
+	}
+
+	/**
+	 * Memory-maps the way segment file {@code file} in the binary format.
+	 *
+	 * @param file
+	 *            the file to load
+	 * @return the way segments backed by the mapped file
+	 * @throws IOException
+	 *             if the file couldn't be read or is not a valid way segment
+	 *             file
+	 */
+	public static WaySegments load(File file) throws IOException {
+		logger.info("map way segments " + file + "...");
+		StopWatch sw = new StopWatch().start();
+
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("way segment file " + file
+						+ " is too large to be mapped (" + channel.size()
+						+ " bytes)");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		}
+		MappedWaySegmentStore store = new MappedWaySegmentStore(buffer);
+
+		logger.info("done (" + sw.stop().getTime() + " ms, " + store.size()
+				+ " segments, " + store.values() + " values)");
+		return new WaySegments(store);
+	}
+
+	@Override
+	public int firstEntry(long wayId, long node1, long node2) {
+		long first = Math.min(node1, node2);
+		long second = Math.max(node1, node2);
+		int mask = table.limit() - 1;
+		int slot = WaySegmentStore.hash(wayId, first, second) & mask;
+		int key;
+		while ((key = table.get(slot)) != NOT_FOUND) {
+			if (keyWayIds.get(key) == wayId && keyFirstNodes.get(key) == first
+					&& keySecondNodes.get(key) == second)
+				return keyFirstEntry.get(key);
+			slot = (slot + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	@Override
+	public int nextEntry(int entry) {
+		return entryNext.get(entry);
+	}
+
+	@Override
+	public int getOffset(int entry) {
+		return entryOffset.get(entry);
+	}
+
+	@Override
+	public int getLength(int entry) {
+		return entryLength.get(entry);
+	}
+
+	@Override
+	public boolean isWithinTimeRange(int entry, long nanoOfDay) {
+		int tr = entryTimeRange.get(entry);
+		return tr == WaySegmentStore.NO_TIME_RANGE
+				|| (timeRangeFrom[tr] <= nanoOfDay
+				&& nanoOfDay < timeRangeTo[tr]);
+	}
+
+	@Override
+	public double getDistance(int index) {
+		return distances.get(index);
+	}
+
+	@Override
+	public double getTemperatureDifference(int index) {
+		return temperatureDifferences.get(index);
+	}
+
+	@Override
+	public WaySegment getSegment(int entry) {
+		int key = entryKey.get(entry);
+		boolean reversed = entryReversed.get(entry) != 0;
+		long first = reversed ? keySecondNodes.get(key)
+				: keyFirstNodes.get(key);
+		long second = reversed ? keyFirstNodes.get(key)
+				: keySecondNodes.get(key);
+		int tr = entryTimeRange.get(entry);
+
+		int from = entryOffset.get(entry);
+		int length = entryLength.get(entry);
+		double[] dists = new double[length];
+		double[] temps = new double[length];
+		for (int i = 0; i < length; i++) {
+			dists[i] = distances.get(from + i);
+			temps[i] = temperatureDifferences.get(from + i);
+		}
+		return new WaySegment(keyWayIds.get(key), Pair.of(first, second),
+				tr == WaySegmentStore.NO_TIME_RANGE ? null : timeRanges.get(tr),
+				dists, temps);
+	}
+
+	@Override
+	public int size() {
+		return entries;
+	}
+
+	@Override
+	public int keys() {
+		return keys;
+	}
+
+	@Override
+	public int values() {
+		return values;
+	}
+
+	@Override
+	public List<TimeRange<LocalTime>> getTimeRanges() {
+		return timeRanges;
+	}
+
+	/**
+	 * Returns the checksum of the store the file was written of, so it is
+	 * the same as of the parsed segments.
+	 */
+	@Override
+	public int checksum() {
+		return checksum;
+	}
+
+}
@@ -0,0 +1,251 @@
+package joachimrussig.heatstressrouting.waysegments;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import joachimrussig.heatstressrouting.util.TimeRange;
+
+/**
+ * The global time axis of the thermal data, i.e. the times of the day the
+ * temperature differences of the way segments were sampled at (e.g. in the
+ * morning and the evening, or every hour).
+ * <p>
+ * The axis consists of {@code n} consecutive slices {@code [start, end)},
+ * one for each distinct start of the time ranges of the segments, where a
+ * slice ends where the next one starts. Times before the first or after the
+ * last slice belong to the first respectively the last slice. The slice of a
+ * time is computed in constant time using a table of the slices of every
+ * minute of the day, so the slice of a query can be looked up without
+ * iterating over the time ranges.
+ * <p>
+ * Between the centers of two neighbouring slices the values of the slices
+ * can be interpolated linearly (see {@link #getLowerSlice(long)} and
+ * {@link #getFraction(int, long)}).
+ *
+ * @author Joachim Rußig
+ */
+public final class TimeSlices {
+
+	private static final long NANOS_PER_MINUTE = 60L * 1_000_000_000L;
+	private static final long NANOS_PER_DAY = 24L * 60 * NANOS_PER_MINUTE;
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	// the start of the i-th slice at i and its end at i + 1
+	private final long[] boundaries;
+	private final long[] centers;
+	// the slice containing the start of each minute of the day
+	private final short[] minuteSlices;
+
+	/**
+	 * Creates a new {@code TimeSlices} axis.
+	 *
+	 * @param boundaries
+	 *            the boundaries of the slices as nano of day, i.e. the start
+	 *            of the {@code i}-th slice at {@code i} and its end at
+	 *            {@code i + 1}
+	 * @throws IllegalArgumentException
+	 *             if there are less than two boundaries, more than
+	 *             {@code Short.MAX_VALUE} slices, or the boundaries are not
+	 *             strictly increasing within the day
+	 */
+	public TimeSlices(long[] boundaries) {
+		if (boundaries.length < 2)
+			throw new IllegalArgumentException(
+					"at least one slice is required");
+		if (boundaries.length > Short.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"too many slices: " + (boundaries.length - 1));
+		for (int i = 0; i < boundaries.length; i++) {
+			if (boundaries[i] < 0 || boundaries[i] > NANOS_PER_DAY
+					|| (i > 0 && boundaries[i] <= boundaries[i - 1]))
+				throw new IllegalArgumentException(
+						"boundaries must be strictly increasing within the "
+								+ "day: " + Arrays.toString(boundaries));
+		}
+
+		this.boundaries = boundaries.clone();
+		int n = boundaries.length - 1;
+		this.centers = new long[n];
+		for (int i = 0; i < n; i++)
+			centers[i] = boundaries[i]
+					+ (boundaries[i + 1] - boundaries[i]) / 2;
+
+		this.minuteSlices = new short[MINUTES_PER_DAY];
+		int slice = 0;
+		for (int m = 0; m < MINUTES_PER_DAY; m++) {
+			while (slice + 1 < n
+					&& boundaries[slice + 1] <= m * NANOS_PER_MINUTE)
+				slice++;
+			minuteSlices[m] = (short) slice;
+		}
+	}
+
+	/**
+	 * Creates the axis of the time ranges of way segments, i.e. a slice for
+	 * each distinct start of the time ranges. A single slice covering the
+	 * whole day is created, if {@code timeRanges} is empty.
+	 *
+	 * @param timeRanges
+	 *            the time ranges of the way segments
+	 * @return the axis of the time ranges
+	 */
+	public static TimeSlices of(List<TimeRange<LocalTime>> timeRanges) {
+		// the latest end of the time ranges by start
+		TreeMap<Long, Long> ranges = new TreeMap<>();
+		for (TimeRange<LocalTime> timeRange : timeRanges) {
+			long from = timeRange.getFrom().toNanoOfDay();
+			long to = timeRange.getTo().toNanoOfDay();
+			ranges.merge(from, Math.max(to, from + 1), Math::max);
+		}
+		if (ranges.isEmpty())
+			return new TimeSlices(new long[] { 0, NANOS_PER_DAY });
+
+		long[] boundaries = new long[ranges.size() + 1];
+		int i = 0;
+		for (long from : ranges.keySet())
+			boundaries[i++] = from;
+		boundaries[i] = Math.min(NANOS_PER_DAY,
+				Math.max(ranges.lastEntry().getValue(), boundaries[i - 1] + 1));
+		return new TimeSlices(boundaries);
+	}
+
+	/**
+	 *
+	 * @return the number of slices
+	 */
+	public int size() {
+		return centers.length;
+	}
+
+	/**
+	 *
+	 * @param slice
+	 *            index of a slice
+	 * @return the start of the slice as nano of day
+	 */
+	public long getStart(int slice) {
+		return boundaries[slice];
+	}
+
+	/**
+	 *
+	 * @param slice
+	 *            index of a slice
+	 * @return the end of the slice as nano of day
+	 */
+	public long getEnd(int slice) {
+		return boundaries[slice + 1];
+	}
+
+	/**
+	 *
+	 * @param slice
+	 *            index of a slice
+	 * @return the center of the slice as nano of day, i.e. the time its
+	 *         values are assumed to be exact for when interpolating
+	 */
+	public long getCenter(int slice) {
+		return centers[slice];
+	}
+
+	/**
+	 *
+	 * @return the boundaries of the slices, i.e. the start of the {@code i}-th
+	 *         slice at {@code i} and its end at {@code i + 1}
+	 */
+	public long[] getBoundaries() {
+		return boundaries.clone();
+	}
+
+	/**
+	 * Returns the slice containing {@code time}.
+	 *
+	 * @param time
+	 *            the time of the day
+	 * @return the index of the slice
+	 */
+	public int getSlice(LocalTime time) {
+		return getSlice(time.toNanoOfDay());
+	}
+
+	/**
+	 * Returns the slice containing the time {@code nanoOfDay}.
+	 *
+	 * @param nanoOfDay
+	 *            the time of the day as nano of day
+	 * @return the index of the slice
+	 */
+	public int getSlice(long nanoOfDay) {
+		int minute = (int) Math.min(MINUTES_PER_DAY - 1,
+				Math.max(0, nanoOfDay / NANOS_PER_MINUTE));
+		int slice = minuteSlices[minute];
+		// a slice may start within the minute
+		while (slice + 1 < centers.length
+				&& boundaries[slice + 1] <= nanoOfDay)
+			slice++;
+		return slice;
+	}
+
+	/**
+	 * Returns the lower of the two slices to interpolate between at the time
+	 * {@code nanoOfDay}, i.e. the last slice whose center is not after
+	 * {@code nanoOfDay}, or the first slice if {@code nanoOfDay} is before the
+	 * center of the first slice.
+	 *
+	 * @param nanoOfDay
+	 *            the time of the day as nano of day
+	 * @return the index of the lower slice
+	 */
+	public int getLowerSlice(long nanoOfDay) {
+		int slice = getSlice(nanoOfDay);
+		return slice > 0 && nanoOfDay < centers[slice] ? slice - 1 : slice;
+	}
+
+	/**
+	 * Returns the weight of the slice following {@code lowerSlice} at the time
+	 * {@code nanoOfDay}, so the interpolated value is
+	 * {@code (1 - fraction) * v[lowerSlice] + fraction * v[lowerSlice + 1]}.
+	 *
+	 * @param lowerSlice
+	 *            the lower slice (see {@link #getLowerSlice(long)})
+	 * @param nanoOfDay
+	 *            the time of the day as nano of day
+	 * @return the fraction in {@code [0, 1]}; 0 before the center of the
+	 *         first and after the center of the last slice
+	 */
+	public double getFraction(int lowerSlice, long nanoOfDay) {
+		if (lowerSlice + 1 >= centers.length
+				|| nanoOfDay <= centers[lowerSlice])
+			return 0;
+		double fraction = (double) (nanoOfDay - centers[lowerSlice])
+				/ (centers[lowerSlice + 1] - centers[lowerSlice]);
+		return Math.min(fraction, 1);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof TimeSlices
+				&& Arrays.equals(boundaries, ((TimeSlices) obj).boundaries);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(boundaries);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("TimeSlices: ");
+		for (int i = 0; i < centers.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(LocalTime.ofNanoOfDay(boundaries[i])).append(" - ")
+					.append(boundaries[i + 1] == NANOS_PER_DAY ? "24:00"
+							: LocalTime.ofNanoOfDay(boundaries[i + 1]));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,184 @@
+package joachimrussig.heatstressrouting.waysegments;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import joachimrussig.heatstressrouting.util.TimeRange;
+
+/**
+ * The read access to the way segments, indexed by (way id, node id, node id).
+ * <p>
+ * Each key references a chain of entries, one for each segment (e.g. one for
+ * each time range), and each entry references a slice ({@code offset},
+ * {@code length}) of the shared columns for the distances and temperature
+ * differences. The segments are either kept on the heap by a
+ * {@link WaySegmentStore} or served from a memory-mapped file by a
+ * {@link MappedWaySegmentStore}.
+ *
+ * @author Joachim Rußig
+ */
+public interface WaySegmentIndex {
+
+	/**
+	 * Returned by the lookup methods, if no key respectively entry is found.
+	 */
+	int NOT_FOUND = -1;
+
+	/**
+	 * Returns the first entry of the segment ({@code wayId}, {@code node1},
+	 * {@code node2}), regardless of the order of the node ids.
+	 *
+	 * @param wayId
+	 *            the OSM way id
+	 * @param node1
+	 *            the OSM node id of an adjacent node
+	 * @param node2
+	 *            the OSM node id of the other adjacent node
+	 * @return the index of the first entry or {@link #NOT_FOUND}
+	 */
+	int firstEntry(long wayId, long node1, long node2);
+
+	/**
+	 * Returns the first entry of the segment ({@code wayId}, {@code node1},
+	 * {@code node2}) that is valid at {@code time}.
+	 *
+	 * @param wayId
+	 *            the OSM way id
+	 * @param node1
+	 *            the OSM node id of an adjacent node
+	 * @param node2
+	 *            the OSM node id of the other adjacent node
+	 * @param time
+	 *            the time the entry must be valid for
+	 * @return the index of the entry or {@link #NOT_FOUND}
+	 */
+	default int findEntry(long wayId, long node1, long node2,
+			LocalTime time) {
+		long nanos = time.toNanoOfDay();
+		for (int e = firstEntry(wayId, node1, node2); e != NOT_FOUND;
+				e = nextEntry(e)) {
+			if (isWithinTimeRange(e, nanos))
+				return e;
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 *
+	 * @param entry
+	 *            index of an entry
+	 * @return the next entry with the same key or {@link #NOT_FOUND}
+	 */
+	int nextEntry(int entry);
+
+	/**
+	 *
+	 * @param entry
+	 *            index of an entry
+	 * @return index of the first value of the entry in the columns
+	 */
+	int getOffset(int entry);
+
+	/**
+	 *
+	 * @param entry
+	 *            index of an entry
+	 * @return the number of values of the entry
+	 */
+	int getLength(int entry);
+
+	/**
+	 * Checks if the entry is valid at the time given as nano of day.
+	 *
+	 * @param entry
+	 *            index of an entry
+	 * @param nanoOfDay
+	 *            the time to check
+	 * @return true, if start <= time < end or if the entry has no time range
+	 */
+	boolean isWithinTimeRange(int entry, long nanoOfDay);
+
+	/**
+	 *
+	 * @param index
+	 *            index of a value
+	 * @return the length of the intersection with the raster cell
+	 */
+	double getDistance(int index);
+
+	/**
+	 *
+	 * @param index
+	 *            index of a value
+	 * @return the value of the intersected raster cell
+	 */
+	double getTemperatureDifference(int index);
+
+	/**
+	 * Creates a {@link WaySegment} object of the specified entry.
+	 *
+	 * @param entry
+	 *            index of an entry
+	 * @return the segment
+	 */
+	WaySegment getSegment(int entry);
+
+	/**
+	 *
+	 * @return the number of segments
+	 */
+	int size();
+
+	/**
+	 *
+	 * @return the number of distinct keys, i.e. segments regardless of the
+	 *         time range
+	 */
+	int keys();
+
+	/**
+	 *
+	 * @return the number of (distance, temperature difference) pairs of all
+	 *         segments
+	 */
+	int values();
+
+	/**
+	 *
+	 * @return the distinct time ranges of the segments
+	 */
+	List<TimeRange<LocalTime>> getTimeRanges();
+
+	/**
+	 *
+	 * @return the time axis of the segments, i.e. a slice for each distinct
+	 *         start of their time ranges
+	 */
+	default TimeSlices getTimeSlices() {
+		return TimeSlices.of(getTimeRanges());
+	}
+
+	/**
+	 *
+	 * @return the minimal temperature difference of all segments, or
+	 *         {@code Double.NaN} if no segment is present
+	 */
+	default double getMinTemperatureDifference() {
+		if (values() == 0)
+			return Double.NaN;
+		double min = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < values(); i++)
+			min = Math.min(min, getTemperatureDifference(i));
+		return min;
+	}
+
+	/**
+	 * Computes a checksum over all entries and values, e.g. to detect if data
+	 * derived from the segments is out of date. The checksum only depends on
+	 * the segments, not on their representation.
+	 *
+	 * @return the checksum
+	 */
+	int checksum();
+
+}
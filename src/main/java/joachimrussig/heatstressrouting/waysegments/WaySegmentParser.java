@@ -4,19 +4,15 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.time.LocalTime;
-import java.util.ArrayList;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Iterator;
 
-import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.lang3.tuple.Pair;
 
-import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
-
-import joachimrussig.heatstressrouting.waysegments.WaySegment;
-import joachimrussig.heatstressrouting.waysegments.WaySegmentId;
 import joachimrussig.heatstressrouting.waysegments.WaySegments;
 import joachimrussig.heatstressrouting.util.TimeRange;
 
@@ -35,15 +31,26 @@ import joachimrussig.heatstressrouting.util.TimeRange;
  * {@code way_id}, {@code from.osm.id} and {@code to.osm.id}</li>
  * <li>{@code delta_temp}: value of an intersected raster cell</li>
  * <li>{@code time_range}: time range the value is valied for; either the string
- * 'morgen' or 'abend'</li>
+ * 'morgen' or 'abend', the start of an hourly time slice (e.g. '14:00') or an
+ * explicit time range (e.g. '14:00-15:30')</li>
  * </ul>
  * 
  * A way segment can uniquely by identified by {@code way_id},
  * {@code from.osm.id} and {@code to.osm.id}. Each way segment can have multiple
  * ({@code dist}, {@code delta_temp}) pairs, where the pair are provided as
- * separate rows with the same {@code way_id}, {@code from.osm.id} and
- * {@code to.osm.id} ids.
+ * separate rows with the same {@code way_id}, {@code from.osm.id},
+ * {@code to.osm.id} and {@code time_range}. The time ranges of all segments
+ * form the time axis of the thermal data (see {@link TimeSlices}).
  * <p>
+ * Files are parsed by the {@link MappedWaySegmentParser}, which is
+ * considerably faster for large files, but only supports a restricted csv
+ * dialect without quotes, delimiters and line breaks within fields; files
+ * using them can be parsed with commons-csv by {@link #parseCSV(File)}.
+ * {@link #parseCSVRecords(CSVParser)} can be used to parse records from
+ * other sources. Files in the binary format
+ * of the {@link MappedWaySegmentStore} (see
+ * {@link joachimrussig.heatstressrouting.WaySegmentConverter}) are
+ * memory-mapped instead of parsed.
  * 
  * @author Joachim Rußig
  */
@@ -57,6 +64,7 @@ public class WaySegmentParser {
 	private static final String TIME_COL = "time_range";
 	private static final String TIME_MORNING = "morgen";
 	private static final String TIME_EVENING = "abend";
+	private static final char TIME_SEPARATOR = '-';
 	private static final char DELIMITER = '|';
 
 	/**
@@ -67,10 +75,12 @@ public class WaySegmentParser {
 
 	/**
 	 * 
-	 * Parses the csv file provided as {@code file} object.
+	 * Parses the csv file provided as {@code file} object, or maps it, if it
+	 * is in the binary format of the {@link MappedWaySegmentStore}.
 	 * 
 	 * @param file
-	 *            the csv file to parse (see specification above)
+	 *            the csv file to parse (see specification above) or a binary
+	 *            way segment file
 	 * 
 	 * @return the parsed way segments
 	 * 
@@ -79,7 +89,9 @@ public class WaySegmentParser {
 	 *             if an error occurs while reading {@code file}
 	 * @throws WaySegmentParserException
 	 *             if an error occurred while parsing the record (e.g. a
-	 *             required column is not set)
+	 *             required column is not set) or if a field contains a
+	 *             quote, delimiter or line break, that is not supported by
+	 *             the {@link MappedWaySegmentParser}
 	 * @throws NumberFormatException
 	 *             if a number cannot be parsed
 	 * @throws UnsupportedTimeRangeException
@@ -87,13 +99,29 @@ public class WaySegmentParser {
 	 * 
 	 */
 	public WaySegments parse(File file) throws IOException {
+		if (MappedWaySegmentStore.isBinary(file))
+			return MappedWaySegmentStore.load(file);
+		return new MappedWaySegmentParser().parse(file);
+	}
+
+	/**
+	 * Parses the csv file provided as {@code file} object with commons-csv.
+	 * 
+	 * @param file
+	 *            the csv file to parse (see specification above)
+	 * @return the parsed way segments
+	 * @throws IOException
+	 *             if an error occurs while reading {@code file}
+	 * @see #parseCSVRecords(CSVParser)
+	 */
+	public WaySegments parseCSV(File file) throws IOException {
 		CSVFormat csvFormat = CSVFormat.DEFAULT.withDelimiter(DELIMITER)
 				.withHeader();
 
-		CSVParser csvParser = CSVParser.parse(file, Charset.forName("UTF-8"),
-				csvFormat);
-
-		return this.parseCSVRecords(csvParser);
+		try (CSVParser csvParser = CSVParser.parse(file,
+				Charset.forName("UTF-8"), csvFormat)) {
+			return this.parseCSVRecords(csvParser);
+		}
 	}
 
 	/**
@@ -113,44 +141,55 @@ public class WaySegmentParser {
 	 */
 	public WaySegments parseCSVRecords(CSVParser csvParser) {
 
-		ArrayListValuedHashMap<WaySegmentId, WaySegment> res = new ArrayListValuedHashMap<>();
+		WaySegmentStore res = new WaySegmentStore();
+
+		Iterator<CSVRecord> iter = csvParser.iterator();
 
-		PeekingIterator<CSVRecord> iter = Iterators
-				.peekingIterator(csvParser.iterator());
+		// reused buffers for the values of the current segment
+		double[] dists = new double[16];
+		double[] tempDiffs = new double[16];
 
-		while (iter.hasNext()) {
-			ArrayList<Double> dists = new ArrayList<>();
-			ArrayList<Double> tempDiffs = new ArrayList<>();
+		// every record is parsed once; the first record of the next segment
+		// is kept until the current segment is added
+		WaySegmentParser.ParsedRecord next = iter.hasNext()
+				? parseCsvRecord(iter.next()) : null;
 
-			CSVRecord current = iter.next();
+		while (next != null) {
+			int n = 0;
 
-			WaySegmentParser.ParsedRecord currentParsed = parseCsvRecord(
-					current);
+			WaySegmentParser.ParsedRecord currentParsed = next;
 
-			dists.add(currentParsed.getDist());
-			tempDiffs.add(currentParsed.getTempDiff());
+			dists[n] = currentParsed.getDist();
+			tempDiffs[n] = currentParsed.getTempDiff();
+			n++;
 
-			while (iter.hasNext()
-					&& currentParsed.hasSameId(parseCsvRecord(iter.peek()))) {
+			next = null;
+			while (iter.hasNext()) {
 				WaySegmentParser.ParsedRecord parsed = parseCsvRecord(
 						iter.next());
-				dists.add(parsed.getDist());
-				tempDiffs.add(parsed.getTempDiff());
+				if (!currentParsed.hasSameId(parsed)
+						|| !currentParsed.hasSameTime(parsed)) {
+					next = parsed;
+					break;
+				}
+				if (n == dists.length) {
+					dists = Arrays.copyOf(dists, n << 1);
+					tempDiffs = Arrays.copyOf(tempDiffs, n << 1);
+				}
+				dists[n] = parsed.getDist();
+				tempDiffs[n] = parsed.getTempDiff();
+				n++;
 			}
 
-			double[] distsArray = dists.stream()
-					.mapToDouble(Double::doubleValue).toArray();
-			double[] tempDiffsArray = tempDiffs.stream()
-					.mapToDouble(Double::doubleValue).toArray();
-
-			res.put(new WaySegmentId(currentParsed.getWayId(),
-					currentParsed.getNodeIds()),
-					new WaySegment(currentParsed.getWayId(),
-							currentParsed.getNodeIds(), currentParsed.getTime(),
-							distsArray, tempDiffsArray));
+			res.add(currentParsed.getWayId(),
+					currentParsed.getNodeIds().getLeft(),
+					currentParsed.getNodeIds().getRight(),
+					currentParsed.getTime(), dists, tempDiffs, 0, n);
 
 		}
 
+		res.trimToSize();
+
 		return new WaySegments(res);
 
 	}
@@ -242,6 +281,18 @@ public class WaySegmentParser {
 					&& this.nodeIds.equals(other.nodeIds);
 		}
 
+		/**
+		 * Checks if the two {@code ParsedRecord}s are valid for the same time
+		 * range.
+		 * 
+		 * @param other
+		 *            a {@code ParsedRecord} to compare to
+		 * @return true, iff both time ranges have the same bounds
+		 */
+		public boolean hasSameTime(ParsedRecord other) {
+			return isSameTimeRange(this.time, other.time);
+		}
+
 		/**
 		 * 
 		 * @return the OSM way id
@@ -286,6 +337,11 @@ public class WaySegmentParser {
 
 	/**
 	 * Parses the provided string {@code timeStr} to a {@link TimeRange}<{@link LocalTime}> object.
+	 * <p>
+	 * Supported are 'morgen' (00:00 - 12:00), 'abend' (12:00 - 24:00), the
+	 * start of an hourly time slice (e.g. '14:00' for 14:00 - 15:00) and an
+	 * explicit time range (e.g. '14:00-15:30'), where '24:00' denotes the end
+	 * of the day.
 	 * 
 	 * @param timeStr
 	 *            the string to parse
@@ -294,16 +350,42 @@ public class WaySegmentParser {
 	 * @throws UnsupportedTimeRangeException
 	 *             if the provided string does not represent a valid time range
 	 */
-	private static TimeRange<LocalTime> parseTimeString(String timeStr) {
+	static TimeRange<LocalTime> parseTimeString(String timeStr) {
 		timeStr = timeStr.trim();
-		if (timeStr.equalsIgnoreCase(TIME_MORNING)) {
+		if (timeStr.equalsIgnoreCase(TIME_MORNING))
 			return new TimeRange<>(LocalTime.MIN, LocalTime.NOON);
-		} else if (timeStr.equalsIgnoreCase(TIME_EVENING)) {
+		if (timeStr.equalsIgnoreCase(TIME_EVENING))
 			return new TimeRange<>(LocalTime.NOON, LocalTime.MAX);
-		} else {
-			throw new UnsupportedTimeRangeException("only '" + TIME_MORNING
-					+ "' and '" + TIME_EVENING + "' are supported");
+
+		try {
+			int separator = timeStr.indexOf(TIME_SEPARATOR);
+			if (separator < 0) {
+				LocalTime from = LocalTime.parse(timeStr);
+				LocalTime to = from.plusHours(1);
+				return new TimeRange<>(from, to.isAfter(from) ? to
+						: LocalTime.MAX);
+			}
+			LocalTime from = LocalTime
+					.parse(timeStr.substring(0, separator).trim());
+			String toStr = timeStr.substring(separator + 1).trim();
+			LocalTime to = toStr.equals("24:00") ? LocalTime.MAX
+					: LocalTime.parse(toStr);
+			if (to.isAfter(from))
+				return new TimeRange<>(from, to);
+		} catch (DateTimeParseException e) {
+			// reported below
 		}
+		throw new UnsupportedTimeRangeException("unsupported time range '"
+				+ timeStr + "', only '" + TIME_MORNING + "', '" + TIME_EVENING
+				+ "', 'HH:mm' and 'HH:mm-HH:mm' are supported");
+	}
 
+	/**
+	 * Checks if the time ranges {@code a} and {@code b} have the same bounds.
+	 */
+	static boolean isSameTimeRange(TimeRange<LocalTime> a,
+			TimeRange<LocalTime> b) {
+		return a == b || (a.getFrom().equals(b.getFrom())
+				&& a.getTo().equals(b.getTo()));
 	}
 }
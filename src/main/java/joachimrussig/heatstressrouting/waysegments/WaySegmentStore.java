@@ -0,0 +1,434 @@
+package joachimrussig.heatstressrouting.waysegments;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import joachimrussig.heatstressrouting.util.TimeRange;
+
+/**
+ * A compact, columnar store for the data of the way segments on the heap.
+ * <p>
+ * The segments are indexed by an open addressing hash table over (way id,
+ * node id, node id), where the node ids are normalised so that both
+ * directions of a segment map to the same key. Each key references a chain of
+ * entries, one for each added segment (e.g. one for each time range), and
+ * each entry references a slice ({@code offset}, {@code length}) of the
+ * shared columns for the distances and temperature differences.
+ * <p>
+ * Compared to storing a {@link WaySegment} object for each segment, no
+ * objects are allocated per segment and lookups don't allocate any objects.
+ * <p>
+ * <b>Note:</b> the store is not thread safe while segments are added, but
+ * can safely be read concurrently afterwards.
+ *
+ * @author Joachim Rußig
+ */
+public class WaySegmentStore implements WaySegmentIndex {
+
+	static final int NO_TIME_RANGE = -1;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	// open addressing hash table containing the index of the keys
+	private int[] table;
+
+	// the normalised keys
+	private long[] keyWayIds;
+	private long[] keyFirstNodes;
+	private long[] keySecondNodes;
+	private int[] keyFirstEntry;
+	private int[] keyLastEntry;
+	private int keys;
+
+	// the entries of the keys; an entry is a single segment
+	private int[] entryKey;
+	private int[] entryNext;
+	private int[] entryOffset;
+	private int[] entryLength;
+	private short[] entryTimeRange;
+	private boolean[] entryReversed;
+	private int entries;
+
+	// the columns containing the data of all segments
+	private double[] distances;
+	private double[] temperatureDifferences;
+	private int values;
+
+	// the distinct time ranges of the segments as nano of day
+	private long[] timeRangeFrom;
+	private long[] timeRangeTo;
+	private final List<TimeRange<LocalTime>> timeRanges;
+
+	/**
+	 * Creates a new, empty {@code WaySegmentStore}.
+	 */
+	public WaySegmentStore() {
+		this(1024, 1024);
+	}
+
+	/**
+	 * Creates a new, empty {@code WaySegmentStore}.
+	 *
+	 * @param expectedSegments
+	 *            the expected number of segments
+	 * @param expectedValues
+	 *            the expected number of (distance, temperature difference)
+	 *            pairs of all segments
+	 */
+	public WaySegmentStore(int expectedSegments, int expectedValues) {
+		int capacity = Integer.highestOneBit(
+				Math.max(16, (int) (expectedSegments / LOAD_FACTOR)) - 1) << 1;
+		this.table = new int[capacity];
+		Arrays.fill(table, NOT_FOUND);
+
+		int n = Math.max(16, expectedSegments);
+		this.keyWayIds = new long[n];
+		this.keyFirstNodes = new long[n];
+		this.keySecondNodes = new long[n];
+		this.keyFirstEntry = new int[n];
+		this.keyLastEntry = new int[n];
+
+		this.entryKey = new int[n];
+		this.entryNext = new int[n];
+		this.entryOffset = new int[n];
+		this.entryLength = new int[n];
+		this.entryTimeRange = new short[n];
+		this.entryReversed = new boolean[n];
+
+		int m = Math.max(16, expectedValues);
+		this.distances = new double[m];
+		this.temperatureDifferences = new double[m];
+
+		this.timeRangeFrom = new long[0];
+		this.timeRangeTo = new long[0];
+		this.timeRanges = new ArrayList<>();
+	}
+
+	/**
+	 * Adds a segment to the store.
+	 *
+	 * @param wayId
+	 *            the OSM way id
+	 * @param fromNodeId
+	 *            the OSM node id of the first adjacent node
+	 * @param toNodeId
+	 *            the OSM node id of the second adjacent node
+	 * @param timeRange
+	 *            the time range the values are valid for, can be {@code null}
+	 * @param dists
+	 *            lengths of the intersection with the intersected raster cells
+	 * @param temps
+	 *            values of the intersected raster cells
+	 * @param from
+	 *            index of the first value in {@code dists} and {@code temps}
+	 * @param length
+	 *            number of values to add
+	 * @return the index of the added entry
+	 */
+	public int add(long wayId, long fromNodeId, long toNodeId,
+			TimeRange<LocalTime> timeRange, double[] dists, double[] temps,
+			int from, int length) {
+
+		boolean reversed = fromNodeId > toNodeId;
+		long first = reversed ? toNodeId : fromNodeId;
+		long second = reversed ? fromNodeId : toNodeId;
+
+		if ((keys + 1) > table.length * LOAD_FACTOR)
+			rehash(table.length << 1);
+
+		int slot = findSlot(wayId, first, second);
+		int key = table[slot];
+		if (key == NOT_FOUND) {
+			if (keys == keyWayIds.length)
+				growKeys(Math.max(16, keys << 1));
+			key = keys++;
+			table[slot] = key;
+			keyWayIds[key] = wayId;
+			keyFirstNodes[key] = first;
+			keySecondNodes[key] = second;
+			keyFirstEntry[key] = NOT_FOUND;
+			keyLastEntry[key] = NOT_FOUND;
+		}
+
+		if (entries == entryNext.length)
+			growEntries(Math.max(16, entries << 1));
+		if (values + length > distances.length)
+			growValues(Math.max(values + length, distances.length << 1));
+
+		int entry = entries++;
+		entryKey[entry] = key;
+		entryNext[entry] = NOT_FOUND;
+		entryOffset[entry] = values;
+		entryLength[entry] = length;
+		entryTimeRange[entry] = (short) timeRangeIndex(timeRange);
+		entryReversed[entry] = reversed;
+
+		System.arraycopy(dists, from, distances, values, length);
+		System.arraycopy(temps, from, temperatureDifferences, values, length);
+		values += length;
+
+		// append the entry to the end of the chain, to preserve the order
+		if (keyFirstEntry[key] == NOT_FOUND)
+			keyFirstEntry[key] = entry;
+		else
+			entryNext[keyLastEntry[key]] = entry;
+		keyLastEntry[key] = entry;
+
+		return entry;
+	}
+
+	/**
+	 * Adds a segment to the store.
+	 *
+	 * @param segment
+	 *            the segment to add
+	 * @return the index of the added entry
+	 */
+	public int add(WaySegment segment) {
+		return add(segment.getWayId(), segment.getNodeIds().getLeft(),
+				segment.getNodeIds().getRight(),
+				segment.getTimeRange().orElse(null), segment.getDistances(),
+				segment.getTemperatureDifferences(), 0,
+				segment.getDistances().length);
+	}
+
+	/**
+	 * Releases the unused capacity of the columns, should be called after all
+	 * segments are added.
+	 */
+	public void trimToSize() {
+		growKeys(keys);
+		growEntries(entries);
+		growValues(values);
+	}
+
+	@Override
+	public int firstEntry(long wayId, long node1, long node2) {
+		long first = Math.min(node1, node2);
+		long second = Math.max(node1, node2);
+		int key = table[findSlot(wayId, first, second)];
+		return key == NOT_FOUND ? NOT_FOUND : keyFirstEntry[key];
+	}
+
+	@Override
+	public int nextEntry(int entry) {
+		return entryNext[entry];
+	}
+
+	@Override
+	public int getOffset(int entry) {
+		return entryOffset[entry];
+	}
+
+	@Override
+	public int getLength(int entry) {
+		return entryLength[entry];
+	}
+
+	@Override
+	public boolean isWithinTimeRange(int entry, long nanoOfDay) {
+		int tr = entryTimeRange[entry];
+		return tr == NO_TIME_RANGE || (timeRangeFrom[tr] <= nanoOfDay
+				&& nanoOfDay < timeRangeTo[tr]);
+	}
+
+	@Override
+	public double getDistance(int index) {
+		return distances[index];
+	}
+
+	@Override
+	public double getTemperatureDifference(int index) {
+		return temperatureDifferences[index];
+	}
+
+	@Override
+	public WaySegment getSegment(int entry) {
+		int key = entryKey[entry];
+		long first = entryReversed[entry] ? keySecondNodes[key]
+				: keyFirstNodes[key];
+		long second = entryReversed[entry] ? keyFirstNodes[key]
+				: keySecondNodes[key];
+		int tr = entryTimeRange[entry];
+
+		int from = entryOffset[entry];
+		int to = from + entryLength[entry];
+		return new WaySegment(keyWayIds[key], Pair.of(first, second),
+				tr == NO_TIME_RANGE ? null : timeRanges.get(tr),
+				Arrays.copyOfRange(distances, from, to),
+				Arrays.copyOfRange(temperatureDifferences, from, to));
+	}
+
+	@Override
+	public int size() {
+		return entries;
+	}
+
+	@Override
+	public int keys() {
+		return keys;
+	}
+
+	@Override
+	public int values() {
+		return values;
+	}
+
+	@Override
+	public List<TimeRange<LocalTime>> getTimeRanges() {
+		return timeRanges;
+	}
+
+	@Override
+	public int checksum() {
+		int hash = entries;
+		for (int key = 0; key < keys; key++) {
+			int h = Long.hashCode(keyWayIds[key]);
+			h = 31 * h + Long.hashCode(keyFirstNodes[key]);
+			h = 31 * h + Long.hashCode(keySecondNodes[key]);
+			for (int e = keyFirstEntry[key]; e != NOT_FOUND; e = entryNext[e]) {
+				h = 31 * h + entryTimeRange[e];
+				for (int i = entryOffset[e]; i < entryOffset[e]
+						+ entryLength[e]; i++) {
+					h = 31 * h + Double.hashCode(distances[i]);
+					h = 31 * h + Double.hashCode(temperatureDifferences[i]);
+				}
+			}
+			hash = 31 * hash + h;
+		}
+		for (int i = 0; i < timeRangeFrom.length; i++)
+			hash = 31 * hash + Long.hashCode(timeRangeFrom[i] ^ timeRangeTo[i]);
+		return hash;
+	}
+
+	/**
+	 * Writes the columns and the hash table of the store in the binary format
+	 * of the {@link MappedWaySegmentStore}, that describes the layout.
+	 *
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(timeRangeFrom.length);
+		out.writeInt(table.length);
+		out.writeInt(keys);
+		out.writeInt(entries);
+		out.writeInt(values);
+
+		for (long from : timeRangeFrom)
+			out.writeLong(from);
+		for (long to : timeRangeTo)
+			out.writeLong(to);
+
+		for (int key : table)
+			out.writeInt(key);
+
+		for (int i = 0; i < keys; i++)
+			out.writeLong(keyWayIds[i]);
+		for (int i = 0; i < keys; i++)
+			out.writeLong(keyFirstNodes[i]);
+		for (int i = 0; i < keys; i++)
+			out.writeLong(keySecondNodes[i]);
+		for (int i = 0; i < keys; i++)
+			out.writeInt(keyFirstEntry[i]);
+
+		for (int i = 0; i < entries; i++)
+			out.writeInt(entryKey[i]);
+		for (int i = 0; i < entries; i++)
+			out.writeInt(entryNext[i]);
+		for (int i = 0; i < entries; i++)
+			out.writeInt(entryOffset[i]);
+		for (int i = 0; i < entries; i++)
+			out.writeInt(entryLength[i]);
+		for (int i = 0; i < entries; i++)
+			out.writeShort(entryTimeRange[i]);
+		for (int i = 0; i < entries; i++)
+			out.writeBoolean(entryReversed[i]);
+
+		for (int i = 0; i < values; i++)
+			out.writeDouble(distances[i]);
+		for (int i = 0; i < values; i++)
+			out.writeDouble(temperatureDifferences[i]);
+	}
+
+	private int timeRangeIndex(TimeRange<LocalTime> timeRange) {
+		if (timeRange == null)
+			return NO_TIME_RANGE;
+
+		long from = timeRange.getFrom().toNanoOfDay();
+		long to = timeRange.getTo().toNanoOfDay();
+		for (int i = 0; i < timeRangeFrom.length; i++) {
+			if (timeRangeFrom[i] == from && timeRangeTo[i] == to)
+				return i;
+		}
+
+		if (timeRangeFrom.length == Short.MAX_VALUE)
+			throw new IllegalStateException(
+					"too many distinct time ranges: " + timeRangeFrom.length);
+
+		timeRangeFrom = Arrays.copyOf(timeRangeFrom, timeRangeFrom.length + 1);
+		timeRangeTo = Arrays.copyOf(timeRangeTo, timeRangeTo.length + 1);
+		timeRangeFrom[timeRangeFrom.length - 1] = from;
+		timeRangeTo[timeRangeTo.length - 1] = to;
+		timeRanges.add(timeRange);
+		return timeRangeFrom.length - 1;
+	}
+
+	private int findSlot(long wayId, long first, long second) {
+		int mask = table.length - 1;
+		int slot = hash(wayId, first, second) & mask;
+		int key;
+		while ((key = table[slot]) != NOT_FOUND
+				&& (keyWayIds[key] != wayId || keyFirstNodes[key] != first
+						|| keySecondNodes[key] != second))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	// package-private, so the MappedWaySegmentStore uses the same hash function
+	static int hash(long wayId, long first, long second) {
+		long h = wayId * 0x9E3779B97F4A7C15L;
+		h = (h ^ first) * 0xC2B2AE3D27D4EB4FL;
+		h = (h ^ second) * 0x165667B19E3779F9L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		Arrays.fill(table, NOT_FOUND);
+		for (int key = 0; key < keys; key++)
+			table[findSlot(keyWayIds[key], keyFirstNodes[key],
+					keySecondNodes[key])] = key;
+	}
+
+	private void growKeys(int capacity) {
+		keyWayIds = Arrays.copyOf(keyWayIds, capacity);
+		keyFirstNodes = Arrays.copyOf(keyFirstNodes, capacity);
+		keySecondNodes = Arrays.copyOf(keySecondNodes, capacity);
+		keyFirstEntry = Arrays.copyOf(keyFirstEntry, capacity);
+		keyLastEntry = Arrays.copyOf(keyLastEntry, capacity);
+	}
+
+	private void growEntries(int capacity) {
+		entryKey = Arrays.copyOf(entryKey, capacity);
+		entryNext = Arrays.copyOf(entryNext, capacity);
+		entryOffset = Arrays.copyOf(entryOffset, capacity);
+		entryLength = Arrays.copyOf(entryLength, capacity);
+		entryTimeRange = Arrays.copyOf(entryTimeRange, capacity);
+		entryReversed = Arrays.copyOf(entryReversed, capacity);
+	}
+
+	private void growValues(int capacity) {
+		distances = Arrays.copyOf(distances, capacity);
+		temperatureDifferences = Arrays.copyOf(temperatureDifferences,
+				capacity);
+	}
+
+}
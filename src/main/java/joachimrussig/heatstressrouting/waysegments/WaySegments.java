@@ -1,42 +1,39 @@
 package joachimrussig.heatstressrouting.waysegments;
 
 import java.time.LocalTime;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.OptionalDouble;
 
-import org.apache.commons.collections4.CollectionUtils;
-import org.apache.commons.collections4.MultiValuedMap;
-import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
 import org.apache.commons.lang3.tuple.Pair;
 
 /**
  * The {@code WaySegments} class represents a set of {@link WaySegment}s.
- * 
+ * <p>
+ * The segments are kept in a {@link WaySegmentIndex}; {@code WaySegment}
+ * objects are only created on demand by the methods returning them.
+ *
  * @author Joachim Rußig
  */
 public class WaySegments {
 
-	private MultiValuedMap<WaySegmentId, WaySegment> segments;
+	private WaySegmentIndex store;
 
 	/**
-	 * Creates a new {@code WaySegments} object of an
-	 * {@code ArrayListValuedHashMap}.
-	 * <p>
-	 * <b>Note: </b> for each entry the key and the {@link WaySegmentId} of the
-	 * value must be equals.
-	 * 
-	 * @param segments
-	 *            the {@code WaySegment}s
+	 * Creates a new {@code WaySegments} object of an {@code WaySegmentIndex}.
+	 *
+	 * @param store
+	 *            the store containing the segments
 	 */
-	WaySegments(ArrayListValuedHashMap<WaySegmentId, WaySegment> segments) {
-		this.segments = segments;
+	public WaySegments(WaySegmentIndex store) {
+		this.store = store;
 	}
 
 	/**
 	 * Creates a new {@code WaySegments}.
-	 * 
+	 *
 	 * @param edgeSegments
 	 *            a set of {@code WaySegment}s
 	 */
@@ -46,16 +43,19 @@ public class WaySegments {
 
 	/**
 	 * Returns all {@link WaySegment}s with the specified {@code id}.
-	 * 
+	 *
 	 * @param id
 	 *            of the requested way segment
-	 * @return all segments with the specified {@code id}
+	 * @return all segments with the specified {@code id}, regardless of the
+	 *         order of the node ids
 	 */
 	public Collection<WaySegment> getSegments(WaySegmentId id) {
-		return CollectionUtils.union(segments.get(id),
-				segments.get(new WaySegmentId(id.getWayId(),
-						Pair.of(id.getNodeIds().getRight(),
-								id.getNodeIds().getLeft()))));
+		List<WaySegment> res = new ArrayList<>();
+		for (int e = store.firstEntry(id.getWayId(), id.getNodeIds().getLeft(),
+				id.getNodeIds().getRight()); e != WaySegmentIndex.NOT_FOUND; e = store
+						.nextEntry(e))
+			res.add(store.getSegment(e));
+		return res;
 	}
 
 	/**
@@ -71,19 +71,17 @@ public class WaySegments {
 	 *         the {@code id}.
 	 */
 	public Optional<WaySegment> getSegment(WaySegmentId id, LocalTime time) {
-		Collection<WaySegment> vals = getSegments(id);
-		if (vals.isEmpty())
+		int entry = store.findEntry(id.getWayId(), id.getNodeIds().getLeft(),
+				id.getNodeIds().getRight(), time);
+		if (entry == WaySegmentIndex.NOT_FOUND)
 			return Optional.empty();
-
-		return vals.stream().filter(s -> s.isWithinTimeRange(time)).findFirst();
+		return Optional.of(store.getSegment(entry));
 	}
 
 	/**
 	 * Returns all {@link WaySegment}s with the specified {@code wayId} and
 	 * {@code nodeIds}.
-	 * <p>
-	 * <b>Note:</b> the order of the node ids is relevant.
-	 * 
+	 *
 	 * @param wayId
 	 *            the OSM way id of the requested segments
 	 * @param nodesId
@@ -96,51 +94,56 @@ public class WaySegments {
 	}
 
 	/**
-	 * 
-	 * @return the {@code MultiValuedMap} used internally to store the segments
+	 *
+	 * @return the {@code WaySegmentIndex} used internally to store the
+	 *         segments
+	 */
+	public WaySegmentIndex getStore() {
+		return store;
+	}
+
+	/**
+	 *
+	 * @return the time axis of the segments (see {@link TimeSlices})
 	 */
-	public MultiValuedMap<WaySegmentId, WaySegment> getSegments() {
-		return segments;
+	public TimeSlices getTimeSlices() {
+		return store.getTimeSlices();
 	}
 
 	/**
-	 * Sets the {@code MultiValuedMap} used internally to store the segments.
-	 * 
-	 * <b>Note: </b> for each entry the key and the {@code WaySegmentId} of the
-	 * value must be the equals.
-	 * 
-	 * @param segments
-	 *            the segments to set
+	 *
+	 * @return the number of segments
 	 */
-	void setSegments(
-			ArrayListValuedHashMap<WaySegmentId, WaySegment> segments) {
-		this.segments = segments;
+	public int size() {
+		return store.size();
 	}
 
 	/**
 	 * Sets the {@code WaySegment}s.
-	 * 
+	 *
 	 * @param edgeSegments
 	 *            a collection of way segments to store
 	 */
 	public void setSegments(Collection<WaySegment> edgeSegments) {
-		MultiValuedMap<WaySegmentId, WaySegment> res = new ArrayListValuedHashMap<>();
+		WaySegmentStore res = new WaySegmentStore(edgeSegments.size(),
+				edgeSegments.stream().mapToInt(s -> s.getDistances().length)
+						.sum());
 		for (WaySegment segment : edgeSegments) {
-			res.put(segment.getId(), segment);
+			res.add(segment);
 		}
-		this.segments = res;
+		res.trimToSize();
+		this.store = res;
 	}
 
 	/**
-	 * 
+	 *
 	 * @return the minimal temperature difference of all segments, or
 	 *         {@code OptionalDouble.empty()} if no segment is present
 	 */
 	public OptionalDouble getMinTemperatureDifference() {
-		return this.segments.values().stream()
-				.map(s -> Arrays.stream(s.getTemperatureDifferences()).min())
-				.filter(OptionalDouble::isPresent)
-				.mapToDouble(OptionalDouble::getAsDouble).min();
+		double min = store.getMinTemperatureDifference();
+		return Double.isNaN(min) ? OptionalDouble.empty()
+				: OptionalDouble.of(min);
 	}
 
 }
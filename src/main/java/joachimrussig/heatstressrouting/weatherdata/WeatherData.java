@@ -2,10 +2,12 @@ package joachimrussig.heatstressrouting.weatherdata;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.time.temporal.ChronoUnit;
+import java.time.ZoneOffset;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.OptionalDouble;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
@@ -18,14 +20,55 @@ import joachimrussig.heatstressrouting.util.TimeRange;
 /**
  * The {@code WeatherData} class represents the weather data in a certain time
  * range.
+ * <p>
+ * The hourly values are copied into dense arrays of the temperature, the
+ * relative humidity and the heat index indexed by the hours since the first
+ * record, when the weather data is created. A value at an arbitrary point in
+ * time is linearly interpolated between the two adjacent hours, addressed by
+ * the offset in seconds since the first record (see
+ * {@link #getSecondOffset(LocalDateTime)}), so a query neither has to search
+ * the records nor convert the time to an instant. The offsets are computed on
+ * the local time line of the records; hours without a record are linearly
+ * interpolated between the adjacent records.
+ * <p>
+ * Weather data is not modified once created. Newer records are added with
+ * {@link #append(Collection)}, which returns a new version sharing the
+ * history with this one, so it can be published by replacing the reference,
+ * while queries on the old version continue unaffected. Therefore the records
+ * and the hourly values are stored in chunks of {@value #CHUNK_SIZE}
+ * entries; a new version only copies the references to the chunks and the
+ * last chunk, so appending takes time proportional to the new records, not
+ * to the history. The sorted map of the records (see
+ * {@link #getWeatherRecords()}) is only created on demand.
  * 
  * @author Joachim Rußig
  */
 public class WeatherData {
 
-	private final TreeMap<LocalDateTime, WeatherRecord> weatherRecords;
+	private static final int SECONDS_PER_HOUR = 3600;
+
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// the records in ascending order of time
+	private WeatherRecord[][] records;
+	private int size;
+	private LocalDateTime firstTime;
+	private LocalDateTime lastTime;
+	// the records as sorted map, created on demand
+	private volatile TreeMap<LocalDateTime, WeatherRecord> weatherRecords;
 	private ZoneId zoneId;
 
+	// the first record as seconds of the local time line and the values of
+	// each hour since then
+	private long firstSecond;
+	private long lastOffset;
+	private int hours;
+	private double[][] temperatures;
+	private double[][] relativeHumidities;
+	private double[][] heatIndices;
+
 	/**
 	 * Creates a new instance of the {@code WeatherData} class.
 	 * <p>
@@ -40,6 +83,15 @@ public class WeatherData {
 			ZoneId zoneId) {
 		this.weatherRecords = weatherRecords;
 		this.zoneId = zoneId;
+		this.records = new WeatherRecord[0][];
+		this.temperatures = new double[0][];
+		this.relativeHumidities = new double[0][];
+		this.heatIndices = new double[0][];
+		if (!weatherRecords.isEmpty()) {
+			this.firstTime = weatherRecords.firstKey();
+			this.firstSecond = toSecond(firstTime);
+			add(weatherRecords.values(), -1);
+		}
 	}
 
 	/**
@@ -52,11 +104,14 @@ public class WeatherData {
 	 */
 	public WeatherData(Collection<WeatherRecord> weatherRecords,
 			ZoneId zoneId) {
-		this.weatherRecords = weatherRecords.stream()
-				.map(r -> Pair.of(r.getTime(), r))
+		this(toMap(weatherRecords), zoneId);
+	}
+
+	private static TreeMap<LocalDateTime, WeatherRecord> toMap(
+			Collection<WeatherRecord> weatherRecords) {
+		return weatherRecords.stream().map(r -> Pair.of(r.getTime(), r))
 				.collect(Collectors.toMap(Pair::getKey, Pair::getValue,
 						(a, b) -> a, TreeMap::new));
-		this.zoneId = zoneId;
 	}
 
 	/**
@@ -72,6 +127,201 @@ public class WeatherData {
 		this(weatherRecords, ZoneId.systemDefault());
 	}
 
+	/**
+	 * Creates a new version of {@code base} extended by the records
+	 * {@code newer}, that are all after the last record of {@code base}.
+	 */
+	private WeatherData(WeatherData base, Collection<WeatherRecord> newer) {
+		this.zoneId = base.zoneId;
+		this.records = base.records;
+		this.size = base.size;
+		this.firstTime = base.firstTime;
+		this.firstSecond = base.firstSecond;
+		this.hours = base.hours;
+		this.temperatures = base.temperatures;
+		this.relativeHumidities = base.relativeHumidities;
+		this.heatIndices = base.heatIndices;
+		add(newer, base.hours - 1);
+	}
+
+	/**
+	 * Adds {@code newer}, that are all after the current records in
+	 * ascending order of time, and fills the hourly values after the hour
+	 * {@code previous}, whose values are already set (or -1). The records
+	 * are expected at full hours since the first record (like the hourly DWD
+	 * data); a record within an hour is used for the start of the hour.
+	 */
+	private void add(Collection<WeatherRecord> newer, int previous) {
+		this.records = extend(records, size, size + newer.size());
+		for (WeatherRecord record : newer) {
+			records[size >>> CHUNK_BITS][size & CHUNK_MASK] = record;
+			size++;
+			lastTime = record.getTime();
+		}
+
+		this.lastOffset = toSecond(lastTime) - firstSecond;
+		int newHours = (int) (lastOffset / SECONDS_PER_HOUR) + 1;
+		this.temperatures = extend(temperatures, hours, newHours);
+		this.relativeHumidities = extend(relativeHumidities, hours, newHours);
+		this.heatIndices = extend(heatIndices, hours, newHours);
+		this.hours = newHours;
+		fillHourlyValues(newer, previous);
+	}
+
+	/**
+	 * Returns chunks for {@code size} entries sharing the chunks of the
+	 * first {@code oldSize} entries with {@code chunks}, except the chunk of
+	 * the last entry, which is copied, since it may be modified.
+	 */
+	private static double[][] extend(double[][] chunks, int oldSize,
+			int size) {
+		double[][] result = Arrays.copyOf(chunks,
+				(size + CHUNK_MASK) >>> CHUNK_BITS);
+		int last = Math.max(oldSize - 1, 0) >>> CHUNK_BITS;
+		for (int c = last; c < result.length; c++)
+			result[c] = c < chunks.length
+					? Arrays.copyOf(chunks[c], CHUNK_SIZE)
+					: new double[CHUNK_SIZE];
+		return result;
+	}
+
+	private static WeatherRecord[][] extend(WeatherRecord[][] chunks,
+			int oldSize, int size) {
+		WeatherRecord[][] result = Arrays.copyOf(chunks,
+				(size + CHUNK_MASK) >>> CHUNK_BITS);
+		int last = Math.max(oldSize - 1, 0) >>> CHUNK_BITS;
+		for (int c = last; c < result.length; c++)
+			result[c] = c < chunks.length
+					? Arrays.copyOf(chunks[c], CHUNK_SIZE)
+					: new WeatherRecord[CHUNK_SIZE];
+		return result;
+	}
+
+	private static double get(double[][] chunks, int index) {
+		return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	private static void set(double[][] chunks, int index, double value) {
+		chunks[index >>> CHUNK_BITS][index & CHUNK_MASK] = value;
+	}
+
+	/**
+	 * Fills the hourly values after the hour {@code previous}, whose values
+	 * are already set (or -1), with the values of {@code records} in
+	 * ascending order of time.
+	 */
+	private void fillHourlyValues(Collection<WeatherRecord> records,
+			int previous) {
+		// the hour previous is updated as well, if a record is within it
+		int from = Math.max(previous, 0);
+		for (WeatherRecord record : records) {
+			int hour = (int) ((toSecond(record.getTime()) - firstSecond)
+					/ SECONDS_PER_HOUR);
+			set(temperatures, hour, record.getTemperature());
+			set(relativeHumidities, hour, record.getRelativeHumidity());
+			// interpolate the hours without a record
+			for (int h = previous + 1; h < hour; h++) {
+				double fraction = (double) (h - previous) / (hour - previous);
+				set(temperatures, h, get(temperatures, previous)
+						+ fraction * (get(temperatures, hour)
+								- get(temperatures, previous)));
+				set(relativeHumidities, h, get(relativeHumidities, previous)
+						+ fraction * (get(relativeHumidities, hour)
+								- get(relativeHumidities, previous)));
+			}
+			previous = hour;
+		}
+
+		for (int h = from; h < hours; h++) {
+			double temp = get(temperatures, h);
+			double rh = get(relativeHumidities, h);
+			set(heatIndices, h,
+					HeatIndex.isValidTemperature(temp)
+							&& HeatIndex.isValidHumidity(rh)
+									? HeatIndex.heatIndex(temp, rh)
+									: Double.NaN);
+		}
+	}
+
+	/**
+	 * Returns a new version of this weather data extended by the records in
+	 * {@code records}, that are after the last record of this weather data;
+	 * all other records are ignored, i.e. the past is never changed. This
+	 * weather data is not modified.
+	 * 
+	 * @param records
+	 *            the records to append
+	 * @return the extended weather data, or {@code this}, if there is no
+	 *         newer record
+	 */
+	public WeatherData append(Collection<WeatherRecord> records) {
+		if (size == 0)
+			return new WeatherData(records, zoneId);
+
+		TreeMap<LocalDateTime, WeatherRecord> newer = new TreeMap<>();
+		for (WeatherRecord record : records)
+			if (record.getTime().isAfter(lastTime))
+				newer.put(record.getTime(), record);
+		if (newer.isEmpty())
+			return this;
+		return new WeatherData(this, newer.values());
+	}
+
+	/**
+	 * Checks if this weather data extends {@code other}, i.e. it starts at the
+	 * same time and has the same values in the whole time range of
+	 * {@code other}, so all values computed for a point in time within the
+	 * time range of {@code other} are still valid.
+	 * 
+	 * @param other
+	 *            the weather data to compare with
+	 * @return true, if this weather data extends {@code other}
+	 */
+	public boolean isExtensionOf(WeatherData other) {
+		if (other == this)
+			return true;
+		if (other.size == 0)
+			return true;
+		if (size == 0 || firstSecond != other.firstSecond
+				|| lastOffset < other.lastOffset)
+			return false;
+		for (int c = 0; c < other.temperatures.length; c++) {
+			// shared chunks are equal
+			if (temperatures[c] == other.temperatures[c]
+					&& relativeHumidities[c] == other.relativeHumidities[c])
+				continue;
+			int n = Math.min(CHUNK_SIZE, other.hours - (c << CHUNK_BITS));
+			for (int i = 0; i < n; i++) {
+				if (Double.compare(temperatures[c][i],
+						other.temperatures[c][i]) != 0
+						|| Double.compare(relativeHumidities[c][i],
+								other.relativeHumidities[c][i]) != 0)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	// the seconds of the local time line, regardless of the time zone
+	private static long toSecond(LocalDateTime time) {
+		return time.toEpochSecond(ZoneOffset.UTC);
+	}
+
+	/**
+	 * Returns the offset of {@code time} to the first record in seconds, that
+	 * can be passed to the offset based queries, e.g.
+	 * {@link #getTemperature(long)}, to query several values at the same time
+	 * without converting the time again. The fraction of a second of
+	 * {@code time} is ignored.
+	 * 
+	 * @param time
+	 *            the point in time
+	 * @return the offset of {@code time} to the first record in seconds
+	 */
+	public long getSecondOffset(LocalDateTime time) {
+		return toSecond(time) - firstSecond;
+	}
+
 	/**
 	 * Returns the temperature at {@code time}, if it is present in
 	 * {@code weatherRecords}, or a linear interpolation between the previous
@@ -86,7 +336,26 @@ public class WeatherData {
 	 *             weather records
 	 */
 	public double getTemperature(LocalDateTime time) {
-		return interpolate(time, WeatherRecord.ValueType.TEMPERATURE);
+		checkTimeRange(time);
+		return interpolate(temperatures, getSecondOffset(time));
+	}
+
+	/**
+	 * Returns the temperature at the offset {@code secondOffset} (see
+	 * {@link #getSecondOffset(LocalDateTime)}), interpolated linearly between
+	 * the adjacent hours.
+	 * 
+	 * @param secondOffset
+	 *            the offset to the first record in seconds
+	 * @return the temperature (in °C)
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code secondOffset} is not within the closed time
+	 *             range of the stored weather records
+	 */
+	public double getTemperature(long secondOffset) {
+		checkTimeRange(secondOffset);
+		return interpolate(temperatures, secondOffset);
 	}
 
 	/**
@@ -103,7 +372,26 @@ public class WeatherData {
 	 *             weather records
 	 */
 	public double getRelativeHumidity(LocalDateTime time) {
-		return interpolate(time, WeatherRecord.ValueType.RELATIVE_HUMIDITY);
+		checkTimeRange(time);
+		return interpolate(relativeHumidities, getSecondOffset(time));
+	}
+
+	/**
+	 * Returns the relative humidity at the offset {@code secondOffset} (see
+	 * {@link #getSecondOffset(LocalDateTime)}), interpolated linearly between
+	 * the adjacent hours.
+	 * 
+	 * @param secondOffset
+	 *            the offset to the first record in seconds
+	 * @return the relative humidity (in %)
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code secondOffset} is not within the closed time
+	 *             range of the stored weather records
+	 */
+	public double getRelativeHumidity(long secondOffset) {
+		checkTimeRange(secondOffset);
+		return interpolate(relativeHumidities, secondOffset);
 	}
 
 	/**
@@ -122,9 +410,10 @@ public class WeatherData {
 	 *             weather records
 	 */
 	public WeatherRecord getWeatherRecord(LocalDateTime time) {
-		double temp = getTemperature(time);
-		double rh = getRelativeHumidity(time);
-		return new WeatherRecord(time, temp, rh);
+		checkTimeRange(time);
+		long offset = getSecondOffset(time);
+		return new WeatherRecord(time, interpolate(temperatures, offset),
+				interpolate(relativeHumidities, offset));
 	}
 
 	/**
@@ -143,90 +432,81 @@ public class WeatherData {
 	 *             weather records
 	 */
 	public OptionalDouble getHeatIndex(LocalDateTime time) {
-		if (!inTimeRange(time)) {
-			throw new IllegalArgumentException("time " + time
-					+ " is not within timeRange (" + weatherRecords.firstKey()
-					+ " - " + weatherRecords.lastKey() + ")");
-		}
-
-		double temp = getTemperature(time);
-		double rh = getRelativeHumidity(time);
-		if (HeatIndex.isValidTemperature(temp) && HeatIndex.isValidHumidity(rh))
-			return OptionalDouble.of(HeatIndex.heatIndex(temp, rh));
-		else
-			return OptionalDouble.empty();
+		checkTimeRange(time);
+		return heatIndex(getSecondOffset(time));
 	}
 
 	/**
-	 * Returns the value of type {@code type} at time {@code time} if it is
-	 * present, or a linear interpolation between the previous and next value.
+	 * Returns an approximation of Steadman's heat index at the offset
+	 * {@code secondOffset} (see {@link #getSecondOffset(LocalDateTime)}), or
+	 * {@code OptionalDouble.empty()} if either temperature is not between 20°C
+	 * and 50°C or relative humidity is not between 0 and 100.
 	 * 
-	 * @param time
-	 *            point in time the value is requested for
-	 * @param type
-	 *            type of the requested value
-	 * @return the value of type {@code type} at time {@code time} if it is
-	 *         present, or a linear interpolation between the previous and next
-	 *         value.
+	 * @param secondOffset
+	 *            the offset to the first record in seconds
+	 * @return approximation of Steadman's heat index at {@code secondOffset},
+	 *         or {@code OptionalDouble.empty()} if either temperature or
+	 *         relative humidity is not valid
 	 * 
 	 * @throws IllegalArgumentException
-	 *             if {@code time} is not within time range of the stored
-	 *             weather records
-	 * @throws IllegalArgumentException
-	 *             if the {@code WeatherRecord.ValueType} passed is not
-	 *             supported
+	 *             if {@code secondOffset} is not within the closed time
+	 *             range of the stored weather records
 	 */
-	private double interpolate(LocalDateTime time,
-			WeatherRecord.ValueType type) {
-		if (!inTimeRange(time)) {
-			throw new IllegalArgumentException("time " + time
-					+ " is not within timeRange (" + weatherRecords.firstKey()
-					+ " - " + weatherRecords.lastKey() + ")");
+	public OptionalDouble getHeatIndex(long secondOffset) {
+		checkTimeRange(secondOffset);
+		return heatIndex(secondOffset);
+	}
+
+	private OptionalDouble heatIndex(long secondOffset) {
+		double hi;
+		if (secondOffset % SECONDS_PER_HOUR == 0) {
+			// the heat index of a full hour is precomputed
+			hi = get(heatIndices, (int) (secondOffset / SECONDS_PER_HOUR));
+		} else {
+			double temp = interpolate(temperatures, secondOffset);
+			double rh = interpolate(relativeHumidities, secondOffset);
+			hi = HeatIndex.isValidTemperature(temp)
+					&& HeatIndex.isValidHumidity(rh)
+							? HeatIndex.heatIndex(temp, rh) : Double.NaN;
 		}
+		return Double.isNaN(hi) ? OptionalDouble.empty()
+				: OptionalDouble.of(hi);
+	}
+
+	/**
+	 * Returns the value at the offset {@code secondOffset}, linearly
+	 * interpolated between the values of the adjacent hours.
+	 * 
+	 * @param values
+	 *            the chunks of the hourly values
+	 * @param secondOffset
+	 *            the offset to the first record in seconds within the time
+	 *            range
+	 * @return the interpolated value
+	 */
+	private double interpolate(double[][] values, long secondOffset) {
+		int hour = (int) (secondOffset / SECONDS_PER_HOUR);
+		int second = (int) (secondOffset - (long) hour * SECONDS_PER_HOUR);
+		// the upper hour exists, as the offset is before the last record
+		int upper = Math.min(hour + 1, hours - 1);
+		double value = get(values, hour);
+		return value + (get(values, upper) - value) * second
+				/ SECONDS_PER_HOUR;
+	}
 
-		if (!type.isTemperature() && !type.isRelativeHumidity()) {
-			throw new IllegalArgumentException(
-					"unsupported weather record type " + type);
+	private void checkTimeRange(LocalDateTime time) {
+		if (!inTimeRange(time)) {
+			throw new IllegalArgumentException("time " + time
+					+ " is not within timeRange (" + firstTime + " - "
+					+ lastTime + ")");
 		}
+	}
 
-		if (weatherRecords.containsKey(time)) {
-			// a record for the requested time is present, so we just return
-			// that
-			return weatherRecords.get(time).getValue(time, type);
-		} else {
-			// we've got to interpolate the value
-			double timeDouble = time.atZone(ZoneId.systemDefault()).toInstant()
-					.toEpochMilli();
-
-			// point in time of the previous respectively next weather record
-			LocalDateTime lower = time.truncatedTo(ChronoUnit.HOURS);
-			LocalDateTime upper = lower.plusHours(1);
-
-			// LinearInterpolator can only deal with x values of type double so
-			// we have to convert them
-			double lowerDouble = (double) lower.atZone(zoneId).toInstant()
-					.toEpochMilli();
-			double upperDouble = (double) upper.atZone(zoneId).toInstant()
-					.toEpochMilli();
-
-			// the x and y coordinates of two points used for interpolation
-			double[] x = new double[] { lowerDouble, upperDouble };
-			double[] y = new double[] {
-					weatherRecords.get(lower).getValue(time, type),
-					weatherRecords.get(upper).getValue(time, type) };
-
-			// TODO remove
-			// PolynomialSplineFunction poly = new LinearInterpolator()
-			// .interpolate(x, y);
-			//
-			// Function<Double, Double> fun = linearEquation(x, y);
-			//
-			// double ret = poly.value(timeDouble);
-
-			double ret = ((y[1] - y[0]) / (x[1] - x[0])) * (timeDouble - x[0])
-					+ y[0];
-
-			return ret;
+	private void checkTimeRange(long secondOffset) {
+		if (size == 0 || secondOffset < 0
+				|| secondOffset > lastOffset) {
+			throw new IllegalArgumentException("offset " + secondOffset
+					+ " s is not within timeRange [0 - " + lastOffset + " s]");
 		}
 	}
 
@@ -241,9 +521,8 @@ public class WeatherData {
 	 *         {@code weatherRecords.lastKey()})
 	 */
 	public boolean inTimeRange(LocalDateTime time) {
-		return time != null && !this.weatherRecords.isEmpty()
-				&& time.isAfter(this.weatherRecords.firstKey())
-				&& time.isBefore(this.weatherRecords.lastKey());
+		return time != null && size > 0 && time.isAfter(firstTime)
+				&& time.isBefore(lastTime);
 	}
 
 	/**
@@ -251,17 +530,29 @@ public class WeatherData {
 	 * @return a map of time and temperature stored within this class
 	 */
 	public Map<LocalDateTime, Double> getTemperatureDistribution() {
-		return weatherRecords.entrySet().stream()
+		return getWeatherRecords().entrySet().stream()
 				.map(e -> Pair.of(e.getKey(), e.getValue().getTemperature()))
 				.collect(Collectors.toMap(Pair::getLeft, Pair::getRight));
 	}
 
 	/**
+	 * Returns the contained weather records as sorted map, which is created
+	 * on the first call and must not be modified.
 	 * 
-	 * @return the map used to internally store the contained weather data
+	 * @return the map of the contained weather records
 	 */
 	public TreeMap<LocalDateTime, WeatherRecord> getWeatherRecords() {
-		return weatherRecords;
+		TreeMap<LocalDateTime, WeatherRecord> map = weatherRecords;
+		if (map == null) {
+			map = new TreeMap<>();
+			for (int i = 0; i < size; i++) {
+				WeatherRecord record = records[i >>> CHUNK_BITS][i
+						& CHUNK_MASK];
+				map.put(record.getTime(), record);
+			}
+			this.weatherRecords = map;
+		}
+		return map;
 	}
 
 	/**
@@ -277,7 +568,7 @@ public class WeatherData {
 	 */
 	public NavigableMap<LocalDateTime, WeatherRecord> getWeatherRecords(
 			LocalDateTime from, LocalDateTime to) {
-		return weatherRecords.subMap(from, true, to, true);
+		return getWeatherRecords().subMap(from, true, to, true);
 	}
 
 	/**
@@ -287,8 +578,9 @@ public class WeatherData {
 	 *         {@code weatherRecords.lastKey()}
 	 */
 	public TimeRange<LocalDateTime> getTimeRange() {
-		return new TimeRange<>(weatherRecords.firstKey(),
-				weatherRecords.lastKey());
+		if (size == 0)
+			throw new NoSuchElementException();
+		return new TimeRange<>(firstTime, lastTime);
 	}
 
 	/**
@@ -7,6 +7,8 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.apache.commons.csv.CSVFormat;
@@ -95,6 +97,30 @@ public class WeatherDataParser {
 		return new WeatherData(parseCsvFile(file), zoneId);
 	}
 
+	/**
+	 * Parses only the records after {@code after} of the csv file
+	 * {@code file}, e.g. to append them to already loaded weather data (see
+	 * {@link WeatherData#append(java.util.Collection)}). The values of older
+	 * records are not parsed.
+	 * 
+	 * @param file
+	 *            the csv file to parse
+	 * @param after
+	 *            the point in time the records must be after
+	 * @return the records after {@code after} in ascending order of time
+	 * 
+	 * @throws IOException
+	 *             if an error occurred while reading {@code file}
+	 * @throws NumberFormatException
+	 *             if a number cannot be parsed
+	 * @throws DateTimeParseException
+	 *             if a date cannot be parsed
+	 */
+	public List<WeatherRecord> parseAfter(File file, LocalDateTime after)
+			throws IOException {
+		return new ArrayList<>(parseCsvFile(file, after).values());
+	}
+
 	/**
 	 * Helper method to parse the file csv file provided as {@code file}. The
 	 * returned {@code TreeMap} can be passed to the {@code WeatherData}
@@ -113,8 +139,27 @@ public class WeatherDataParser {
 	 */
 	private static TreeMap<LocalDateTime, WeatherRecord> parseCsvFile(File file)
 			throws IOException {
+		return parseCsvFile(file, null);
+	}
+
+	/**
+	 * Helper method to parse the records after {@code after} of the csv file
+	 * provided as {@code file}.
+	 * 
+	 * @param file
+	 *            the file to parse
+	 * @param after
+	 *            the point in time the records must be after, or {@code null}
+	 *            to parse all records
+	 * @return a {@code TreeMap} representation of the parsed records
+	 */
+	private static TreeMap<LocalDateTime, WeatherRecord> parseCsvFile(File file,
+			LocalDateTime after) throws IOException {
+
+		logger.info("Parsing " + file.getAbsolutePath()
+				+ (after != null ? " after " + after : "") + "...");
 
-		logger.info("Parsing " + file.getAbsolutePath() + "...");
+		DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern(DATE_FORMAT);
 
 		CSVFormat csvFormat = CSVFormat.DEFAULT.withDelimiter(DELIMITER)
 				.withHeader().withIgnoreSurroundingSpaces(true);
@@ -125,6 +170,7 @@ public class WeatherDataParser {
 		TreeMap<LocalDateTime, WeatherRecord> ret = new TreeMap<>();
 
 		int noRecords = 0;
+		int noOlderRecords = 0;
 		for (CSVRecord csvRecord : csvParser) {
 			noRecords++;
 			// Skip the record if it does not contain the required columns.
@@ -132,11 +178,15 @@ public class WeatherDataParser {
 					&& csvRecord.isSet(RELATIVE_HUMIDITY_COL)) {
 
 				String dateStr = csvRecord.get(DATE_COL);
+				LocalDateTime time = LocalDateTime.parse(dateStr, dateFormat);
+				if (after != null && !time.isAfter(after)) {
+					noOlderRecords++;
+					continue;
+				}
+
 				String tempStr = csvRecord.get(TEMPERATURE_COL);
 				String humidityStr = csvRecord.get(RELATIVE_HUMIDITY_COL);
 
-				LocalDateTime time = LocalDateTime.parse(dateStr,
-						DateTimeFormatter.ofPattern(DATE_FORMAT));
 				double temp = Double.parseDouble(tempStr);
 				double humidity = Double.parseDouble(humidityStr);
 
@@ -146,12 +196,15 @@ public class WeatherDataParser {
 				logger.debug("skipped record: " + csvRecord);
 			}
 		}
-		if (noRecords != ret.size()) {
-			logger.warn((noRecords - ret.size())
+		if (noRecords - noOlderRecords != ret.size()) {
+			logger.warn((noRecords - noOlderRecords - ret.size())
 					+ " record(s) skipped while parsing");
 		}
-		logger.info("done (time range: " + ret.firstKey() + " - "
-				+ ret.lastKey() + ")");
+		if (ret.isEmpty())
+			logger.info("done (no records)");
+		else
+			logger.info("done (time range: " + ret.firstKey() + " - "
+					+ ret.lastKey() + ")");
 		return ret;
 	}
 
@@ -9,6 +9,8 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -51,6 +53,62 @@ public class WeatherDataUpdater {
 			URL zipFileUrl, boolean updateFile, boolean backupOldFile)
 			throws IOException {
 
+		Optional<File> weatherDataNew = downloadAndUpdateFile(weatherDataFile,
+				zipFileUrl, updateFile, backupOldFile);
+		if (weatherDataNew.isPresent())
+			return Optional
+					.of(new WeatherDataParser().parse(weatherDataNew.get()));
+		return Optional.empty();
+	}
+
+	/**
+	 * Downloads and (optionally) updates the existing weather data file, and
+	 * appends the downloaded records newer than the last record of
+	 * {@code weatherData} to it (see {@link WeatherData#append(Collection)}).
+	 * Only the newer records are parsed; the history is shared with
+	 * {@code weatherData}, which is not modified.
+	 * 
+	 * @param weatherData
+	 *            the current weather data
+	 * @param weatherDataFile
+	 *            the weather data file to be updated
+	 * @param zipFileUrl
+	 *            URL from which were the new data should be downloaded form
+	 * @param updateFile
+	 *            should the existing file be updated?
+	 * @param backupOldFile
+	 *            should the existing file be backed up?
+	 * @return the extended weather data, or {@code weatherData} itself if
+	 *         there are no newer records, or {@code Optional.empty()} if
+	 *         nothing could be downloaded
+	 * @throws IOException
+	 */
+	public static Optional<WeatherData> updateWeatherData(
+			WeatherData weatherData, File weatherDataFile, URL zipFileUrl,
+			boolean updateFile, boolean backupOldFile) throws IOException {
+
+		Optional<File> weatherDataNew = downloadAndUpdateFile(weatherDataFile,
+				zipFileUrl, updateFile, backupOldFile);
+		if (!weatherDataNew.isPresent())
+			return Optional.empty();
+
+		List<WeatherRecord> newer = new WeatherDataParser().parseAfter(
+				weatherDataNew.get(), weatherData.getTimeRange().getTo());
+		logger.debug(newer.size() + " new records");
+		return Optional.of(weatherData.append(newer));
+	}
+
+	/**
+	 * Downloads the latest weather data file and (optionally) replaces the
+	 * existing file by it.
+	 * 
+	 * @return the downloaded file, or {@code Optional.empty()} if nothing
+	 *         could be downloaded
+	 */
+	private static Optional<File> downloadAndUpdateFile(File weatherDataFile,
+			URL zipFileUrl, boolean updateFile, boolean backupOldFile)
+			throws IOException {
+
 		Optional<File> weatherDataNew = downloadWeatherDataFile(zipFileUrl);
 		logger.debug("weatherDataNew = " + weatherDataNew);
 
@@ -72,13 +130,9 @@ public class WeatherDataUpdater {
 				Files.copy(weatherDataNew.get(), weatherDataFile);
 				logger.debug("done");
 			}
-
-			return Optional
-					.of(new WeatherDataParser().parse(weatherDataNew.get()));
-
 		}
 
-		return Optional.empty();
+		return weatherDataNew;
 	}
 
 	/**
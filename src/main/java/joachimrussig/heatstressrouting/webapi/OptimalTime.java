@@ -4,7 +4,6 @@ import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -21,7 +20,6 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.apache.commons.lang3.time.StopWatch;
-import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +29,8 @@ import joachimrussig.heatstressrouting.optimaltime.nearbysearch.NearbySearchHelp
 import joachimrussig.heatstressrouting.optimaltime.nearbysearch.NearbySearchRequest;
 import joachimrussig.heatstressrouting.optimaltime.nearbysearch.NearbySearchResponse;
 import joachimrussig.heatstressrouting.osmdata.EntityFilter;
+import joachimrussig.heatstressrouting.osmdata.NodeSet;
+import joachimrussig.heatstressrouting.osmdata.TagIndex;
 import joachimrussig.heatstressrouting.util.TimeRange;
 import joachimrussig.heatstressrouting.webapi.util.JsonCollectors;
 import joachimrussig.heatstressrouting.webapi.util.JsonResponseBuilder;
@@ -139,13 +139,14 @@ public class OptimalTime {
 					.addStringMessages(badRequestMessages).build();
 		}
 
-		Predicate<Entity> nodeFilter = EntityFilter
-				.containsAnyTagString(tagList)
-				.and(EntityFilter::hasOpeningHours);
+		TagIndex tagIndex = nearbySearchHelper.getRoutingHelper().getHopper()
+				.getOsmData().getTagIndex();
+		NodeSet places = tagIndex.getPlaces(tagList)
+				.and(tagIndex.getOpeningHours());
 
 		NearbySearchRequest nearbySearchRequest = nearbySearchHelper
 				.createNearbySearchRequestBuilder(startPoint, now)
-				.setPredicate(nodeFilter).setMaxResults(maxResults)
+				.setPlaces(places).setMaxResults(maxResults)
 				.setMaxDistance(maxDistance).setTimeBuffer(timeBuffer)
 				.setEarliestTime(earliestTime).setLatestTime(latestTime)
 				.build();
@@ -23,6 +23,13 @@ import joachimrussig.heatstressrouting.routing.RoutingHelper;
  */
 public class ResourceBinder extends AbstractBinder {
 
+	/**
+	 * The system property specifying the directory the graph and the snapshot
+	 * of the OSM data are stored in (see
+	 * {@link RoutingHelper#createHopper(File, File, File, File)}).
+	 */
+	public static final String CACHE_DIR_PROPERTY = "heatstressrouting.cacheDir";
+
 	private Logger logger = LoggerFactory.getLogger(ResourceBinder.class);
 	
 	private RoutingHelper routingHelper = null;
@@ -46,8 +53,11 @@ public class ResourceBinder extends AbstractBinder {
 					.get(dataDir, HeatStressRouting.WAY_SEGMENTS_FILE_NAME)
 					.toFile();
 
+			File cacheDir = getCacheDir();
+			logger.info("cache directory: " + cacheDir);
+
 			HeatStressGraphHopper hopper = RoutingHelper.createHopper(osmFile,
-					weatherDataFile, waySegmentsFile);
+					weatherDataFile, waySegmentsFile, cacheDir);
 
 			RoutingHelper routingHelper = new RoutingHelper(hopper);
 			this.routingHelper = routingHelper;
@@ -78,6 +88,23 @@ public class ResourceBinder extends AbstractBinder {
 		return dataDir;
 	}
 
+	/**
+	 * Returns the directory the graph and the snapshot of the OSM data are
+	 * stored in. The data directory is replaced when the war file is
+	 * deployed again, so by default a directory in the temporary directory
+	 * of the JVM (i.e. of the servlet container) is used, that can be
+	 * changed with the system property {@value #CACHE_DIR_PROPERTY}.
+	 * 
+	 * @return the cache directory
+	 */
+	public static File getCacheDir() {
+		String cacheDir = System.getProperty(CACHE_DIR_PROPERTY);
+		if (cacheDir != null && !cacheDir.isEmpty())
+			return new File(cacheDir);
+		return new File(System.getProperty("java.io.tmpdir"),
+				"heatstressrouting");
+	}
+
 	public RoutingHelper getRoutingHelper() {
 		return routingHelper;
 	}
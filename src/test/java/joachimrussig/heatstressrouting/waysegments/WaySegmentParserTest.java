@@ -0,0 +1,111 @@
+package joachimrussig.heatstressrouting.waysegments;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that the {@link MappedWaySegmentParser} parses the same segments as
+ * the commons-csv based {@link WaySegmentParser#parseCSV(File)}.
+ */
+public class WaySegmentParserTest extends TestCase {
+
+	private static final String HEADER = "way_id|from.osm.id|to.osm.id|dist"
+			+ "|delta_temp|time_range";
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public WaySegmentParserTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(WaySegmentParserTest.class);
+	}
+
+	/**
+	 * Both parsers must produce the same store for the supported dialect.
+	 */
+	public void testSameChecksum() throws IOException {
+		File file = write(HEADER,
+				"4045339|25196506|25196510|12.5|-1.25|morgen",
+				"4045339|25196506|25196510|3.75|0.5|morgen",
+				"4045339|25196506|25196510|7|1.5e-1|abend",
+				"\"4045339\"|\"25196510\"|\"25196514\"|0.1|-2|\"morgen\"",
+				"4045340|25196520|25196521|1.0|2.0|14:00",
+				"4045340|25196520|25196521|2.0|3.0|14:00",
+				"4045340|25196520|25196521|4.25|-0.75|14:00-15:30",
+				"4045341|25196530|25196531|123456.789|0.0001|15:30-18:00");
+
+		WaySegmentIndex expected = new WaySegmentParser().parseCSV(file)
+				.getStore();
+		WaySegmentIndex actual = new MappedWaySegmentParser().parse(file)
+				.getStore();
+
+		assertEquals(6, expected.size());
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.keys(), actual.keys());
+		assertEquals(expected.values(), actual.values());
+		assertEquals(expected.checksum(), actual.checksum());
+	}
+
+	/**
+	 * The mapped parser must reject quoted delimiters instead of splitting
+	 * the field.
+	 */
+	public void testQuotedDelimiterIsRejected() throws IOException {
+		assertUnsupported(write(HEADER + "|comment",
+				"4045339|25196506|25196510|12.5|-1.25|morgen|\"a|b\""));
+	}
+
+	/**
+	 * The mapped parser must reject escaped quotes.
+	 */
+	public void testEscapedQuoteIsRejected() throws IOException {
+		assertUnsupported(write(HEADER + "|comment",
+				"4045339|25196506|25196510|12.5|-1.25|morgen|\"a\"\"b\""));
+	}
+
+	/**
+	 * The mapped parser must reject quoted line breaks.
+	 */
+	public void testQuotedLineBreakIsRejected() throws IOException {
+		assertUnsupported(write(HEADER + "|comment",
+				"4045339|25196506|25196510|12.5|-1.25|morgen|\"a",
+				"b\""));
+	}
+
+	private static void assertUnsupported(File file) throws IOException {
+		// commons-csv parses the file ...
+		assertEquals(1, new WaySegmentParser().parseCSV(file).size());
+		// ... but the mapped parser fails fast
+		try {
+			new MappedWaySegmentParser().parse(file);
+			fail("expected a WaySegmentParserException");
+		} catch (WaySegmentParserException e) {
+			assertTrue(e.getMessage().contains("unsupported quote"));
+		}
+	}
+
+	private static File write(String... lines) throws IOException {
+		File file = File.createTempFile("way-segments", ".csv");
+		file.deleteOnExit();
+		Files.write(file.toPath(), Arrays.asList(lines),
+				StandardCharsets.UTF_8);
+		return file;
+	}
+
+}